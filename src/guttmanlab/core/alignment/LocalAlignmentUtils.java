@@ -12,10 +12,17 @@ public class LocalAlignmentUtils {
 	 */
 	public static boolean containsFullLengthUngappedMatchAtPosition(String seq1, String seq2, int seq1start, int maxMismatches, boolean ignoreCase) {
 		int s2len = seq2.length();
-		if(seq1.length() - seq1start > s2len) {
+		if(seq1start < 0 || seq1.length() - seq1start < s2len) {
 			throw new IllegalArgumentException("Seq1 not long enough");
 		}
-		return hammingDist(seq1.substring(seq1start, s2len), seq2, ignoreCase) <= maxMismatches;
+		// Compare in place and stop at the first mismatch over the limit
+		int mismatches = 0;
+		for(int i = 0; i < s2len; i++) {
+			if(!same(seq1.charAt(seq1start + i), seq2.charAt(i), ignoreCase) && ++mismatches > maxMismatches) {
+				return false;
+			}
+		}
+		return true;
 	}
 
 	/**
@@ -29,13 +36,15 @@ public class LocalAlignmentUtils {
 		if(seq1.length() != seq2.length()) {
 			throw new IllegalArgumentException("Sequences must have same length");
 		}
-		char[] s1 = ignoreCase ? seq1.toUpperCase().toCharArray() : seq1.toCharArray();
-		char[] s2 = ignoreCase ? seq2.toUpperCase().toCharArray() : seq2.toCharArray();
 		int rtrn = 0;
-		for(int i = 0; i < s1.length; i++) {
-			if(s1[i] != s2[i]) rtrn++;
+		for(int i = 0; i < seq1.length(); i++) {
+			if(!same(seq1.charAt(i), seq2.charAt(i), ignoreCase)) rtrn++;
 		}
 		return rtrn;
 	}
+	
+	private static boolean same(char c1, char c2, boolean ignoreCase) {
+		return c1 == c2 || (ignoreCase && Character.toUpperCase(c1) == Character.toUpperCase(c2));
+	}
 
 }
@@ -0,0 +1,326 @@
+package guttmanlab.core.alignment;
+
+import guttmanlab.core.sequence.PackedSequence;
+
+/**
+ * Approximate matching of a short nucleotide pattern, e.g. an adapter or barcode, against longer sequences
+ * without allocating per call.
+ *
+ * The pattern is packed at two bits per base into two longs. Ungapped matches slide a packed window of the text
+ * along by two bits per position, so each offset costs a few XOR and popcount operations instead of a loop over
+ * the pattern. Matches with indels use the bit-parallel edit distance algorithm of Myers (J ACM 46:395-415, 1999),
+ * with one bit of a long per pattern base.
+ *
+ * Bases are compared ignoring case. Characters other than A, C, G and T never match anything, including each other.
+ * Instances are immutable and safe for concurrent use by multiple threads.
+ *
+ */
+public final class PatternMatcher {
+
+	/**
+	 * Maximum pattern length
+	 */
+	public static final int MAX_LENGTH = 64;
+
+	private static final long LOW_BITS = 0x5555555555555555L;
+
+	/**
+	 * Code of each byte, -1 for characters other than A, C, G and T; a table lookup avoids unpredictable
+	 * branches on random bases
+	 */
+	private static final byte[] CODES = new byte[256];
+	static {
+		for(int i = 0; i < CODES.length; i++) {
+			CODES[i] = (byte) PackedSequence.code((char) i);
+		}
+	}
+
+	private final String pattern;
+	private final int length;
+	// Base i of the pattern is in bits 2 * i of low for i < 32, and bits 2 * (i - 32) of high
+	private final long low;
+	private final long high;
+	// Bit i of equal[c] is set if base i of the pattern has code c
+	private final long[] equal = new long[4];
+
+	/**
+	 * @param pattern Pattern of 1 to 64 bases of A, C, G and T
+	 */
+	public PatternMatcher(CharSequence pattern) {
+		this.length = pattern.length();
+		if(length == 0 || length > MAX_LENGTH) {
+			throw new IllegalArgumentException("Pattern length must be between 1 and " + MAX_LENGTH);
+		}
+		long lowBases = 0;
+		long highBases = 0;
+		for(int i = 0; i < length; i++) {
+			int code = PackedSequence.code(pattern.charAt(i));
+			if(code < 0) {
+				throw new IllegalArgumentException("Pattern " + pattern + " contains a base other than A, C, G or T");
+			}
+			if(i < 32) {
+				lowBases |= (long) code << (2 * i);
+			} else {
+				highBases |= (long) code << (2 * (i - 32));
+			}
+			equal[code] |= 1L << i;
+		}
+		this.pattern = pattern.toString();
+		this.low = lowBases;
+		this.high = highBases;
+	}
+
+	private static int code(char c) {
+		return c < CODES.length ? CODES[c] : -1;
+	}
+
+	/**
+	 * @param pattern A sequence
+	 * @return Whether the sequence can be a pattern: 1 to 64 bases of A, C, G and T
+	 */
+	public static boolean isValidPattern(CharSequence pattern) {
+		if(pattern.length() == 0 || pattern.length() > MAX_LENGTH) {
+			return false;
+		}
+		for(int i = 0; i < pattern.length(); i++) {
+			if(PackedSequence.code(pattern.charAt(i)) < 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return The pattern
+	 */
+	public String getPattern() {
+		return pattern;
+	}
+
+	/**
+	 * @return The pattern length
+	 */
+	public int getLength() {
+		return length;
+	}
+
+	/**
+	 * Number of mismatches between the pattern and a prefix of a packed window of text
+	 * @param windowLow Text bases 0 to 31 of the window
+	 * @param windowHigh Text bases 32 to 63 of the window
+	 * @param other Low bit of each base of the window that is not A, C, G or T
+	 * @param otherHigh Same for bases 32 to 63
+	 * @param overlap Number of bases to compare
+	 */
+	private int mismatches(long windowLow, long windowHigh, long other, long otherHigh, int overlap) {
+		long diff = windowLow ^ low;
+		long bits = ((diff | (diff >>> 1)) | other) & LOW_BITS;
+		if(overlap < 32) {
+			bits &= (1L << (2 * overlap)) - 1;
+		}
+		int rtrn = Long.bitCount(bits);
+		if(overlap > 32) {
+			diff = windowHigh ^ high;
+			bits = ((diff | (diff >>> 1)) | otherHigh) & LOW_BITS;
+			if(overlap < 64) {
+				bits &= (1L << (2 * (overlap - 32))) - 1;
+			}
+			rtrn += Long.bitCount(bits);
+		}
+		return rtrn;
+	}
+
+	/**
+	 * Find the leftmost ungapped match of the pattern in a sequence, either in full or as a prefix of at least
+	 * minOverlap bases running off the end of the sequence. Same as
+	 * {@link guttmanlab.core.pipeline.util.AdapterClipper#findAdapter(byte[], int, int, byte[], int, double)}.
+	 * @param text Buffer containing the sequence
+	 * @param start Position in the buffer of the first base
+	 * @param textLength Length of the sequence
+	 * @param minOverlap Minimum length of a partial match at the end
+	 * @param maxMismatchRate Maximum mismatches as a fraction of the match length
+	 * @return Position in the sequence of the leftmost match, or the sequence length if there is none
+	 */
+	public int find(byte[] text, int start, int textLength, int minOverlap, double maxMismatchRate) {
+		int lastOffset = textLength - Math.min(minOverlap, length);
+		long windowLow = 0;
+		long windowHigh = 0;
+		long otherLow = 0;
+		long otherHigh = 0;
+		// The window holds text bases offset to offset + length - 1; load all but the last
+		for(int i = 0; i < length - 1 && i < textLength; i++) {
+			int code = CODES[text[start + i] & 0xff];
+			long bits = code < 0 ? 0 : code;
+			long other = code < 0 ? 1 : 0;
+			if(i < 32) {
+				windowLow |= bits << (2 * i);
+				otherLow |= other << (2 * i);
+			} else {
+				windowHigh |= bits << (2 * (i - 32));
+				otherHigh |= other << (2 * (i - 32));
+			}
+		}
+		int last = length - 1;
+		for(int offset = 0; offset <= lastOffset; offset++) {
+			int position = offset + last;
+			if(position < textLength) {
+				int code = CODES[text[start + position] & 0xff];
+				long bits = code < 0 ? 0 : code;
+				long other = code < 0 ? 1 : 0;
+				if(last < 32) {
+					windowLow |= bits << (2 * last);
+					otherLow |= other << (2 * last);
+				} else {
+					windowHigh |= bits << (2 * (last - 32));
+					otherHigh |= other << (2 * (last - 32));
+				}
+			}
+			int overlap = Math.min(length, textLength - offset);
+			if(mismatches(windowLow, windowHigh, otherLow, otherHigh, overlap) <= (int) (overlap * maxMismatchRate)) {
+				return offset;
+			}
+			windowLow = (windowLow >>> 2) | (windowHigh << 62);
+			windowHigh >>>= 2;
+			otherLow = (otherLow >>> 2) | (otherHigh << 62);
+			otherHigh >>>= 2;
+		}
+		return textLength;
+	}
+
+	/**
+	 * Find the ungapped placement of the whole pattern in a sequence with the fewest mismatches
+	 * @param text The sequence
+	 * @return Position in the sequence of the leftmost best placement, or -1 if the sequence is shorter than the
+	 * pattern
+	 */
+	public int findBestOffset(CharSequence text) {
+		int rtrn = -1;
+		int best = Integer.MAX_VALUE;
+		long windowLow = 0;
+		long windowHigh = 0;
+		long otherLow = 0;
+		long otherHigh = 0;
+		int last = length - 1;
+		for(int i = 0; i < text.length(); i++) {
+			int code = code(text.charAt(i));
+			long bits = code < 0 ? 0 : code;
+			long other = code < 0 ? 1 : 0;
+			// Base i is at position min(i, last) of the window
+			int k = Math.min(i, last);
+			if(k < 32) {
+				windowLow |= bits << (2 * k);
+				otherLow |= other << (2 * k);
+			} else {
+				windowHigh |= bits << (2 * (k - 32));
+				otherHigh |= other << (2 * (k - 32));
+			}
+			if(i < last) {
+				continue;
+			}
+			int mismatches = mismatches(windowLow, windowHigh, otherLow, otherHigh, length);
+			if(mismatches < best) {
+				best = mismatches;
+				rtrn = i - last;
+				if(best == 0) {
+					break;
+				}
+			}
+			windowLow = (windowLow >>> 2) | (windowHigh << 62);
+			windowHigh >>>= 2;
+			otherLow = (otherLow >>> 2) | (otherHigh << 62);
+			otherHigh >>>= 2;
+		}
+		return rtrn;
+	}
+
+	/**
+	 * @param text A sequence
+	 * @param offset Position in the sequence of the first base of the pattern
+	 * @return Number of mismatches between the pattern and the sequence at the offset
+	 */
+	public int mismatches(CharSequence text, int offset) {
+		if(offset < 0 || offset + length > text.length()) {
+			throw new IllegalArgumentException("Pattern at " + offset + " runs off the sequence");
+		}
+		int rtrn = 0;
+		for(int i = 0; i < length; i++) {
+			int code = code(text.charAt(offset + i));
+			int patternCode = (int) ((i < 32 ? low >>> (2 * i) : high >>> (2 * (i - 32))) & 3);
+			if(code != patternCode) {
+				rtrn++;
+			}
+		}
+		return rtrn;
+	}
+
+	/**
+	 * The smallest edit distance between the pattern and any substring of a sequence
+	 * @param text The sequence
+	 * @return The number of substitutions, insertions and deletions of the best match, at most the pattern length
+	 */
+	public int editDistance(CharSequence text) {
+		int rtrn = length;
+		long positive = length == 64 ? -1L : (1L << length) - 1;
+		long negative = 0;
+		int distance = length;
+		long last = 1L << (length - 1);
+		for(int j = 0; j < text.length() && rtrn > 0; j++) {
+			int code = code(text.charAt(j));
+			long eq = code < 0 ? 0 : equal[code];
+			long xv = eq | negative;
+			long xh = (((eq & positive) + positive) ^ positive) | eq;
+			long ph = negative | ~(xh | positive);
+			long mh = positive & xh;
+			if((ph & last) != 0) {
+				distance++;
+			} else if((mh & last) != 0) {
+				distance--;
+			}
+			// A match may start anywhere in the text, so the top row stays 0
+			ph <<= 1;
+			mh <<= 1;
+			positive = mh | ~(xv | ph);
+			negative = ph & xv;
+			rtrn = Math.min(rtrn, distance);
+		}
+		return rtrn;
+	}
+
+	/**
+	 * Find the leftmost end of a match of the pattern allowing substitutions, insertions and deletions
+	 * @param text The sequence
+	 * @param maxEdits Maximum edit distance of a match
+	 * @return Position in the sequence after the last base of the leftmost ending match, or -1 if there is none
+	 */
+	public int findEnd(CharSequence text, int maxEdits) {
+		if(maxEdits >= length) {
+			return 0;
+		}
+		long positive = length == 64 ? -1L : (1L << length) - 1;
+		long negative = 0;
+		int distance = length;
+		long last = 1L << (length - 1);
+		for(int j = 0; j < text.length(); j++) {
+			int code = code(text.charAt(j));
+			long eq = code < 0 ? 0 : equal[code];
+			long xv = eq | negative;
+			long xh = (((eq & positive) + positive) ^ positive) | eq;
+			long ph = negative | ~(xh | positive);
+			long mh = positive & xh;
+			if((ph & last) != 0) {
+				distance++;
+			} else if((mh & last) != 0) {
+				distance--;
+			}
+			ph <<= 1;
+			mh <<= 1;
+			positive = mh | ~(xv | ph);
+			negative = ph & xv;
+			if(distance <= maxEdits) {
+				return j + 1;
+			}
+		}
+		return -1;
+	}
+
+}
@@ -1,7 +1,17 @@
 package guttmanlab.core.alignment;
 
+import guttmanlab.core.util.ConcurrentUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import jaligner.Cell;
 import jaligner.Sequence;
 import jaligner.SmithWatermanGotoh;
+import jaligner.QueryProfileSmithWaterman;
 import jaligner.matrix.Matrix;
 import jaligner.matrix.MatrixGenerator;
 
@@ -11,6 +21,9 @@ public class SmithWatermanAlignment {
 	private Matrix scoringMatrix;
 	private float gapOpen;
 	private float gapExtend;
+	private QueryProfileSmithWaterman profile;
+	private int numThreads = Runtime.getRuntime().availableProcessors();
+	private long maxFullMatrixCells = DEFAULT_MAX_FULL_MATRIX_CELLS;
 	
 	/**
 	 * Default match score for Smith Waterman
@@ -42,15 +55,241 @@ public class SmithWatermanAlignment {
 		scoringMatrix = MatrixGenerator.generate(matchScore, mismatchScore);
 		gapOpen = gapOpenPenalty;
 		gapExtend = gapExtendPenalty;
+		profile = new QueryProfileSmithWaterman(sequence, scoringMatrix, gapOpen, gapExtend);
+	}
+	
+	/**
+	 * @param numThreads Number of threads aligning targets in alignAll(Iterable). Default the number of processors.
+	 */
+	public void setNumThreads(int numThreads) {
+		this.numThreads = ConcurrentUtils.checkNumThreads(numThreads);
+	}
+	
+	/**
+	 * Default maximum number of cells in the dynamic programming matrix of an alignment computed with a full
+	 * traceback matrix; larger alignments are computed in linear space
+	 */
+	public static final long DEFAULT_MAX_FULL_MATRIX_CELLS = 1 << 24;
+	
+	/**
+	 * @param maxFullMatrixCells Alignments with more cells in the dynamic programming matrix than this are computed in
+	 * linear space. Default DEFAULT_MAX_FULL_MATRIX_CELLS.
+	 */
+	public void setMaxFullMatrixCells(long maxFullMatrixCells) {
+		if(maxFullMatrixCells < 0) {
+			throw new IllegalArgumentException("Maximum number of matrix cells must be non-negative");
+		}
+		this.maxFullMatrixCells = maxFullMatrixCells;
 	}
 	
 	public jaligner.Alignment align(String seq) {
-		return SmithWatermanGotoh.align(sequence, new Sequence(seq), scoringMatrix, gapOpen, gapExtend);
+		return align(sequence, new Sequence(seq), scoringMatrix, gapOpen, gapExtend, maxFullMatrixCells);
 	}
 	
 	public static jaligner.Alignment align(String seq1, String seq2, float matchScore, float mismatchScore, float gapOpenPenalty, float gapExtendPenalty) {
 		Matrix matrix = MatrixGenerator.generate(matchScore, mismatchScore);
-		return SmithWatermanGotoh.align(new Sequence(seq1), new Sequence(seq2), matrix, gapOpenPenalty, gapExtendPenalty);
+		return align(new Sequence(seq1), new Sequence(seq2), matrix, gapOpenPenalty, gapExtendPenalty, DEFAULT_MAX_FULL_MATRIX_CELLS);
+	}
+	
+	/**
+	 * Align with the full traceback matrix, or in linear space if the matrix would have more than maxCells cells
+	 */
+	private static jaligner.Alignment align(Sequence seq1, Sequence seq2, Matrix matrix, float gapOpenPenalty, float gapExtendPenalty, long maxCells) {
+		if((long) (seq1.length() + 1) * (seq2.length() + 1) > maxCells) {
+			return SmithWatermanGotoh.alignLinearSpace(seq1, seq2, matrix, gapOpenPenalty, gapExtendPenalty);
+		}
+		return SmithWatermanGotoh.align(seq1, seq2, matrix, gapOpenPenalty, gapExtendPenalty);
+	}
+	
+	/**
+	 * Align within a band of diagonals, for sequences expected to align near a known offset
+	 * @param seq Sequence to align to the sequence of this object
+	 * @param diagonal Expected position in seq of the first base of the sequence of this object
+	 * @param bandWidth Maximum number of positions the alignment can stray from that diagonal
+	 * @return The best alignment within the band
+	 */
+	public jaligner.Alignment alignBanded(String seq, int diagonal, int bandWidth) {
+		return SmithWatermanGotoh.alignBanded(sequence, new Sequence(seq), scoringMatrix, gapOpen, gapExtend, diagonal, bandWidth);
+	}
+	
+	/**
+	 * Get the Smith-Waterman score without a traceback, using memory linear in the sequence length.
+	 * Uses integer arithmetic and a query profile of the sequence of this object, which is built once and reused
+	 * for every call.
+	 * @param seq Sequence to align to the sequence of this object
+	 * @return The score of the best local alignment
+	 */
+	public float score(String seq) {
+		return profile.score(new Sequence(seq)).getScore();
+	}
+	
+	/**
+	 * Get the Smith-Waterman score within a band of diagonals without a traceback
+	 * @param seq Sequence to align to the sequence of this object
+	 * @param diagonal Expected position in seq of the first base of the sequence of this object
+	 * @param bandWidth Maximum number of positions the alignment can stray from that diagonal
+	 * @return The score of the best local alignment within the band
+	 */
+	public float score(String seq, int diagonal, int bandWidth) {
+		return SmithWatermanGotoh.score(sequence, new Sequence(seq), scoringMatrix, gapOpen, gapExtend, diagonal, bandWidth).getScore();
+	}
+	
+	/**
+	 * Get the end of the best local alignment without a traceback
+	 * @param seq Sequence to align to the sequence of this object
+	 * @return Cell whose row and column are the end positions (exclusive) of the alignment on the sequence of this
+	 * object and on seq, and whose score is the alignment score
+	 */
+	public Cell alignmentEnd(String seq) {
+		return SmithWatermanGotoh.score(sequence, new Sequence(seq), scoringMatrix, gapOpen, gapExtend);
+	}
+	
+	/**
+	 * Align many sequences to the sequence of this object in parallel, in a fork-join pool with the number of threads
+	 * set by setNumThreads(). Only the score, ends and identity of each alignment are computed; each thread reuses
+	 * its dynamic programming columns and the query profile of the sequence of this object.
+	 * @param seqs Sequences to align to the sequence of this object
+	 * @return The best local alignment with each sequence, in the order of the sequences
+	 */
+	public List<Result> alignAll(Iterable<String> seqs) {
+		List<String> list = new ArrayList<String>();
+		for(String seq : seqs) {
+			list.add(seq);
+		}
+		ForkJoinPool pool = new ForkJoinPool(numThreads);
+		try {
+			// A parallel stream runs in the pool of the task that consumes it
+			return ConcurrentUtils.getResult(pool.submit(() -> list.parallelStream().map(this::result).collect(Collectors.toList())), "aligning");
+		} finally {
+			pool.shutdown();
+		}
+	}
+	
+	/**
+	 * Align a stream of sequences to the sequence of this object as the stream is consumed. Only the score, ends
+	 * and identity of each alignment are computed. If the stream is parallel, sequences are aligned in the common
+	 * fork-join pool.
+	 * @param seqs Sequences to align to the sequence of this object
+	 * @return The best local alignment with each sequence
+	 */
+	public Stream<Result> alignAll(Stream<String> seqs) {
+		return seqs.map(this::result);
+	}
+	
+	private Result result(String seq) {
+		char[] a2 = seq.toCharArray();
+		Cell end = profile.score(a2);
+		Cell start = profile.start(a2, end);
+		int identity = end.getScore() > 0 ? profile.identity(a2, start, end) : 0;
+		return new Result(profile, seq, start, end, identity);
+	}
+	
+	/**
+	 * The score, ends and identity of the best local alignment of a sequence to the sequence of this object.
+	 * The full alignment is only built when requested.
+	 */
+	public static class Result {
+		
+		private final QueryProfileSmithWaterman profile;
+		private final String seq;
+		private final float score;
+		private final int start1;
+		private final int end1;
+		private final int start2;
+		private final int end2;
+		private final int identity;
+		
+		private Result(QueryProfileSmithWaterman profile, String seq, Cell start, Cell end, int identity) {
+			this.profile = profile;
+			this.seq = seq;
+			this.score = end.getScore();
+			this.start1 = start.getRow();
+			this.end1 = end.getRow();
+			this.start2 = start.getCol();
+			this.end2 = end.getCol();
+			this.identity = identity;
+		}
+		
+		/**
+		 * @return The sequence aligned to the sequence of the SmithWatermanAlignment
+		 */
+		public String getSequence() {
+			return seq;
+		}
+		
+		/**
+		 * @return The alignment score, 0 if nothing aligns
+		 */
+		public float getScore() {
+			return score;
+		}
+		
+		/**
+		 * @return Position on the sequence of the SmithWatermanAlignment of the first aligned base
+		 */
+		public int getStart1() {
+			return start1;
+		}
+		
+		/**
+		 * @return Position on the sequence of the SmithWatermanAlignment after the last aligned base
+		 */
+		public int getEnd1() {
+			return end1;
+		}
+		
+		/**
+		 * @return Position on the aligned sequence of the first aligned base
+		 */
+		public int getStart2() {
+			return start2;
+		}
+		
+		/**
+		 * @return Position on the aligned sequence after the last aligned base
+		 */
+		public int getEnd2() {
+			return end2;
+		}
+		
+		/**
+		 * @return Number of identical aligned pairs
+		 */
+		public int getIdentity() {
+			return identity;
+		}
+		
+		/**
+		 * Build the full alignment, with the same ends and identity as this result
+		 * @return The alignment
+		 */
+		public jaligner.Alignment getAlignment() {
+			Cell start = new Cell();
+			start.set(start1, start2, score);
+			Cell end = new Cell();
+			end.set(end1, end2, score);
+			return profile.align(new Sequence(seq), start, end);
+		}
+		
+		@Override
+		public String toString() {
+			return score + "\t" + start1 + "-" + end1 + "\t" + start2 + "-" + end2 + "\t" + identity;
+		}
+	}
+	
+	/**
+	 * Get the Smith-Waterman score of two sequences without a traceback, using memory linear in the sequence length
+	 * @param seq1 Sequence 1
+	 * @param seq2 Sequence 2
+	 * @param matchScore Match score
+	 * @param mismatchScore Mismatch score
+	 * @param gapOpenPenalty Gap open penalty
+	 * @param gapExtendPenalty Gap extend penalty
+	 * @return The score of the best local alignment
+	 */
+	public static float score(String seq1, String seq2, float matchScore, float mismatchScore, float gapOpenPenalty, float gapExtendPenalty) {
+		Matrix matrix = MatrixGenerator.generate(matchScore, mismatchScore);
+		return SmithWatermanGotoh.score(new Sequence(seq1), new Sequence(seq2), matrix, gapOpenPenalty, gapExtendPenalty).getScore();
 	}
 		
 	
@@ -95,7 +334,61 @@ public class SmithWatermanAlignment {
 		if(seq1.length() < seq2.length()) {
 			throw new IllegalArgumentException("Seq1 must be at least as long as seq2");
 		}
-		return matchStartOnFirstSequence(seq1, seq2, matchScore, mismatchScore, Float.MAX_VALUE, Float.MAX_VALUE, minPctIdentity);
+		int[] align = ungappedAlign(seq1, seq2, matchScore, mismatchScore);
+		float pctId = align[1] / (float) seq2.length();
+		if(pctId < minPctIdentity) {
+			return -1;
+		}
+		return align[0];
+	}
+	
+	/**
+	 * Find the best ungapped local alignment, the one Smith-Waterman finds with infinite gap penalties, with a
+	 * maximum scoring segment pass along each diagonal instead of a dynamic programming matrix and traceback.
+	 * As with the scoring matrix from MatrixGenerator, N scores as a match with anything.
+	 * @param seq1 Sequence 1
+	 * @param seq2 Sequence 2
+	 * @param matchScore Match score
+	 * @param mismatchScore Mismatch score
+	 * @return The start position of the alignment on sequence 1 and its number of identical pairs
+	 */
+	private static int[] ungappedAlign(String seq1, String seq2, float matchScore, float mismatchScore) {
+		int len1 = seq1.length();
+		int len2 = seq2.length();
+		float best = 0;
+		// End of the best alignment (exclusive), ties going to the first in row-major order as in Smith-Waterman
+		int bestEnd1 = 0;
+		int bestEnd2 = 0;
+		int bestStart1 = 0;
+		int bestIdentity = 0;
+		for(int diagonal = 1 - len1; diagonal < len2; diagonal++) {
+			int i = Math.max(0, -diagonal);
+			float score = 0;
+			int start1 = i;
+			int identity = 0;
+			for(; i < len1 && i + diagonal < len2; i++) {
+				char c1 = seq1.charAt(i);
+				char c2 = seq2.charAt(i + diagonal);
+				score += c1 == c2 || c1 == 'N' || c2 == 'N' ? matchScore : mismatchScore;
+				if(score <= 0) {
+					score = 0;
+					start1 = i + 1;
+					identity = 0;
+					continue;
+				}
+				if(c1 == c2) {
+					identity++;
+				}
+				if(score > best || (score == best && (i + 1 < bestEnd1 || (i + 1 == bestEnd1 && i + diagonal + 1 < bestEnd2)))) {
+					best = score;
+					bestEnd1 = i + 1;
+					bestEnd2 = i + diagonal + 1;
+					bestStart1 = start1;
+					bestIdentity = identity;
+				}
+			}
+		}
+		return new int[] {bestStart1, bestIdentity};
 	}
 	
 	/**
@@ -140,25 +433,10 @@ public class SmithWatermanAlignment {
 	 * @return Whether the best ungapped alignment is full length and has at most the max number of mismatches
 	 */
 	public static boolean containsFullLengthUngappedMatch(String seq1, String seq2, float matchScore, float mismatchScore, int maxMismatches) {
-		jaligner.Alignment align = align(seq1, seq2, matchScore, mismatchScore, Float.MAX_VALUE, Float.MAX_VALUE);
 		int fullLen = Math.min(seq1.length(), seq2.length());
-		int mismatches = fullLen - getNumberOfMatches(align);
+		int mismatches = fullLen - ungappedAlign(seq1, seq2, matchScore, mismatchScore)[1];
 		return mismatches <= maxMismatches;
 	}
-	
-	private static int getNumberOfMatches(jaligner.Alignment align) {
-		//System.err.println("In here");
-		int matches = 0;
-		char c1, c2; // the next character
-		for (int i = 0; i <align.getSequence1().length; i++) {
-			c1 = align.getSequence1()[i];
-			c2 = align.getSequence2()[i];
-			if (c1 != jaligner.Alignment.GAP && c2!=jaligner.Alignment.GAP) {
-				if(c1==c2){matches++;}
-			}
-		}
-		return matches;
-	}
 
 	
 }
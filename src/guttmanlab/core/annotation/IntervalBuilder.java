@@ -0,0 +1,92 @@
+package guttmanlab.core.annotation;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Collects the blocks of annotations into merged intervals per reference, held as primitive arrays of start and
+ * end positions
+ *
+ */
+public class IntervalBuilder {
+
+	private final Map<String, int[]> intervals = new HashMap<String, int[]>();
+	private final Map<String, Integer> sizes = new HashMap<String, Integer>();
+
+	/**
+	 * @param annotation Annotation whose blocks to add
+	 */
+	public void add(Annotation annotation) {
+		Iterator<SingleInterval> blocks = annotation.getBlocks();
+		while(blocks.hasNext()) {
+			SingleInterval block = blocks.next();
+			add(block.getReferenceName(), block.getReferenceStartPosition(), block.getReferenceEndPosition());
+		}
+	}
+
+	/**
+	 * @param referenceName Reference name
+	 * @param start Start position
+	 * @param end End position, exclusive. Empty intervals are ignored.
+	 */
+	public void add(String referenceName, int start, int end) {
+		if(end <= start) {
+			return;
+		}
+		int[] array = intervals.get(referenceName);
+		int size = array == null ? 0 : sizes.get(referenceName);
+		if(array == null || size == array.length) {
+			array = array == null ? new int[16] : Arrays.copyOf(array, 2 * array.length);
+			intervals.put(referenceName, array);
+		}
+		array[size] = start;
+		array[size + 1] = end;
+		sizes.put(referenceName, size + 2);
+	}
+
+	/**
+	 * @return For each reference, sorted non-overlapping intervals as consecutive start and end positions
+	 */
+	public Map<String, int[]> build() {
+		Map<String, int[]> rtrn = new HashMap<String, int[]>();
+		for(Map.Entry<String, int[]> entry : intervals.entrySet()) {
+			rtrn.put(entry.getKey(), merge(entry.getValue(), sizes.get(entry.getKey())));
+		}
+		return rtrn;
+	}
+
+	private static int[] merge(int[] array, int size) {
+		int n = size / 2;
+		// Intervals from a sorted iterator are almost always in order already
+		boolean sorted = true;
+		for(int i = 1; i < n && sorted; i++) {
+			sorted = array[2 * i] >= array[2 * i - 2];
+		}
+		if(!sorted) {
+			long[] packed = new long[n];
+			for(int i = 0; i < n; i++) {
+				packed[i] = ((long) array[2 * i] << 32) | (array[2 * i + 1] & 0xffffffffL);
+			}
+			Arrays.sort(packed);
+			for(int i = 0; i < n; i++) {
+				array[2 * i] = (int) (packed[i] >> 32);
+				array[2 * i + 1] = (int) packed[i];
+			}
+		}
+		int numMerged = 0;
+		for(int i = 0; i < n; i++) {
+			int start = array[2 * i];
+			int end = array[2 * i + 1];
+			if(numMerged > 0 && start <= array[numMerged - 1]) {
+				array[numMerged - 1] = Math.max(array[numMerged - 1], end);
+			} else {
+				array[numMerged++] = start;
+				array[numMerged++] = end;
+			}
+		}
+		return Arrays.copyOf(array, numMerged);
+	}
+
+}
@@ -1,9 +1,13 @@
 package guttmanlab.core.annotation;
 
 import guttmanlab.core.annotation.predicate.ReadFlag;
+import guttmanlab.core.annotation.predicate.SAMFlag;
 import guttmanlab.core.annotationcollection.AnnotationCollection;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 
@@ -19,10 +23,15 @@ public class SAMFragment implements MappedFragment{
 	private SAMRecord record;
 	private boolean strandIsFirstOfPair; 
 	private Annotation annotation;
+	private int[] blockBounds;
+	private SingleInterval singleBlock;
+	private int size = -1;
 	private Collection<? extends ReadFlag> readFlags;
 	public static String SAM_NUM_HITS_TAG = "NH";
 
 	/**
+	 * The blocks are parsed from the record on first use and cached, so the record
+	 * should not be modified after it is wrapped
 	 * @param record SAM record
 	 */
 	public SAMFragment(SAMRecord record){
@@ -45,16 +54,83 @@ public class SAMFragment implements MappedFragment{
 		return record.getReadName();
 	}
 	
+	/**
+	 * The block of an ungapped read is created once and returned by every call, as BlockedAnnotation
+	 * returns its stored blocks
+	 */
 	@Override
 	public Iterator<SingleInterval> getBlocks() {
-		return getAnnotation().getBlocks();
+		int[] bounds=getBlockBounds();
+		String chr=getReferenceName();
+		Strand strand=getOrientation();
+		String name=getName();
+		if(bounds.length==2){
+			if(singleBlock==null){
+				singleBlock=new SingleInterval(chr, bounds[0], bounds[1], strand, name);
+			}
+			return Collections.singletonList(singleBlock).iterator();
+		}
+		List<SingleInterval> rtrn=new ArrayList<SingleInterval>(bounds.length/2);
+		for(int i=0; i<bounds.length; i+=2){
+			rtrn.add(new SingleInterval(chr, bounds[i], bounds[i+1], strand, name));
+		}
+		return rtrn.iterator();
 	}
 	
 	private Annotation getAnnotation(){
-		if(this.annotation!=null){return this.annotation;}
-		else{
-			return parseCigar(record.getCigarString(), record.getReferenceName(), record.getAlignmentStart()-1, getOrientation(), getName()); 
+		if(this.annotation==null){
+			BlockedAnnotation blocked=new BlockedAnnotation(getName());
+			Iterator<SingleInterval> blocks=getBlocks();
+			while(blocks.hasNext()){
+				blocked.addBlocks(blocks.next());
+			}
+			this.annotation=blocked;
+		}
+		return this.annotation;
+	}
+	
+	/**
+	 * Get the alignment blocks, parsed from the CIGAR the first time they are needed
+	 * @return Block boundaries as {start0, end0, start1, end1, ...} in reference coordinates
+	 */
+	private int[] getBlockBounds(){
+		if(this.blockBounds==null){
+			this.blockBounds=parseCigarBlocks(record.getCigar(), record.getAlignmentStart()-1);
+		}
+		return this.blockBounds;
+	}
+	
+	/**
+	 * Get the alignment blocks of a CIGAR without creating block objects. The blocks are the same as
+	 * those of the annotation returned by parseCigar().
+	 * @param cigar The CIGAR
+	 * @param start Fragment start
+	 * @return Block boundaries as {start0, end0, start1, end1, ...}
+	 */
+	public static int[] parseCigarBlocks(Cigar cigar, int start) {
+		List<CigarElement> elements=cigar.getCigarElements();
+		
+		// Fast path for the common ungapped case, e.g. 50M
+		if(elements.size()==1 && elements.get(0).getOperator().equals(CigarOperator.MATCH_OR_MISMATCH)){
+			return new int[] {start, start+elements.get(0).getLength()};
+		}
+		
+		int[] bounds=new int[2*elements.size()];
+		int numBounds=0;
+		int currentOffset=start;
+		for(CigarElement element: elements){
+			CigarOperator op=element.getOperator();
+			int length=element.getLength();
+			if(op.equals(CigarOperator.MATCH_OR_MISMATCH)){
+				bounds[numBounds++]=currentOffset;
+				bounds[numBounds++]=currentOffset+length;
+				currentOffset+=length;
+			}
+			else if(op.equals(CigarOperator.INSERTION) || op.equals(CigarOperator.H) || op.equals(CigarOperator.DELETION) || op.equals(CigarOperator.SKIPPED_REGION)){
+				currentOffset+=length;
+			}
 		}
+		return numBounds==bounds.length ? bounds : Arrays.copyOf(bounds, numBounds);
 	}
 
 	@Override
@@ -139,20 +215,76 @@ public class SAMFragment implements MappedFragment{
 	 * Use strand info from instantiation
 	 */
 	public Strand getOrientation() {
+		return getOrientation(record, strandIsFirstOfPair);
+	}
+	
+	/**
+	 * Get the fragment strand of a SAM record without wrapping it in a SAMFragment
+	 * @param record The SAM record
+	 * @param strandIsFirstOfPair Whether to treat the first of pair read as the fragment strand
+	 * @return The strand getOrientation() would return for a SAMFragment wrapping the record
+	 */
+	public static Strand getOrientation(SAMRecord record, boolean strandIsFirstOfPair) {
 		Strand rtrn=Annotation.Strand.POSITIVE;
-		if(this.record.getReadNegativeStrandFlag()){rtrn=Annotation.Strand.NEGATIVE;}
-		if((this.isPaired() && this.strandIsFirstOfPair && !this.record.getFirstOfPairFlag()) || (this.isPaired() && !this.strandIsFirstOfPair && this.record.getFirstOfPairFlag())){rtrn=rtrn.getReverseStrand();}
+		if(record.getReadNegativeStrandFlag()){rtrn=Annotation.Strand.NEGATIVE;}
+		boolean isPaired=record.getReadPairedFlag();
+		if((isPaired && strandIsFirstOfPair && !record.getFirstOfPairFlag()) || (isPaired && !strandIsFirstOfPair && record.getFirstOfPairFlag())){rtrn=rtrn.getReverseStrand();}
 		return rtrn;
 	}
 	
 	@Override
 	public int getNumberOfBlocks() {
-		return getAnnotation().getNumberOfBlocks();
+		return getBlockBounds().length/2;
 	}
 
 	@Override
 	public int size() {
-		return getAnnotation().size();
+		if(size<0){
+			int[] bounds=getBlockBounds();
+			int rtrn=0;
+			for(int i=0; i<bounds.length; i+=2){
+				rtrn+=bounds[i+1]-bounds[i];
+			}
+			size=rtrn;
+		}
+		return size;
+	}
+	
+	/**
+	 * Same as the default implementation, but compares the other annotation's blocks to the cached
+	 * block boundaries of this fragment instead of creating block objects
+	 */
+	@Override
+	public boolean overlaps(Annotation other) {
+		if(other==null){
+			return false;
+		}
+		int[] bounds=getBlockBounds();
+		String chr=getReferenceName();
+		Strand strand=getOrientation();
+		Iterator<SingleInterval> otherBlocks=other.getBlocks();
+		while(otherBlocks.hasNext()){
+			SingleInterval block=otherBlocks.next();
+			if(!chr.equalsIgnoreCase(block.getReferenceName()) || Strand.consensusStrand(strand, block.getOrientation())==Strand.INVALID){
+				continue;
+			}
+			int blockStart=block.getReferenceStartPosition();
+			int blockEnd=block.getReferenceEndPosition();
+			for(int i=0; i<bounds.length; i+=2){
+				if(Math.max(bounds[i], blockStart) < Math.min(bounds[i+1], blockEnd)){
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Copy of the cached block boundaries, so that merge(), union() and contains() don't create block objects
+	 */
+	@Override
+	public int[] flatten() {
+		return getBlockBounds().clone();
 	}
 
 	@Override
@@ -177,7 +309,7 @@ public class SAMFragment implements MappedFragment{
 	}
 
 	private Collection<? extends ReadFlag> parseFlags() {
-		throw new UnsupportedOperationException("TODO");
+		return SAMFlag.fromFlags(record.getFlags());
 	}
 
 	/**
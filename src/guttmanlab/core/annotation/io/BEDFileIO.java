@@ -7,15 +7,17 @@ import guttmanlab.core.annotationcollection.FeatureCollection;
 import guttmanlab.core.coordinatespace.CoordinateSpace;
 
 import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStreamReader;
-import java.util.Iterator;
 import java.util.Map;
 import java.util.TreeMap;
 
+import net.sf.samtools.util.CloseableIterator;
+
 public class BEDFileIO implements AnnotationFileIO<BEDFileRecord> {
 
 	private CoordinateSpace referenceSpace;
@@ -35,17 +37,23 @@ public class BEDFileIO implements AnnotationFileIO<BEDFileRecord> {
 	}
 	
 	/**
-	 * Write features to a file
+	 * Write features to a file, one per line, in sorted order. Features that are already BED records keep their
+	 * scores and other fields.
 	 * @param regions Features to write
 	 * @param outputBedFile Output file
 	 * @throws IOException
 	 */
 	public static void writeToFile(AnnotationCollection<? extends Annotation> regions, File outputBedFile) throws IOException {
-		try (FileWriter w = new FileWriter(outputBedFile)) {
-			Iterator<? extends Annotation> iter = regions.sortedIterator();
+		CloseableIterator<? extends Annotation> iter = regions.sortedIterator();
+		try (BufferedWriter w = new BufferedWriter(new FileWriter(outputBedFile))) {
 			while(iter.hasNext()) {
-				w.write((new BEDFileRecord(iter.next()).toFormattedString()));
-			}	
+				Annotation region = iter.next();
+				BEDFileRecord record = region instanceof BEDFileRecord ? (BEDFileRecord) region : new BEDFileRecord(region);
+				w.write(record.toFormattedString());
+				w.newLine();
+			}
+		} finally {
+			iter.close();
 		}
 	}
 	
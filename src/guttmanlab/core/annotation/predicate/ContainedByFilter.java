@@ -23,4 +23,11 @@ public class ContainedByFilter<T extends MappedFragment> implements Predicate<T>
 	public boolean evaluate(T fragment) {
 		return annot.contains(fragment);
 	}
+	
+	/**
+	 * @return The annotation that fragments are required to be contained in
+	 */
+	public Annotation getRegion() {
+		return annot;
+	}
 }
\ No newline at end of file
@@ -2,10 +2,11 @@ package guttmanlab.core.annotation.predicate;
 
 import guttmanlab.core.annotation.PairedMappedFragment;
 import guttmanlab.core.annotation.SAMFragment;
+import net.sf.samtools.SAMRecord;
 
 import org.apache.commons.collections15.Predicate;
 
-public class InsertSizeFilter<T extends PairedMappedFragment<SAMFragment>> implements Predicate<T>{
+public class InsertSizeFilter<T extends PairedMappedFragment<SAMFragment>> implements Predicate<T>, SAMRecordFilter{
 
 	private int maxSize;
 	
@@ -22,4 +23,13 @@ public class InsertSizeFilter<T extends PairedMappedFragment<SAMFragment>> imple
 		return false;
 	}
 
+	/**
+	 * Uses the inferred insert size (TLEN) of the record, which is the fragment length for
+	 * records in the paired fragment file
+	 */
+	@Override
+	public boolean evaluateRecord(SAMRecord record) {
+		return Math.abs(record.getInferredInsertSize())<maxSize;
+	}
+
 }
@@ -1,12 +1,19 @@
 package guttmanlab.core.annotation.predicate;
 
 import guttmanlab.core.annotation.MappedFragment;
+import net.sf.samtools.SAMRecord;
+
 import org.apache.commons.collections15.Predicate;
 
-public class MappedReadFilter<T extends MappedFragment> implements Predicate<T> {
+public class MappedReadFilter<T extends MappedFragment> implements Predicate<T>, SAMRecordFilter {
 		
 	public boolean evaluate(T frag) {
-		return !frag.getSamRecord(null).getReadUnmappedFlag();
+		return evaluateRecord(frag.getSamRecord(null));
+	}
+
+	@Override
+	public boolean evaluateRecord(SAMRecord record) {
+		return !record.getReadUnmappedFlag();
 	}
 
 }
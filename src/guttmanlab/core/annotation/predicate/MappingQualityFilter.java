@@ -0,0 +1,29 @@
+package guttmanlab.core.annotation.predicate;
+
+import guttmanlab.core.annotation.MappedFragment;
+import net.sf.samtools.SAMRecord;
+
+import org.apache.commons.collections15.Predicate;
+
+public class MappingQualityFilter<T extends MappedFragment> implements Predicate<T>, SAMRecordFilter {
+
+	private int minQuality;
+	
+	/**
+	 * @param minQuality Min mapping quality allowed
+	 */
+	public MappingQualityFilter(int minQuality) {
+		this.minQuality = minQuality;
+	}
+	
+	@Override
+	public boolean evaluate(T fragment) {
+		return fragment.getMappingQuality() >= minQuality;
+	}
+
+	@Override
+	public boolean evaluateRecord(SAMRecord record) {
+		return record.getMappingQuality() >= minQuality;
+	}
+
+}
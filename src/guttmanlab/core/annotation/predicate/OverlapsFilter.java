@@ -23,4 +23,11 @@ public class OverlapsFilter<T extends MappedFragment> implements Predicate<T> {
 	public boolean evaluate(T fragment) {
 		return fragment.overlaps(annot);
 	}
+	
+	/**
+	 * @return The annotation that fragments are required to overlap
+	 */
+	public Annotation getRegion() {
+		return annot;
+	}
 }
\ No newline at end of file
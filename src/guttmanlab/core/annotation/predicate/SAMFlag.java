@@ -0,0 +1,59 @@
+package guttmanlab.core.annotation.predicate;
+
+import java.util.EnumSet;
+
+/**
+ * The bits of the SAM flag field
+ *
+ */
+public enum SAMFlag implements ReadFlag {
+
+	PAIRED(0x1),
+	PROPER_PAIR(0x2),
+	UNMAPPED(0x4),
+	MATE_UNMAPPED(0x8),
+	REVERSE_STRAND(0x10),
+	MATE_REVERSE_STRAND(0x20),
+	FIRST_OF_PAIR(0x40),
+	SECOND_OF_PAIR(0x80),
+	SECONDARY(0x100),
+	FAILS_QUALITY_CHECK(0x200),
+	DUPLICATE(0x400),
+	SUPPLEMENTARY(0x800);
+
+	private final int bit;
+
+	private SAMFlag(int bit) {
+		this.bit = bit;
+	}
+
+	/**
+	 * @return The bit of this flag in the flag field
+	 */
+	public int getBit() {
+		return bit;
+	}
+
+	/**
+	 * @param flags The SAM flag field of a record
+	 * @return Whether this flag is set
+	 */
+	public boolean isSet(int flags) {
+		return (flags & bit) != 0;
+	}
+
+	/**
+	 * @param flags The SAM flag field of a record
+	 * @return The flags that are set
+	 */
+	public static EnumSet<SAMFlag> fromFlags(int flags) {
+		EnumSet<SAMFlag> rtrn = EnumSet.noneOf(SAMFlag.class);
+		for(SAMFlag flag : values()) {
+			if(flag.isSet(flags)) {
+				rtrn.add(flag);
+			}
+		}
+		return rtrn;
+	}
+
+}
@@ -1,11 +1,13 @@
 package guttmanlab.core.annotation.predicate;
 
 import guttmanlab.core.annotation.MappedFragment;
+import guttmanlab.core.annotation.SAMFragment;
+import net.sf.samtools.SAMRecord;
 
 import org.apache.commons.collections15.Predicate;
 
 
-public class SAMFragmentNumHitsFilter implements Predicate<MappedFragment> {
+public class SAMFragmentNumHitsFilter implements Predicate<MappedFragment>, SAMRecordFilter {
 
 	private int maxNumHits;
 	
@@ -21,4 +23,9 @@ public class SAMFragmentNumHitsFilter implements Predicate<MappedFragment> {
 		return fragment.getNumHits() <= maxNumHits;
 	}
 
+	@Override
+	public boolean evaluateRecord(SAMRecord record) {
+		return record.getIntegerAttribute(SAMFragment.SAM_NUM_HITS_TAG).intValue() <= maxNumHits;
+	}
+
 }
@@ -0,0 +1,19 @@
+package guttmanlab.core.annotation.predicate;
+
+import net.sf.samtools.SAMRecord;
+
+/**
+ * A filter on mapped reads whose decision depends only on the flags and fixed fields of the SAM record.
+ * Collections backed by a BAM file apply these filters to each record before wrapping it in a
+ * SAMFragment, so rejected reads never pay for object construction or CIGAR parsing.
+ *
+ */
+public interface SAMRecordFilter {
+
+	/**
+	 * @param record SAM record
+	 * @return True iff the read represented by the record passes the filter
+	 */
+	public boolean evaluateRecord(SAMRecord record);
+	
+}
@@ -2,12 +2,19 @@ package guttmanlab.core.annotation.predicate;
 
 import guttmanlab.core.annotation.SAMFragment;
 
+import net.sf.samtools.SAMRecord;
+
 import org.apache.commons.collections15.Predicate;
 
-public class SecondReadFilter<T extends SAMFragment> implements Predicate<T> {
+public class SecondReadFilter<T extends SAMFragment> implements Predicate<T>, SAMRecordFilter {
 		
 	public boolean evaluate(T frag) {
-		return frag.getSamRecord().getSecondOfPairFlag();
+		return evaluateRecord(frag.getSamRecord());
+	}
+
+	@Override
+	public boolean evaluateRecord(SAMRecord record) {
+		return record.getSecondOfPairFlag();
 	}
 
 }
@@ -2,10 +2,12 @@ package guttmanlab.core.annotation.predicate;
 
 import guttmanlab.core.annotation.Annotation;
 import guttmanlab.core.annotation.Annotation.Strand;
+import guttmanlab.core.annotation.SAMFragment;
+import net.sf.samtools.SAMRecord;
 
 import org.apache.commons.collections15.Predicate;
 
-public class StrandFilter<T extends Annotation> implements Predicate<T> {
+public class StrandFilter<T extends Annotation> implements Predicate<T>, SAMRecordFilter {
 
 	Strand feat_dir;
 	
@@ -20,8 +22,19 @@ public class StrandFilter<T extends Annotation> implements Predicate<T> {
 	
 	@Override
 	public boolean evaluate(Annotation read) {
+		return evaluate(read.getOrientation());
+	}
+	
+	/**
+	 * Evaluates the record as a single read, using the strand of a SAMFragment wrapping it
+	 */
+	@Override
+	public boolean evaluateRecord(SAMRecord record) {
+		return evaluate(SAMFragment.getOrientation(record, false));
+	}
+	
+	private boolean evaluate(Strand read_dir) {
 		//if read unknown or invalid, false
-		Strand read_dir = read.getOrientation();
 		if(read_dir.equals(Strand.BOTH)) {
 			return true;
 		}
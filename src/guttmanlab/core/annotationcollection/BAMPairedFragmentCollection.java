@@ -4,6 +4,8 @@ import guttmanlab.core.annotation.Annotation;
 import guttmanlab.core.annotation.PairedMappedFragment;
 import guttmanlab.core.annotation.SAMFragment;
 import guttmanlab.core.annotation.predicate.ContainedByFilter;
+import guttmanlab.core.annotation.predicate.InsertSizeFilter;
+import guttmanlab.core.annotation.predicate.MappingQualityFilter;
 import guttmanlab.core.annotation.predicate.OverlapsFilter;
 import guttmanlab.core.coordinatespace.CoordinateSpace;
 import guttmanlab.core.datastructures.Pair;
@@ -82,6 +84,18 @@ public class BAMPairedFragmentCollection extends AbstractAnnotationCollection<Pa
 		bamFile = reads.getBamFile();
 	}
 	
+	/**
+	 * @throws IllegalArgumentException If the filter is a MappingQualityFilter, because a fragment has no single
+	 * mapping quality; filter the reads of a BAMSingleReadCollection instead
+	 */
+	@Override
+	public void addFilter(Predicate<PairedMappedFragment<SAMFragment>> filter) {
+		if(filter instanceof MappingQualityFilter) {
+			throw new IllegalArgumentException("Paired fragments can't be filtered by mapping quality; filter the single reads instead");
+		}
+		super.addFilter(filter);
+	}
+
 	/**
 	 * @return The original bam file
 	 */
@@ -395,12 +409,36 @@ public class BAMPairedFragmentCollection extends AbstractAnnotationCollection<Pa
 
 		@Override
 		public CloseableIterator<PairedMappedFragment<SAMFragment>> sortedIterator() {
-			return new FilteredIterator<PairedMappedFragment<SAMFragment>>(new WrappedIterator(reader), getFilters());
+			return sortedIterator(reader.iterator());
 		}
 
 		@Override
 		public CloseableIterator<PairedMappedFragment<SAMFragment>> sortedIterator(Annotation region, boolean fullyContained) {
-			return new FilteredIterator<PairedMappedFragment<SAMFragment>>(new WrappedIterator(reader, region), getFilters());
+			return sortedIterator(reader.queryOverlapping(region.getReferenceName(),
+														  region.getReferenceStartPosition() + 1,
+														  region.getReferenceEndPosition()));
+		}
+		
+		/**
+		 * The insert size filter is applied to the combined fragment record, whose inferred insert size is the
+		 * fragment length, before the record is split into reads. Other record-level filters are not pushed down:
+		 * the flags and mapping quality of the combined record are those of one read, which is not what the
+		 * filter means for a fragment, so they are applied to the fragment as for any other collection.
+		 * @param records Iterator over the combined fragment records
+		 * @return Iterator over the fragments passing the filters
+		 */
+		private CloseableIterator<PairedMappedFragment<SAMFragment>> sortedIterator(SAMRecordIterator records) {
+			FilterChain<SAMRecord> recordFilters = new FilterChain<SAMRecord>();
+			FilterChain<PairedMappedFragment<SAMFragment>> fragmentFilters = new FilterChain<PairedMappedFragment<SAMFragment>>();
+			for (Predicate<PairedMappedFragment<SAMFragment>> filter : getFilters()) {
+				if (filter instanceof InsertSizeFilter) {
+					InsertSizeFilter<?> insertSizeFilter = (InsertSizeFilter<?>) filter;
+					recordFilters.add(record -> insertSizeFilter.evaluateRecord(record), filter.getClass().getSimpleName());
+				} else {
+					fragmentFilters.add(filter);
+				}
+			}
+			return new FilteredIterator<PairedMappedFragment<SAMFragment>>(new WrappedIterator(records, recordFilters), fragmentFilters);
 		}
 
 		@SuppressWarnings("unused")
@@ -444,26 +482,32 @@ public class BAMPairedFragmentCollection extends AbstractAnnotationCollection<Pa
 		private class WrappedIterator implements CloseableIterator<PairedMappedFragment<SAMFragment>> {
 
 			SAMRecordIterator iter;
+			FilterChain<SAMRecord> recordFilters;
+			SAMRecord next;
 			
-			public WrappedIterator(SAMFileReader reader){
-				this.iter = reader.iterator();
-			}
-			
-			public WrappedIterator(SAMFileReader reader, Annotation region) {
-				this.iter = reader.queryOverlapping(region.getReferenceName(),
-													region.getReferenceStartPosition() + 1,
-													region.getReferenceEndPosition());
+			public WrappedIterator(SAMRecordIterator iter, FilterChain<SAMRecord> recordFilters) {
+				this.iter = iter;
+				this.recordFilters = recordFilters;
 			}
 
 			@Override
 			public boolean hasNext() {
-				return iter.hasNext();
+				while (next == null && iter.hasNext()) {
+					SAMRecord record = iter.next();
+					if (recordFilters.evaluate(record)) {
+						next = record;
+					}
+				}
+				return next != null;
 			}
 
 			@Override
 			public PairedMappedFragment<SAMFragment> next() {
-				SAMRecord record = iter.next();
-				PairedMappedFragment<SAMFragment> reads = getSAMRecords(reader.getFileHeader(), record);
+				if (!hasNext()) {
+					throw new NoSuchElementException("WrappedIterator.next() called with no element.");
+				}
+				PairedMappedFragment<SAMFragment> reads = getSAMRecords(reader.getFileHeader(), next);
+				next = null;
 				return reads;
 			}
 
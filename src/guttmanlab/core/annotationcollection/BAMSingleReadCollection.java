@@ -4,20 +4,23 @@ package guttmanlab.core.annotationcollection;
 import guttmanlab.core.annotation.Annotation;
 import guttmanlab.core.annotation.PairedMappedFragment;
 import guttmanlab.core.annotation.SAMFragment;
-import guttmanlab.core.annotation.SingleInterval;
 import guttmanlab.core.annotation.predicate.ContainedByFilter;
 import guttmanlab.core.annotation.predicate.OverlapsFilter;
+import guttmanlab.core.annotation.predicate.SAMRecordFilter;
+import guttmanlab.core.annotation.predicate.StrandFilter;
 import guttmanlab.core.coordinatespace.CoordinateSpace;
 
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.NoSuchElementException;
 
 import org.apache.commons.collections15.Predicate;
 
 import net.sf.samtools.SAMFileHeader;
 import net.sf.samtools.SAMFileReader;
+import net.sf.samtools.SAMFileReader.ValidationStringency;
 import net.sf.samtools.SAMFileWriter;
 import net.sf.samtools.SAMFileWriterFactory;
 import net.sf.samtools.SAMRecord;
@@ -62,37 +65,119 @@ public class BAMSingleReadCollection extends AbstractAnnotationCollection<SAMFra
 	
 	@Override
 	public CloseableIterator<SAMFragment> sortedIterator() {
-		return new FilteredIterator<SAMFragment>(new WrappedIterator(reader.iterator()), getFilters());
+		FilterChain<SAMRecord> recordFilters = new FilterChain<SAMRecord>();
+		FilterChain<SAMFragment> fragmentFilters = new FilterChain<SAMFragment>();
+		compileFilters(getFilters(), recordFilters, fragmentFilters);
+		SAMRecordIterator records = queryRegions(getFilters(), null, false);
+		return new FilteredIterator<SAMFragment>(new WrappedIterator(records, recordFilters), fragmentFilters);
 	}
 	
 	@Override
 	public CloseableIterator<SAMFragment> sortedIterator(Annotation region, boolean fullyContained) {
 
-		// Create the interval hull of `region`. This step is redundant if `region` just has one block.
-		Annotation hull = new SingleInterval(region.getReferenceName(),
-				   region.getReferenceStartPosition(),
-				   region.getReferenceEndPosition(),
-				   region.getOrientation(),
-				   region.getName());
-		
-		// Get the reads that overlap the interval hull. Not all of these reads will necessarily overlap the
-		// original blocked interval.
-		CloseableIterator<SAMFragment> iter = new WrappedIterator(reader.queryOverlapping(hull.getReferenceName(),
-				   												  hull.getReferenceStartPosition() + 1,
-				   												  hull.getReferenceEndPosition()));
-		
-		// Add existing filters. Also add an additional filter depending on 'fullyContained'.
-		// Copy the filters ArrayList(), so we don't add filters to the original.
-		Collection<Predicate<SAMFragment>> filters = new ArrayList<Predicate<SAMFragment>>(getFilters());
+		// Compile the existing filters. Filters that only need the SAM record are applied before
+		// the SAMFragment is constructed. Also add an additional filter depending on 'fullyContained'.
+		FilterChain<SAMRecord> recordFilters = new FilterChain<SAMRecord>();
+		FilterChain<SAMFragment> fragmentFilters = new FilterChain<SAMFragment>();
+		compileFilters(getFilters(), recordFilters, fragmentFilters);
 		if (fullyContained) {
-			filters.add(new ContainedByFilter<SAMFragment>(region));
+			fragmentFilters.add(new ContainedByFilter<SAMFragment>(region));
 		} else {
-			filters.add(new OverlapsFilter<SAMFragment>(region));
+			fragmentFilters.add(new OverlapsFilter<SAMFragment>(region));
 		}
 		
 		// TODO Check if we need the StrandFilter provided by the third argument. The overlap/contains methods
 		// might deal with strandedness already.
-		return new FilteredIterator<SAMFragment>(iter, filters, region.getOrientation());
+		StrandFilter<SAMFragment> strandFilter = new StrandFilter<SAMFragment>(region.getOrientation());
+		recordFilters.add(record -> strandFilter.evaluateRecord(record), strandFilter.getClass().getSimpleName());
+		
+		// Get the reads that overlap the interval hull of the region. Not all of these reads will necessarily
+		// overlap the original blocked interval.
+		SAMRecordIterator records = queryRegions(getFilters(), region, fullyContained);
+		return new FilteredIterator<SAMFragment>(new WrappedIterator(records, recordFilters), fragmentFilters);
+	}
+	
+	/**
+	 * Split filters into those that can be decided from the SAM record alone and those that need
+	 * the wrapped fragment
+	 * @param filters Filters to split
+	 * @param recordFilters Chain to add the record-level filters to
+	 * @param fragmentFilters Chain to add the remaining filters to
+	 */
+	private static <T> void compileFilters(Collection<Predicate<T>> filters, FilterChain<SAMRecord> recordFilters, FilterChain<T> fragmentFilters) {
+		for (Predicate<T> filter : filters) {
+			if (filter instanceof SAMRecordFilter) {
+				SAMRecordFilter recordFilter = (SAMRecordFilter) filter;
+				recordFilters.add(record -> recordFilter.evaluateRecord(record), filter.getClass().getSimpleName());
+			} else {
+				fragmentFilters.add(filter);
+			}
+		}
+	}
+	
+	/**
+	 * Convert region constraints into a single index query. Every read returned must overlap the first
+	 * overlap region and be contained in every containment region, so it must overlap the intersection of
+	 * their interval hulls. Containment is not pushed into the query itself (queryContained) because it uses
+	 * the BAM alignment end, which does not always agree with our parsed blocks. The region filters are still
+	 * applied to the fragments, since the query only uses hulls.
+	 * @param filters Filters of the collection, which may include overlap and containment filters
+	 * @param region An additional region, or null
+	 * @param fullyContained Whether reads must be contained in the additional region rather than overlap it
+	 * @return Iterator over the records that can pass the region constraints, or over the whole file if
+	 * there are none or the file is not indexed
+	 */
+	private SAMRecordIterator queryRegions(Collection<Predicate<SAMFragment>> filters, Annotation region, boolean fullyContained) {
+		Annotation overlapRegion = null;
+		Collection<Annotation> containRegions = new ArrayList<Annotation>();
+		if (region != null) {
+			if (fullyContained) {
+				containRegions.add(region);
+			} else {
+				overlapRegion = region;
+			}
+		}
+		for (Predicate<SAMFragment> filter : filters) {
+			if (filter instanceof ContainedByFilter) {
+				containRegions.add(((ContainedByFilter<SAMFragment>) filter).getRegion());
+			} else if (filter instanceof OverlapsFilter && overlapRegion == null) {
+				overlapRegion = ((OverlapsFilter<SAMFragment>) filter).getRegion();
+			}
+		}
+		
+		Annotation first = overlapRegion != null ? overlapRegion : containRegions.isEmpty() ? null : containRegions.iterator().next();
+		if (first == null || (region == null && !reader.hasIndex())) {
+			return reader.iterator();
+		}
+		
+		String chr = first.getReferenceName();
+		int start = first.getReferenceStartPosition();
+		int end = first.getReferenceEndPosition();
+		for (Annotation contain : containRegions) {
+			if (!contain.getReferenceName().equals(chr)) {
+				end = start;
+				break;
+			}
+			start = Math.max(start, contain.getReferenceStartPosition());
+			end = Math.min(end, contain.getReferenceEndPosition());
+		}
+		
+		if (end <= start) {
+			// No read can satisfy every constraint. Query the first region and let the filters reject everything.
+			return reader.queryOverlapping(chr, first.getReferenceStartPosition() + 1, first.getReferenceEndPosition());
+		}
+		return reader.queryOverlapping(chr, start + 1, end);
+	}
+	
+	/**
+	 * Set the validation stringency of the underlying reader. The default, strict validation decodes every
+	 * field of every record as it is read. With SILENT, BAM records are decoded lazily, so reads rejected by
+	 * record-level filters (flags, mapping quality, strand, insert size) are never CIGAR- or sequence-decoded
+	 * and a filtered scan costs close to the raw decode.
+	 * @param stringency Validation stringency
+	 */
+	public void setValidationStringency(ValidationStringency stringency) {
+		reader.setValidationStringency(stringency);
 	}
 		
 	/**
@@ -182,29 +267,60 @@ public class BAMSingleReadCollection extends AbstractAnnotationCollection<SAMFra
 	}
 	
 	/**
-	 * A wrapper class for Picard's SAMRecordIterator.
+	 * A wrapper class for Picard's SAMRecordIterator. Records failing the record-level filters
+	 * are skipped without being wrapped.
 	 */
 	public class WrappedIterator implements CloseableIterator<SAMFragment>{
 
 		SAMRecordIterator iter;
+		FilterChain<SAMRecord> recordFilters;
+		SAMRecord next;
 		
 		/**
 		 * Constructor which wraps the input SAMRecordIterator.
 		 * @param iter the SAMRecordIterator to wrap
 		 */
 		public WrappedIterator(SAMRecordIterator iter){
+			this(iter, new FilterChain<SAMRecord>());
+		}
+		
+		/**
+		 * Constructor which wraps the input SAMRecordIterator, skipping records that fail the filters
+		 * @param iter the SAMRecordIterator to wrap
+		 * @param recordFilters filters to apply to each SAMRecord before it is wrapped
+		 */
+		public WrappedIterator(SAMRecordIterator iter, FilterChain<SAMRecord> recordFilters){
 			//iter.assertSorted(SortOrder.coordinate);
 			this.iter=iter;
+			this.recordFilters=recordFilters;
 		}
 
 		@Override
 		public boolean hasNext() {
-			return iter.hasNext();
+			while(next == null && iter.hasNext()) {
+				SAMRecord record = iter.next();
+				if(recordFilters.evaluate(record)) {
+					next = record;
+				}
+			}
+			return next != null;
 		}
 
 		@Override
 		public SAMFragment next() {
-			return new SAMFragment(iter.next());
+			if(!hasNext()) {
+				throw new NoSuchElementException("WrappedIterator.next() called with no element.");
+			}
+			SAMFragment rtrn = new SAMFragment(next);
+			next = null;
+			return rtrn;
+		}
+		
+		/**
+		 * @return The chain of record-level filters, with per-filter pass rates and timings so far
+		 */
+		public FilterChain<SAMRecord> getRecordFilters() {
+			return recordFilters;
 		}
 
 		@Override
@@ -215,6 +331,9 @@ public class BAMSingleReadCollection extends AbstractAnnotationCollection<SAMFra
 
 		@Override
 		public void close() {
+			if (FilteredIterator.logger.isDebugEnabled() && !recordFilters.isEmpty()) {
+				FilteredIterator.logger.debug(recordFilters.toString());
+			}
 			iter.close();
 		}
 	}
@@ -0,0 +1,242 @@
+package guttmanlab.core.annotationcollection;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.apache.commons.collections15.Predicate;
+
+/**
+ * A short-circuiting conjunction of filters. Each filter is counted and (on a sample of calls) timed
+ * as it runs, and the chain periodically reorders itself so that filters which are cheap and reject
+ * many items are evaluated first. The filters must be side-effect free, since the order in which
+ * they are applied is not fixed.
+ *
+ * @param <T> The type of item being filtered
+ */
+public class FilterChain<T> implements Predicate<T> {
+
+	/**
+	 * Number of evaluations between reorderings of the chain
+	 */
+	private static final int REORDER_INTERVAL = 1 << 12;
+
+	/**
+	 * Only one call in every (mask + 1) is timed, since System.nanoTime() is not free
+	 */
+	private static final int TIMING_SAMPLE_MASK = 0xF;
+
+	private final List<FilterStatistics<T>> stages;
+	private final boolean adaptive;
+	private long numCalls;
+
+	/**
+	 * An empty chain that reorders its filters as it learns their cost and selectivity
+	 */
+	public FilterChain() {
+		this(true);
+	}
+
+	/**
+	 * @param adaptive Whether to reorder the filters at runtime. If false, filters are evaluated in the order they were added.
+	 */
+	public FilterChain(boolean adaptive) {
+		this.stages = new ArrayList<FilterStatistics<T>>();
+		this.adaptive = adaptive;
+	}
+
+	/**
+	 * An adaptive chain of the filters in a collection
+	 * @param filters Filters to apply
+	 */
+	public FilterChain(Collection<? extends Predicate<? super T>> filters) {
+		this();
+		for(Predicate<? super T> filter : filters) {
+			add(filter);
+		}
+	}
+
+	/**
+	 * Add a filter, reported under its class name
+	 * @param filter Filter to add
+	 */
+	public void add(Predicate<? super T> filter) {
+		add(filter, filter.getClass().getSimpleName());
+	}
+
+	/**
+	 * Add a filter
+	 * @param filter Filter to add
+	 * @param name Name to report statistics under
+	 */
+	public void add(Predicate<? super T> filter, String name) {
+		stages.add(new FilterStatistics<T>(filter, name));
+	}
+
+	/**
+	 * @return Whether the chain has no filters, i.e. passes everything
+	 */
+	public boolean isEmpty() {
+		return stages.isEmpty();
+	}
+
+	/**
+	 * @return Number of filters in the chain
+	 */
+	public int size() {
+		return stages.size();
+	}
+
+	@Override
+	public boolean evaluate(T item) {
+		int numStages = stages.size();
+		if(numStages == 0) {
+			return true;
+		}
+		boolean time = (numCalls & TIMING_SAMPLE_MASK) == 0;
+		numCalls++;
+		boolean rtrn = true;
+		for(int i = 0; i < numStages; i++) {
+			if(!stages.get(i).evaluate(item, time)) {
+				rtrn = false;
+				break;
+			}
+		}
+		if(adaptive && numStages > 1 && numCalls % REORDER_INTERVAL == 0) {
+			reorder();
+		}
+		return rtrn;
+	}
+
+	/**
+	 * Sort the filters by expected cost per rejection, so that the expected cost of evaluating the chain is minimized
+	 * for independent filters
+	 */
+	private void reorder() {
+		Collections.sort(stages, new Comparator<FilterStatistics<T>>() {
+			@Override
+			public int compare(FilterStatistics<T> s1, FilterStatistics<T> s2) {
+				return Double.compare(s1.rank(), s2.rank());
+			}
+		});
+	}
+
+	/**
+	 * @return Number of items evaluated by the chain
+	 */
+	public long getNumEvaluated() {
+		return numCalls;
+	}
+
+	/**
+	 * @return Per-filter statistics, in the order the filters are currently applied
+	 */
+	public List<FilterStatistics<T>> getStatistics() {
+		return Collections.unmodifiableList(new ArrayList<FilterStatistics<T>>(stages));
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder("FilterChain (" + numCalls + " evaluated)");
+		for(FilterStatistics<T> stage : stages) {
+			sb.append("\n\t" + stage.toString());
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * A filter in the chain along with its running counts and timing
+	 * @param <T> The type of item being filtered
+	 */
+	public static class FilterStatistics<T> {
+
+		private final Predicate<? super T> filter;
+		private final String name;
+		private long numEvaluated;
+		private long numPassed;
+		private long numTimed;
+		private long totalNanos;
+
+		FilterStatistics(Predicate<? super T> filter, String name) {
+			this.filter = filter;
+			this.name = name;
+		}
+
+		boolean evaluate(T item, boolean time) {
+			boolean passes;
+			if(time) {
+				long start = System.nanoTime();
+				passes = filter.evaluate(item);
+				totalNanos += System.nanoTime() - start;
+				numTimed++;
+			} else {
+				passes = filter.evaluate(item);
+			}
+			numEvaluated++;
+			if(passes) {
+				numPassed++;
+			}
+			return passes;
+		}
+
+		/**
+		 * Expected nanoseconds spent per item rejected. Filters that never reject go last.
+		 */
+		double rank() {
+			double rejectRate = 1 - getPassRate();
+			if(rejectRate <= 0) {
+				return Double.POSITIVE_INFINITY;
+			}
+			return getMeanNanos() / rejectRate;
+		}
+
+		/**
+		 * @return The filter
+		 */
+		public Predicate<? super T> getFilter() {
+			return filter;
+		}
+
+		/**
+		 * @return Name the filter is reported under
+		 */
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * @return Number of items this filter has been applied to. Items rejected by an earlier filter are not counted.
+		 */
+		public long getNumEvaluated() {
+			return numEvaluated;
+		}
+
+		/**
+		 * @return Number of items that passed this filter
+		 */
+		public long getNumPassed() {
+			return numPassed;
+		}
+
+		/**
+		 * @return Fraction of evaluated items that passed this filter, or 1 if none have been evaluated
+		 */
+		public double getPassRate() {
+			return numEvaluated == 0 ? 1 : (double) numPassed / numEvaluated;
+		}
+
+		/**
+		 * @return Mean nanoseconds per evaluation over the timed sample, or 0 if none have been timed
+		 */
+		public double getMeanNanos() {
+			return numTimed == 0 ? 0 : (double) totalNanos / numTimed;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%s: %d/%d passed (%.4f), %.1f ns", name, numPassed, numEvaluated, getPassRate(), getMeanNanos());
+		}
+	}
+}
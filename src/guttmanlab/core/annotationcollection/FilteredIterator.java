@@ -4,7 +4,6 @@ import guttmanlab.core.annotation.Annotation;
 import guttmanlab.core.annotation.Annotation.Strand;
 import guttmanlab.core.annotation.predicate.StrandFilter;
 
-import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
@@ -17,10 +16,9 @@ import org.apache.log4j.Logger;
 public class FilteredIterator<T extends Annotation> implements CloseableIterator<T>{
 
 		CloseableIterator<T> iter;
-		Collection<Predicate<T>> filters;
+		FilterChain<T> filters;
 		T next;
 		boolean started;
-		StrandFilter<T> sf;
 		public static Logger logger = Logger.getLogger(FilteredIterator.class.getName());
 		
 		/**
@@ -28,6 +26,14 @@ public class FilteredIterator<T extends Annotation> implements CloseableIterator
 		 * @param filters Filters to apply
 		 */
 		public FilteredIterator(CloseableIterator<T> iter, Collection<Predicate<T>> filters) {
+			this(iter, new FilterChain<T>(filters));
+		}
+		
+		/**
+		 * @param iter Unfiltered closeable iterator
+		 * @param filters Compiled chain of filters to apply
+		 */
+		public FilteredIterator(CloseableIterator<T> iter, FilterChain<T> filters) {
 			this.iter = iter;
 			this.filters = filters;
 		}
@@ -38,7 +44,7 @@ public class FilteredIterator<T extends Annotation> implements CloseableIterator
 		 */
 		public FilteredIterator(CloseableIterator<T> iter, Predicate<T> filter) {
 			this.iter = iter;
-			this.filters = new ArrayList<Predicate<T>>();
+			this.filters = new FilterChain<T>();
 			this.filters.add(filter);
 		}
 		
@@ -48,7 +54,7 @@ public class FilteredIterator<T extends Annotation> implements CloseableIterator
 		 */
 		public FilteredIterator(Iterator<T> iter, Collection<Predicate<T>> filters) {
 			this.iter = new CloseableWrapper(iter);
-			this.filters = filters;
+			this.filters = new FilterChain<T>(filters);
 		}
 		
 		/**
@@ -58,9 +64,25 @@ public class FilteredIterator<T extends Annotation> implements CloseableIterator
 		 */
 		public FilteredIterator(Iterator<T> iter, Collection<Predicate<T>> filters, Strand strand) {
 			this.iter = new CloseableWrapper(iter);
-			this.filters = filters;
-			this.sf = new StrandFilter<T>(strand);
-			this.filters.add(sf);
+			this.filters = new FilterChain<T>(filters);
+			this.filters.add(new StrandFilter<T>(strand));
+		}
+
+		/**
+		 * @param iter Unfiltered iterator
+		 * @param filters Compiled chain of filters to apply
+		 * @param strand Strand to restrict to
+		 */
+		public FilteredIterator(CloseableIterator<T> iter, FilterChain<T> filters, Strand strand) {
+			this(iter, filters);
+			this.filters.add(new StrandFilter<T>(strand));
+		}
+
+		/**
+		 * @return The chain of filters applied by this iterator, with per-filter pass rates and timings so far
+		 */
+		public FilterChain<T> getFilterChain() {
+			return filters;
 		}
 
 		@Override
@@ -83,23 +105,13 @@ public class FilteredIterator<T extends Annotation> implements CloseableIterator
 		}
 
 		private T findNext() {
-			boolean passesFilters = false;
-			T fragment = null;
-			while (!passesFilters && iter.hasNext()) {
-				boolean passesAll = true;
+			while (iter.hasNext()) {
 				T record = iter.next();
-				for (Predicate<T> filter: filters) {
-					if (!filter.evaluate(record)) {
-						passesAll = false;
-						break;
-					}
-				}
-				if (passesAll) {
-					fragment = record;
-					passesFilters = true;
+				if (filters.evaluate(record)) {
+					return record;
 				}
 			}
-			return fragment;
+			return null;
 		}
 
 		@Override
@@ -109,8 +121,8 @@ public class FilteredIterator<T extends Annotation> implements CloseableIterator
 
 		@Override
 		public void close() {
-			if (sf != null) {
-				filters.remove(sf);
+			if (logger.isDebugEnabled() && !filters.isEmpty()) {
+				logger.debug(filters.toString());
 			}
 			iter.close();
 		}
@@ -0,0 +1,157 @@
+package guttmanlab.core.annotationcollection;
+
+import guttmanlab.core.annotation.Annotation;
+import guttmanlab.core.annotation.Annotation.Strand;
+import guttmanlab.core.annotation.BEDFileRecord;
+import guttmanlab.core.annotation.BEDFileRecord.BEDBuilder;
+import guttmanlab.core.annotation.PopulatedWindow;
+import guttmanlab.core.annotation.SingleInterval;
+import guttmanlab.core.annotationcollection.MultiSampleCoverage.WindowCounts;
+import guttmanlab.core.coordinatespace.CoordinateSpace;
+import guttmanlab.core.math.MaximalSegments;
+import guttmanlab.core.util.ConcurrentUtils;
+import guttmanlab.core.util.ConcurrentUtils.OrderedExecutor;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.ToDoubleFunction;
+
+import net.sf.samtools.util.CloseableIterator;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Finds every maximal scoring region of a genome from the scores of its windows, e.g. enriched regions from
+ * window counts minus a background, with {@link MaximalSegments}. The windows of each reference sequence are read
+ * in one pass and only the pending segments are kept, so no array of window scores is built.
+ *
+ * Each region spans from the start of its first window to the end of its last, and is reported as a BED record
+ * scored with the sum of the scores of its windows. Reference sequences are processed in parallel and their regions
+ * are reported in order.
+ *
+ * @param <W> Type of the windows
+ */
+public class MaximalSegmentFinder<W> {
+
+	private static Logger logger = Logger.getLogger(MaximalSegmentFinder.class.getName());
+
+	private final Function<Annotation, ? extends CloseableIterator<? extends W>> windows;
+	private final Function<? super W, ? extends Annotation> location;
+	private final ToDoubleFunction<? super W> score;
+	private double minScore = 0;
+	private int numThreads = Runtime.getRuntime().availableProcessors();
+
+	/**
+	 * @param windows Windows of a region, in order, including windows with no annotations
+	 * @param location Location of a window
+	 * @param score Score of a window
+	 */
+	public MaximalSegmentFinder(Function<Annotation, ? extends CloseableIterator<? extends W>> windows, Function<? super W, ? extends Annotation> location, ToDoubleFunction<? super W> score) {
+		this.windows = windows;
+		this.location = location;
+		this.score = score;
+	}
+
+	/**
+	 * @param coverage Window counts of one or more samples
+	 * @param score Score of the counts of a window
+	 * @return A finder of the maximal scoring regions over the windows of the coverage
+	 */
+	public static MaximalSegmentFinder<WindowCounts> forCoverage(MultiSampleCoverage coverage, ToDoubleFunction<? super WindowCounts> score) {
+		return new MaximalSegmentFinder<WindowCounts>(region -> coverage.iterator(region, true), WindowCounts::getWindow, score);
+	}
+
+	/**
+	 * @param collection Annotations to count in windows
+	 * @param windowLength Window length
+	 * @param stepSize Distance between the start positions of consecutive windows
+	 * @param score Score of a window
+	 * @return A finder of the maximal scoring regions over the populated windows of the collection
+	 */
+	public static <T extends Annotation> MaximalSegmentFinder<PopulatedWindow<T>> forWindows(AnnotationCollection<T> collection, int windowLength, int stepSize, ToDoubleFunction<? super PopulatedWindow<T>> score) {
+		return new MaximalSegmentFinder<PopulatedWindow<T>>(region -> collection.getPopulatedWindows(region, windowLength, stepSize, true), window -> window, score);
+	}
+
+	/**
+	 * @param minScore Regions with a lower score are not reported. Default 0, i.e. all maximal regions.
+	 */
+	public void setMinScore(double minScore) {
+		this.minScore = minScore;
+	}
+
+	/**
+	 * @param numThreads Number of reference sequences processed at the same time. The windows function must be safe
+	 * to call from several threads if more than one. Default the number of processors.
+	 */
+	public void setNumThreads(int numThreads) {
+		this.numThreads = ConcurrentUtils.checkNumThreads(numThreads);
+	}
+
+	/**
+	 * Find the maximal scoring regions within a region
+	 * @param region Region whose windows are scored
+	 * @param consumer Receives each region in order of position, as soon as it is known to be maximal
+	 */
+	public void find(Annotation region, Consumer<? super BEDFileRecord> consumer) {
+		String chr = region.getReferenceName();
+		MaximalSegments segments = new MaximalSegments(segment -> {
+			if(segment.getScore() >= minScore) {
+				consumer.accept(new BEDBuilder(chr, (int) segment.getStart(), (int) segment.getEnd()).score(segment.getScore()).build());
+			}
+		});
+		CloseableIterator<? extends W> iter = windows.apply(region);
+		try {
+			while(iter.hasNext()) {
+				W window = iter.next();
+				Annotation annot = location.apply(window);
+				segments.add(score.applyAsDouble(window), annot.getReferenceStartPosition(), annot.getReferenceEndPosition());
+			}
+		} finally {
+			iter.close();
+		}
+		segments.finish();
+	}
+
+	/**
+	 * Find the maximal scoring regions within a region
+	 * @param region Region whose windows are scored
+	 * @return The regions in order of position
+	 */
+	public List<BEDFileRecord> find(Annotation region) {
+		List<BEDFileRecord> rtrn = new ArrayList<BEDFileRecord>();
+		find(region, rtrn::add);
+		return rtrn;
+	}
+
+	/**
+	 * Find the maximal scoring regions of every reference sequence
+	 * @param space Reference sequences and their sizes
+	 * @param consumer Receives each region on the calling thread, in order of reference sequence name and position
+	 */
+	public void find(CoordinateSpace space, Consumer<? super BEDFileRecord> consumer) {
+		long[] numRegions = new long[1];
+		Map<String, Integer> sizes = space.getRefSeqLengths();
+		// Sorted, since the map of sizes may be a HashMap
+		List<String> names = new ArrayList<String>(sizes.keySet());
+		Collections.sort(names);
+		try(OrderedExecutor<List<BEDFileRecord>, RuntimeException> executor = new OrderedExecutor<List<BEDFileRecord>, RuntimeException>(numThreads,
+				"finding regions", regions -> {
+					for(BEDFileRecord region : regions) {
+						consumer.accept(region);
+					}
+					numRegions[0] += regions.size();
+				})) {
+			for(String chr : names) {
+				Annotation region = new SingleInterval(chr, 0, sizes.get(chr).intValue(), Strand.BOTH);
+				executor.submit(() -> find(region));
+			}
+			executor.finish();
+		}
+		logger.info("Found " + numRegions[0] + " maximal scoring regions");
+	}
+
+}
@@ -0,0 +1,390 @@
+package guttmanlab.core.annotationcollection;
+
+import guttmanlab.core.annotation.Annotation;
+import guttmanlab.core.annotation.Annotation.Strand;
+import guttmanlab.core.annotation.SingleInterval;
+import guttmanlab.core.math.StreamingStatistics;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.stream.IntStream;
+
+import net.sf.samtools.util.CloseableIterator;
+
+/**
+ * Counts the annotations of several collections (e.g. the reads of several samples) in each window of one
+ * shared grid, in a single coordinated pass over their sorted iterators. Each window is reported with a
+ * vector holding one count per sample, which can be passed directly to ScanStat.
+ *
+ * The windows of a region start at the region start and every stepSize bases after it, and only windows lying
+ * entirely within the region are counted. An annotation is counted once in every window that overlaps one of its blocks.
+ *
+ */
+public class MultiSampleCoverage {
+
+	/**
+	 * Number of windows each sample is advanced over at a time
+	 */
+	private static final int BATCH_SIZE = 1 << 10;
+
+	private final List<? extends AnnotationCollection<? extends Annotation>> samples;
+	private final int windowLength;
+	private final int stepSize;
+	private boolean parallel;
+
+	/**
+	 * @param samples Collections to count, one per sample
+	 * @param windowLength Window length
+	 * @param stepSize Distance between the start positions of consecutive windows
+	 */
+	public MultiSampleCoverage(List<? extends AnnotationCollection<? extends Annotation>> samples, int windowLength, int stepSize) {
+		if(samples.isEmpty()) {
+			throw new IllegalArgumentException("No samples");
+		}
+		if(windowLength < 1 || stepSize < 1) {
+			throw new IllegalArgumentException("Window length and step size must be positive: " + windowLength + ", " + stepSize);
+		}
+		this.samples = samples;
+		this.windowLength = windowLength;
+		this.stepSize = stepSize;
+	}
+
+	/**
+	 * @param parallel Whether to read the samples concurrently. The collections must not share iterators or readers.
+	 */
+	public void setParallel(boolean parallel) {
+		this.parallel = parallel;
+	}
+
+	/**
+	 * @return Number of samples, i.e. length of each count vector
+	 */
+	public int getNumSamples() {
+		return samples.size();
+	}
+
+	/**
+	 * Get the counts in windows within a region. Each sample's reads are obtained with sortedIterator(region, false),
+	 * so the strand of the region and the filters of each collection are applied.
+	 * @param region Region to tile with windows
+	 * @param includeEmpties Whether to report windows with no annotations in any sample
+	 * @return Windows in order of start position, with their counts
+	 */
+	public CloseableIterator<WindowCounts> iterator(Annotation region, boolean includeEmpties) {
+		return new CountIterator(region, includeEmpties);
+	}
+
+	/**
+	 * Get the counts in windows over every reference sequence in the coordinate space of the first sample
+	 * @param includeEmpties Whether to report windows with no annotations in any sample
+	 * @return Windows ordered by reference sequence name and start position, with their counts
+	 */
+	public CloseableIterator<WindowCounts> iterator(boolean includeEmpties) {
+		Map<String, Integer> sizes = samples.get(0).getReferenceCoordinateSpace().getRefSeqLengths();
+		// The map of sizes has no guaranteed order
+		List<String> names = new ArrayList<String>(sizes.keySet());
+		Collections.sort(names);
+		List<Annotation> regions = new ArrayList<Annotation>();
+		for(String chr : names) {
+			regions.add(new SingleInterval(chr, 0, sizes.get(chr).intValue(), Strand.BOTH));
+		}
+		return new RegionsIterator(regions.iterator(), includeEmpties);
+	}
+
+	/**
+	 * Get the distribution of the counts of each sample over the windows of a region
+	 * @param region Region to tile with windows
+	 * @param includeEmpties Whether to count windows with no annotations in any sample
+	 * @return Statistics of the window counts of each sample, in the order the samples were given
+	 */
+	public StreamingStatistics[] getCountStatistics(Annotation region, boolean includeEmpties) {
+		return getCountStatistics(iterator(region, includeEmpties));
+	}
+
+	/**
+	 * Get the distribution of the counts of each sample over the windows of every reference sequence
+	 * @param includeEmpties Whether to count windows with no annotations in any sample
+	 * @return Statistics of the window counts of each sample, in the order the samples were given
+	 */
+	public StreamingStatistics[] getCountStatistics(boolean includeEmpties) {
+		return getCountStatistics(iterator(includeEmpties));
+	}
+
+	private StreamingStatistics[] getCountStatistics(CloseableIterator<WindowCounts> iter) {
+		StreamingStatistics[] rtrn = new StreamingStatistics[samples.size()];
+		for(int i = 0; i < rtrn.length; i++) {
+			rtrn[i] = new StreamingStatistics();
+		}
+		try {
+			while(iter.hasNext()) {
+				int[] counts = iter.next().getCounts();
+				for(int i = 0; i < rtrn.length; i++) {
+					rtrn[i].accept(counts[i]);
+				}
+			}
+		} finally {
+			iter.close();
+		}
+		return rtrn;
+	}
+
+	/**
+	 * A window and the number of annotations of each sample in it
+	 */
+	public static class WindowCounts {
+
+		private final SingleInterval window;
+		private final int[] counts;
+
+		WindowCounts(SingleInterval window, int[] counts) {
+			this.window = window;
+			this.counts = counts;
+		}
+
+		/**
+		 * @return The window
+		 */
+		public SingleInterval getWindow() {
+			return window;
+		}
+
+		/**
+		 * @return Count for each sample, in the order the samples were given
+		 */
+		public int[] getCounts() {
+			return counts;
+		}
+
+		/**
+		 * @param sample Index of the sample
+		 * @return Count for the sample
+		 */
+		public int getCount(int sample) {
+			return counts[sample];
+		}
+
+		/**
+		 * @return Sum of the counts of all samples
+		 */
+		public int getTotal() {
+			int rtrn = 0;
+			for(int count : counts) {
+				rtrn += count;
+			}
+			return rtrn;
+		}
+
+		@Override
+		public String toString() {
+			return window.toUCSC() + "\t" + Arrays.toString(counts);
+		}
+	}
+
+	/**
+	 * The sorted iterator of one sample, with the counts of the windows it has reached but that are not yet reported
+	 */
+	private class SampleCursor {
+
+		private final CloseableIterator<? extends Annotation> reads;
+		private final int gridStart;
+		private final int numWindows;
+		private Annotation next;
+		// Ring buffer of counts: window k is at k & (counts.length - 1), for base <= k < base + counts.length
+		private int[] counts;
+		private int base;
+
+		SampleCursor(CloseableIterator<? extends Annotation> reads, int gridStart, int numWindows) {
+			this.reads = reads;
+			this.gridStart = gridStart;
+			this.numWindows = numWindows;
+			this.counts = new int[2 * BATCH_SIZE];
+			this.next = reads.hasNext() ? reads.next() : null;
+		}
+
+		/**
+		 * Count all reads that start before the end of a window, which completes the counts of all windows up to it
+		 * @param window Index of the last window to complete
+		 */
+		void advance(int window) {
+			int end = gridStart + window * stepSize + windowLength;
+			while(next != null && next.getReferenceStartPosition() < end) {
+				add(next);
+				next = reads.hasNext() ? reads.next() : null;
+			}
+		}
+
+		private void add(Annotation read) {
+			int last = -1;
+			Iterator<SingleInterval> blocks = read.getBlocks();
+			while(blocks.hasNext()) {
+				SingleInterval block = blocks.next();
+				int first = Math.max(Math.max(0, last + 1), Math.floorDiv(block.getReferenceStartPosition() - windowLength - gridStart, stepSize) + 1);
+				int stop = Math.min(numWindows - 1, Math.floorDiv(block.getReferenceEndPosition() - 1 - gridStart, stepSize));
+				for(int k = first; k <= stop; k++) {
+					increment(k);
+				}
+				last = Math.max(last, stop);
+			}
+		}
+
+		private void increment(int window) {
+			if(window - base >= counts.length) {
+				int[] grown = new int[Integer.highestOneBit(window - base) << 1];
+				int oldMask = counts.length - 1;
+				int newMask = grown.length - 1;
+				for(int k = base; k < base + counts.length; k++) {
+					grown[k & newMask] = counts[k & oldMask];
+				}
+				counts = grown;
+			}
+			counts[window & (counts.length - 1)]++;
+		}
+
+		/**
+		 * Remove and return the count of the next window, which must be complete
+		 */
+		int poll() {
+			int i = base & (counts.length - 1);
+			int rtrn = counts[i];
+			counts[i] = 0;
+			base++;
+			return rtrn;
+		}
+
+		void close() {
+			reads.close();
+		}
+	}
+
+	private class CountIterator implements CloseableIterator<WindowCounts> {
+
+		private final String chr;
+		private final int gridStart;
+		private final int numWindows;
+		private final boolean includeEmpties;
+		private final List<SampleCursor> cursors;
+		private final ArrayDeque<WindowCounts> batch;
+		private int nextWindow;
+
+		CountIterator(Annotation region, boolean includeEmpties) {
+			this.chr = region.getReferenceName();
+			this.gridStart = region.getReferenceStartPosition();
+			int length = region.getReferenceEndPosition() - gridStart;
+			this.numWindows = length < windowLength ? 0 : (length - windowLength) / stepSize + 1;
+			this.includeEmpties = includeEmpties;
+			this.batch = new ArrayDeque<WindowCounts>();
+			this.cursors = new ArrayList<SampleCursor>(samples.size());
+			for(AnnotationCollection<? extends Annotation> sample : samples) {
+				cursors.add(new SampleCursor(sample.sortedIterator(region, false), gridStart, numWindows));
+			}
+		}
+
+		private void fillBatch() {
+			while(batch.isEmpty() && nextWindow < numWindows) {
+				int last = Math.min(numWindows, nextWindow + BATCH_SIZE) - 1;
+				if(parallel) {
+					IntStream.range(0, cursors.size()).parallel().forEach(i -> cursors.get(i).advance(last));
+				} else {
+					for(SampleCursor cursor : cursors) {
+						cursor.advance(last);
+					}
+				}
+				for(; nextWindow <= last; nextWindow++) {
+					int[] counts = new int[cursors.size()];
+					boolean empty = true;
+					for(int i = 0; i < counts.length; i++) {
+						counts[i] = cursors.get(i).poll();
+						empty &= counts[i] == 0;
+					}
+					if(includeEmpties || !empty) {
+						int start = gridStart + nextWindow * stepSize;
+						batch.add(new WindowCounts(new SingleInterval(chr, start, start + windowLength, Strand.BOTH), counts));
+					}
+				}
+			}
+		}
+
+		@Override
+		public boolean hasNext() {
+			fillBatch();
+			return !batch.isEmpty();
+		}
+
+		@Override
+		public WindowCounts next() {
+			if(!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			return batch.poll();
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void close() {
+			for(SampleCursor cursor : cursors) {
+				cursor.close();
+			}
+		}
+	}
+
+	/**
+	 * Iterates over the windows of several regions in turn
+	 */
+	private class RegionsIterator implements CloseableIterator<WindowCounts> {
+
+		private final Iterator<Annotation> regions;
+		private final boolean includeEmpties;
+		private CloseableIterator<WindowCounts> current;
+
+		RegionsIterator(Iterator<Annotation> regions, boolean includeEmpties) {
+			this.regions = regions;
+			this.includeEmpties = includeEmpties;
+		}
+
+		@Override
+		public boolean hasNext() {
+			while(current == null || !current.hasNext()) {
+				if(current != null) {
+					current.close();
+					current = null;
+				}
+				if(!regions.hasNext()) {
+					return false;
+				}
+				current = iterator(regions.next(), includeEmpties);
+			}
+			return true;
+		}
+
+		@Override
+		public WindowCounts next() {
+			if(!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			return current.next();
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void close() {
+			if(current != null) {
+				current.close();
+			}
+		}
+	}
+
+}
@@ -0,0 +1,648 @@
+package guttmanlab.core.annotationcollection;
+
+import guttmanlab.core.annotation.Annotation;
+import guttmanlab.core.annotation.Annotation.Strand;
+import guttmanlab.core.annotation.BlockedAnnotation;
+import guttmanlab.core.annotation.DerivedAnnotation;
+import guttmanlab.core.annotation.MappedFragment;
+import guttmanlab.core.annotation.SAMFragment;
+import guttmanlab.core.annotation.SingleInterval;
+import guttmanlab.core.annotation.predicate.ContainedByFilter;
+import guttmanlab.core.annotation.predicate.OverlapsFilter;
+import guttmanlab.core.annotation.predicate.ReadFlag;
+import guttmanlab.core.annotation.predicate.SAMFlag;
+import guttmanlab.core.coordinatespace.CoordinateSpace;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import net.sf.samtools.SAMRecord;
+import net.sf.samtools.util.CloseableIterator;
+
+import org.apache.log4j.Logger;
+
+/**
+ * An append-only collection of mapped reads stored outside the Java heap. Only the fields the
+ * annotation model needs are kept (reference, blocks, strand, SAM flags, mapping quality, NH tag and
+ * a hash of the read name), packed into direct or memory-mapped byte buffers, so collections of hundreds of
+ * millions of reads don't fill the heap or burden the garbage collector. Iterators return lightweight
+ * StoredRead views onto the packed records.
+ *
+ * Reads must be added in sorted order: all reads on a reference sequence are contiguous and their
+ * start positions are nondecreasing, as produced by the sorted iterator of a coordinate-sorted BAM file.
+ *
+ * A collection backed by a memory-mapped file should be closed when no more reads will be added.
+ *
+ */
+public class OffHeapReadCollection extends AbstractAnnotationCollection<OffHeapReadCollection.StoredRead> implements Closeable {
+
+	public static Logger logger = Logger.getLogger(OffHeapReadCollection.class.getName());
+
+	/**
+	 * Default size of each buffer segment
+	 */
+	public static final int DEFAULT_SEGMENT_SIZE = 1 << 26;
+
+	/**
+	 * Number of reads between index checkpoints
+	 */
+	private static final int CHECKPOINT_INTERVAL = 1 << 10;
+
+	// Record layout: reference id, name hash, SAM flags, mapping quality, strand, number of blocks, number of hits,
+	// then block start/end pairs
+	private static final int REFERENCE_OFFSET = 0;
+	private static final int NAME_HASH_OFFSET = 4;
+	private static final int FLAGS_OFFSET = 8;
+	private static final int MAPPING_QUALITY_OFFSET = 10;
+	private static final int STRAND_OFFSET = 11;
+	private static final int NUM_BLOCKS_OFFSET = 12;
+	private static final int NUM_HITS_OFFSET = 14;
+	private static final int BLOCKS_OFFSET = 18;
+	private static final int NO_NUM_HITS = -1;
+	private static final int MAX_BLOCKS = 0xFFFF;
+
+	private final CoordinateSpace referenceSpace;
+	private final int segmentSize;
+	private final List<ByteBuffer> segments;
+	private final RandomAccessFile file;
+	private final FileChannel channel;
+	private ByteBuffer current;
+
+	private final List<String> referenceNames;
+	private final Map<String, Integer> referenceIds;
+	private int[] maxSpan;
+	private int lastReference = -1;
+	private int lastStart = Integer.MIN_VALUE;
+
+	private long numReads;
+	private long[] checkpointHandles;
+	private int[] checkpointReferences;
+	private int[] checkpointStarts;
+	private int numCheckpoints;
+
+	/**
+	 * A collection backed by direct byte buffers
+	 * @param referenceSpace The reference coordinate space of the reads
+	 */
+	public OffHeapReadCollection(CoordinateSpace referenceSpace) {
+		this(referenceSpace, DEFAULT_SEGMENT_SIZE);
+	}
+
+	/**
+	 * A collection backed by direct byte buffers
+	 * @param referenceSpace The reference coordinate space of the reads
+	 * @param segmentSize Size in bytes of each buffer segment
+	 */
+	public OffHeapReadCollection(CoordinateSpace referenceSpace, int segmentSize) {
+		this(referenceSpace, segmentSize, null);
+	}
+
+	/**
+	 * A collection backed by segments of a memory-mapped file, so that the operating system can page the reads
+	 * out of memory. The file is overwritten and deleted on exit.
+	 * @param referenceSpace The reference coordinate space of the reads
+	 * @param backingFile File to map
+	 * @throws IOException If the file can't be opened
+	 */
+	public OffHeapReadCollection(CoordinateSpace referenceSpace, File backingFile) throws IOException {
+		this(referenceSpace, DEFAULT_SEGMENT_SIZE, backingFile);
+	}
+
+	/**
+	 * @param referenceSpace The reference coordinate space of the reads
+	 * @param segmentSize Size in bytes of each buffer segment
+	 * @param backingFile File to map, or null to use direct byte buffers
+	 */
+	OffHeapReadCollection(CoordinateSpace referenceSpace, int segmentSize, File backingFile) {
+		super();
+		if(segmentSize < BLOCKS_OFFSET + 8) {
+			throw new IllegalArgumentException("Segment size is too small: " + segmentSize);
+		}
+		this.referenceSpace = referenceSpace;
+		this.segmentSize = segmentSize;
+		this.segments = new ArrayList<ByteBuffer>();
+		this.referenceNames = new ArrayList<String>();
+		this.referenceIds = new HashMap<String, Integer>();
+		this.maxSpan = new int[16];
+		this.checkpointHandles = new long[16];
+		this.checkpointReferences = new int[16];
+		this.checkpointStarts = new int[16];
+		if(backingFile == null) {
+			this.file = null;
+			this.channel = null;
+		} else {
+			try {
+				backingFile.deleteOnExit();
+				this.file = new RandomAccessFile(backingFile, "rw");
+				file.setLength(0);
+				this.channel = file.getChannel();
+			} catch(IOException e) {
+				throw new IllegalArgumentException("Can't map " + backingFile, e);
+			}
+		}
+	}
+
+	/**
+	 * Load all reads from another collection, e.g. a BAMSingleReadCollection, applying its filters
+	 * @param reads Reads to store
+	 * @return A new collection holding the reads
+	 */
+	public static OffHeapReadCollection load(AnnotationCollection<SAMFragment> reads) {
+		OffHeapReadCollection rtrn = new OffHeapReadCollection(reads.getReferenceCoordinateSpace());
+		CloseableIterator<SAMFragment> iter = reads.sortedIterator();
+		try {
+			while(iter.hasNext()) {
+				rtrn.add(iter.next());
+			}
+		} finally {
+			iter.close();
+		}
+		logger.info("Stored " + rtrn.numReads + " reads in " + rtrn.segments.size() + " segments");
+		return rtrn;
+	}
+
+	/**
+	 * Append a read. Unmapped reads (no blocks) are skipped.
+	 * @param read The read
+	 * @return Whether the read was stored
+	 */
+	public boolean add(SAMFragment read) {
+		SAMRecord record = read.getSamRecord();
+		Integer numHits = record.getIntegerAttribute(SAMFragment.SAM_NUM_HITS_TAG);
+		return add(read.getReferenceName(), read.getBlocks(), read.getNumberOfBlocks(), read.getOrientation(), record.getFlags(),
+				record.getMappingQuality(), numHits == null ? NO_NUM_HITS : numHits.intValue(), read.getName());
+	}
+
+	/**
+	 * Append a read, using the strand of a SAMFragment wrapping the record
+	 * @param record The SAM record
+	 * @return Whether the read was stored
+	 */
+	public boolean add(SAMRecord record) {
+		return add(new SAMFragment(record));
+	}
+
+	private boolean add(String referenceName, Iterator<SingleInterval> blocks, int numBlocks, Strand strand, int flags, int mappingQuality, int numHits, String name) {
+		if(numBlocks == 0) {
+			return false;
+		}
+		if(numBlocks > MAX_BLOCKS) {
+			throw new IllegalArgumentException("Read " + name + " has more than " + MAX_BLOCKS + " blocks");
+		}
+		int recordSize = BLOCKS_OFFSET + 8 * numBlocks;
+		if(recordSize > segmentSize) {
+			throw new IllegalArgumentException("Read " + name + " does not fit in a segment of size " + segmentSize);
+		}
+
+		int reference = getReferenceId(referenceName);
+		if(current == null || current.remaining() < recordSize) {
+			current = newSegment();
+		}
+		int offset = current.position();
+		current.putInt(reference);
+		current.putInt(name == null ? 0 : name.hashCode());
+		current.putShort((short) flags);
+		current.put((byte) Math.min(mappingQuality, 255));
+		current.put((byte) strand.ordinal());
+		current.putShort((short) numBlocks);
+		current.putInt(numHits);
+		int start = Integer.MAX_VALUE;
+		int end = Integer.MIN_VALUE;
+		while(blocks.hasNext()) {
+			SingleInterval block = blocks.next();
+			current.putInt(block.getReferenceStartPosition());
+			current.putInt(block.getReferenceEndPosition());
+			start = Math.min(start, block.getReferenceStartPosition());
+			end = Math.max(end, block.getReferenceEndPosition());
+		}
+
+		if(reference == lastReference && start < lastStart) {
+			current.putShort(offset + NUM_BLOCKS_OFFSET, (short) 0);
+			current.position(offset);
+			throw new IllegalArgumentException("Reads must be added in sorted order: " + name + " starts at " + start + " after a read starting at " + lastStart);
+		}
+		maxSpan[reference] = Math.max(maxSpan[reference], end - start);
+		if(numReads % CHECKPOINT_INTERVAL == 0 || reference != lastReference) {
+			addCheckpoint(handle(segments.size() - 1, offset), reference, start);
+		}
+		lastReference = reference;
+		lastStart = start;
+		numReads++;
+		return true;
+	}
+
+	private int getReferenceId(String referenceName) {
+		Integer id = referenceIds.get(referenceName);
+		if(id != null) {
+			if(id.intValue() != lastReference) {
+				throw new IllegalArgumentException("Reads must be added in sorted order: reads on " + referenceName + " are not contiguous");
+			}
+			return id.intValue();
+		}
+		int rtrn = referenceNames.size();
+		referenceNames.add(referenceName);
+		referenceIds.put(referenceName, Integer.valueOf(rtrn));
+		if(rtrn == maxSpan.length) {
+			maxSpan = Arrays.copyOf(maxSpan, 2 * rtrn);
+		}
+		return rtrn;
+	}
+
+	private ByteBuffer newSegment() {
+		ByteBuffer segment;
+		if(channel == null) {
+			segment = ByteBuffer.allocateDirect(segmentSize);
+		} else {
+			if(!channel.isOpen()) {
+				throw new IllegalStateException("Can't add reads after the collection is closed");
+			}
+			try {
+				segment = channel.map(FileChannel.MapMode.READ_WRITE, (long) segments.size() * segmentSize, segmentSize);
+			} catch(IOException e) {
+				throw new IllegalStateException("Could not map segment " + segments.size(), e);
+			}
+		}
+		segments.add(segment);
+		return segment;
+	}
+
+	/**
+	 * Close the backing file, if any. Stored reads remain readable, since the mapped segments stay valid after
+	 * the file is closed, but no more reads can be added.
+	 */
+	@Override
+	public void close() throws IOException {
+		if(file != null) {
+			file.close();
+		}
+	}
+
+	private void addCheckpoint(long handle, int reference, int start) {
+		if(numCheckpoints == checkpointHandles.length) {
+			checkpointHandles = Arrays.copyOf(checkpointHandles, 2 * numCheckpoints);
+			checkpointReferences = Arrays.copyOf(checkpointReferences, 2 * numCheckpoints);
+			checkpointStarts = Arrays.copyOf(checkpointStarts, 2 * numCheckpoints);
+		}
+		checkpointHandles[numCheckpoints] = handle;
+		checkpointReferences[numCheckpoints] = reference;
+		checkpointStarts[numCheckpoints] = start;
+		numCheckpoints++;
+	}
+
+	private static long handle(int segment, int offset) {
+		return ((long) segment << 32) | offset;
+	}
+
+	/**
+	 * @return Number of reads stored, ignoring filters
+	 */
+	public long getNumStoredReads() {
+		return numReads;
+	}
+
+	/**
+	 * @return Number of off-heap bytes used by the stored reads
+	 */
+	public long getNumBytesUsed() {
+		if(segments.isEmpty()) {
+			return 0;
+		}
+		return (long) (segments.size() - 1) * segmentSize + current.position();
+	}
+
+	@Override
+	public int getNumAnnotations() {
+		if(getFilters().isEmpty() && numReads <= Integer.MAX_VALUE) {
+			return (int) numReads;
+		}
+		return super.getNumAnnotations();
+	}
+
+	@Override
+	public CloseableIterator<StoredRead> sortedIterator() {
+		if(numCheckpoints == 0) {
+			return new FilteredIterator<StoredRead>(Collections.<StoredRead>emptyIterator(), getFilters());
+		}
+		return new FilteredIterator<StoredRead>(new RecordIterator(checkpointHandles[0], -1, Integer.MAX_VALUE), getFilters());
+	}
+
+	@Override
+	public CloseableIterator<StoredRead> sortedIterator(Annotation region, boolean fullyContained) {
+		FilterChain<StoredRead> filters = new FilterChain<StoredRead>(getFilters());
+		if (fullyContained) {
+			filters.add(new ContainedByFilter<StoredRead>(region));
+		} else {
+			filters.add(new OverlapsFilter<StoredRead>(region));
+		}
+
+		Integer reference = referenceIds.get(region.getReferenceName());
+		if(reference == null) {
+			return new FilteredIterator<StoredRead>(Collections.<StoredRead>emptyIterator(), getFilters());
+		}
+
+		// Start from the last checkpoint before any read that could reach the region
+		int id = reference.intValue();
+		long from = (long) region.getReferenceStartPosition() - maxSpan[id];
+		int checkpoint = lastCheckpointBefore(id, from);
+		return new FilteredIterator<StoredRead>(new RecordIterator(checkpointHandles[checkpoint], id, region.getReferenceEndPosition()), filters, region.getOrientation());
+	}
+
+	/**
+	 * @return Index of the last checkpoint at or before the first read on the reference starting at or after the position
+	 */
+	private int lastCheckpointBefore(int reference, long position) {
+		int low = 0;
+		int high = numCheckpoints - 1;
+		int rtrn = 0;
+		while(low <= high) {
+			int mid = (low + high) >>> 1;
+			if(checkpointReferences[mid] < reference || (checkpointReferences[mid] == reference && checkpointStarts[mid] < position)) {
+				rtrn = mid;
+				low = mid + 1;
+			} else {
+				high = mid - 1;
+			}
+		}
+		return rtrn;
+	}
+
+	@Override
+	public CoordinateSpace getReferenceCoordinateSpace() {
+		return referenceSpace;
+	}
+
+	/**
+	 * Iterates over the packed records from a handle, optionally stopping at the end of a region
+	 */
+	private class RecordIterator implements CloseableIterator<StoredRead> {
+
+		private int segment;
+		private int offset;
+		private final int reference;
+		private final int end;
+		private StoredRead next;
+
+		/**
+		 * @param handle Handle of the first record to examine
+		 * @param reference Reference id to restrict to, or -1 for all
+		 * @param end Stop at the first read on the reference starting at or after this position
+		 */
+		RecordIterator(long handle, int reference, int end) {
+			this.segment = (int) (handle >>> 32);
+			this.offset = (int) handle;
+			this.reference = reference;
+			this.end = end;
+			findNext();
+		}
+
+		private void findNext() {
+			next = null;
+			while(segment < segments.size()) {
+				ByteBuffer buffer = segments.get(segment);
+				int limit = segment == segments.size() - 1 ? current.position() : buffer.capacity();
+				if(offset + BLOCKS_OFFSET > limit || buffer.getShort(offset + NUM_BLOCKS_OFFSET) == 0) {
+					// Past the last record of this segment
+					segment++;
+					offset = 0;
+					continue;
+				}
+				StoredRead read = new StoredRead(buffer, offset);
+				offset += read.recordSize();
+				if(reference < 0) {
+					next = read;
+					return;
+				}
+				int readReference = buffer.getInt(read.offset + REFERENCE_OFFSET);
+				if(readReference < reference) {
+					continue;
+				}
+				if(readReference > reference || read.getReferenceStartPosition() >= end) {
+					segment = segments.size();
+					return;
+				}
+				next = read;
+				return;
+			}
+		}
+
+		@Override
+		public boolean hasNext() {
+			return next != null;
+		}
+
+		@Override
+		public StoredRead next() {
+			if(next == null) {
+				throw new NoSuchElementException();
+			}
+			StoredRead rtrn = next;
+			findNext();
+			return rtrn;
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void close() {}
+
+	}
+
+	/**
+	 * A lightweight view of a read stored in an OffHeapReadCollection. The view holds only a reference to
+	 * the buffer segment and the offset of the record; every field is read from the buffer on demand.
+	 * The read name is not stored, so getName() returns a hex string of the hash of the original name.
+	 * The end position is the end of the last aligned block, as for a BlockedAnnotation.
+	 */
+	public class StoredRead implements MappedFragment {
+
+		private final ByteBuffer buffer;
+		private final int offset;
+
+		StoredRead(ByteBuffer buffer, int offset) {
+			this.buffer = buffer;
+			this.offset = offset;
+		}
+
+		int recordSize() {
+			return BLOCKS_OFFSET + 8 * getNumberOfBlocks();
+		}
+
+		private int blockStart(int block) {
+			return buffer.getInt(offset + BLOCKS_OFFSET + 8 * block);
+		}
+
+		private int blockEnd(int block) {
+			return buffer.getInt(offset + BLOCKS_OFFSET + 8 * block + 4);
+		}
+
+		/**
+		 * @return Hash code of the original read name
+		 */
+		public int getNameHash() {
+			return buffer.getInt(offset + NAME_HASH_OFFSET);
+		}
+
+		/**
+		 * @return SAM flags of the original record
+		 */
+		public int getFlags() {
+			return buffer.getShort(offset + FLAGS_OFFSET) & 0xFFFF;
+		}
+
+		@Override
+		public String getName() {
+			return Integer.toHexString(getNameHash());
+		}
+
+		@Override
+		public String getReferenceName() {
+			return referenceNames.get(buffer.getInt(offset + REFERENCE_OFFSET));
+		}
+
+		@Override
+		public int getReferenceStartPosition() {
+			return blockStart(0);
+		}
+
+		@Override
+		public int getReferenceEndPosition() {
+			return blockEnd(getNumberOfBlocks() - 1);
+		}
+
+		@Override
+		public Iterator<SingleInterval> getBlocks() {
+			int numBlocks = getNumberOfBlocks();
+			String chr = getReferenceName();
+			Strand strand = getOrientation();
+			String name = getName();
+			List<SingleInterval> rtrn = new ArrayList<SingleInterval>(numBlocks);
+			for(int i = 0; i < numBlocks; i++) {
+				rtrn.add(new SingleInterval(chr, blockStart(i), blockEnd(i), strand, name));
+			}
+			return rtrn.iterator();
+		}
+
+		@Override
+		public int getNumberOfBlocks() {
+			return buffer.getShort(offset + NUM_BLOCKS_OFFSET) & 0xFFFF;
+		}
+
+		@Override
+		public int size() {
+			int rtrn = 0;
+			int numBlocks = getNumberOfBlocks();
+			for(int i = 0; i < numBlocks; i++) {
+				rtrn += blockEnd(i) - blockStart(i);
+			}
+			return rtrn;
+		}
+
+		@Override
+		public Strand getOrientation() {
+			return Strand.values()[buffer.get(offset + STRAND_OFFSET)];
+		}
+
+		/**
+		 * Same as the default implementation, but reads the blocks of this read from the buffer instead of
+		 * creating block objects
+		 */
+		@Override
+		public boolean overlaps(Annotation other) {
+			if(other == null) {
+				return false;
+			}
+			String chr = getReferenceName();
+			Strand strand = getOrientation();
+			int numBlocks = getNumberOfBlocks();
+			Iterator<SingleInterval> otherBlocks = other.getBlocks();
+			while(otherBlocks.hasNext()) {
+				SingleInterval block = otherBlocks.next();
+				if(!chr.equalsIgnoreCase(block.getReferenceName()) || Strand.consensusStrand(strand, block.getOrientation()) == Strand.INVALID) {
+					continue;
+				}
+				for(int i = 0; i < numBlocks; i++) {
+					if(Math.max(blockStart(i), block.getReferenceStartPosition()) < Math.min(blockEnd(i), block.getReferenceEndPosition())) {
+						return true;
+					}
+				}
+			}
+			return false;
+		}
+
+		@Override
+		public int getRelativePositionFrom5PrimeOfFeature(int referenceStart) {
+			BlockedAnnotation blocked = new BlockedAnnotation(getName());
+			Iterator<SingleInterval> blocks = getBlocks();
+			while(blocks.hasNext()) {
+				blocked.addBlocks(blocks.next());
+			}
+			return blocked.getRelativePositionFrom5PrimeOfFeature(referenceStart);
+		}
+
+		@Override
+		public AnnotationCollection<DerivedAnnotation<? extends Annotation>> getWindows(int windowSize, int stepSize) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void setOrientation(Strand orientation) {
+			throw new UnsupportedOperationException("Stored reads are read-only");
+		}
+
+		@Override
+		public Collection<? extends ReadFlag> getReadFlags() {
+			return SAMFlag.fromFlags(getFlags());
+		}
+
+		@Override
+		public int getNumHits() {
+			int rtrn = buffer.getInt(offset + NUM_HITS_OFFSET);
+			if(rtrn == NO_NUM_HITS) {
+				throw new IllegalStateException("Read " + getName() + " has no " + SAMFragment.SAM_NUM_HITS_TAG + " tag");
+			}
+			return rtrn;
+		}
+
+		@Override
+		public int getMappingQuality() {
+			return buffer.get(offset + MAPPING_QUALITY_OFFSET) & 0xFF;
+		}
+
+		@Override
+		public String toString() {
+			return toBED();
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			if(!(other instanceof StoredRead)) {
+				return false;
+			}
+			StoredRead o = (StoredRead) other;
+			return buffer == o.buffer && offset == o.offset;
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * System.identityHashCode(buffer) + offset;
+		}
+
+	}
+
+}
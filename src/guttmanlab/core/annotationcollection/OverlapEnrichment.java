@@ -0,0 +1,477 @@
+package guttmanlab.core.annotationcollection;
+
+import guttmanlab.core.annotation.Annotation;
+import guttmanlab.core.annotation.IntervalBuilder;
+import guttmanlab.core.coordinatespace.CoordinateSpace;
+import guttmanlab.core.util.ConcurrentUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.IntUnaryOperator;
+import java.util.stream.IntStream;
+
+import net.sf.samtools.util.CloseableIterator;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Tests whether a set of intervals, e.g. peaks, overlaps a set of features, e.g. genes, more than expected by
+ * chance, by shuffling the intervals within the genome and counting overlaps of each shuffled set.
+ *
+ * The statistic is the number of intervals that overlap a block of at least one feature; each interval is taken as
+ * its span from start to end. Intervals are shuffled by placing each one, with its length, at a uniformly random
+ * position on its own reference sequence, or on any reference sequence, that doesn't overlap an excluded region.
+ * The intervals and features are kept only as primitive arrays per reference sequence, and each shuffled set is
+ * generated into arrays, sorted and swept against the sorted features, without building annotations.
+ *
+ * Permutations run in parallel. Each one draws from its own random generator, split in order from one seeded
+ * generator, so results depend only on the seed and not on the number of threads.
+ *
+ */
+public class OverlapEnrichment {
+
+	private static Logger logger = Logger.getLogger(OverlapEnrichment.class.getName());
+
+	/**
+	 * Number of random positions tried for an interval before giving up
+	 */
+	private static final int MAX_TRIES = 10000;
+
+	private static final int[] NO_INTERVALS = new int[0];
+
+	private final String[] names;
+	private final int[] sizes;
+	// Genome-wide start of each reference sequence, for drawing positions on any reference
+	private final long[] offsets;
+	private final long genomeSize;
+	// Merged feature blocks of each reference, as consecutive start and end positions
+	private final int[][] features;
+	// Lengths of the intervals on each reference, and their starts in the same order
+	private final int[][] lengths;
+	private final int[][] starts;
+	private final int numIntervals;
+	private int[][] excluded;
+	private boolean withinReference = true;
+	private int numThreads = Runtime.getRuntime().availableProcessors();
+	private long seed = 0;
+
+	/**
+	 * @param intervals Intervals to shuffle
+	 * @param features Features the intervals are tested for overlap with
+	 * @param space Reference sequences and their sizes
+	 */
+	public OverlapEnrichment(AnnotationCollection<? extends Annotation> intervals, AnnotationCollection<? extends Annotation> features, CoordinateSpace space) {
+		List<String> chrs = new ArrayList<String>(space.getRefSeqLengths().keySet());
+		int n = chrs.size();
+		this.names = chrs.toArray(new String[n]);
+		this.sizes = new int[n];
+		this.offsets = new long[n + 1];
+		Map<String, Integer> indices = new HashMap<String, Integer>();
+		for(int i = 0; i < n; i++) {
+			sizes[i] = space.getRefSeqLengths().get(names[i]).intValue();
+			offsets[i + 1] = offsets[i] + sizes[i];
+			indices.put(names[i], Integer.valueOf(i));
+		}
+		this.genomeSize = offsets[n];
+		this.features = merge(features);
+		this.excluded = new int[n][];
+		Arrays.fill(excluded, NO_INTERVALS);
+		int[][] intervalStarts = new int[n][16];
+		int[][] intervalLengths = new int[n][16];
+		int[] counts = new int[n];
+		long numSkipped = 0;
+		CloseableIterator<? extends Annotation> iter = intervals.sortedIterator();
+		try {
+			while(iter.hasNext()) {
+				Annotation interval = iter.next();
+				Integer index = indices.get(interval.getReferenceName());
+				int length = interval.getReferenceEndPosition() - interval.getReferenceStartPosition();
+				if(index == null || length > sizes[index.intValue()]) {
+					numSkipped++;
+					continue;
+				}
+				int i = index.intValue();
+				if(counts[i] == intervalStarts[i].length) {
+					intervalStarts[i] = Arrays.copyOf(intervalStarts[i], 2 * counts[i]);
+					intervalLengths[i] = Arrays.copyOf(intervalLengths[i], 2 * counts[i]);
+				}
+				intervalStarts[i][counts[i]] = interval.getReferenceStartPosition();
+				intervalLengths[i][counts[i]] = length;
+				counts[i]++;
+			}
+		} finally {
+			iter.close();
+		}
+		if(numSkipped > 0) {
+			logger.warn("Skipped " + numSkipped + " intervals on unknown references or longer than their reference");
+		}
+		this.starts = new int[n][];
+		this.lengths = new int[n][];
+		int total = 0;
+		for(int i = 0; i < n; i++) {
+			starts[i] = Arrays.copyOf(intervalStarts[i], counts[i]);
+			lengths[i] = Arrays.copyOf(intervalLengths[i], counts[i]);
+			total += counts[i];
+		}
+		this.numIntervals = total;
+	}
+
+	/**
+	 * @return Merged blocks of the annotations on each reference sequence
+	 */
+	private int[][] merge(AnnotationCollection<? extends Annotation> annotations) {
+		IntervalBuilder builder = new IntervalBuilder();
+		CloseableIterator<? extends Annotation> iter = annotations.sortedIterator();
+		try {
+			while(iter.hasNext()) {
+				builder.add(iter.next());
+			}
+		} finally {
+			iter.close();
+		}
+		Map<String, int[]> merged = builder.build();
+		int[][] rtrn = new int[names.length][];
+		for(int i = 0; i < names.length; i++) {
+			rtrn[i] = merged.containsKey(names[i]) ? merged.get(names[i]) : NO_INTERVALS;
+		}
+		return rtrn;
+	}
+
+	/**
+	 * @param excludedRegions Regions shuffled intervals must not overlap, e.g. assembly gaps
+	 */
+	public void setExcludedRegions(AnnotationCollection<? extends Annotation> excludedRegions) {
+		this.excluded = merge(excludedRegions);
+	}
+
+	/**
+	 * @param withinReference Whether each interval stays on its own reference sequence when shuffled, rather than
+	 * moving to any reference with probability proportional to its size. Default true.
+	 */
+	public void setWithinReference(boolean withinReference) {
+		this.withinReference = withinReference;
+	}
+
+	/**
+	 * @param numThreads Number of permutations run at the same time. Default the number of processors.
+	 */
+	public void setNumThreads(int numThreads) {
+		this.numThreads = ConcurrentUtils.checkNumThreads(numThreads);
+	}
+
+	/**
+	 * @param seed Seed of the random generators. Default 0.
+	 */
+	public void setSeed(long seed) {
+		this.seed = seed;
+	}
+
+	/**
+	 * @return Number of intervals
+	 */
+	public int getNumIntervals() {
+		return numIntervals;
+	}
+
+	/**
+	 * @return Number of intervals that overlap a feature
+	 */
+	public int getObserved() {
+		int rtrn = 0;
+		for(int i = 0; i < names.length; i++) {
+			long[] packed = new long[starts[i].length];
+			for(int j = 0; j < packed.length; j++) {
+				packed[j] = pack(starts[i][j], lengths[i][j]);
+			}
+			Arrays.sort(packed);
+			rtrn += countOverlaps(packed, packed.length, features[i]);
+		}
+		return rtrn;
+	}
+
+	/**
+	 * Count the overlaps of shuffled intervals
+	 * @param numPermutations Number of shuffled sets
+	 * @return The observed count and the count of each shuffled set
+	 * @throws IllegalArgumentException If there are no intervals
+	 */
+	public Result permute(int numPermutations) {
+		if(numIntervals == 0) {
+			throw new IllegalArgumentException("There are no intervals to shuffle");
+		}
+		SplittableRandom[] randoms = split(numPermutations);
+		int[] counts = run(numPermutations, i -> countOverlaps(shuffle(randoms[i])));
+		Result rtrn = new Result(getObserved(), numIntervals, counts);
+		logger.info(rtrn);
+		return rtrn;
+	}
+
+	/**
+	 * Count the overlaps of intervals resampled with replacement, for a confidence interval of the observed count
+	 * @param numReplicates Number of resampled sets
+	 * @return Count of each resampled set, in increasing order
+	 * @throws IllegalArgumentException If there are no intervals
+	 */
+	public int[] bootstrap(int numReplicates) {
+		if(numIntervals == 0) {
+			throw new IllegalArgumentException("There are no intervals to resample");
+		}
+		// Whether each interval overlaps a feature, in any fixed order
+		boolean[] overlaps = new boolean[numIntervals];
+		int k = 0;
+		for(int i = 0; i < names.length; i++) {
+			for(int j = 0; j < starts[i].length; j++) {
+				overlaps[k++] = overlaps(features[i], starts[i][j], starts[i][j] + lengths[i][j]);
+			}
+		}
+		SplittableRandom[] randoms = split(numReplicates);
+		int[] rtrn = run(numReplicates, r -> {
+			int count = 0;
+			for(int i = 0; i < numIntervals; i++) {
+				if(overlaps[randoms[r].nextInt(numIntervals)]) {
+					count++;
+				}
+			}
+			return count;
+		});
+		Arrays.sort(rtrn);
+		return rtrn;
+	}
+
+	private SplittableRandom[] split(int n) {
+		if(n < 1) {
+			throw new IllegalArgumentException("Number of replicates must be positive");
+		}
+		SplittableRandom random = new SplittableRandom(seed);
+		SplittableRandom[] rtrn = new SplittableRandom[n];
+		for(int i = 0; i < n; i++) {
+			rtrn[i] = random.split();
+		}
+		return rtrn;
+	}
+
+	private int[] run(int n, IntUnaryOperator count) {
+		int[] rtrn = new int[n];
+		ForkJoinPool pool = new ForkJoinPool(numThreads);
+		try {
+			ConcurrentUtils.getResult(pool.submit(() -> IntStream.range(0, n).parallel().forEach(i -> rtrn[i] = count.applyAsInt(i))), "permuting");
+		} finally {
+			pool.shutdown();
+		}
+		return rtrn;
+	}
+
+	/**
+	 * Shuffle the intervals
+	 * @param random Random generator
+	 * @return Shuffled intervals of each reference sequence, packed by {@link #pack(int, int)} and sorted
+	 */
+	long[][] shuffle(SplittableRandom random) {
+		int n = names.length;
+		long[][] rtrn = new long[n][];
+		int[] counts = new int[n];
+		if(withinReference) {
+			for(int i = 0; i < n; i++) {
+				rtrn[i] = new long[lengths[i].length];
+				for(int length : lengths[i]) {
+					rtrn[i][counts[i]++] = pack(place(random, i, length), length);
+				}
+			}
+		} else {
+			for(int i = 0; i < n; i++) {
+				rtrn[i] = new long[16];
+			}
+			for(int[] referenceLengths : lengths) {
+				for(int length : referenceLengths) {
+					int tries = 0;
+					while(true) {
+						long position = random.nextLong(genomeSize);
+						int i = Arrays.binarySearch(offsets, position);
+						i = i >= 0 ? i : -i - 2;
+						int start = (int) (position - offsets[i]);
+						if(start + length <= sizes[i] && !overlaps(excluded[i], start, start + length)) {
+							if(counts[i] == rtrn[i].length) {
+								rtrn[i] = Arrays.copyOf(rtrn[i], 2 * counts[i]);
+							}
+							rtrn[i][counts[i]++] = pack(start, length);
+							break;
+						}
+						if(++tries == MAX_TRIES) {
+							throw new IllegalArgumentException("Can't place an interval of length " + length + " outside the excluded regions");
+						}
+					}
+				}
+			}
+		}
+		for(int i = 0; i < n; i++) {
+			rtrn[i] = Arrays.copyOf(rtrn[i], counts[i]);
+			Arrays.sort(rtrn[i]);
+		}
+		return rtrn;
+	}
+
+	/**
+	 * @return Random start of an interval on a reference sequence that doesn't overlap an excluded region
+	 */
+	private int place(SplittableRandom random, int reference, int length) {
+		int bound = sizes[reference] - length + 1;
+		for(int tries = 0; tries < MAX_TRIES; tries++) {
+			int start = random.nextInt(bound);
+			if(!overlaps(excluded[reference], start, start + length)) {
+				return start;
+			}
+		}
+		throw new IllegalArgumentException("Can't place an interval of length " + length + " on " + names[reference] + " outside the excluded regions");
+	}
+
+	private int countOverlaps(long[][] shuffled) {
+		int rtrn = 0;
+		for(int i = 0; i < shuffled.length; i++) {
+			rtrn += countOverlaps(shuffled[i], shuffled[i].length, features[i]);
+		}
+		return rtrn;
+	}
+
+	/**
+	 * Count the intervals that overlap a feature in one sweep
+	 * @param packed Intervals packed by {@link #pack(int, int)}, in order
+	 * @param n Number of intervals
+	 * @param intervals Sorted non-overlapping features, as consecutive start and end positions
+	 */
+	private static int countOverlaps(long[] packed, int n, int[] intervals) {
+		int rtrn = 0;
+		int j = 0;
+		for(int i = 0; i < n && j < intervals.length; i++) {
+			int start = start(packed[i]);
+			int end = start + length(packed[i]);
+			// Features ending before this interval also end before every later one
+			while(j < intervals.length && intervals[j + 1] <= start) {
+				j += 2;
+			}
+			if(j < intervals.length && intervals[j] < end) {
+				rtrn++;
+			}
+		}
+		return rtrn;
+	}
+
+	/**
+	 * @param intervals Sorted non-overlapping intervals, as consecutive start and end positions
+	 * @return Whether an interval overlaps any of them
+	 */
+	static boolean overlaps(int[] intervals, int start, int end) {
+		// First interval ending after start
+		int low = 0;
+		int high = intervals.length / 2;
+		while(low < high) {
+			int mid = (low + high) >>> 1;
+			if(intervals[2 * mid + 1] <= start) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return 2 * low < intervals.length && intervals[2 * low] < end;
+	}
+
+	/**
+	 * @return Start and length of an interval in one long, which sorts by start
+	 */
+	static long pack(int start, int length) {
+		return ((long) start << 32) | length;
+	}
+
+	static int start(long packed) {
+		return (int) (packed >>> 32);
+	}
+
+	static int length(long packed) {
+		return (int) packed;
+	}
+
+	/**
+	 * @return Names of the reference sequences, in the order of the arrays of {@link #shuffle(SplittableRandom)}
+	 */
+	String[] getReferenceNames() {
+		return names;
+	}
+
+	/**
+	 * Observed and shuffled counts of intervals overlapping a feature
+	 */
+	public static class Result {
+
+		private final int observed;
+		private final int numIntervals;
+		private final int[] permuted;
+
+		Result(int observed, int numIntervals, int[] permuted) {
+			this.observed = observed;
+			this.numIntervals = numIntervals;
+			this.permuted = permuted;
+		}
+
+		/**
+		 * @return Number of intervals that overlap a feature
+		 */
+		public int getObserved() {
+			return observed;
+		}
+
+		/**
+		 * @return Number of intervals
+		 */
+		public int getNumIntervals() {
+			return numIntervals;
+		}
+
+		/**
+		 * @return Number of shuffled intervals that overlap a feature, for each permutation in order
+		 */
+		public int[] getPermuted() {
+			return permuted;
+		}
+
+		/**
+		 * @return Mean number of shuffled intervals that overlap a feature
+		 */
+		public double getExpected() {
+			return Arrays.stream(permuted).average().getAsDouble();
+		}
+
+		/**
+		 * @return Observed over expected count
+		 */
+		public double getFoldEnrichment() {
+			return observed / getExpected();
+		}
+
+		/**
+		 * @return Empirical p-value of an overlap at least as large as observed, counting the observed set as a permutation
+		 */
+		public double getPValue() {
+			long numAtLeast = Arrays.stream(permuted).filter(count -> count >= observed).count();
+			return (numAtLeast + 1.0) / (permuted.length + 1);
+		}
+
+		/**
+		 * @return Empirical p-value of an overlap at most as large as observed, counting the observed set as a permutation
+		 */
+		public double getDepletionPValue() {
+			long numAtMost = Arrays.stream(permuted).filter(count -> count <= observed).count();
+			return (numAtMost + 1.0) / (permuted.length + 1);
+		}
+
+		@Override
+		public String toString() {
+			return observed + " of " + numIntervals + " intervals overlap features; expected " + getExpected() + " from " + permuted.length
+					+ " permutations, enrichment p = " + getPValue() + ", depletion p = " + getDepletionPValue();
+		}
+	}
+
+}
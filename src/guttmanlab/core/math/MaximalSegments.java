@@ -0,0 +1,180 @@
+package guttmanlab.core.math;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Finds all maximal scoring segments of a stream of scores with the algorithm of Ruzzo and Tompa (ISMB 1999),
+ * in linear time. Unlike {@link MaximumContiguousSubsequence#maxSubSum3(double[])}, which finds only the best
+ * segment of an array, this finds every disjoint segment with a positive score that can't be extended or trimmed
+ * to score higher, e.g. every enriched region of a chromosome from the scores of its windows.
+ *
+ * Scores are added one element at a time and segments are passed to a consumer, in order of position, as soon as
+ * they are known to be maximal: whenever the cumulative score falls to the lowest cumulative score at the start of
+ * any pending segment, no later element can extend them. Only the pending segments are kept in memory.
+ *
+ * Each element covers a range of positions, e.g. the coordinates of a window, and a segment covers from the start
+ * of its first element to the end of its last.
+ *
+ */
+public class MaximalSegments {
+
+	private final Consumer<Segment> consumer;
+	// Stack of pending segments, in order of position
+	private int size;
+	private long[] starts = new long[16];
+	private long[] ends = new long[16];
+	// Cumulative score before the segment and at its end
+	private double[] lefts = new double[16];
+	private double[] rights = new double[16];
+	// Index of the rightmost earlier segment with a lower left cumulative score, or -1
+	private int[] previous = new int[16];
+	private double total;
+	private double minLeft = Double.POSITIVE_INFINITY;
+	private long numElements;
+
+	/**
+	 * @param consumer Receives each maximal segment
+	 */
+	public MaximalSegments(Consumer<Segment> consumer) {
+		this.consumer = consumer;
+	}
+
+	/**
+	 * Get all maximal segments of an array of scores
+	 * @param scores The scores
+	 * @return Maximal segments in order, with the index of their first element and one past their last
+	 */
+	public static List<Segment> find(double[] scores) {
+		List<Segment> rtrn = new ArrayList<Segment>();
+		MaximalSegments segments = new MaximalSegments(rtrn::add);
+		for(double score : scores) {
+			segments.add(score);
+		}
+		segments.finish();
+		return rtrn;
+	}
+
+	/**
+	 * Add the next element, covering one position after the previous element
+	 * @param score Score of the element
+	 */
+	public void add(double score) {
+		add(score, numElements, numElements + 1);
+	}
+
+	/**
+	 * Add the next element
+	 * @param score Score of the element
+	 * @param start First position covered by the element
+	 * @param end Position after the last covered by the element
+	 */
+	public void add(double score, long start, long end) {
+		numElements++;
+		if(!(score > 0)) {
+			total += score;
+			if(size > 0 && total <= minLeft) {
+				flush();
+			}
+			return;
+		}
+		double left = total;
+		double right = total + score;
+		total = right;
+		int j = size - 1;
+		while(true) {
+			while(j >= 0 && lefts[j] >= left) {
+				j = previous[j];
+			}
+			if(j < 0 || rights[j] >= right) {
+				break;
+			}
+			// Segment j and everything after it are merged into one segment, which is placed again
+			left = lefts[j];
+			start = starts[j];
+			size = j;
+			j = previous[j];
+		}
+		push(start, end, left, right, j);
+	}
+
+	private void push(long start, long end, double left, double right, int prev) {
+		if(size == starts.length) {
+			int length = 2 * size;
+			starts = Arrays.copyOf(starts, length);
+			ends = Arrays.copyOf(ends, length);
+			lefts = Arrays.copyOf(lefts, length);
+			rights = Arrays.copyOf(rights, length);
+			previous = Arrays.copyOf(previous, length);
+		}
+		starts[size] = start;
+		ends[size] = end;
+		lefts[size] = left;
+		rights[size] = right;
+		previous[size] = prev;
+		size++;
+		minLeft = Math.min(minLeft, left);
+	}
+
+	private void flush() {
+		for(int i = 0; i < size; i++) {
+			consumer.accept(new Segment(starts[i], ends[i], rights[i] - lefts[i]));
+		}
+		size = 0;
+		minLeft = Double.POSITIVE_INFINITY;
+	}
+
+	/**
+	 * Pass on all pending segments and start over, e.g. at the end of a chromosome
+	 */
+	public void finish() {
+		flush();
+		total = 0;
+		numElements = 0;
+	}
+
+	/**
+	 * A maximal segment
+	 */
+	public static class Segment {
+
+		private final long start;
+		private final long end;
+		private final double score;
+
+		Segment(long start, long end, double score) {
+			this.start = start;
+			this.end = end;
+			this.score = score;
+		}
+
+		/**
+		 * @return Start of the first element
+		 */
+		public long getStart() {
+			return start;
+		}
+
+		/**
+		 * @return End of the last element
+		 */
+		public long getEnd() {
+			return end;
+		}
+
+		/**
+		 * @return Sum of the scores of the elements
+		 */
+		public double getScore() {
+			return score;
+		}
+
+		@Override
+		public String toString() {
+			return start + "-" + end + ":" + score;
+		}
+	}
+
+}
@@ -1,9 +1,22 @@
 package guttmanlab.core.math;
 import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.IntStream;
 
 import jsc.distributions.Binomial;
 import jsc.distributions.Poisson;
 
+/**
+ * Scan statistic and binomial p-values of read counts in windows.
+ *
+ * The bulk methods score whole arrays of windows, e.g. every window of a chromosome, at once. Windows with the same
+ * total count share one Poisson or binomial distribution, so its terms are computed once per distinct total, in log
+ * space by recurrence, and looked up by count. Windows are then scored in parallel. The p-values agree with those of
+ * the single-window methods to within rounding.
+ */
 public class ScanStat {
 	
 	public static double getPValue(double controlCount, double sampleCount, double controlTotal, double sampleTotal, double winSize,int chrSize)
@@ -17,14 +30,52 @@ public class ScanStat {
 		double lambda = lambdaW/winSize;
 		double a=((sampleCount-lambdaW)/sampleCount)*(lambda*(chrSize-winSize)*poisson((int)sampleCount-1, lambdaW));     // poisson function = Poisson PDF
 		double result=Fp((int)sampleCount-1, lambdaW)*Math.exp(-a);
-		double pval = 1 - result;
-		pval = Math.abs(pval);
-		pval = Math.min(1, pval);
-		pval = Math.max(pval, 0);
-		return pval;
+		return clamp(1 - result);
 		
 	}
 	
+	/**
+	 * Scan statistic p-values of many windows, the same as {@link #getPValue(double, double, double, double, double, int)}
+	 * for each window
+	 * @param controlCounts Control count of each window
+	 * @param sampleCounts Sample count of each window
+	 * @param controlTotal Total control count
+	 * @param sampleTotal Total sample count
+	 * @param winSize Window size
+	 * @param chrSize Chromosome size
+	 * @return P-value of each window
+	 */
+	public static double[] getPValues(double[] controlCounts, double[] sampleCounts, double controlTotal, double sampleTotal, double winSize, int chrSize)
+	{
+		checkLengths(controlCounts, sampleCounts);
+		double p = sampleTotal/(sampleTotal+controlTotal);
+		// Largest count needed for each total
+		Map<Double, Integer> maxCounts = new HashMap<Double, Integer>();
+		for(int i = 0; i < sampleCounts.length; i++) {
+			if(sampleCounts[i] >= 2) {
+				maxCounts.merge(Double.valueOf(sampleCounts[i] + controlCounts[i]), Integer.valueOf((int) sampleCounts[i] - 1), Math::max);
+			}
+		}
+		Map<Double, PoissonTerms> terms = new ConcurrentHashMap<Double, PoissonTerms>();
+		maxCounts.entrySet().parallelStream().forEach(e -> terms.put(e.getKey(), new PoissonTerms(e.getKey().doubleValue() * p, e.getValue().intValue())));
+		double[] rtrn = new double[sampleCounts.length];
+		IntStream.range(0, rtrn.length).parallel().forEach(i -> {
+			double sampleCount = sampleCounts[i];
+			if(sampleCount < 2) {
+				rtrn[i] = 1.0;
+				return;
+			}
+			double n = sampleCount + controlCounts[i];
+			PoissonTerms poisson = terms.get(Double.valueOf(n));
+			int k = (int) sampleCount - 1;
+			double lambdaW = n*p;
+			double lambda = lambdaW/winSize;
+			double a = ((sampleCount-lambdaW)/sampleCount)*(lambda*(chrSize-winSize)*poisson.pdf[k]);
+			rtrn[i] = clamp(1 - poisson.cdf[k]*Math.exp(-a));
+		});
+		return rtrn;
+	}
+	
 	public static BigDecimal getBinomialPValue(double controlCount, double sampleCount, double controlTotal, double sampleTotal, double winSize)
 	{
 		
@@ -46,16 +97,132 @@ public class ScanStat {
 		
 	}
 	
+	/**
+	 * Binomial p-values of many windows, the same as {@link #getBinomialPValue(double, double, double, double, double)}
+	 * for each window. The upper tail is summed directly, so p-values too small to be computed as one minus the
+	 * cumulative probability are reported rather than 0.
+	 * @param controlCounts Control count of each window
+	 * @param sampleCounts Sample count of each window
+	 * @param controlTotal Total control count
+	 * @param sampleTotal Total sample count
+	 * @param winSize Window size
+	 * @return P-value of each window
+	 */
+	public static double[] getBinomialPValues(double[] controlCounts, double[] sampleCounts, double controlTotal, double sampleTotal, double winSize)
+	{
+		checkLengths(controlCounts, sampleCounts);
+		double[] rtrn = new double[sampleCounts.length];
+		double p = sampleTotal/(sampleTotal + controlTotal);
+		if(controlTotal + sampleTotal < 2 || p == 0) {
+			Arrays.fill(rtrn, 1.0);
+			return rtrn;
+		}
+		Map<Long, double[]> tails = new ConcurrentHashMap<Long, double[]>();
+		IntStream.range(0, rtrn.length).mapToLong(i -> (long) (controlCounts[i] + sampleCounts[i])).filter(n -> n >= 2).distinct()
+				.parallel().forEach(n -> tails.put(Long.valueOf(n), upperTail(n, p)));
+		IntStream.range(0, rtrn.length).parallel().forEach(i -> {
+			if(controlCounts[i] + sampleCounts[i] < 2) {
+				rtrn[i] = 1.0;
+				return;
+			}
+			double[] tail = tails.get(Long.valueOf((long) (controlCounts[i] + sampleCounts[i])));
+			// P(X >= x) is P(X >= k) for the smallest whole number k >= x
+			double k = Math.max(0, Math.ceil(sampleCounts[i]));
+			rtrn[i] = k < tail.length ? tail[(int) k] : 0;
+		});
+		return rtrn;
+	}
+	
 	public static double poisson(int k, double lambda){
 		Poisson poiss=new Poisson(lambda);
 		return poiss.pdf(k);
 	}
 	
 	public static double Fp(int k,double lambdaW){
+		Poisson poiss=new Poisson(lambdaW);
 		double sum=0;
 		for(int i=0; i<=k; i++){
-			sum+=poisson(i, lambdaW);
+			sum+=poiss.pdf(i);
 		}
 		return sum;
 	}
+	
+	private static double clamp(double pval)
+	{
+		pval = Math.abs(pval);
+		pval = Math.min(1, pval);
+		pval = Math.max(pval, 0);
+		return pval;
+	}
+	
+	private static void checkLengths(double[] controlCounts, double[] sampleCounts)
+	{
+		if(controlCounts.length != sampleCounts.length) {
+			throw new IllegalArgumentException("Control and sample counts have different lengths: " + controlCounts.length + ", " + sampleCounts.length);
+		}
+	}
+	
+	/**
+	 * Upper tail of a binomial distribution
+	 * @param n Number of trials
+	 * @param p Probability of success
+	 * @return P(X >= k) for k from 0 to n
+	 */
+	private static double[] upperTail(long n, double p)
+	{
+		if(n >= Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Count too large: " + n);
+		}
+		double[] rtrn = new double[(int) n + 1];
+		if(p >= 1) {
+			Arrays.fill(rtrn, 1.0);
+			return rtrn;
+		}
+		// log P(X = j), by log P(X = j + 1) = log P(X = j) + log((n - j) / (j + 1)) + log(p / (1 - p))
+		double logOdds = Math.log(p) - Math.log1p(-p);
+		double[] logPdf = new double[rtrn.length];
+		logPdf[0] = n * Math.log1p(-p);
+		for(int j = 1; j <= n; j++) {
+			logPdf[j] = logPdf[j - 1] + Math.log((double) (n - j + 1) / j) + logOdds;
+		}
+		// Summed from the top so small tails keep their precision
+		double sum = 0;
+		for(int j = (int) n; j >= 0; j--) {
+			sum += Math.exp(logPdf[j]);
+			rtrn[j] = Math.min(1, sum);
+		}
+		return rtrn;
+	}
+	
+	/**
+	 * Probabilities and cumulative probabilities of a Poisson distribution
+	 */
+	private static final class PoissonTerms
+	{
+		
+		private final double[] pdf;
+		private final double[] cdf;
+		
+		/**
+		 * @param lambda Mean
+		 * @param maxCount Largest count
+		 */
+		PoissonTerms(double lambda, int maxCount)
+		{
+			pdf = new double[maxCount + 1];
+			cdf = new double[maxCount + 1];
+			// log P(X = i) = log P(X = i - 1) + log(lambda) - log(i); exp(-lambda) alone underflows for large lambda
+			double logLambda = Math.log(lambda);
+			double logPdf = -lambda;
+			double sum = 0;
+			for(int i = 0; i <= maxCount; i++) {
+				if(i > 0) {
+					logPdf += logLambda - Math.log(i);
+				}
+				pdf[i] = Math.exp(logPdf);
+				sum += pdf[i];
+				cdf[i] = sum;
+			}
+		}
+	}
 }
@@ -0,0 +1,341 @@
+package guttmanlab.core.math;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.function.DoubleConsumer;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Summary statistics and quantiles of a stream of values in bounded memory, e.g. the counts of every window of a
+ * genome, without keeping or sorting the values.
+ *
+ * Whole numbers from 0 to a maximum, which covers most read counts, are kept in an exact histogram, and their
+ * quantiles are exact. Other values are kept in logarithmic buckets of relative width set by a relative accuracy,
+ * and a quantile falling among them is within that relative error of the true value. Count, sum, minimum and
+ * maximum are updated as values arrive, and the mean and variance with the updates of Welford, which don't lose
+ * precision over long streams. NaN values are ignored.
+ *
+ * Instances are not thread safe, but they are mergeable: give each thread or shard its own and combine them,
+ * e.g. with {@code stream.collect(StreamingStatistics::new, StreamingStatistics::accept, StreamingStatistics::combine)}.
+ *
+ */
+public class StreamingStatistics implements DoubleConsumer {
+
+	/**
+	 * Default relative accuracy of quantiles among values that are not small whole numbers
+	 */
+	public static final double DEFAULT_RELATIVE_ACCURACY = 0.01;
+
+	/**
+	 * Default largest value kept in the exact histogram
+	 */
+	public static final int DEFAULT_MAX_EXACT_VALUE = (1 << 16) - 1;
+
+	private final double relativeAccuracy;
+	private final int maxExactValue;
+	private final double logGamma;
+	// Number of values equal to each whole number up to maxExactValue, grown as needed
+	private long[] histogram = new long[64];
+	// Values that are not in the histogram, by the logarithmic bucket of their absolute value
+	private final BucketStore positive = new BucketStore();
+	private final BucketStore negative = new BucketStore();
+	private long count;
+	private double sum;
+	private double mean;
+	// Sum of squared differences from the mean
+	private double m2;
+	private double min = Double.POSITIVE_INFINITY;
+	private double max = Double.NEGATIVE_INFINITY;
+
+	public StreamingStatistics() {
+		this(DEFAULT_RELATIVE_ACCURACY, DEFAULT_MAX_EXACT_VALUE);
+	}
+
+	/**
+	 * @param relativeAccuracy Relative accuracy of quantiles among values that are not small whole numbers, between 0 and 1
+	 * @param maxExactValue Largest whole number kept in the exact histogram
+	 */
+	public StreamingStatistics(double relativeAccuracy, int maxExactValue) {
+		if(!(relativeAccuracy > 0 && relativeAccuracy < 1)) {
+			throw new IllegalArgumentException("Relative accuracy must be between 0 and 1: " + relativeAccuracy);
+		}
+		if(maxExactValue < 0) {
+			throw new IllegalArgumentException("Maximum exact value must not be negative: " + maxExactValue);
+		}
+		this.relativeAccuracy = relativeAccuracy;
+		this.maxExactValue = maxExactValue;
+		this.logGamma = Math.log((1 + relativeAccuracy) / (1 - relativeAccuracy));
+	}
+
+	/**
+	 * Get the statistics of a value of each element of an iterator, e.g. the count of each window
+	 * @param iter The elements. The iterator is consumed but not closed.
+	 * @param value Value of an element
+	 * @return The statistics of the values
+	 */
+	public static <T> StreamingStatistics of(Iterator<? extends T> iter, ToDoubleFunction<? super T> value) {
+		StreamingStatistics rtrn = new StreamingStatistics();
+		while(iter.hasNext()) {
+			rtrn.accept(value.applyAsDouble(iter.next()));
+		}
+		return rtrn;
+	}
+
+	/**
+	 * Add a value
+	 * @param value The value
+	 */
+	@Override
+	public void accept(double value) {
+		if(Double.isNaN(value)) {
+			return;
+		}
+		if(Double.isInfinite(value)) {
+			throw new IllegalArgumentException("Infinite value");
+		}
+		int whole = (int) value;
+		if(whole == value && whole >= 0 && whole <= maxExactValue) {
+			if(whole >= histogram.length) {
+				histogram = Arrays.copyOf(histogram, Math.min(maxExactValue + 1, Math.max(2 * histogram.length, whole + 1)));
+			}
+			histogram[whole]++;
+		} else if(value > 0) {
+			positive.add(bucket(value), 1);
+		} else {
+			negative.add(bucket(-value), 1);
+		}
+		count++;
+		sum += value;
+		double delta = value - mean;
+		mean += delta / count;
+		m2 += delta * (value - mean);
+		min = Math.min(min, value);
+		max = Math.max(max, value);
+	}
+
+	/**
+	 * Add all values of an array
+	 * @param values The values
+	 */
+	public void acceptAll(double[] values) {
+		for(double value : values) {
+			accept(value);
+		}
+	}
+
+	/**
+	 * Add all values of another instance to this one
+	 * @param other Statistics with the same relative accuracy and maximum exact value
+	 */
+	public void combine(StreamingStatistics other) {
+		if(other.relativeAccuracy != relativeAccuracy || other.maxExactValue != maxExactValue) {
+			throw new IllegalArgumentException("Can't combine statistics with different accuracy or maximum exact value");
+		}
+		if(other.count == 0) {
+			return;
+		}
+		if(other.histogram.length > histogram.length) {
+			histogram = Arrays.copyOf(histogram, other.histogram.length);
+		}
+		for(int i = 0; i < other.histogram.length; i++) {
+			histogram[i] += other.histogram[i];
+		}
+		positive.addAll(other.positive);
+		negative.addAll(other.negative);
+		long total = count + other.count;
+		double delta = other.mean - mean;
+		mean += delta * other.count / total;
+		m2 += other.m2 + delta * delta * ((double) count * other.count / total);
+		count = total;
+		sum += other.sum;
+		min = Math.min(min, other.min);
+		max = Math.max(max, other.max);
+	}
+
+	/**
+	 * @return Index of the bucket of a positive value: bucket i holds values in (gamma^(i-1), gamma^i]
+	 */
+	private int bucket(double value) {
+		return (int) Math.ceil(Math.log(value) / logGamma);
+	}
+
+	/**
+	 * @return A value in a bucket within the relative accuracy of every value in it
+	 */
+	private double bucketValue(int bucket) {
+		return 2 * Math.exp(bucket * logGamma) / (1 + Math.exp(logGamma));
+	}
+
+	/**
+	 * @return Number of values, not counting NaN
+	 */
+	public long getCount() {
+		return count;
+	}
+
+	/**
+	 * @return Sum of the values
+	 */
+	public double getSum() {
+		return sum;
+	}
+
+	/**
+	 * @return Mean of the values, or NaN if there are none
+	 */
+	public double getMean() {
+		return count == 0 ? Double.NaN : mean;
+	}
+
+	/**
+	 * @return Sample variance of the values, or NaN if there are fewer than two
+	 */
+	public double getVariance() {
+		return count < 2 ? Double.NaN : m2 / (count - 1);
+	}
+
+	/**
+	 * @return Sample standard deviation of the values, or NaN if there are fewer than two
+	 */
+	public double getStandardDeviation() {
+		return Math.sqrt(getVariance());
+	}
+
+	/**
+	 * @return Smallest value, or positive infinity if there are none
+	 */
+	public double getMin() {
+		return min;
+	}
+
+	/**
+	 * @return Largest value, or negative infinity if there are none
+	 */
+	public double getMax() {
+		return max;
+	}
+
+	/**
+	 * @param value A whole number from 0 to the maximum exact value
+	 * @return Number of values equal to it
+	 */
+	public long getCount(int value) {
+		if(value < 0 || value > maxExactValue) {
+			throw new IllegalArgumentException("Value " + value + " is not in the exact histogram");
+		}
+		return value < histogram.length ? histogram[value] : 0;
+	}
+
+	/**
+	 * @return Number of values equal to each whole number from 0 to the largest one seen up to the maximum exact value
+	 */
+	public long[] getHistogram() {
+		int length = histogram.length;
+		while(length > 0 && histogram[length - 1] == 0) {
+			length--;
+		}
+		return Arrays.copyOf(histogram, length);
+	}
+
+	/**
+	 * Get a quantile with the weighted average method of {@link Statistics#quantile(double[], double)}
+	 * @param pct Quantile to get, between 0 and 1
+	 * @return The quantile, or NaN if there are no values
+	 */
+	public double quantile(double pct) {
+		if(!(pct >= 0 && pct <= 1)) {
+			throw new IllegalArgumentException("Quantile must be between 0 and 1: " + pct);
+		}
+		if(count == 0) {
+			return Double.NaN;
+		}
+		long idx = (long) Math.floor(pct * (count - 1));
+		double reminder = pct * (count - 1) - idx;
+		double[] values = values(idx, reminder > 0 ? 2 : 1);
+		double rtrn = reminder > 0 ? values[0] + reminder * (values[1] - values[0]) : values[0];
+		// Bucket values may lie slightly outside the range of the values they stand for
+		return Math.max(min, Math.min(max, rtrn));
+	}
+
+	/**
+	 * @param rank Rank of the first value in sorted order, from 0
+	 * @param num Number of consecutive values to get
+	 * @return The values at the rank and after it
+	 */
+	private double[] values(long rank, int num) {
+		double[] rtrn = new double[num];
+		int found = 0;
+		long seen = 0;
+		// Negative values, largest absolute value first
+		for(int i = negative.counts.length - 1; i >= 0 && found < num; i--) {
+			seen += negative.counts[i];
+			while(found < num && rank + found < seen) {
+				rtrn[found++] = -bucketValue(negative.offset + i);
+			}
+		}
+		// Whole numbers of the histogram and positive buckets, merged in order of value
+		int h = 0;
+		int b = 0;
+		while(found < num) {
+			double histogramValue = h < histogram.length ? h : Double.POSITIVE_INFINITY;
+			double bucketValue = b < positive.counts.length ? bucketValue(positive.offset + b) : Double.POSITIVE_INFINITY;
+			long n;
+			double value;
+			if(histogramValue <= bucketValue) {
+				n = histogram[h++];
+				value = histogramValue;
+			} else {
+				n = positive.counts[b++];
+				value = bucketValue;
+			}
+			seen += n;
+			while(found < num && rank + found < seen) {
+				rtrn[found++] = value;
+			}
+		}
+		return rtrn;
+	}
+
+	@Override
+	public String toString() {
+		return "n=" + count + " mean=" + getMean() + " sd=" + getStandardDeviation() + " min=" + min + " median=" + quantile(0.5) + " max=" + max;
+	}
+
+	/**
+	 * Counts of values in a contiguous range of buckets, grown as needed
+	 */
+	private static final class BucketStore {
+
+		private long[] counts = new long[0];
+		// Bucket of counts[0]
+		private int offset;
+
+		void add(int bucket, long n) {
+			if(counts.length == 0) {
+				counts = new long[16];
+				offset = bucket - 8;
+			}
+			if(bucket < offset || bucket - offset >= counts.length) {
+				int low = Math.min(offset, bucket);
+				int high = Math.max(offset + counts.length, bucket + 1);
+				// Grow by at least half so repeated extension is amortized
+				int length = Math.max(high - low, counts.length + counts.length / 2);
+				long[] grown = new long[length];
+				int newOffset = bucket < offset ? high - length : low;
+				System.arraycopy(counts, 0, grown, offset - newOffset, counts.length);
+				counts = grown;
+				offset = newOffset;
+			}
+			counts[bucket - offset] += n;
+		}
+
+		void addAll(BucketStore other) {
+			for(int i = 0; i < other.counts.length; i++) {
+				if(other.counts[i] > 0) {
+					add(other.offset + i, other.counts[i]);
+				}
+			}
+		}
+	}
+
+}
@@ -0,0 +1,360 @@
+package guttmanlab.core.pipeline.util;
+
+import guttmanlab.core.alignment.PatternMatcher;
+import guttmanlab.core.util.ConcurrentUtils;
+import guttmanlab.core.util.ConcurrentUtils.OrderedExecutor;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Clips 3' sequencing adapters and trims low quality 3' ends from fastq reads, in process and in one pass.
+ * Paired files are read in lockstep and a pair is written only if both mates are still at least the minimum
+ * length, so the output files stay in sync.
+ * Batches of reads are clipped in parallel and written in their original order.
+ *
+ */
+public class AdapterClipper {
+
+	private static Logger logger = Logger.getLogger(AdapterClipper.class.getName());
+
+	private static final int BATCH_SIZE = 4096;
+
+	private final byte[] adapter1;
+	private final byte[] adapter2;
+	// Packed matchers for adapters of at most 64 bases of A, C, G and T, otherwise null
+	private final PatternMatcher matcher1;
+	private final PatternMatcher matcher2;
+	private double maxMismatchRate = 0.1;
+	private int minOverlap = 3;
+	private int qualityCutoff = 0;
+	private int qualityOffset = 33;
+	private int minLength = 5;
+	private int numThreads = Runtime.getRuntime().availableProcessors();
+	private Pattern readNumberDelimiter = null;
+
+	/**
+	 * @param adapter1 Adapter to clip from read 1, or null to only trim by quality
+	 * @param adapter2 Adapter to clip from read 2, or null to only trim by quality
+	 */
+	public AdapterClipper(String adapter1, String adapter2) {
+		this.adapter1 = toBytes(adapter1);
+		this.adapter2 = toBytes(adapter2);
+		this.matcher1 = toMatcher(adapter1);
+		this.matcher2 = toMatcher(adapter2);
+	}
+
+	private static byte[] toBytes(String adapter) {
+		return adapter == null ? new byte[0] : adapter.toUpperCase().getBytes(StandardCharsets.US_ASCII);
+	}
+
+	private static PatternMatcher toMatcher(String adapter) {
+		return adapter != null && PatternMatcher.isValidPattern(adapter) ? new PatternMatcher(adapter) : null;
+	}
+
+	/**
+	 * @param maxMismatchRate Maximum number of mismatches in an adapter match as a fraction of the match length. Default 0.1.
+	 */
+	public void setMaxMismatchRate(double maxMismatchRate) {
+		if(maxMismatchRate < 0 || maxMismatchRate >= 1) {
+			throw new IllegalArgumentException("Mismatch rate must be in [0,1)");
+		}
+		this.maxMismatchRate = maxMismatchRate;
+	}
+
+	/**
+	 * @param minOverlap Minimum number of bases of an adapter prefix at the 3' end of a read to clip. Default 3.
+	 */
+	public void setMinOverlap(int minOverlap) {
+		if(minOverlap < 1) {
+			throw new IllegalArgumentException("Minimum overlap must be positive");
+		}
+		this.minOverlap = minOverlap;
+	}
+
+	/**
+	 * @param qualityCutoff Trim 3' ends with qualities below this phred score, or 0 not to trim by quality. Default 0.
+	 */
+	public void setQualityCutoff(int qualityCutoff) {
+		this.qualityCutoff = qualityCutoff;
+	}
+
+	/**
+	 * @param qualityOffset Offset of phred scores in quality strings. Default 33.
+	 */
+	public void setQualityOffset(int qualityOffset) {
+		this.qualityOffset = qualityOffset;
+	}
+
+	/**
+	 * @param minLength Discard reads (and their mates) shorter than this after clipping. Default 5, as in fastx_clipper.
+	 */
+	public void setMinLength(int minLength) {
+		this.minLength = minLength;
+	}
+
+	/**
+	 * @param numThreads Number of threads clipping reads. Default the number of processors.
+	 */
+	public void setNumThreads(int numThreads) {
+		this.numThreads = ConcurrentUtils.checkNumThreads(numThreads);
+	}
+
+	/**
+	 * @param delimiter Regular expression between read name and read number (1 or 2), or null if whitespace.
+	 * Used to check that paired files are in sync.
+	 */
+	public void setReadNumberDelimiter(String delimiter) {
+		this.readNumberDelimiter = delimiter == null ? null : Pattern.compile(delimiter);
+	}
+
+	/**
+	 * Find the start of an adapter in a read. The adapter is matched without gaps, either in full anywhere in the
+	 * read or as a prefix of at least minOverlap bases running off the 3' end of the read. Clipping uses the packed
+	 * PatternMatcher.find() instead, which gives the same result, for adapters of up to 64 bases of A, C, G and T.
+	 * @param read Buffer containing the read
+	 * @param readStart Position in the buffer of the first base
+	 * @param readLength Length of the read
+	 * @param adapter Upper case adapter sequence
+	 * @param minOverlap Minimum length of a partial match at the 3' end
+	 * @param maxMismatchRate Maximum mismatches as a fraction of the match length
+	 * @return Position in the read of the leftmost match, or the read length if there is none
+	 */
+	public static int findAdapter(byte[] read, int readStart, int readLength, byte[] adapter, int minOverlap, double maxMismatchRate) {
+		if(adapter.length == 0) {
+			return readLength;
+		}
+		int lastStart = readLength - Math.min(minOverlap, adapter.length);
+		for(int start = 0; start <= lastStart; start++) {
+			int overlap = Math.min(adapter.length, readLength - start);
+			int maxMismatches = (int) (overlap * maxMismatchRate);
+			int mismatches = 0;
+			int i = 0;
+			while(i < overlap) {
+				if(upperCase(read[readStart + start + i]) != adapter[i] && ++mismatches > maxMismatches) {
+					break;
+				}
+				i++;
+			}
+			if(i == overlap) {
+				return start;
+			}
+		}
+		return readLength;
+	}
+
+	private static byte upperCase(byte b) {
+		return b >= 'a' && b <= 'z' ? (byte) (b - 32) : b;
+	}
+
+	/**
+	 * Find where to trim the low quality 3' end of a read, as in BWA: the position that maximizes the sum of
+	 * (cutoff - quality) over the trimmed bases
+	 * @param record The read
+	 * @param cutoff Phred score cutoff
+	 * @param offset Offset of phred scores in the quality string
+	 * @return Length of the read to keep
+	 */
+	public static int findQualityTrimPosition(FastqRecord record, int cutoff, int offset) {
+		int rtrn = record.getLength();
+		int sum = 0;
+		int max = 0;
+		for(int i = record.getLength() - 1; i >= 0; i--) {
+			sum += cutoff - (record.getQuality(i) - offset);
+			if(sum < 0) {
+				break;
+			}
+			if(sum > max) {
+				max = sum;
+				rtrn = i;
+			}
+		}
+		return rtrn;
+	}
+
+	/**
+	 * @param record The read
+	 * @param adapter Adapter for the read
+	 * @param matcher Packed matcher for the adapter, or null to compare bases one at a time
+	 * @return Length of the read after quality trimming and adapter clipping
+	 */
+	private int clippedLength(FastqRecord record, byte[] adapter, PatternMatcher matcher) {
+		int length = qualityCutoff > 0 ? findQualityTrimPosition(record, qualityCutoff, qualityOffset) : record.getLength();
+		if(matcher != null) {
+			return matcher.find(record.getBuffer(), record.getSequenceStart(), length, minOverlap, maxMismatchRate);
+		}
+		return findAdapter(record.getBuffer(), record.getSequenceStart(), length, adapter, minOverlap, maxMismatchRate);
+	}
+
+	/**
+	 * Clip single end reads
+	 * @param in Input fastq file, which may be gzipped
+	 * @param out Output fastq file
+	 * @return Summary of the clipping
+	 * @throws IOException
+	 */
+	public Summary clip(File in, File out) throws IOException {
+		return clip(in, null, out, null);
+	}
+
+	/**
+	 * Clip paired reads. The files must list the mates in the same order.
+	 * @param in1 Read 1 fastq file, which may be gzipped
+	 * @param in2 Read 2 fastq file, which may be gzipped, or null if reads are single end
+	 * @param out1 Output file for read 1
+	 * @param out2 Output file for read 2, or null if reads are single end
+	 * @return Summary of the clipping
+	 * @throws IOException
+	 */
+	public Summary clip(File in1, File in2, File out1, File out2) throws IOException {
+		logger.info("Clipping " + in1 + (in2 == null ? "" : " and " + in2) + "...");
+		boolean paired = in2 != null;
+		Summary rtrn = new Summary();
+		// Null resources are skipped, so single end reads need no second reader or writer
+		try(FastqReader reader1 = new FastqReader(in1);
+				FastqReader reader2 = paired ? new FastqReader(in2) : null;
+				OutputStream writer1 = new BufferedOutputStream(new FileOutputStream(out1), 1 << 16);
+				OutputStream writer2 = paired ? new BufferedOutputStream(new FileOutputStream(out2), 1 << 16) : null;
+				OrderedExecutor<Batch, IOException> executor = new OrderedExecutor<Batch, IOException>(numThreads, "clipping reads",
+						batch -> batch.write(writer1, writer2, rtrn))) {
+			while(true) {
+				List<FastqRecord> reads1 = readBatch(reader1);
+				List<FastqRecord> reads2 = paired ? readBatch(reader2) : null;
+				if(paired && reads1.size() != reads2.size()) {
+					throw new IllegalArgumentException(in1 + " and " + in2 + " have different numbers of reads");
+				}
+				if(reads1.isEmpty()) {
+					break;
+				}
+				executor.submit(() -> clipBatch(reads1, reads2));
+			}
+			executor.finish();
+		}
+		logger.info(rtrn);
+		return rtrn;
+	}
+
+	private static List<FastqRecord> readBatch(FastqReader reader) throws IOException {
+		List<FastqRecord> rtrn = new ArrayList<FastqRecord>(BATCH_SIZE);
+		FastqRecord record;
+		while(rtrn.size() < BATCH_SIZE && (record = reader.next()) != null) {
+			rtrn.add(record.copy());
+		}
+		return rtrn;
+	}
+
+	private Batch clipBatch(List<FastqRecord> reads1, List<FastqRecord> reads2) throws IOException {
+		Batch rtrn = new Batch();
+		for(int i = 0; i < reads1.size(); i++) {
+			FastqRecord read1 = reads1.get(i);
+			int length1 = clippedLength(read1, adapter1, matcher1);
+			rtrn.summary.add(read1, length1);
+			if(reads2 == null) {
+				if(length1 >= minLength) {
+					read1.write(rtrn.out1, 0, length1);
+					rtrn.summary.numWritten++;
+				}
+				continue;
+			}
+			FastqRecord read2 = reads2.get(i);
+			if(!read1.getReadId(readNumberDelimiter).equals(read2.getReadId(readNumberDelimiter))) {
+				throw new IllegalArgumentException("Paired files are out of sync: " + read1.getName() + " and " + read2.getName());
+			}
+			int length2 = clippedLength(read2, adapter2, matcher2);
+			rtrn.summary.add(read2, length2);
+			if(length1 >= minLength && length2 >= minLength) {
+				read1.write(rtrn.out1, 0, length1);
+				read2.write(rtrn.out2, 0, length2);
+				rtrn.summary.numWritten += 2;
+			}
+		}
+		return rtrn;
+	}
+
+	/**
+	 * Clipped reads of a batch in fastq format
+	 */
+	private static class Batch {
+		final ByteArrayOutputStream out1 = new ByteArrayOutputStream();
+		final ByteArrayOutputStream out2 = new ByteArrayOutputStream();
+		final Summary summary = new Summary();
+
+		void write(OutputStream writer1, OutputStream writer2, Summary total) throws IOException {
+			out1.writeTo(writer1);
+			if(writer2 != null) {
+				out2.writeTo(writer2);
+			}
+			total.add(summary);
+		}
+	}
+
+	/**
+	 * Counts of reads and bases clipped
+	 */
+	public static class Summary {
+
+		private long numReads;
+		private long numClipped;
+		private long numWritten;
+		private long numBasesRemoved;
+
+		void add(FastqRecord read, int clippedLength) {
+			numReads++;
+			if(clippedLength < read.getLength()) {
+				numClipped++;
+				numBasesRemoved += read.getLength() - clippedLength;
+			}
+		}
+
+		void add(Summary other) {
+			numReads += other.numReads;
+			numClipped += other.numClipped;
+			numWritten += other.numWritten;
+			numBasesRemoved += other.numBasesRemoved;
+		}
+
+		/**
+		 * @return Number of reads read, counting both mates of a pair
+		 */
+		public long getNumReads() {
+			return numReads;
+		}
+
+		/**
+		 * @return Number of reads with an adapter or low quality end
+		 */
+		public long getNumClipped() {
+			return numClipped;
+		}
+
+		/**
+		 * @return Number of reads written, counting both mates of a pair
+		 */
+		public long getNumWritten() {
+			return numWritten;
+		}
+
+		/**
+		 * @return Total number of bases removed
+		 */
+		public long getNumBasesRemoved() {
+			return numBasesRemoved;
+		}
+
+		@Override
+		public String toString() {
+			return "Read " + numReads + " reads, clipped " + numClipped + " (" + numBasesRemoved + " bases) and wrote " + numWritten;
+		}
+	}
+
+}
@@ -0,0 +1,305 @@
+package guttmanlab.core.pipeline.util;
+
+import guttmanlab.core.util.ConcurrentUtils;
+import guttmanlab.core.util.ConcurrentUtils.OrderedExecutor;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.function.IntFunction;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Assigns fastq reads to barcodes found at a fixed position in the read sequence, using a BarcodeTable.
+ * Reads are either split into one file per barcode or written to one file with the barcode as a BC:Z: tag in
+ * place of the header comment, which aligners such as bwa -C copy to the SAM record.
+ * Batches of reads are matched in parallel and written in their original order.
+ *
+ */
+public class BarcodeDemultiplexer {
+
+	private static Logger logger = Logger.getLogger(BarcodeDemultiplexer.class.getName());
+
+	private static final int BATCH_SIZE = 4096;
+
+	/**
+	 * Default maximum number of files open at once when splitting
+	 */
+	public static final int DEFAULT_MAX_OPEN_FILES = 256;
+
+	private final BarcodeTable table;
+	private final int barcodeStart;
+	private int numThreads = Runtime.getRuntime().availableProcessors();
+	private int maxOpenFiles = DEFAULT_MAX_OPEN_FILES;
+
+	/**
+	 * @param table Barcodes to match
+	 * @param barcodeStart Position of the barcode in the read sequence
+	 */
+	public BarcodeDemultiplexer(BarcodeTable table, int barcodeStart) {
+		if(barcodeStart < 0) {
+			throw new IllegalArgumentException("Barcode start must be non-negative");
+		}
+		this.table = table;
+		this.barcodeStart = barcodeStart;
+	}
+
+	/**
+	 * @param numThreads Number of threads matching reads. Default the number of processors.
+	 */
+	public void setNumThreads(int numThreads) {
+		this.numThreads = ConcurrentUtils.checkNumThreads(numThreads);
+	}
+
+	/**
+	 * @param maxOpenFiles Maximum number of output files open at once when splitting. The least recently written
+	 * file is closed to open another and reopened for appending when needed. Default DEFAULT_MAX_OPEN_FILES.
+	 */
+	public void setMaxOpenFiles(int maxOpenFiles) {
+		if(maxOpenFiles < 1) {
+			throw new IllegalArgumentException("Maximum number of open files must be positive");
+		}
+		this.maxOpenFiles = maxOpenFiles;
+	}
+
+	/**
+	 * @param record A read
+	 * @return The ID of the barcode in the read, BarcodeTable.NO_MATCH or BarcodeTable.AMBIGUOUS
+	 */
+	public int match(FastqRecord record) {
+		if(record.getLength() < barcodeStart + table.getLength()) {
+			return BarcodeTable.NO_MATCH;
+		}
+		return table.match(record.getBuffer(), record.getSequenceStart() + barcodeStart);
+	}
+
+	/**
+	 * Write the reads of each barcode to a separate file, named prefix.barcode.fq. Reads matching no barcode or
+	 * more than one barcode are written to prefix.unmatched.fq. Files are only created for barcodes with reads.
+	 * At most maxOpenFiles files are open at once.
+	 * @param in Fastq file, which may be gzipped
+	 * @param outPrefix Prefix of output files
+	 * @return Counts of reads per barcode
+	 * @throws IOException
+	 */
+	public Summary split(File in, String outPrefix) throws IOException {
+		int unmatched = table.getNumBarcodes();
+		WriterCache writers = new WriterCache(unmatched + 1, maxOpenFiles,
+				index -> outPrefix + "." + (index == unmatched ? "unmatched" : table.getBarcode(index)) + ".fq");
+		try {
+			return run(in, (record, id) -> record.write(writers.get(id < 0 ? unmatched : id)));
+		} finally {
+			writers.close();
+		}
+	}
+
+	/**
+	 * Output streams of a set of files, keeping only the most recently used ones open. A file is truncated when
+	 * first opened and appended to when reopened.
+	 */
+	private static class WriterCache {
+
+		private final IntFunction<String> paths;
+		private final boolean[] created;
+		private final int maxOpen;
+		// In order of last use
+		private final LinkedHashMap<Integer, OutputStream> open;
+
+		WriterCache(int numFiles, int maxOpen, IntFunction<String> paths) {
+			this.paths = paths;
+			this.created = new boolean[numFiles];
+			this.maxOpen = maxOpen;
+			this.open = new LinkedHashMap<Integer, OutputStream>(16, 0.75f, true);
+		}
+
+		OutputStream get(int index) throws IOException {
+			Integer key = Integer.valueOf(index);
+			OutputStream rtrn = open.get(key);
+			if(rtrn != null) {
+				return rtrn;
+			}
+			if(open.size() >= maxOpen) {
+				Iterator<OutputStream> eldest = open.values().iterator();
+				OutputStream stream = eldest.next();
+				eldest.remove();
+				stream.close();
+			}
+			rtrn = new BufferedOutputStream(new FileOutputStream(paths.apply(index), created[index]), 1 << 13);
+			created[index] = true;
+			open.put(key, rtrn);
+			return rtrn;
+		}
+
+		void close() throws IOException {
+			IOException exception = null;
+			for(OutputStream stream : open.values()) {
+				try {
+					stream.close();
+				} catch(IOException e) {
+					exception = exception == null ? e : exception;
+				}
+			}
+			open.clear();
+			if(exception != null) {
+				throw exception;
+			}
+		}
+	}
+
+	/**
+	 * Write the reads matching a barcode to one file, with the barcode as a BC:Z: tag replacing any comment in
+	 * the header, e.g. the read number and index of Illumina headers, so that the comment is a valid SAM tag.
+	 * Reads matching no barcode or more than one barcode are not written.
+	 * @param in Fastq file, which may be gzipped
+	 * @param out Output fastq file
+	 * @return Counts of reads per barcode
+	 * @throws IOException
+	 */
+	public Summary tag(File in, File out) throws IOException {
+		byte[][] tags = new byte[table.getNumBarcodes()][];
+		for(int i = 0; i < tags.length; i++) {
+			tags[i] = (" BC:Z:" + table.getBarcode(i)).getBytes(StandardCharsets.US_ASCII);
+		}
+		OutputStream writer = new BufferedOutputStream(new FileOutputStream(out), 1 << 16);
+		try {
+			return run(in, (record, id) -> {
+				if(id >= 0) {
+					record.write(writer, 0, record.getLength(), tags[id]);
+				}
+			});
+		} finally {
+			writer.close();
+		}
+	}
+
+	/**
+	 * Writes a read given its barcode
+	 */
+	private interface ReadWriter {
+		void write(FastqRecord record, int id) throws IOException;
+	}
+
+	private Summary run(File in, ReadWriter writer) throws IOException {
+		logger.info("Matching reads in " + in + " to " + table.getNumBarcodes() + " barcodes...");
+		Summary rtrn = new Summary(table);
+		FastqReader reader = new FastqReader(in);
+		try(OrderedExecutor<Batch, IOException> executor = new OrderedExecutor<Batch, IOException>(numThreads, "matching barcodes",
+				batch -> batch.write(writer, rtrn))) {
+			while(true) {
+				List<FastqRecord> reads = new ArrayList<FastqRecord>(BATCH_SIZE);
+				FastqRecord record;
+				while(reads.size() < BATCH_SIZE && (record = reader.next()) != null) {
+					reads.add(record.copy());
+				}
+				if(reads.isEmpty()) {
+					break;
+				}
+				executor.submit(() -> matchBatch(reads));
+			}
+			executor.finish();
+		} finally {
+			reader.close();
+		}
+		logger.info(rtrn);
+		return rtrn;
+	}
+
+	private Batch matchBatch(List<FastqRecord> reads) {
+		int[] ids = new int[reads.size()];
+		for(int i = 0; i < ids.length; i++) {
+			ids[i] = match(reads.get(i));
+		}
+		return new Batch(reads, ids);
+	}
+
+	/**
+	 * Reads of a batch and the barcode each one matches
+	 */
+	private static class Batch {
+		final List<FastqRecord> reads;
+		final int[] ids;
+
+		Batch(List<FastqRecord> reads, int[] ids) {
+			this.reads = reads;
+			this.ids = ids;
+		}
+
+		void write(ReadWriter writer, Summary summary) throws IOException {
+			for(int i = 0; i < ids.length; i++) {
+				writer.write(reads.get(i), ids[i]);
+				summary.add(ids[i]);
+			}
+		}
+	}
+
+	/**
+	 * Counts of reads per barcode
+	 */
+	public static class Summary {
+
+		private final BarcodeTable table;
+		private final long[] counts;
+		private long numUnmatched;
+		private long numAmbiguous;
+
+		Summary(BarcodeTable table) {
+			this.table = table;
+			this.counts = new long[table.getNumBarcodes()];
+		}
+
+		void add(int id) {
+			if(id >= 0) {
+				counts[id]++;
+			} else if(id == BarcodeTable.AMBIGUOUS) {
+				numAmbiguous++;
+			} else {
+				numUnmatched++;
+			}
+		}
+
+		/**
+		 * @param id Barcode ID
+		 * @return Number of reads matching the barcode
+		 */
+		public long getCount(int id) {
+			return counts[id];
+		}
+
+		/**
+		 * @return Number of reads matching no barcode
+		 */
+		public long getNumUnmatched() {
+			return numUnmatched;
+		}
+
+		/**
+		 * @return Number of reads matching more than one barcode equally well
+		 */
+		public long getNumAmbiguous() {
+			return numAmbiguous;
+		}
+
+		@Override
+		public String toString() {
+			long matched = 0;
+			int numBarcodesWithReads = 0;
+			for(long count : counts) {
+				matched += count;
+				if(count > 0) {
+					numBarcodesWithReads++;
+				}
+			}
+			return "Matched " + matched + " reads to " + numBarcodesWithReads + " of " + table.getNumBarcodes() + " barcodes; "
+					+ numUnmatched + " unmatched and " + numAmbiguous + " ambiguous";
+		}
+	}
+
+}
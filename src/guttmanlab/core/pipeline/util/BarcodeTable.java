@@ -0,0 +1,301 @@
+package guttmanlab.core.pipeline.util;
+
+import guttmanlab.core.sequence.PackedSequence;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+
+/**
+ * A lookup table from barcode sequences, and all sequences within a number of mismatches of them, to barcode IDs.
+ * Barcodes are encoded at two bits per base in a long, so barcodes can be up to 32 bases long, and the table is
+ * an open-addressing hash table of long keys, so a lookup costs one encoding pass and a few array reads.
+ *
+ * A sequence within the mismatch limit of more than one barcode is assigned to the closest one, or marked
+ * ambiguous if there is a tie. The number of such collisions is reported when the table is built.
+ *
+ */
+public class BarcodeTable {
+
+	private static Logger logger = Logger.getLogger(BarcodeTable.class.getName());
+
+	/**
+	 * Returned by lookups that match no barcode
+	 */
+	public static final int NO_MATCH = -1;
+
+	/**
+	 * Returned by lookups that match more than one barcode equally well
+	 */
+	public static final int AMBIGUOUS = -2;
+
+	private static final long EMPTY = -1L;
+	private static final long ODD_BITS = 0x5555555555555555L;
+
+	private final List<String> barcodes;
+	private final long[] codes;
+	private final int length;
+	private final int maxMismatches;
+	// Open-addressing table; keys are 2-bit encoded sequences, which are never -1 for barcodes shorter than 32
+	// bases, and the 32-base sequence of all T is stored separately
+	private long[] keys;
+	private int[] values;
+	private byte[] distances;
+	private int mask;
+	private int size;
+	private int allTValue = NO_MATCH;
+	private int allTDistance = Integer.MAX_VALUE;
+	private int numCollisions;
+
+	/**
+	 * @param barcodes Barcode sequences, all the same length and consisting of A, C, G and T. The ID of each
+	 * barcode is its position in the list.
+	 * @param maxMismatches Maximum number of mismatches between a sequence and a barcode it matches
+	 */
+	public BarcodeTable(List<String> barcodes, int maxMismatches) {
+		if(barcodes.isEmpty()) {
+			throw new IllegalArgumentException("No barcodes");
+		}
+		this.barcodes = new ArrayList<String>(barcodes);
+		this.length = barcodes.get(0).length();
+		this.maxMismatches = maxMismatches;
+		if(length == 0 || length > 32) {
+			throw new IllegalArgumentException("Barcode length must be between 1 and 32");
+		}
+		if(maxMismatches < 0 || maxMismatches > length) {
+			throw new IllegalArgumentException("Invalid number of mismatches " + maxMismatches);
+		}
+		this.codes = new long[barcodes.size()];
+		for(int i = 0; i < barcodes.size(); i++) {
+			String barcode = barcodes.get(i);
+			if(barcode.length() != length) {
+				throw new IllegalArgumentException("Barcode " + barcode + " has a different length from " + barcodes.get(0));
+			}
+			for(int j = 0; j < length; j++) {
+				if(PackedSequence.code(barcode.charAt(j)) < 0) {
+					throw new IllegalArgumentException("Barcode " + barcode + " contains a base other than A, C, G or T");
+				}
+			}
+			codes[i] = encode(barcode);
+		}
+		long numNeighbors = 0;
+		long perPosition = 1;
+		for(int k = 0; k <= maxMismatches; k++) {
+			numNeighbors += perPosition;
+			perPosition = perPosition * 3 * (length - k) / (k + 1);
+		}
+		long capacity = Long.highestOneBit(Math.max(16, numNeighbors * barcodes.size() * 2)) << 1;
+		if(capacity > 1 << 30) {
+			throw new IllegalArgumentException("Too many barcode neighbors for " + maxMismatches + " mismatches");
+		}
+		allocate((int) capacity);
+		for(int i = 0; i < codes.length; i++) {
+			addNeighbors(codes[i], i, 0, 0);
+		}
+		if(numCollisions > 0) {
+			logger.warn(numCollisions + " sequences are within " + maxMismatches + " mismatches of more than one barcode");
+		}
+		logger.debug("Barcode table has " + size + " sequences for " + codes.length + " barcodes");
+	}
+
+	private void allocate(int capacity) {
+		keys = new long[capacity];
+		Arrays.fill(keys, EMPTY);
+		values = new int[capacity];
+		distances = new byte[capacity];
+		mask = capacity - 1;
+	}
+
+	/**
+	 * Add a barcode and all sequences with further mismatches at positions after the first position
+	 */
+	private void addNeighbors(long code, int id, int firstPosition, int mismatches) {
+		put(code, id, mismatches);
+		if(mismatches == maxMismatches) {
+			return;
+		}
+		for(int i = firstPosition; i < length; i++) {
+			for(long change = 1; change <= 3; change++) {
+				addNeighbors(code ^ (change << (2 * i)), id, i + 1, mismatches + 1);
+			}
+		}
+	}
+
+	private void put(long key, int id, int distance) {
+		if(key == EMPTY) {
+			if(distance < allTDistance) {
+				allTValue = id;
+				allTDistance = distance;
+			} else if(distance == allTDistance && allTValue != id) {
+				if(allTValue != AMBIGUOUS) {
+					numCollisions++;
+				}
+				allTValue = AMBIGUOUS;
+			}
+			return;
+		}
+		int slot = slot(key);
+		while(keys[slot] != EMPTY && keys[slot] != key) {
+			slot = (slot + 1) & mask;
+		}
+		if(keys[slot] == EMPTY) {
+			keys[slot] = key;
+			values[slot] = id;
+			distances[slot] = (byte) distance;
+			size++;
+			return;
+		}
+		// Another barcode is within the mismatch limit of the same sequence
+		if(distance < distances[slot]) {
+			values[slot] = id;
+			distances[slot] = (byte) distance;
+		} else if(distance == distances[slot] && values[slot] != id) {
+			if(values[slot] != AMBIGUOUS) {
+				numCollisions++;
+			}
+			values[slot] = AMBIGUOUS;
+		}
+	}
+
+	private int slot(long key) {
+		// Finalizer of MurmurHash3
+		key ^= key >>> 33;
+		key *= 0xff51afd7ed558ccdL;
+		key ^= key >>> 33;
+		key *= 0xc4ceb9fe1a85ec53L;
+		key ^= key >>> 33;
+		return (int) key & mask;
+	}
+
+	/**
+	 * @param key A 2-bit encoded sequence of the barcode length
+	 * @return The ID of the matching barcode, NO_MATCH or AMBIGUOUS
+	 */
+	public int lookup(long key) {
+		if(key == EMPTY) {
+			return allTValue;
+		}
+		int slot = slot(key);
+		while(keys[slot] != EMPTY) {
+			if(keys[slot] == key) {
+				return values[slot];
+			}
+			slot = (slot + 1) & mask;
+		}
+		return NO_MATCH;
+	}
+
+	/**
+	 * Match a sequence, e.g. part of a read, to the barcodes. Each N counts as a mismatch.
+	 * @param bases Buffer containing the sequence
+	 * @param start Position in the buffer of the first base of the sequence, which has the length of the barcodes
+	 * @return The ID of the matching barcode, NO_MATCH or AMBIGUOUS
+	 */
+	public int match(byte[] bases, int start) {
+		long key = 0;
+		long nMask = 0;
+		for(int i = 0; i < length; i++) {
+			int code = PackedSequence.code((char) bases[start + i]);
+			if(code < 0) {
+				nMask |= 3L << (2 * i);
+			} else {
+				key |= (long) code << (2 * i);
+			}
+		}
+		if(nMask == 0) {
+			return lookup(key);
+		}
+		int numN = Long.bitCount(nMask) / 2;
+		if(numN > maxMismatches) {
+			return NO_MATCH;
+		}
+		// Reads with N are rare, so compare to every barcode rather than enumerating the bases at the N positions
+		int rtrn = NO_MATCH;
+		int best = maxMismatches + 1;
+		for(int id = 0; id < codes.length; id++) {
+			int distance = distance(codes[id] & ~nMask, key) + numN;
+			if(distance > maxMismatches) {
+				continue;
+			}
+			if(distance < best) {
+				best = distance;
+				rtrn = id;
+			} else if(distance == best) {
+				rtrn = AMBIGUOUS;
+			}
+		}
+		return rtrn;
+	}
+
+	/**
+	 * @param sequence A sequence of the barcode length
+	 * @return The ID of the matching barcode, NO_MATCH or AMBIGUOUS
+	 */
+	public int match(CharSequence sequence) {
+		if(sequence.length() != length) {
+			throw new IllegalArgumentException("Sequence length " + sequence.length() + " is not the barcode length " + length);
+		}
+		byte[] bases = new byte[length];
+		for(int i = 0; i < length; i++) {
+			bases[i] = (byte) sequence.charAt(i);
+		}
+		return match(bases, 0);
+	}
+
+	/**
+	 * @param sequence Sequence of A, C, G and T of at most 32 bases
+	 * @return The sequence at two bits per base, first base in the lowest bits, or -1 if it contains another
+	 * character (which is also the code of 32 T's)
+	 */
+	public static long encode(CharSequence sequence) {
+		long rtrn = 0;
+		for(int i = 0; i < sequence.length(); i++) {
+			int code = PackedSequence.code(sequence.charAt(i));
+			if(code < 0) {
+				return EMPTY;
+			}
+			rtrn |= (long) code << (2 * i);
+		}
+		return rtrn;
+	}
+
+	/**
+	 * @return Number of mismatches between two 2-bit encoded sequences
+	 */
+	public static int distance(long code1, long code2) {
+		long diff = code1 ^ code2;
+		return Long.bitCount((diff | (diff >>> 1)) & ODD_BITS);
+	}
+
+	/**
+	 * @param id Barcode ID
+	 * @return The barcode sequence
+	 */
+	public String getBarcode(int id) {
+		return barcodes.get(id);
+	}
+
+	/**
+	 * @return Number of barcodes
+	 */
+	public int getNumBarcodes() {
+		return barcodes.size();
+	}
+
+	/**
+	 * @return Barcode length
+	 */
+	public int getLength() {
+		return length;
+	}
+
+	/**
+	 * @return Number of sequences within the mismatch limit of more than one barcode at the same distance
+	 */
+	public int getNumCollisions() {
+		return numCollisions;
+	}
+
+}
@@ -1,9 +1,9 @@
 package guttmanlab.core.pipeline.util;
 
-import guttmanlab.core.pipeline.LSFJob;
-import guttmanlab.core.pipeline.OGSJob;
 import guttmanlab.core.pipeline.Scheduler;
+import guttmanlab.core.sequence.FastaIndex;
 
+import java.io.File;
 import java.io.IOException;
 
 
@@ -23,55 +23,47 @@ public class FastaUtils {
 	private static Logger logger = Logger.getLogger(FastaUtils.class.getName());
 	
 	/**
-	 * Index a fasta file using samtools faidx and write bsub output file to working directory
+	 * Index a fasta file in the format of samtools faidx, writing the index to the fasta file name plus .fai
 	 * @param fastaFileName The fasta file to index
-	 * @param samtoolsExecutable Path to samtools executable
-	 * @param scheduler Scheduler
-     * @param drmaaSession Active DRMAA session. Pass null if not using OGS. There should only be one active session at a time. Session should have been created in the main method of the class calling this method.
 	 * @throws IOException
-	 * @throws InterruptedException
-	 * @throws DrmaaException 
 	 */
+	public static void indexFastaFile(String fastaFileName) throws IOException {
+		File fastaFile = new File(fastaFileName);
+		FastaIndex.build(fastaFile).write(new File(fastaFileName + FastaIndex.EXTENSION));
+		logger.info("Wrote index " + fastaFileName + FastaIndex.EXTENSION);
+	}
+	
+	/**
+	 * Index a fasta file in the format of samtools faidx. The index is built in process, so the other arguments are ignored.
+	 * @param fastaFileName The fasta file to index
+	 * @param samtoolsExecutable Ignored
+	 * @param scheduler Ignored
+	 * @param drmaaSession Ignored
+	 * @throws IOException
+	 * @throws InterruptedException Never; declared so existing callers still compile
+	 * @throws DrmaaException Never; declared so existing callers still compile
+	 * @deprecated Use {@link #indexFastaFile(String)}
+	 */
+	@Deprecated
 	public static void indexFastaFile(String fastaFileName, String samtoolsExecutable, Scheduler scheduler, Session drmaaSession) throws IOException, InterruptedException, DrmaaException {
-		indexFastaFile(fastaFileName, samtoolsExecutable, ".", scheduler, drmaaSession);
+		indexFastaFile(fastaFileName);
 	}
 	
 	/**
-	 * Index a fasta file using samtools faidx
+	 * Index a fasta file in the format of samtools faidx. The index is built in process, so the other arguments are ignored.
 	 * @param fastaFileName The fasta file to index
-	 * @param samtoolsExecutable Path to samtools executable
-	 * @param bsubOutDir Directory to write bsub output to
-	 * @param scheduler Scheduler
-     * @param drmaaSession Active DRMAA session. Pass null if not using OGS. There should only be one active session at a time. Session should have been created in the main method of the class calling this method.
+	 * @param samtoolsExecutable Ignored
+	 * @param bsubOutDir Ignored
+	 * @param scheduler Ignored
+	 * @param drmaaSession Ignored
 	 * @throws IOException
-	 * @throws InterruptedException
-	 * @throws DrmaaException 
+	 * @throws InterruptedException Never; declared so existing callers still compile
+	 * @throws DrmaaException Never; declared so existing callers still compile
+	 * @deprecated Use {@link #indexFastaFile(String)}
 	 */
+	@Deprecated
 	public static void indexFastaFile(String fastaFileName, String samtoolsExecutable, String bsubOutDir, Scheduler scheduler, Session drmaaSession) throws IOException, InterruptedException, DrmaaException {
-		String cmmd = samtoolsExecutable + " faidx " + fastaFileName;
-		logger.info("Running samtools command: " + cmmd);
-		switch(scheduler) {
-		case LSF:
-			String jobID = Long.valueOf(System.currentTimeMillis()).toString();
-			logger.info("LSF job ID is " + jobID + ".");
-			LSFJob job = new LSFJob(Runtime.getRuntime(), jobID, cmmd, bsubOutDir + "/index_fasta_" + jobID + ".bsub", "hour", 4);
-			job.submit();
-			logger.info("Waiting for samtools faidx job to finish...");
-			job.waitFor();
-			break;
-        case OGS:
-            if(drmaaSession == null) {
-                    throw new IllegalArgumentException("DRMAA session is null. Must provide an active DRMAA session to use OGS. There can only be one active session at a time. Session should have been created in the main method of the class calling this method.");
-            }
-            OGSJob ogsJob = new OGSJob(drmaaSession, cmmd, "index_fasta", null);
-            ogsJob.submit();
-            logger.info("OGS job ID is " + ogsJob.getID() + ".");
-			logger.info("Waiting for samtools faidx job to finish...");
-			ogsJob.waitFor();
-            break;
-		default:
-			throw new IllegalArgumentException("Scheduler " + scheduler.toString() + " not supported.");
-		}
+		indexFastaFile(fastaFileName);
 	}
 
 
@@ -55,31 +55,22 @@ public class FastqParser implements Iterator<FastqSequence>{
 	}
 	
 	/**
-	 * Convert to fasta format and save to file
+	 * Convert to fasta format and save to file. Reads the whole file set with start(File) or the constructor.
 	 * @param save Output file
 	 * @throws IOException
 	 */
 	public void convertToFasta(String save)throws IOException{
-		FileWriter writer=new FileWriter(save);
-	
-		String nextLine;
-        while ((nextLine = reader.readLine()) != null && (nextLine.trim().length() > 0)) {
-        	if(nextLine.startsWith("@")){
-        		String firstLine=nextLine;
-        		String secondLine=reader.readLine();
-        		String thirdLine=reader.readLine();
-        		String fourthLine=reader.readLine();
-        		
-        		FastqSequence seq=new FastqSequence(firstLine, secondLine, thirdLine, fourthLine);
-        		String sequence=seq.getSequence();
-        		//int num=10;
-        		//String lastNBps=getLastBps(sequence, num);
-    			//String polyN=polyN("T", num);
-    			//if(lastNBps.equalsIgnoreCase(polyN)){System.err.println(sequence);}
-    			writer.write(seq.toFasta());
-        	}
-        }
-        writer.close();
+		FastqReader reader=new FastqReader(this.fastqFile);
+		OutputStream writer=new BufferedOutputStream(new FileOutputStream(save), 1 << 16);
+		try {
+			FastqRecord record;
+			while((record = reader.next()) != null) {
+				record.writeFasta(writer);
+			}
+		} finally {
+			reader.close();
+			writer.close();
+		}
 	}
 	
 	/**
@@ -153,38 +144,28 @@ public class FastqParser implements Iterator<FastqSequence>{
 	 * @throws IOException
 	 */
 	public File[] writeChunks(String save, int chunkSize) throws IOException {
-		Collection<File> rtrn=new TreeSet<File>();
-		BufferedReader reader=new BufferedReader(new InputStreamReader(new FileInputStream(this.fastqFile)));
-		String nextLine;
-		FileWriter writer=new FileWriter(save+".0.fq");
-    	int i=0;
-        while ((nextLine = reader.readLine()) != null && (nextLine.trim().length() > 0)) {
-        	if(nextLine.startsWith("@")){
-        		if(i%chunkSize ==0){
-        			writer.close();
-        			rtrn.add(new File(save+"."+(i/chunkSize)+".fq")); 
-        			writer=new FileWriter(save+"."+(i/chunkSize)+".fq"); 
-        			System.err.println(i);
-        		}
-        		String firstLine=nextLine;
-        		String secondLine=reader.readLine();
-        		String thirdLine=reader.readLine();
-        		String fourthLine=reader.readLine();
-        		
-        		FastqSequence seq=new FastqSequence(firstLine, secondLine, thirdLine, fourthLine);
-        		//String sequence=seq.getSequence();
-        		writer.write(seq.toFastq()+"\n");
-        		i++;
-        		if(i % 100000 == 0){System.err.println("Iterating.. "+ i);}
-        	}
-        	
-        	
-        }
-        this.numberOfSeq=i;
-        File[] files=new File[rtrn.size()];
-        int counter=0;
-        for(File file: rtrn){files[counter++]=file;}
-		return files;
+		List<File> rtrn=new ArrayList<File>();
+		FastqReader reader=new FastqReader(this.fastqFile);
+		OutputStream writer=null;
+		try {
+			FastqRecord record;
+			while((record = reader.next()) != null) {
+				long i=reader.getNumRecordsRead() - 1;
+				if(i%chunkSize ==0){
+					if(writer != null) {writer.close();}
+					File file=new File(save+"."+(i/chunkSize)+".fq");
+					rtrn.add(file);
+					writer=new BufferedOutputStream(new FileOutputStream(file), 1 << 16);
+				}
+				record.write(writer);
+				if((i+1) % 100000 == 0){logger.debug("Iterating.. "+ (i+1));}
+			}
+			this.numberOfSeq=(int) reader.getNumRecordsRead();
+		} finally {
+			reader.close();
+			if(writer != null) {writer.close();}
+		}
+		return rtrn.toArray(new File[rtrn.size()]);
 	}
 	
 	/**
@@ -194,15 +175,10 @@ public class FastqParser implements Iterator<FastqSequence>{
 		if(this.numberOfSeq>0){return this.numberOfSeq;}
 		else{
 			try{
-			BufferedReader reader=new BufferedReader(new InputStreamReader(new FileInputStream(this.fastqFile)));
-			String nextLine;
-			int i=0;
-	        while ((nextLine = reader.readLine()) != null && (nextLine.trim().length() > 0)) {
-	        	if(nextLine.startsWith("@")){i++;}
-	        }
-	        this.numberOfSeq=i;
-	        reader.close();
-			}catch(IOException ex){}
+				this.numberOfSeq=(int) FastqReader.countRecords(this.fastqFile);
+			}catch(IOException ex){
+				logger.error("Exception thrown while counting records in " + this.fastqFile, ex);
+			}
 			return this.numberOfSeq;
 		}
 	}
@@ -0,0 +1,305 @@
+package guttmanlab.core.pipeline.util;
+
+import guttmanlab.core.util.ConcurrentUtils;
+import guttmanlab.core.util.FileUtils;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+import org.apache.log4j.Logger;
+
+/**
+ * A fast fastq reader that parses records directly from a byte buffer. Each call to next() returns the same
+ * FastqRecord object, pointing to the current record in the buffer, so reading does not allocate per record.
+ * Gzipped files are decompressed on a separate thread. Uncompressed files can be split at record boundaries
+ * so that the parts are read in parallel.
+ *
+ */
+public class FastqReader implements Closeable {
+
+	private static Logger logger = Logger.getLogger(FastqReader.class.getName());
+
+	private static final int INITIAL_BUFFER_SIZE = 1 << 20;
+	private static final int MIN_BUFFER_SIZE = 1 << 12;
+
+	private final InputStream in;
+	private final long endOffset;
+	private final FastqRecord record;
+	// Ends of the four lines of the current record
+	private final int[] lineEnds = new int[4];
+	private byte[] buffer;
+	// File offset of buffer[0]
+	private long bufferOffset;
+	private int position;
+	private int limit;
+	private boolean eof;
+	private long numRecords;
+
+	/**
+	 * @param file Fastq file, which may be gzipped
+	 * @throws IOException
+	 */
+	public FastqReader(File file) throws IOException {
+		this(FileUtils.openInputStream(file, true), 0, -1);
+	}
+
+	/**
+	 * @param in Stream of fastq records
+	 */
+	public FastqReader(InputStream in) {
+		this(in, 0, -1);
+	}
+
+	/**
+	 * @param in Stream positioned at the start of a record
+	 * @param startOffset Offset in the file of the start of the stream
+	 * @param endOffset Stop at the first record starting at or after this offset in the file, or -1 to read to the end
+	 */
+	private FastqReader(InputStream in, long startOffset, long endOffset) {
+		this.in = in;
+		this.bufferOffset = startOffset;
+		this.endOffset = endOffset;
+		// Small parts of a split file don't need a full size buffer; it grows if a record is larger
+		long partSize = endOffset < 0 ? INITIAL_BUFFER_SIZE : endOffset - startOffset;
+		this.buffer = new byte[(int) Math.max(MIN_BUFFER_SIZE, Math.min(INITIAL_BUFFER_SIZE, partSize))];
+		this.record = new FastqRecord();
+	}
+
+	/**
+	 * Read the next record
+	 * @return The record, which is overwritten by the next call, or null if there are no more records
+	 * @throws IOException
+	 */
+	public FastqRecord next() throws IOException {
+		// Skip blank lines between records
+		while(true) {
+			if(position == limit && !fill()) {
+				return null;
+			}
+			if(buffer[position] != '\n' && buffer[position] != '\r') {
+				break;
+			}
+			position++;
+		}
+		if(endOffset >= 0 && bufferOffset + position >= endOffset) {
+			return null;
+		}
+
+		// Find the ends of the four lines, reading more if the record is not all in the buffer
+		int numLines;
+		while(true) {
+			numLines = 0;
+			int i = position;
+			while(numLines < 4 && i < limit) {
+				if(buffer[i] == '\n') {
+					lineEnds[numLines++] = i;
+				}
+				i++;
+			}
+			if(numLines == 4) {
+				break;
+			}
+			if(eof) {
+				if(numLines == 3 && limit > lineEnds[2] + 1) {
+					// Last line has no terminator
+					lineEnds[numLines++] = limit;
+					break;
+				}
+				throw new IllegalArgumentException("Truncated fastq record at offset " + (bufferOffset + position));
+			}
+			fill();
+		}
+
+		int headerStart = position;
+		int sequenceStart = lineEnds[0] + 1;
+		int descriptionStart = lineEnds[1] + 1;
+		int qualityStart = lineEnds[2] + 1;
+		if(buffer[headerStart] != '@' || buffer[descriptionStart] != '+') {
+			throw new IllegalArgumentException("Invalid fastq record at offset " + (bufferOffset + position));
+		}
+		record.set(buffer, headerStart, trimCarriageReturn(headerStart, lineEnds[0]), sequenceStart, trimCarriageReturn(sequenceStart, lineEnds[1]));
+		record.setQualities(descriptionStart, trimCarriageReturn(descriptionStart, lineEnds[2]), qualityStart, trimCarriageReturn(qualityStart, lineEnds[3]), bufferOffset + position);
+		if(record.getLength() != trimCarriageReturn(qualityStart, lineEnds[3]) - qualityStart) {
+			throw new IllegalArgumentException("Sequence and quality of " + record.getName() + " have different lengths");
+		}
+		position = Math.min(lineEnds[3] + 1, limit);
+		numRecords++;
+		return record;
+	}
+
+	private int trimCarriageReturn(int lineStart, int lineEnd) {
+		return lineEnd > lineStart && buffer[lineEnd - 1] == '\r' ? lineEnd - 1 : lineEnd;
+	}
+
+	/**
+	 * Move the unread part of the buffer to the start, growing the buffer if it is full, and read more
+	 * @return False if there was nothing more to read
+	 */
+	private boolean fill() throws IOException {
+		if(eof) {
+			return false;
+		}
+		if(position > 0) {
+			System.arraycopy(buffer, position, buffer, 0, limit - position);
+			bufferOffset += position;
+			limit -= position;
+			position = 0;
+		}
+		if(limit == buffer.length) {
+			buffer = Arrays.copyOf(buffer, 2 * buffer.length);
+		}
+		int numRead = in.read(buffer, limit, buffer.length - limit);
+		if(numRead == -1) {
+			eof = true;
+			return false;
+		}
+		limit += numRead;
+		return true;
+	}
+
+	/**
+	 * @return Number of records read so far
+	 */
+	public long getNumRecordsRead() {
+		return numRecords;
+	}
+
+	@Override
+	public void close() throws IOException {
+		in.close();
+	}
+
+	/**
+	 * Split a fastq file into parts that can be read independently. Parts start at record boundaries, found by
+	 * looking for a line starting with @ followed two lines later by a line starting with +.
+	 * A gzipped file can't be split and is returned as one part.
+	 * @param file Fastq file
+	 * @param numParts Number of parts. Some parts may be empty if records are long compared to the file.
+	 * @return Readers of the parts, in the order of the file
+	 * @throws IOException
+	 */
+	public static List<FastqReader> split(File file, int numParts) throws IOException {
+		List<FastqReader> rtrn = new ArrayList<FastqReader>();
+		if(FileUtils.isGzipped(file) || numParts < 2) {
+			rtrn.add(new FastqReader(file));
+			return rtrn;
+		}
+		long size = file.length();
+		long[] starts = new long[numParts + 1];
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			for(int i = 1; i < numParts; i++) {
+				starts[i] = Math.max(starts[i - 1], findRecordStart(raf, size * i / numParts));
+			}
+		} finally {
+			raf.close();
+		}
+		starts[numParts] = size;
+		for(int i = 0; i < numParts; i++) {
+			FileInputStream in = new FileInputStream(file);
+			in.getChannel().position(starts[i]);
+			rtrn.add(new FastqReader(in, starts[i], starts[i + 1]));
+		}
+		return rtrn;
+	}
+
+	/**
+	 * @return Offset of the first record starting at or after the position, or the length of the file if there is none
+	 */
+	private static long findRecordStart(RandomAccessFile raf, long from) throws IOException {
+		int windowSize = 1 << 16;
+		while(true) {
+			byte[] window = new byte[(int) Math.min(windowSize, raf.length() - from)];
+			raf.seek(from);
+			raf.readFully(window);
+			boolean complete = from + window.length == raf.length();
+			// Start of each line in the window; the first is only a line start if preceded by a newline
+			List<Integer> lineStarts = new ArrayList<Integer>();
+			if(from == 0) {
+				lineStarts.add(0);
+			} else {
+				raf.seek(from - 1);
+				if(raf.read() == '\n') {
+					lineStarts.add(0);
+				}
+			}
+			for(int i = 0; i < window.length; i++) {
+				if(window[i] == '\n') {
+					lineStarts.add(i + 1);
+				}
+			}
+			for(int i = 0; i + 2 < lineStarts.size(); i++) {
+				int line = lineStarts.get(i);
+				int thirdLine = lineStarts.get(i + 2);
+				if(line < window.length && thirdLine < window.length && window[line] == '@' && window[thirdLine] == '+') {
+					return from + line;
+				}
+			}
+			if(complete) {
+				return raf.length();
+			}
+			windowSize *= 2;
+		}
+	}
+
+	/**
+	 * Apply an action to every record of a file, reading parts of the file in parallel. The action is called
+	 * concurrently from several threads, each with its own record object, so it must be thread safe.
+	 * @param file Fastq file. Gzipped files are read by one thread.
+	 * @param numThreads Number of threads
+	 * @param action Action to apply to each record
+	 * @return Number of records
+	 * @throws IOException
+	 */
+	public static long forEach(File file, int numThreads, Consumer<FastqRecord> action) throws IOException {
+		List<FastqReader> parts = split(file, numThreads);
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(numThreads, parts.size()));
+		try {
+			List<Future<Long>> results = new ArrayList<Future<Long>>();
+			for(FastqReader part : parts) {
+				results.add(executor.submit(() -> {
+					try {
+						FastqRecord record;
+						while((record = part.next()) != null) {
+							action.accept(record);
+						}
+						return part.getNumRecordsRead();
+					} finally {
+						part.close();
+					}
+				}));
+			}
+			long rtrn = 0;
+			for(Future<Long> result : results) {
+				rtrn += ConcurrentUtils.getCheckedResult(result, "reading " + file).longValue();
+			}
+			return rtrn;
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Count the records in a fastq file
+	 * @param file Fastq file
+	 * @return The number of records
+	 * @throws IOException
+	 */
+	public static long countRecords(File file) throws IOException {
+		long rtrn = forEach(file, Runtime.getRuntime().availableProcessors(), record -> {});
+		logger.debug(file + " contains " + rtrn + " records");
+		return rtrn;
+	}
+
+}
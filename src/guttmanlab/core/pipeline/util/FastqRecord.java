@@ -0,0 +1,289 @@
+package guttmanlab.core.pipeline.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.regex.Pattern;
+
+/**
+ * A fastq record as slices of a byte buffer. A FastqReader returns the same record object for every record it reads,
+ * pointing into its own buffer, so the contents of a record are only valid until the reader's next call to next().
+ * Use copy() to keep a record, or toFastqSequence() to convert it.
+ *
+ */
+public class FastqRecord {
+
+	private byte[] buffer;
+	private int nameStart;
+	private int nameEnd;
+	private int sequenceStart;
+	private int sequenceEnd;
+	private int descriptionStart;
+	private int descriptionEnd;
+	private int qualityStart;
+	private int qualityEnd;
+	private long offset;
+
+	/**
+	 * An empty record, to be filled by a reader
+	 */
+	FastqRecord() {}
+
+	/**
+	 * @param name Read name, without the leading @
+	 * @param sequence Read sequence
+	 * @param description Third line, with or without the leading +
+	 * @param quality Quality string
+	 */
+	public FastqRecord(String name, String sequence, String description, String quality) {
+		if(sequence.length() != quality.length()) {
+			throw new IllegalArgumentException("Sequence and quality of " + name + " have different lengths");
+		}
+		String descriptionLine = description.startsWith("+") ? description : "+" + description;
+		byte[] bytes = ("@" + name + sequence + descriptionLine + quality).getBytes(StandardCharsets.US_ASCII);
+		int start = 0;
+		int end = 1 + name.length();
+		set(bytes, start, end, end, end + sequence.length());
+		start = end + sequence.length();
+		setQualities(start, start + descriptionLine.length(), start + descriptionLine.length(), bytes.length, -1);
+	}
+
+	/**
+	 * @param buffer Buffer holding the record
+	 * @param headerStart Position of the @
+	 * @param headerEnd End of the header line, excluding the line terminator
+	 * @param sequenceStart Start of the sequence line
+	 * @param sequenceEnd End of the sequence line, excluding the line terminator
+	 */
+	void set(byte[] buffer, int headerStart, int headerEnd, int sequenceStart, int sequenceEnd) {
+		this.buffer = buffer;
+		this.nameStart = headerStart + 1;
+		this.nameEnd = headerEnd;
+		this.sequenceStart = sequenceStart;
+		this.sequenceEnd = sequenceEnd;
+	}
+
+	/**
+	 * @param descriptionStart Position of the +
+	 * @param descriptionEnd End of the + line, excluding the line terminator
+	 * @param qualityStart Start of the quality line
+	 * @param qualityEnd End of the quality line, excluding the line terminator
+	 * @param offset Offset of the record in the file, or -1 if unknown
+	 */
+	void setQualities(int descriptionStart, int descriptionEnd, int qualityStart, int qualityEnd, long offset) {
+		this.descriptionStart = descriptionStart;
+		this.descriptionEnd = descriptionEnd;
+		this.qualityStart = qualityStart;
+		this.qualityEnd = qualityEnd;
+		this.offset = offset;
+	}
+
+	/**
+	 * @return The buffer holding the record
+	 */
+	public byte[] getBuffer() {
+		return buffer;
+	}
+
+	/**
+	 * @return Position in the buffer of the first character of the name, after the @
+	 */
+	public int getNameStart() {
+		return nameStart;
+	}
+
+	/**
+	 * @return Position in the buffer after the last character of the name
+	 */
+	public int getNameEnd() {
+		return nameEnd;
+	}
+
+	/**
+	 * @return Position in the buffer of the first base
+	 */
+	public int getSequenceStart() {
+		return sequenceStart;
+	}
+
+	/**
+	 * @return Position in the buffer of the first quality character
+	 */
+	public int getQualityStart() {
+		return qualityStart;
+	}
+
+	/**
+	 * @return Read length
+	 */
+	public int getLength() {
+		return sequenceEnd - sequenceStart;
+	}
+
+	/**
+	 * @param index Position in the read
+	 * @return The base at the position
+	 */
+	public byte getBase(int index) {
+		return buffer[sequenceStart + index];
+	}
+
+	/**
+	 * @param index Position in the read
+	 * @return The quality character at the position
+	 */
+	public byte getQuality(int index) {
+		return buffer[qualityStart + index];
+	}
+
+	/**
+	 * @return Byte offset of the record in the file it was read from, or -1 if unknown
+	 */
+	public long getOffset() {
+		return offset;
+	}
+
+	/**
+	 * @return Read name, without the leading @
+	 */
+	public String getName() {
+		return string(nameStart, nameEnd);
+	}
+
+	/**
+	 * @return Read name up to the first whitespace
+	 */
+	public String getReadId() {
+		return string(nameStart, getReadIdEnd());
+	}
+
+	/**
+	 * @param readNumberDelimiter Pattern between read name and read number (1 or 2), or null if whitespace
+	 * @return The part of the read name that is the same in both mates of a pair
+	 */
+	public String getReadId(Pattern readNumberDelimiter) {
+		if(readNumberDelimiter == null) {
+			return getReadId();
+		}
+		return readNumberDelimiter.split(getName(), 2)[0];
+	}
+
+	/**
+	 * @return Position in the buffer after the last character of the read name before any whitespace
+	 */
+	public int getReadIdEnd() {
+		int rtrn = nameStart;
+		while(rtrn < nameEnd && buffer[rtrn] != ' ' && buffer[rtrn] != '\t') {
+			rtrn++;
+		}
+		return rtrn;
+	}
+
+	/**
+	 * @return Read sequence
+	 */
+	public String getSequence() {
+		return string(sequenceStart, sequenceEnd);
+	}
+
+	/**
+	 * @return The third line, including the leading +
+	 */
+	public String getDescription() {
+		return string(descriptionStart, descriptionEnd);
+	}
+
+	/**
+	 * @return Quality string
+	 */
+	public String getQuality() {
+		return string(qualityStart, qualityEnd);
+	}
+
+	private String string(int start, int end) {
+		return new String(buffer, start, end - start, StandardCharsets.US_ASCII);
+	}
+
+	/**
+	 * @return A FastqSequence with the contents of this record
+	 */
+	public FastqSequence toFastqSequence() {
+		return new FastqSequence(getName(), getSequence(), getDescription(), getQuality());
+	}
+
+	/**
+	 * @return A copy of this record with its own buffer
+	 */
+	public FastqRecord copy() {
+		FastqRecord rtrn = new FastqRecord();
+		int start = nameStart - 1;
+		byte[] bytes = Arrays.copyOfRange(buffer, start, qualityEnd);
+		rtrn.set(bytes, 0, nameEnd - start, sequenceStart - start, sequenceEnd - start);
+		rtrn.setQualities(descriptionStart - start, descriptionEnd - start, qualityStart - start, qualityEnd - start, offset);
+		return rtrn;
+	}
+
+	/**
+	 * Write the record in fastq format, with Unix line terminators
+	 * @param out Stream to write to
+	 * @throws IOException
+	 */
+	public void write(OutputStream out) throws IOException {
+		write(out, 0, getLength());
+	}
+
+	/**
+	 * Write the record with its sequence and qualities trimmed to a range
+	 * @param out Stream to write to
+	 * @param start First position of the read to write
+	 * @param end Position after the last position of the read to write
+	 * @throws IOException
+	 */
+	public void write(OutputStream out, int start, int end) throws IOException {
+		write(out, start, end, null);
+	}
+
+	/**
+	 * Write the record with its sequence and qualities trimmed to a range and the comment of the header line replaced
+	 * @param out Stream to write to
+	 * @param start First position of the read to write
+	 * @param end Position after the last position of the read to write
+	 * @param comment Bytes to write after the read ID in place of the rest of the header line, or null to keep the header as it is
+	 * @throws IOException
+	 */
+	public void write(OutputStream out, int start, int end, byte[] comment) throws IOException {
+		if(comment == null) {
+			out.write(buffer, nameStart - 1, nameEnd - nameStart + 1);
+		} else {
+			out.write(buffer, nameStart - 1, getReadIdEnd() - nameStart + 1);
+			out.write(comment);
+		}
+		out.write('\n');
+		out.write(buffer, sequenceStart + start, end - start);
+		out.write('\n');
+		out.write(buffer, descriptionStart, descriptionEnd - descriptionStart);
+		out.write('\n');
+		out.write(buffer, qualityStart + start, end - start);
+		out.write('\n');
+	}
+
+	/**
+	 * Write the record as a two line fasta record
+	 * @param out Stream to write to
+	 * @throws IOException
+	 */
+	public void writeFasta(OutputStream out) throws IOException {
+		out.write('>');
+		out.write(buffer, nameStart, nameEnd - nameStart);
+		out.write('\n');
+		out.write(buffer, sequenceStart, getLength());
+		out.write('\n');
+	}
+
+	@Override
+	public String toString() {
+		return "@" + getName() + "\n" + getSequence() + "\n" + getDescription() + "\n" + getQuality();
+	}
+
+}
@@ -1,5 +1,7 @@
 package guttmanlab.core.pipeline.util;
 
+import guttmanlab.core.sequence.PackedSequence;
+
 import java.io.BufferedWriter;
 import java.io.IOException;
 
@@ -34,6 +36,11 @@ public class FastqSequence {
 	 */
 	public String getSequence(){return this.sequence;}
 	
+	/**
+	 * @return Read sequence packed at two bits per base
+	 */
+	public PackedSequence getPackedSequence(){return new PackedSequence(this.sequence);}
+	
 	/**
 	 * @return Description string
 	 */
@@ -0,0 +1,360 @@
+package guttmanlab.core.pipeline.util;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Writes the reads of two paired fastq files whose IDs appear in both files, so that the output files list
+ * the mates of each pair in the same order.
+ *
+ * Both files are usually in the same order, with some reads missing from one or the other. They are first
+ * merge-joined, reading from whichever file is behind and holding only a window of reads waiting for their
+ * mates. When a read is found whose mate was already passed over, or the window is full, the files are not in
+ * the same order and the join falls back to partitioning both files on disk by hash of read ID and joining one
+ * partition at a time. Either way, the number of reads in memory is bounded by the configured limit rather
+ * than the size of the files. The merge join remembers the IDs of the most recent reads it passed over, up to
+ * the memory limit, so a mate further out of place than that would be missed; files that are not in the same
+ * order are in practice detected long before that.
+ *
+ * Reads whose ID appears more than once in a file are skipped by the external join. The merge join falls back
+ * to the external join when it sees a duplicated ID among the reads it holds or passed over, but does not
+ * remember the IDs of reads already written.
+ *
+ */
+public class PairedFastqSynchronizer {
+
+	private static Logger logger = Logger.getLogger(PairedFastqSynchronizer.class.getName());
+
+	private final Pattern readNumberDelimiter;
+	private int windowSize = 100000;
+	private int maxRecordsInMemory = 2000000;
+	private File tempDirectory = null;
+
+	/**
+	 * @param readNumberDelimiter Regular expression between read name and read number (1 or 2), or null if whitespace
+	 */
+	public PairedFastqSynchronizer(String readNumberDelimiter) {
+		this.readNumberDelimiter = readNumberDelimiter == null ? null : Pattern.compile(readNumberDelimiter);
+	}
+
+	/**
+	 * @param windowSize Maximum number of reads of each file waiting for their mate in the merge join. Default 100000.
+	 */
+	public void setWindowSize(int windowSize) {
+		if(windowSize < 1) {
+			throw new IllegalArgumentException("Window size must be positive");
+		}
+		this.windowSize = windowSize;
+	}
+
+	/**
+	 * @param maxRecordsInMemory Approximate maximum number of reads held in memory. The merge join remembers the
+	 * IDs of up to this many reads passed over as unpaired, and the external join uses partitions of about half
+	 * this many reads.
+	 * Default 2000000.
+	 */
+	public void setMaxRecordsInMemory(int maxRecordsInMemory) {
+		if(maxRecordsInMemory < 2) {
+			throw new IllegalArgumentException("Maximum records in memory must be at least 2");
+		}
+		this.maxRecordsInMemory = maxRecordsInMemory;
+	}
+
+	/**
+	 * @param tempDirectory Directory for partition files of the external join. Default the directory of the first output file.
+	 */
+	public void setTempDirectory(File tempDirectory) {
+		this.tempDirectory = tempDirectory;
+	}
+
+	/**
+	 * Write the reads that appear in both files
+	 * @param in1 Read 1 fastq file, which may be gzipped
+	 * @param in2 Read 2 fastq file, which may be gzipped
+	 * @param out1 Output fastq file for read 1
+	 * @param out2 Output fastq file for read 2
+	 * @return Summary of the join
+	 * @throws IOException
+	 */
+	public Summary synchronize(File in1, File in2, File out1, File out2) throws IOException {
+		Summary rtrn = new Summary();
+		if(!mergeJoin(in1, in2, out1, out2, rtrn)) {
+			logger.info(in1 + " and " + in2 + " are not in the same order. Joining on disk...");
+			rtrn = new Summary();
+			rtrn.externalJoin = true;
+			externalJoin(in1, in2, out1, out2, rtrn);
+		}
+		logger.info(rtrn);
+		return rtrn;
+	}
+
+	/**
+	 * Join files that are in the same order
+	 * @return False if the files turned out not to be in the same order, in which case the output is incomplete
+	 */
+	private boolean mergeJoin(File in1, File in2, File out1, File out2, Summary summary) throws IOException {
+		FastqReader reader1 = new FastqReader(in1);
+		FastqReader reader2 = new FastqReader(in2);
+		OutputStream writer1 = new BufferedOutputStream(new FileOutputStream(out1), 1 << 16);
+		OutputStream writer2 = new BufferedOutputStream(new FileOutputStream(out2), 1 << 16);
+		try {
+			MergeSide side1 = new MergeSide(writer1, maxRecordsInMemory / 2);
+			MergeSide side2 = new MergeSide(writer2, maxRecordsInMemory / 2);
+			boolean more1 = true;
+			boolean more2 = true;
+			while(more1 || more2) {
+				// Read from the file that is behind, i.e. has fewer reads waiting for their mate
+				boolean readFile1 = more1 && (!more2 || side1.pending.size() <= side2.pending.size());
+				FastqRecord record = readFile1 ? reader1.next() : reader2.next();
+				if(record == null) {
+					if(readFile1) {
+						more1 = false;
+					} else {
+						more2 = false;
+					}
+				} else if(readFile1 ? !mergeRecord(record, side1, side2, more2) : !mergeRecord(record, side2, side1, more1)) {
+					return false;
+				}
+			}
+			summary.numPairs = side1.numPairs;
+			summary.numReads1 = reader1.getNumRecordsRead();
+			summary.numReads2 = reader2.getNumRecordsRead();
+			return true;
+		} finally {
+			reader1.close();
+			reader2.close();
+			writer1.close();
+			writer2.close();
+		}
+	}
+
+	/**
+	 * Reads of one file in the merge join
+	 */
+	private static class MergeSide {
+		final OutputStream writer;
+		// Reads waiting for their mate, in file order
+		final LinkedHashMap<String, FastqRecord> pending = new LinkedHashMap<String, FastqRecord>();
+		// IDs of the most recent reads given up on as unpaired
+		final Set<String> dropped = new LinkedHashSet<String>();
+		final int maxDropped;
+		long numPairs;
+
+		MergeSide(OutputStream writer, int maxDropped) {
+			this.writer = writer;
+			this.maxDropped = maxDropped;
+		}
+
+		/**
+		 * Give up on pending reads before a read, or all pending reads if the ID is null
+		 */
+		void dropBefore(String id) {
+			Iterator<Map.Entry<String, FastqRecord>> iter = pending.entrySet().iterator();
+			while(iter.hasNext()) {
+				String pendingId = iter.next().getKey();
+				if(pendingId.equals(id)) {
+					return;
+				}
+				dropped.add(pendingId);
+				iter.remove();
+				if(dropped.size() > maxDropped) {
+					dropped.remove(dropped.iterator().next());
+				}
+			}
+		}
+	}
+
+	/**
+	 * Process a read in the merge join
+	 * @param record The read
+	 * @param side The file the read is from
+	 * @param other The other file
+	 * @param otherHasMore Whether there are more reads in the other file
+	 * @return False if the files are not in the same order
+	 */
+	private boolean mergeRecord(FastqRecord record, MergeSide side, MergeSide other, boolean otherHasMore) throws IOException {
+		String id = record.getReadId(readNumberDelimiter);
+		if(side.pending.containsKey(id) || side.dropped.contains(id)) {
+			// Duplicated ID
+			return false;
+		}
+		FastqRecord mate = other.pending.get(id);
+		if(mate != null) {
+			// Reads before this pair in either file can no longer be paired if the files are in the same order
+			other.dropBefore(id);
+			other.pending.remove(id);
+			side.dropBefore(null);
+			record.write(side.writer);
+			mate.write(other.writer);
+			side.numPairs++;
+			other.numPairs++;
+			return true;
+		}
+		if(other.dropped.contains(id)) {
+			// The mate was passed over
+			return false;
+		}
+		if(otherHasMore) {
+			side.pending.put(id, record.copy());
+		}
+		return side.pending.size() <= windowSize;
+	}
+
+	/**
+	 * Join files in any order by partitioning them by hash of read ID
+	 */
+	private void externalJoin(File in1, File in2, File out1, File out2, Summary summary) throws IOException {
+		long numRecords = FastqReader.countRecords(in1);
+		int numPartitions = (int) Math.max(1, (2 * numRecords + maxRecordsInMemory - 1) / maxRecordsInMemory);
+		File dir = tempDirectory != null ? tempDirectory : out1.getAbsoluteFile().getParentFile();
+		File partitionDir = Files.createTempDirectory(dir.toPath(), "fastq_partitions").toFile();
+		logger.info("Partitioning " + numRecords + " reads into " + numPartitions + " partitions in " + partitionDir + "...");
+		try {
+			File[] partitions1 = partition(in1, partitionDir, "1", numPartitions, summary);
+			File[] partitions2 = partition(in2, partitionDir, "2", numPartitions, summary);
+			OutputStream writer1 = new BufferedOutputStream(new FileOutputStream(out1), 1 << 16);
+			OutputStream writer2 = new BufferedOutputStream(new FileOutputStream(out2), 1 << 16);
+			try {
+				for(int i = 0; i < numPartitions; i++) {
+					joinPartition(partitions1[i], partitions2[i], writer1, writer2, summary);
+					partitions1[i].delete();
+					partitions2[i].delete();
+				}
+			} finally {
+				writer1.close();
+				writer2.close();
+			}
+		} finally {
+			for(File file : partitionDir.listFiles()) {
+				file.delete();
+			}
+			partitionDir.delete();
+		}
+	}
+
+	private File[] partition(File in, File partitionDir, String prefix, int numPartitions, Summary summary) throws IOException {
+		File[] rtrn = new File[numPartitions];
+		OutputStream[] writers = new OutputStream[numPartitions];
+		FastqReader reader = new FastqReader(in);
+		try {
+			for(int i = 0; i < numPartitions; i++) {
+				rtrn[i] = new File(partitionDir, prefix + "." + i + ".fq");
+				writers[i] = new BufferedOutputStream(new FileOutputStream(rtrn[i]), 1 << 14);
+			}
+			FastqRecord record;
+			while((record = reader.next()) != null) {
+				int partition = Math.floorMod(record.getReadId(readNumberDelimiter).hashCode(), numPartitions);
+				record.write(writers[partition]);
+			}
+			if(prefix.equals("1")) {
+				summary.numReads1 = reader.getNumRecordsRead();
+			} else {
+				summary.numReads2 = reader.getNumRecordsRead();
+			}
+		} finally {
+			reader.close();
+			for(OutputStream writer : writers) {
+				if(writer != null) {
+					writer.close();
+				}
+			}
+		}
+		return rtrn;
+	}
+
+	/**
+	 * Write the pairs of one partition, skipping IDs that appear more than once in either file
+	 */
+	private void joinPartition(File partition1, File partition2, OutputStream writer1, OutputStream writer2, Summary summary) throws IOException {
+		Map<String, FastqRecord> reads1 = readPartition(partition1);
+		Map<String, FastqRecord> reads2 = readPartition(partition2);
+		for(Map.Entry<String, FastqRecord> entry : reads1.entrySet()) {
+			FastqRecord mate = reads2.get(entry.getKey());
+			if(entry.getValue() != null && mate != null) {
+				entry.getValue().write(writer1);
+				mate.write(writer2);
+				summary.numPairs++;
+			}
+		}
+	}
+
+	/**
+	 * @return Map of read ID to read, in file order, with a null value for duplicated IDs
+	 */
+	private Map<String, FastqRecord> readPartition(File partition) throws IOException {
+		Map<String, FastqRecord> rtrn = new LinkedHashMap<String, FastqRecord>();
+		FastqReader reader = new FastqReader(partition);
+		try {
+			FastqRecord record;
+			while((record = reader.next()) != null) {
+				String id = record.getReadId(readNumberDelimiter);
+				if(rtrn.containsKey(id)) {
+					logger.warn("Skipping read " + id + " because it appears twice.");
+					rtrn.put(id, null);
+				} else {
+					rtrn.put(id, record.copy());
+				}
+			}
+		} finally {
+			reader.close();
+		}
+		return rtrn;
+	}
+
+	/**
+	 * Counts of reads and pairs
+	 */
+	public static class Summary {
+
+		private long numReads1;
+		private long numReads2;
+		private long numPairs;
+		private boolean externalJoin;
+
+		/**
+		 * @return Number of reads in the first file
+		 */
+		public long getNumReads1() {
+			return numReads1;
+		}
+
+		/**
+		 * @return Number of reads in the second file
+		 */
+		public long getNumReads2() {
+			return numReads2;
+		}
+
+		/**
+		 * @return Number of pairs written
+		 */
+		public long getNumPairs() {
+			return numPairs;
+		}
+
+		/**
+		 * @return Whether the files were joined on disk because they are not in the same order
+		 */
+		public boolean usedExternalJoin() {
+			return externalJoin;
+		}
+
+		@Override
+		public String toString() {
+			return "Read " + numReads1 + " and " + numReads2 + " reads and wrote " + numPairs + " pairs" + (externalJoin ? " using external join" : "");
+		}
+	}
+
+}
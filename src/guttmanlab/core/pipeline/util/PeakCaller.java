@@ -0,0 +1,435 @@
+package guttmanlab.core.pipeline.util;
+
+import guttmanlab.core.annotation.Annotation;
+import guttmanlab.core.annotation.Annotation.Strand;
+import guttmanlab.core.annotation.BEDFileRecord;
+import guttmanlab.core.annotation.BEDFileRecord.BEDBuilder;
+import guttmanlab.core.annotation.SingleInterval;
+import guttmanlab.core.annotation.io.BEDFileIO;
+import guttmanlab.core.annotationcollection.AnnotationCollection;
+import guttmanlab.core.annotationcollection.FeatureCollection;
+import guttmanlab.core.annotationcollection.MultiSampleCoverage;
+import guttmanlab.core.annotationcollection.MultiSampleCoverage.WindowCounts;
+import guttmanlab.core.coordinatespace.CoordinateSpace;
+import guttmanlab.core.math.ScanStat;
+import guttmanlab.core.util.ConcurrentUtils.OrderedExecutor;
+import guttmanlab.core.util.ConcurrentUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import net.sf.samtools.util.CloseableIterator;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Calls peaks of a sample against a control with the scan statistic, in one pass over the reads of each reference
+ * sequence.
+ *
+ * Reads of both collections are counted in windows with {@link MultiSampleCoverage}, and the counts are scored in
+ * chunks with {@link ScanStat#getPValues(double[], double[], double, double, double, int)}. Only windows that may
+ * pass the multiple testing correction are kept, so memory is bounded by the chunk size per thread and the number
+ * of candidate windows, not the number of windows. Every window of the genome counts as a test, including windows
+ * with no reads. Significant windows that overlap or touch are merged into peaks, each scored with -log10 of the
+ * smallest corrected p-value of its windows.
+ *
+ * Reference sequences are processed in parallel, and peaks are reported in order once all have been processed,
+ * since the Benjamini-Hochberg threshold depends on the p-values of the whole genome. The time spent counting,
+ * scoring, correcting and merging is recorded in the summary.
+ *
+ */
+public class PeakCaller {
+
+	private static Logger logger = Logger.getLogger(PeakCaller.class.getName());
+
+	/**
+	 * Correction of p-values for the number of windows tested
+	 */
+	public enum Correction {
+		/** No correction */
+		NONE,
+		/** Family-wise error rate of Bonferroni */
+		BONFERRONI,
+		/** False discovery rate of Benjamini and Hochberg */
+		BENJAMINI_HOCHBERG
+	}
+
+	private final AnnotationCollection<? extends Annotation> sample;
+	private final AnnotationCollection<? extends Annotation> control;
+	private final MultiSampleCoverage coverage;
+	private final int windowLength;
+	private final int stepSize;
+	private double alpha = 0.05;
+	private Correction correction = Correction.BENJAMINI_HOCHBERG;
+	private int numThreads = Runtime.getRuntime().availableProcessors();
+	private int maxWindowsInMemory = 1 << 20;
+
+	/**
+	 * @param sample Reads of the sample
+	 * @param control Reads of the control
+	 * @param windowLength Window length
+	 * @param stepSize Distance between the start positions of consecutive windows
+	 */
+	public PeakCaller(AnnotationCollection<? extends Annotation> sample, AnnotationCollection<? extends Annotation> control, int windowLength, int stepSize) {
+		this.sample = sample;
+		this.control = control;
+		this.coverage = new MultiSampleCoverage(Arrays.asList(sample, control), windowLength, stepSize);
+		this.windowLength = windowLength;
+		this.stepSize = stepSize;
+	}
+
+	/**
+	 * @param alpha Largest corrected p-value of a significant window. Default 0.05.
+	 */
+	public void setAlpha(double alpha) {
+		if(!(alpha > 0 && alpha <= 1)) {
+			throw new IllegalArgumentException("Alpha must be between 0 and 1: " + alpha);
+		}
+		this.alpha = alpha;
+	}
+
+	/**
+	 * @param correction Multiple testing correction. Default Benjamini-Hochberg.
+	 */
+	public void setCorrection(Correction correction) {
+		this.correction = correction;
+	}
+
+	/**
+	 * @param numThreads Number of reference sequences processed at the same time. The collections must support
+	 * concurrent iterators if more than one. Default the number of processors.
+	 */
+	public void setNumThreads(int numThreads) {
+		this.numThreads = ConcurrentUtils.checkNumThreads(numThreads);
+	}
+
+	/**
+	 * @param maxWindowsInMemory Number of windows whose counts and p-values are held at once, over all threads. Default 2^20.
+	 */
+	public void setMaxWindowsInMemory(int maxWindowsInMemory) {
+		if(maxWindowsInMemory < 1) {
+			throw new IllegalArgumentException("Maximum windows in memory must be positive");
+		}
+		this.maxWindowsInMemory = maxWindowsInMemory;
+	}
+
+	/**
+	 * Call peaks on every reference sequence and write them to a BED file
+	 * @param space Reference sequences and their sizes
+	 * @param out Output BED file
+	 * @return Summary of the peak calling
+	 * @throws IOException
+	 */
+	public Summary call(CoordinateSpace space, File out) throws IOException {
+		FeatureCollection<BEDFileRecord> peaks = new FeatureCollection<BEDFileRecord>(space);
+		Summary rtrn = call(space, peaks::add);
+		long start = System.nanoTime();
+		BEDFileIO.writeToFile(peaks, out);
+		rtrn.writeNanos += System.nanoTime() - start;
+		logger.info("Wrote " + peaks.getNumAnnotations() + " peaks to " + out);
+		return rtrn;
+	}
+
+	/**
+	 * Call peaks on every reference sequence
+	 * @param space Reference sequences and their sizes
+	 * @param consumer Receives each peak on the calling thread, in order of reference sequence name and position
+	 * @return Summary of the peak calling
+	 */
+	public Summary call(CoordinateSpace space, Consumer<? super BEDFileRecord> consumer) {
+		Summary rtrn = new Summary();
+		double sampleTotal = sample.getNumAnnotations();
+		double controlTotal = control.getNumAnnotations();
+		for(int size : space.getRefSeqLengths().values()) {
+			rtrn.numWindows += numWindows(size);
+		}
+		logger.info("Testing " + rtrn.numWindows + " windows of " + sampleTotal + " sample and " + controlTotal + " control reads...");
+		// Bonferroni rejects only p-values up to alpha / m, and Benjamini-Hochberg up to alpha
+		double maxCandidate = correction == Correction.BONFERRONI ? alpha / rtrn.numWindows : alpha;
+		int chunkSize = Math.max(1, maxWindowsInMemory / numThreads);
+		List<Candidates> results = new ArrayList<Candidates>();
+		Map<String, Integer> sizes = space.getRefSeqLengths();
+		List<String> names = new ArrayList<String>(sizes.keySet());
+		Collections.sort(names);
+		try(OrderedExecutor<Candidates, RuntimeException> executor = new OrderedExecutor<Candidates, RuntimeException>(numThreads,
+				"calling peaks", candidates -> {
+					results.add(candidates);
+					rtrn.add(candidates.summary);
+				})) {
+			for(String chr : names) {
+				int size = sizes.get(chr).intValue();
+				executor.submit(() -> scoreWindows(chr, size, sampleTotal, controlTotal, maxCandidate, chunkSize));
+			}
+			executor.finish();
+		}
+		long start = System.nanoTime();
+		Adjustment adjustment = new Adjustment(results, rtrn.numWindows);
+		for(Candidates candidates : results) {
+			merge(candidates, adjustment, consumer, rtrn);
+		}
+		rtrn.correctNanos += System.nanoTime() - start;
+		logger.info(rtrn);
+		return rtrn;
+	}
+
+	private long numWindows(int size) {
+		return size < windowLength ? 0 : (size - windowLength) / stepSize + 1;
+	}
+
+	/**
+	 * Count and score the windows of a reference sequence
+	 * @return Windows with p-values up to the maximum, in order
+	 */
+	private Candidates scoreWindows(String chr, int size, double sampleTotal, double controlTotal, double maxCandidate, int chunkSize) {
+		Candidates rtrn = new Candidates(chr);
+		int[] starts = new int[chunkSize];
+		double[] sampleCounts = new double[chunkSize];
+		double[] controlCounts = new double[chunkSize];
+		CloseableIterator<WindowCounts> iter = coverage.iterator(new SingleInterval(chr, 0, size, Strand.BOTH), false);
+		try {
+			while(true) {
+				long start = System.nanoTime();
+				int n = 0;
+				while(n < chunkSize && iter.hasNext()) {
+					WindowCounts counts = iter.next();
+					starts[n] = counts.getWindow().getReferenceStartPosition();
+					sampleCounts[n] = counts.getCount(0);
+					controlCounts[n] = counts.getCount(1);
+					n++;
+				}
+				long counted = System.nanoTime();
+				rtrn.summary.countNanos += counted - start;
+				if(n == 0) {
+					break;
+				}
+				double[] pvals = ScanStat.getPValues(n < chunkSize ? Arrays.copyOf(controlCounts, n) : controlCounts, n < chunkSize ? Arrays.copyOf(sampleCounts, n) : sampleCounts,
+						controlTotal, sampleTotal, windowLength, size);
+				for(int i = 0; i < n; i++) {
+					if(pvals[i] <= maxCandidate) {
+						rtrn.add(starts[i], pvals[i]);
+					}
+				}
+				rtrn.summary.numScored += n;
+				rtrn.summary.scoreNanos += System.nanoTime() - counted;
+			}
+		} finally {
+			iter.close();
+		}
+		rtrn.summary.numCandidates = rtrn.size;
+		logger.debug(chr + ": scored " + rtrn.summary.numScored + " windows with reads and kept " + rtrn.size);
+		return rtrn;
+	}
+
+	/**
+	 * Corrects the p-values of the candidate windows of the whole genome
+	 */
+	private class Adjustment {
+
+		private final long numTests;
+		// For Benjamini-Hochberg, all candidate p-values in order and their adjusted p-values
+		private double[] sorted;
+		private double[] adjusted;
+
+		Adjustment(List<Candidates> results, long numTests) {
+			this.numTests = numTests;
+			if(correction != Correction.BENJAMINI_HOCHBERG) {
+				return;
+			}
+			int numCandidates = 0;
+			for(Candidates candidates : results) {
+				numCandidates += candidates.size;
+			}
+			sorted = new double[numCandidates];
+			int i = 0;
+			for(Candidates candidates : results) {
+				System.arraycopy(candidates.pvals, 0, sorted, i, candidates.size);
+				i += candidates.size;
+			}
+			Arrays.sort(sorted);
+			// Every p-value below a candidate is a candidate, so the rank among candidates is the rank among all tests
+			adjusted = new double[numCandidates];
+			double min = 1;
+			for(int k = numCandidates; k > 0; k--) {
+				min = Math.min(min, sorted[k - 1] * numTests / k);
+				adjusted[k - 1] = min;
+			}
+		}
+
+		/**
+		 * @return P-value corrected for the number of tests
+		 */
+		double correct(double pval) {
+			switch(correction) {
+			case BONFERRONI:
+				return Math.min(1, pval * numTests);
+			case BENJAMINI_HOCHBERG:
+				int i = Arrays.binarySearch(sorted, pval);
+				// Equal p-values have equal adjusted p-values, so any match will do
+				return adjusted[i];
+			default:
+				return pval;
+			}
+		}
+	}
+
+	/**
+	 * Merge the significant windows of a reference sequence into peaks
+	 */
+	private void merge(Candidates candidates, Adjustment adjustment, Consumer<? super BEDFileRecord> consumer, Summary summary) {
+		int peakStart = -1;
+		int peakEnd = -1;
+		double minCorrected = 1;
+		for(int i = 0; i < candidates.size; i++) {
+			double corrected = adjustment.correct(candidates.pvals[i]);
+			if(corrected > alpha) {
+				continue;
+			}
+			summary.numSignificant++;
+			int start = candidates.starts[i];
+			if(peakStart >= 0 && start > peakEnd) {
+				report(candidates.chr, peakStart, peakEnd, minCorrected, consumer, summary);
+				peakStart = -1;
+			}
+			if(peakStart < 0) {
+				peakStart = start;
+				minCorrected = corrected;
+			}
+			peakEnd = start + windowLength;
+			minCorrected = Math.min(minCorrected, corrected);
+		}
+		if(peakStart >= 0) {
+			report(candidates.chr, peakStart, peakEnd, minCorrected, consumer, summary);
+		}
+	}
+
+	private static void report(String chr, int start, int end, double corrected, Consumer<? super BEDFileRecord> consumer, Summary summary) {
+		double score = -Math.log10(Math.max(corrected, Double.MIN_VALUE));
+		consumer.accept(new BEDBuilder(chr, start, end).score(score).build());
+		summary.numPeaks++;
+	}
+
+	/**
+	 * Windows of a reference sequence that may be significant, in order of position
+	 */
+	private static class Candidates {
+
+		final String chr;
+		final Summary summary = new Summary();
+		int size;
+		int[] starts = new int[16];
+		double[] pvals = new double[16];
+
+		Candidates(String chr) {
+			this.chr = chr;
+		}
+
+		void add(int start, double pval) {
+			if(size == starts.length) {
+				starts = Arrays.copyOf(starts, 2 * size);
+				pvals = Arrays.copyOf(pvals, 2 * size);
+			}
+			starts[size] = start;
+			pvals[size] = pval;
+			size++;
+		}
+	}
+
+	/**
+	 * Counts of windows and peaks, and the time spent in each stage
+	 */
+	public static class Summary {
+
+		private long numWindows;
+		private long numScored;
+		private long numCandidates;
+		private long numSignificant;
+		private long numPeaks;
+		private long countNanos;
+		private long scoreNanos;
+		private long correctNanos;
+		private long writeNanos;
+
+		void add(Summary other) {
+			numScored += other.numScored;
+			numCandidates += other.numCandidates;
+			countNanos += other.countNanos;
+			scoreNanos += other.scoreNanos;
+		}
+
+		/**
+		 * @return Number of windows tested, including windows with no reads
+		 */
+		public long getNumWindows() {
+			return numWindows;
+		}
+
+		/**
+		 * @return Number of windows with reads, whose p-values were computed
+		 */
+		public long getNumScored() {
+			return numScored;
+		}
+
+		/**
+		 * @return Number of windows kept for the multiple testing correction
+		 */
+		public long getNumCandidates() {
+			return numCandidates;
+		}
+
+		/**
+		 * @return Number of significant windows after correction
+		 */
+		public long getNumSignificant() {
+			return numSignificant;
+		}
+
+		/**
+		 * @return Number of peaks
+		 */
+		public long getNumPeaks() {
+			return numPeaks;
+		}
+
+		/**
+		 * @return Time spent counting reads in windows, summed over threads, in milliseconds
+		 */
+		public long getCountMillis() {
+			return countNanos / 1000000;
+		}
+
+		/**
+		 * @return Time spent computing p-values, summed over threads, in milliseconds
+		 */
+		public long getScoreMillis() {
+			return scoreNanos / 1000000;
+		}
+
+		/**
+		 * @return Time spent correcting p-values and merging windows into peaks, in milliseconds
+		 */
+		public long getCorrectMillis() {
+			return correctNanos / 1000000;
+		}
+
+		/**
+		 * @return Time spent writing peaks, in milliseconds
+		 */
+		public long getWriteMillis() {
+			return writeNanos / 1000000;
+		}
+
+		@Override
+		public String toString() {
+			return "Tested " + numWindows + " windows (" + numScored + " with reads, " + numCandidates + " candidates); " + numSignificant + " significant windows in "
+					+ numPeaks + " peaks. Counting " + getCountMillis() + " ms, scoring " + getScoreMillis() + " ms, correcting " + getCorrectMillis() + " ms";
+		}
+	}
+
+}
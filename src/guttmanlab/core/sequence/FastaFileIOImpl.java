@@ -1,22 +1,25 @@
 package guttmanlab.core.sequence;
 
-import java.io.BufferedReader;
 import java.io.BufferedWriter;
-import java.io.FileNotFoundException;
-import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Iterator;
 import java.util.Map;
+import java.util.Spliterator;
+import java.util.Spliterators;
 import java.util.TreeMap;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import org.apache.log4j.Logger;
 
 public class FastaFileIOImpl implements FastaFileIO {
 	
 	private static Logger logger = Logger.getLogger(FastaFileIOImpl.class.getName());
+	private static final int DEFAULT_BATCH_RECORDS = 1 << 10;
+	private static final long DEFAULT_BATCH_BASES = 1 << 24;
 	
 	/**
 	 * Empty constructor
@@ -42,31 +45,14 @@ public class FastaFileIOImpl implements FastaFileIO {
 		logger.info("Reading sequences from fasta file " + fileName + "...");
 		Collection<Sequence> rtrn = new ArrayList<Sequence>();
 		try {
-			BufferedReader reader = new BufferedReader(new FileReader(fileName));
-			boolean started = false;
-			String currSeqID = null;
-			StringBuilder currSeq = null;
-			while(reader.ready()) {
-				String line = reader.readLine();
-				if(line.startsWith(">")) {
-					if(started) {
-						rtrn.add(new Sequence(currSeqID, currSeq.toString()));
-						logger.info("Added " + currSeqID + " " + currSeq.length());
-					}
-					currSeqID = line.substring(1);
-					currSeq = new StringBuilder();
-					continue;
-				}
-				currSeq.append(line);
-				started = true;
+			FastaIterator iter = new FastaIterator(fileName);
+			while(iter.hasNext()) {
+				Sequence seq = iter.next();
+				rtrn.add(seq);
+				logger.debug("Added " + seq.getName() + " " + seq.getLength());
 			}
-			Sequence lastSeq = new Sequence(currSeqID, currSeq.toString());
-			rtrn.add(lastSeq);
-			reader.close();
-		} catch (FileNotFoundException e) {
-			e.printStackTrace();
-			System.exit(-1);
-		} catch (IOException e) {
+			iter.close();
+		} catch (IOException | UncheckedIOException e) {
 			e.printStackTrace();
 			System.exit(-1);
 		}
@@ -75,9 +61,58 @@ public class FastaFileIOImpl implements FastaFileIO {
 	}
 	
 
+	/**
+	 * Get an iterator that reads the file one record at a time. The file may be gzipped.
+	 * The iterator closes the file when it reaches the end; to stop early, close it with {@link FastaIterator#close()}.
+	 */
 	@Override
-	public Iterator<Sequence> iterateThroughFile(String fileName) {
-		throw new UnsupportedOperationException();
+	public FastaIterator iterateThroughFile(String fileName) {
+		try {
+			return new FastaIterator(fileName);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+	
+	/**
+	 * Get a sequential stream of the records in a file, read one at a time. The file may be gzipped.
+	 * Close the stream to close the file before reaching the end.
+	 * @param fileName Fasta file path
+	 * @return The sequences in the order of the file
+	 */
+	public Stream<Sequence> stream(String fileName) {
+		FastaIterator iter = iterateThroughFile(fileName);
+		return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iter, Spliterator.ORDERED | Spliterator.NONNULL), false).onClose(() -> closeQuietly(iter));
+	}
+	
+	/**
+	 * Get a parallel stream of the records in a file. Records are read by one thread and handed to the workers of the
+	 * stream in batches, so at most a few batches are held in memory.
+	 * @param fileName Fasta file path
+	 * @param maxBatchRecords Maximum number of records per batch
+	 * @param maxBatchBases Records are added to a batch until its total length reaches this
+	 * @return The sequences, in encounter order of the file
+	 */
+	public Stream<Sequence> parallelStream(String fileName, int maxBatchRecords, long maxBatchBases) {
+		FastaIterator iter = iterateThroughFile(fileName);
+		return StreamSupport.stream(iter.spliterator(maxBatchRecords, maxBatchBases), true).onClose(() -> closeQuietly(iter));
+	}
+	
+	/**
+	 * Get a parallel stream of the records in a file, with batches of up to 1024 records or 16 Mb
+	 * @param fileName Fasta file path
+	 * @return The sequences, in encounter order of the file
+	 */
+	public Stream<Sequence> parallelStream(String fileName) {
+		return parallelStream(fileName, DEFAULT_BATCH_RECORDS, DEFAULT_BATCH_BASES);
+	}
+	
+	private static void closeQuietly(FastaIterator iter) {
+		try {
+			iter.close();
+		} catch (IOException e) {
+			logger.warn("Could not close fasta file", e);
+		}
 	}
 
 	@Override
@@ -0,0 +1,358 @@
+package guttmanlab.core.sequence;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+/**
+ * The index of a fasta file, in the .fai format of samtools faidx. For each sequence the index stores its
+ * length, the byte offset of its first base, and the number of bases and bytes per line, which allows any base
+ * to be located without reading the file. All lines of a sequence except the last must have the same length.
+ * As in samtools, each sequence is named by the first word of its header line.
+ *
+ */
+public class FastaIndex {
+
+	private static Logger logger = Logger.getLogger(FastaIndex.class.getName());
+
+	/**
+	 * Extension of index files, added to the name of the fasta file
+	 */
+	public static final String EXTENSION = ".fai";
+
+	private final Map<String, Entry> entries;
+
+	private FastaIndex(Map<String, Entry> entries) {
+		this.entries = entries;
+	}
+
+	/**
+	 * The index entry of one sequence
+	 */
+	public static class Entry {
+
+		private final String name;
+		private final long length;
+		private final long offset;
+		private final int lineBases;
+		private final int lineBytes;
+
+		/**
+		 * @param name Sequence name
+		 * @param length Number of bases
+		 * @param offset Byte offset of the first base in the file
+		 * @param lineBases Number of bases per line
+		 * @param lineBytes Number of bytes per line, including the line terminator
+		 */
+		public Entry(String name, long length, long offset, int lineBases, int lineBytes) {
+			if(length > 0 && (lineBases < 1 || lineBytes < lineBases)) {
+				throw new IllegalArgumentException("Invalid line length for " + name + ": " + lineBases + " bases, " + lineBytes + " bytes");
+			}
+			this.name = name;
+			this.length = length;
+			this.offset = offset;
+			this.lineBases = lineBases;
+			this.lineBytes = lineBytes;
+		}
+
+		/**
+		 * @return Sequence name
+		 */
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * @return Number of bases
+		 */
+		public long getLength() {
+			return length;
+		}
+
+		/**
+		 * @return Byte offset of the first base in the file
+		 */
+		public long getOffset() {
+			return offset;
+		}
+
+		/**
+		 * @return Number of bases per line
+		 */
+		public int getLineBases() {
+			return lineBases;
+		}
+
+		/**
+		 * @return Number of bytes per line, including the line terminator
+		 */
+		public int getLineBytes() {
+			return lineBytes;
+		}
+
+		/**
+		 * @param position Zero-based position in the sequence
+		 * @return Byte offset of the base in the file
+		 */
+		public long getByteOffset(long position) {
+			return offset + (position / lineBases) * lineBytes + position % lineBases;
+		}
+
+		@Override
+		public String toString() {
+			return name + "\t" + length + "\t" + offset + "\t" + lineBases + "\t" + lineBytes;
+		}
+	}
+
+	/**
+	 * Get the name of a sequence from its header line: the first word after '>', as in samtools faidx
+	 * @param headerLine The header line, with or without the leading '>'
+	 * @return The sequence name
+	 */
+	public static String getSequenceName(String headerLine) {
+		String trimmed = headerLine.startsWith(">") ? headerLine.substring(1).trim() : headerLine.trim();
+		int space = 0;
+		while(space < trimmed.length() && !Character.isWhitespace(trimmed.charAt(space))) {
+			space++;
+		}
+		return trimmed.substring(0, space);
+	}
+
+	/**
+	 * Read the index of a fasta file from its .fai file, building and writing the index if the file does not exist
+	 * @param fastaFile Fasta file
+	 * @return The index
+	 * @throws IOException
+	 */
+	public static FastaIndex forFasta(File fastaFile) throws IOException {
+		File indexFile = new File(fastaFile.getPath() + EXTENSION);
+		if(indexFile.exists()) {
+			return read(indexFile);
+		}
+		FastaIndex rtrn = build(fastaFile);
+		rtrn.write(indexFile);
+		return rtrn;
+	}
+
+	/**
+	 * Read an index from a .fai file
+	 * @param indexFile The index file
+	 * @return The index
+	 * @throws IOException
+	 */
+	public static FastaIndex read(File indexFile) throws IOException {
+		Map<String, Entry> entries = new LinkedHashMap<String, Entry>();
+		BufferedReader reader = new BufferedReader(new FileReader(indexFile));
+		try {
+			String line;
+			while((line = reader.readLine()) != null) {
+				if(line.isEmpty()) {
+					continue;
+				}
+				String[] tokens = line.split("\t");
+				if(tokens.length < 5) {
+					throw new IllegalArgumentException("Invalid line in " + indexFile + ": " + line);
+				}
+				add(entries, new Entry(tokens[0], Long.parseLong(tokens[1]), Long.parseLong(tokens[2]), Integer.parseInt(tokens[3]), Integer.parseInt(tokens[4])));
+			}
+		} finally {
+			reader.close();
+		}
+		return new FastaIndex(entries);
+	}
+
+	/**
+	 * Build the index of a fasta file by reading through it
+	 * @param fastaFile Fasta file
+	 * @return The index
+	 * @throws IOException
+	 */
+	public static FastaIndex build(File fastaFile) throws IOException {
+		logger.info("Indexing fasta file " + fastaFile + "...");
+		InputStream in = new FileInputStream(fastaFile);
+		try {
+			FastaIndex rtrn = new FastaIndex(new Builder(fastaFile.getPath()).build(in));
+			logger.info("Indexed " + rtrn.entries.size() + " sequences.");
+			return rtrn;
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Reads a fasta file byte by byte, tracking the offset and line lengths of each sequence
+	 */
+	private static class Builder {
+
+		private final String fileName;
+		private final Map<String, Entry> entries = new LinkedHashMap<String, Entry>();
+		private String name;
+		private long offset;
+		private long length;
+		private int lineBases;
+		private int lineBytes;
+		// Set once a line shorter than the first is seen, after which only blank lines may follow
+		private boolean ended;
+
+		Builder(String fileName) {
+			this.fileName = fileName;
+		}
+
+		Map<String, Entry> build(InputStream in) throws IOException {
+			long position = 0;
+			StringBuilder header = null;
+			int currentBases = 0;
+			int currentBytes = 0;
+			byte[] buffer = new byte[1 << 16];
+			int numRead;
+			while((numRead = in.read(buffer)) != -1) {
+				for(int i = 0; i < numRead; i++) {
+					byte b = buffer[i];
+					position++;
+					if(header != null) {
+						// In a header line
+						if(b == '\n') {
+							startSequence(header.toString(), position);
+							header = null;
+						} else {
+							header.append((char) b);
+						}
+						continue;
+					}
+					if(currentBytes == 0 && b == '>') {
+						endSequence();
+						header = new StringBuilder();
+						continue;
+					}
+					currentBytes++;
+					if(b == '\n') {
+						endLine(currentBases, currentBytes);
+						currentBases = 0;
+						currentBytes = 0;
+					} else if(b != '\r') {
+						currentBases++;
+					}
+				}
+			}
+			if(header != null) {
+				startSequence(header.toString(), position);
+			}
+			if(currentBytes > 0) {
+				// Last line with no terminator
+				endLine(currentBases, lineBases == 0 ? currentBases + 1 : currentBases + lineBytes - lineBases);
+			}
+			endSequence();
+			return entries;
+		}
+
+		private void startSequence(String headerLine, long position) {
+			name = getSequenceName(headerLine);
+			offset = position;
+			length = 0;
+			lineBases = 0;
+			lineBytes = 0;
+			ended = false;
+		}
+
+		private void endLine(int bases, int bytes) {
+			if(name == null) {
+				if(bases > 0) {
+					throw new IllegalArgumentException(fileName + " does not start with a header line");
+				}
+				return;
+			}
+			if(bases == 0) {
+				ended = true;
+				return;
+			}
+			if(ended) {
+				throw new IllegalArgumentException("Different line lengths in sequence " + name + " of " + fileName);
+			}
+			if(lineBases == 0) {
+				lineBases = bases;
+				lineBytes = bytes;
+			} else if(bases > lineBases || bytes - bases != lineBytes - lineBases) {
+				throw new IllegalArgumentException("Different line lengths in sequence " + name + " of " + fileName);
+			} else if(bases < lineBases) {
+				ended = true;
+			}
+			length += bases;
+		}
+
+		private void endSequence() {
+			if(name != null) {
+				add(entries, new Entry(name, length, offset, lineBases, lineBytes));
+				name = null;
+			}
+		}
+	}
+
+	private static void add(Map<String, Entry> entries, Entry entry) {
+		if(entries.put(entry.getName(), entry) != null) {
+			throw new IllegalArgumentException("Duplicate sequence name " + entry.getName());
+		}
+	}
+
+	/**
+	 * Write the index in .fai format
+	 * @param indexFile File to write
+	 * @throws IOException
+	 */
+	public void write(File indexFile) throws IOException {
+		BufferedWriter writer = new BufferedWriter(new FileWriter(indexFile));
+		try {
+			for(Entry entry : entries.values()) {
+				writer.write(entry.toString());
+				writer.newLine();
+			}
+		} finally {
+			writer.close();
+		}
+	}
+
+	/**
+	 * @param name Sequence name
+	 * @return The entry for the sequence, or null if there is no sequence by that name
+	 */
+	public Entry getEntry(String name) {
+		return entries.get(name);
+	}
+
+	/**
+	 * @return The entries in the order of the fasta file
+	 */
+	public Collection<Entry> getEntries() {
+		return Collections.unmodifiableCollection(entries.values());
+	}
+
+	/**
+	 * @return Sequence names in the order of the fasta file
+	 */
+	public Collection<String> getSequenceNames() {
+		return Collections.unmodifiableCollection(new ArrayList<String>(entries.keySet()));
+	}
+
+	/**
+	 * @return Map of sequence name to length, in the order of the fasta file
+	 */
+	public Map<String, Integer> getSequenceLengths() {
+		Map<String, Integer> rtrn = new LinkedHashMap<String, Integer>();
+		for(Entry entry : entries.values()) {
+			rtrn.put(entry.getName(), Integer.valueOf((int) entry.getLength()));
+		}
+		return rtrn;
+	}
+
+}
@@ -0,0 +1,153 @@
+package guttmanlab.core.sequence;
+
+import guttmanlab.core.util.FileUtils;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+
+/**
+ * Reads the records of a fasta file (optionally gzipped) one at a time, so that only the current record is held in memory.
+ * As in IndexedFastaFile, each sequence is named by the first word of its header line (see FastaIndex.getSequenceName()).
+ * The file is closed when the last record has been read, or by close().
+ *
+ */
+public class FastaIterator implements Iterator<Sequence>, Closeable {
+	
+	private final BufferedReader reader;
+	private String nextHeader;
+	
+	/**
+	 * @param fileName Fasta file, which may be gzipped
+	 * @throws IOException
+	 */
+	public FastaIterator(String fileName) throws IOException {
+		this(new BufferedReader(new InputStreamReader(FileUtils.openInputStream(new File(fileName)), StandardCharsets.US_ASCII)));
+	}
+	
+	/**
+	 * @param reader Reader of fasta records
+	 * @throws IOException
+	 */
+	public FastaIterator(BufferedReader reader) throws IOException {
+		this.reader = reader;
+		// Skip anything before the first header
+		String line;
+		while((line = reader.readLine()) != null && !line.startsWith(">")) {}
+		nextHeader = line;
+		if(nextHeader == null) {
+			reader.close();
+		}
+	}
+	
+	@Override
+	public boolean hasNext() {
+		return nextHeader != null;
+	}
+	
+	@Override
+	public Sequence next() {
+		if(nextHeader == null) {
+			throw new NoSuchElementException();
+		}
+		String name = FastaIndex.getSequenceName(nextHeader);
+		StringBuilder bases = new StringBuilder();
+		try {
+			String line;
+			while((line = reader.readLine()) != null && !line.startsWith(">")) {
+				bases.append(line);
+			}
+			nextHeader = line;
+			if(nextHeader == null) {
+				reader.close();
+			}
+		} catch(IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return new Sequence(name, bases.toString());
+	}
+	
+	@Override
+	public void remove() {
+		throw new UnsupportedOperationException();
+	}
+	
+	@Override
+	public void close() throws IOException {
+		nextHeader = null;
+		reader.close();
+	}
+	
+	/**
+	 * Get a spliterator over the remaining records that can be split for parallel processing. Each split hands off a
+	 * batch of consecutive records, limited by both number of records and total length, so memory use stays bounded
+	 * however many records the file has.
+	 * @param maxBatchRecords Maximum number of records per batch
+	 * @param maxBatchBases Records are added to a batch until its total length reaches this
+	 * @return A spliterator over the records
+	 */
+	public Spliterator<Sequence> spliterator(int maxBatchRecords, long maxBatchBases) {
+		return new BatchSpliterator(maxBatchRecords, maxBatchBases);
+	}
+	
+	private class BatchSpliterator implements Spliterator<Sequence> {
+		
+		private final int maxBatchRecords;
+		private final long maxBatchBases;
+		
+		BatchSpliterator(int maxBatchRecords, long maxBatchBases) {
+			if(maxBatchRecords < 1) {
+				throw new IllegalArgumentException("Batch size must be positive");
+			}
+			this.maxBatchRecords = maxBatchRecords;
+			this.maxBatchBases = maxBatchBases;
+		}
+
+		@Override
+		public boolean tryAdvance(Consumer<? super Sequence> action) {
+			if(!hasNext()) {
+				return false;
+			}
+			action.accept(next());
+			return true;
+		}
+
+		@Override
+		public Spliterator<Sequence> trySplit() {
+			List<Sequence> batch = new ArrayList<Sequence>();
+			long bases = 0;
+			while(hasNext() && batch.size() < maxBatchRecords && bases < maxBatchBases) {
+				Sequence seq = next();
+				batch.add(seq);
+				bases += seq.getLength();
+			}
+			if(batch.isEmpty()) {
+				return null;
+			}
+			return Spliterators.spliterator(batch, ORDERED | NONNULL);
+		}
+
+		@Override
+		public long estimateSize() {
+			return Long.MAX_VALUE;
+		}
+
+		@Override
+		public int characteristics() {
+			return ORDERED | NONNULL;
+		}
+		
+	}
+
+}
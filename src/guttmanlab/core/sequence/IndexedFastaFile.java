@@ -0,0 +1,245 @@
+package guttmanlab.core.sequence;
+
+import guttmanlab.core.annotation.Annotation;
+import guttmanlab.core.annotation.Annotation.Strand;
+import guttmanlab.core.annotation.SingleInterval;
+import guttmanlab.core.coordinatespace.CoordinateSpace;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Random access to the sequences of an indexed fasta file. The file is memory-mapped and subsequences are read
+ * directly from the mapping using the .fai index, so only the requested bases are brought into memory.
+ * The index is read from the .fai file next to the fasta file, and built and written there if it does not exist.
+ * Instances are safe for concurrent use by multiple threads.
+ *
+ */
+public class IndexedFastaFile implements Closeable {
+
+	/**
+	 * Size of each mapped region of the file. A single buffer can map at most 2 GB.
+	 */
+	private static final int MAPPING_SIZE = 1 << 30;
+
+	private final String fileName;
+	private final FastaIndex index;
+	private final FileInputStream stream;
+	private final List<ByteBuffer> mappings;
+
+	/**
+	 * @param fileName Fasta file, which is indexed if there is no .fai file
+	 * @throws IOException
+	 */
+	public IndexedFastaFile(String fileName) throws IOException {
+		this(new File(fileName), FastaIndex.forFasta(new File(fileName)));
+	}
+
+	/**
+	 * @param fastaFile Fasta file
+	 * @param index Index of the fasta file
+	 * @throws IOException
+	 */
+	public IndexedFastaFile(File fastaFile, FastaIndex index) throws IOException {
+		this.fileName = fastaFile.getPath();
+		this.index = index;
+		this.stream = new FileInputStream(fastaFile);
+		this.mappings = new ArrayList<ByteBuffer>();
+		FileChannel channel = stream.getChannel();
+		long size = channel.size();
+		for(long position = 0; position < size; position += MAPPING_SIZE) {
+			mappings.add(channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(MAPPING_SIZE, size - position)));
+		}
+	}
+
+	/**
+	 * @return The index of the file
+	 */
+	public FastaIndex getIndex() {
+		return index;
+	}
+
+	/**
+	 * @return Sequence names in the order of the file
+	 */
+	public Collection<String> getSequenceNames() {
+		return index.getSequenceNames();
+	}
+
+	/**
+	 * @return A coordinate space with the names and lengths of the sequences in the file
+	 */
+	public CoordinateSpace getReferenceCoordinateSpace() {
+		return new CoordinateSpace(index.getSequenceLengths());
+	}
+
+	/**
+	 * @param name Sequence name
+	 * @return Length of the sequence
+	 */
+	public int getLength(String name) {
+		return (int) getEntry(name).getLength();
+	}
+
+	/**
+	 * @param name Sequence name
+	 * @return The whole sequence
+	 */
+	public Sequence getSequence(String name) {
+		return getSubSequence(name, name, 0, getLength(name));
+	}
+
+	/**
+	 * Get a subsequence of the forward strand. As in Sequence.getSubSequence(), the range is truncated to the sequence.
+	 * @param name Name of new sequence to return
+	 * @param referenceName Name of the sequence in the file
+	 * @param start Start position of subsequence
+	 * @param end Position after last position to include
+	 * @return The subsequence
+	 */
+	public Sequence getSubSequence(String name, String referenceName, int start, int end) {
+		FastaIndex.Entry entry = getEntry(referenceName);
+		start = Math.max(start, 0);
+		end = (int) Math.min(end, entry.getLength());
+		byte[] bases = new byte[Math.max(end - start, 0)];
+		read(entry, start, end, bases, 0);
+		return new Sequence(name, new String(bases, StandardCharsets.US_ASCII));
+	}
+
+	/**
+	 * Copy bases of the forward strand into an array without creating a String
+	 * @param referenceName Name of the sequence in the file
+	 * @param start Start position, at least 0
+	 * @param end Position after the last position, at most the sequence length
+	 * @param dest Array to copy to, starting at position 0
+	 */
+	void read(String referenceName, int start, int end, byte[] dest) {
+		FastaIndex.Entry entry = getEntry(referenceName);
+		if(start < 0 || end > entry.getLength() || start > end) {
+			throw new IllegalArgumentException("Invalid range " + start + "-" + end + " of " + referenceName);
+		}
+		read(entry, start, end, dest, 0);
+	}
+
+	/**
+	 * Get the spliced transcribed sequence of an annotation, as in Sequence.getSubsequence(Annotation)
+	 * Bases are reported in 5' to 3' direction
+	 * @param annot The annotation
+	 * @return Sequence with same name as annotation containing the transcribed sequence
+	 */
+	public Sequence getSubsequence(Annotation annot) {
+		if(!annot.getOrientation().equals(Strand.POSITIVE) && !annot.getOrientation().equals(Strand.NEGATIVE)) {
+			throw new IllegalArgumentException("Strand must be known");
+		}
+		return getSubsequence(annot, annot.getOrientation().equals(Strand.NEGATIVE));
+	}
+
+	/**
+	 * @param annot The annotation, whose strand is ignored
+	 * @param reverseComplement Whether to reverse complement the spliced sequence
+	 * @return Sequence with same name as annotation containing the spliced sequence
+	 */
+	Sequence getSubsequence(Annotation annot, boolean reverseComplement) {
+		FastaIndex.Entry entry = getEntry(annot.getReferenceName());
+		int length = 0;
+		Iterator<SingleInterval> blockIter = annot.getBlocks();
+		while(blockIter.hasNext()) {
+			SingleInterval block = blockIter.next();
+			length += Math.max(0, clip(entry, block.getReferenceEndPosition()) - clip(entry, block.getReferenceStartPosition()));
+		}
+		byte[] bases = new byte[length];
+		int pos = 0;
+		blockIter = annot.getBlocks();
+		while(blockIter.hasNext()) {
+			SingleInterval block = blockIter.next();
+			int start = clip(entry, block.getReferenceStartPosition());
+			int end = clip(entry, block.getReferenceEndPosition());
+			if(end > start) {
+				read(entry, start, end, bases, pos);
+				pos += end - start;
+			}
+		}
+		if(reverseComplement) {
+			reverseComplement(bases);
+		}
+		return new Sequence(annot.getName(), new String(bases, StandardCharsets.US_ASCII));
+	}
+
+	private static int clip(FastaIndex.Entry entry, int position) {
+		return (int) Math.max(0, Math.min(position, entry.getLength()));
+	}
+
+	private FastaIndex.Entry getEntry(String name) {
+		FastaIndex.Entry rtrn = index.getEntry(name);
+		if(rtrn == null) {
+			throw new IllegalArgumentException("No sequence " + name + " in " + fileName);
+		}
+		return rtrn;
+	}
+
+	/**
+	 * Copy bases into an array, skipping line terminators
+	 * @param entry Index entry of the sequence
+	 * @param start First position to copy
+	 * @param end Position after the last position to copy
+	 * @param dest Array to copy to
+	 * @param destOffset Position in the array of the first base
+	 */
+	private void read(FastaIndex.Entry entry, int start, int end, byte[] dest, int destOffset) {
+		int lineBases = entry.getLineBases();
+		int pos = start;
+		while(pos < end) {
+			// Copy the rest of the line containing pos
+			int length = Math.min(end - pos, lineBases - pos % lineBases);
+			copy(entry.getByteOffset(pos), dest, destOffset + pos - start, length);
+			pos += length;
+		}
+	}
+
+	private void copy(long fileOffset, byte[] dest, int destOffset, int length) {
+		int mapping = (int) (fileOffset / MAPPING_SIZE);
+		int offset = (int) (fileOffset % MAPPING_SIZE);
+		ByteBuffer buffer = mappings.get(mapping);
+		if(offset + length <= buffer.limit()) {
+			// Duplicate so that concurrent readers don't share a position
+			ByteBuffer view = buffer.duplicate();
+			view.position(offset);
+			view.get(dest, destOffset, length);
+		} else {
+			for(int i = 0; i < length; i++) {
+				long position = fileOffset + i;
+				dest[destOffset + i] = mappings.get((int) (position / MAPPING_SIZE)).get((int) (position % MAPPING_SIZE));
+			}
+		}
+	}
+
+	/**
+	 * Reverse complement bases in place, preserving case and leaving other characters unchanged
+	 * @param bases The bases
+	 */
+	private static void reverseComplement(byte[] bases) {
+		for(int i = 0, j = bases.length - 1; i <= j; i++, j--) {
+			byte tmp = Sequence.complement(bases[i]);
+			bases[i] = Sequence.complement(bases[j]);
+			bases[j] = tmp;
+		}
+	}
+
+	/**
+	 * Close the file. The mapping is released when the object is garbage collected.
+	 */
+	@Override
+	public void close() throws IOException {
+		stream.close();
+	}
+
+}
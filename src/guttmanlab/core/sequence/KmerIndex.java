@@ -0,0 +1,583 @@
+package guttmanlab.core.sequence;
+
+import guttmanlab.core.annotation.Annotation;
+import guttmanlab.core.annotation.Annotation.Strand;
+import guttmanlab.core.annotation.SingleInterval;
+import guttmanlab.core.annotationcollection.AnnotationCollection;
+import guttmanlab.core.util.ConcurrentUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import net.sf.samtools.util.CloseableIterator;
+
+import org.apache.log4j.Logger;
+
+/**
+ * An index of the positions of all k-mers in a set of sequences, for finding exact and one-mismatch seed hits
+ * of short queries such as primers and adapters before running a full alignment.
+ *
+ * K-mers are packed at two bits per base into longs (so k is at most 31) and only k-mers of A, C, G and T are
+ * indexed. The forward strand is indexed; lookups also search for the reverse complement of the query and
+ * report those hits on the negative strand.
+ *
+ * The table is split into shards by hash of k-mer, each an open-addressing table of k-mer counts with the
+ * positions of each k-mer stored contiguously in a sorted array. The index is built in two parallel passes, so no
+ * locking is needed: ranges of the sequences are scanned once, each k-mer going to a bucket of its shard, and then
+ * each shard is built from its buckets by counting the k-mers and placing their positions after a prefix sum.
+ * Bases are copied a range at a time, for a fasta file straight from its memory mapping. The buckets hold about
+ * 12 bytes per k-mer until their shard is built.
+ *
+ */
+public class KmerIndex {
+
+	private static Logger logger = Logger.getLogger(KmerIndex.class.getName());
+
+	private static final long EMPTY = -1L;
+
+	/**
+	 * Number of k-mer start positions in each range scanned by one task
+	 */
+	private static final int CHUNK_SIZE = 1 << 20;
+
+	private final int k;
+	private final long kmerMask;
+	// Indexed regions: reference name, reference position of the first base, and length
+	private final String[] segmentNames;
+	private final int[] segmentOffsets;
+	private final int[] segmentLengths;
+	private final Shard[] shards;
+	private final int shardShift;
+
+	/**
+	 * Copies the bases of the indexed regions
+	 */
+	private interface BaseReader {
+		/**
+		 * @param segment Index of the region
+		 * @param start First position in the region
+		 * @param end Position after the last position in the region
+		 * @param dest Array to copy to, starting at position 0
+		 */
+		void read(int segment, int start, int end, byte[] dest);
+	}
+
+	/**
+	 * Index whole sequences. Positions are reported relative to the start of each sequence.
+	 * @param sequences Sequences to index, named by reference name
+	 * @param k K-mer length, at most 31
+	 * @param numThreads Number of threads building the index
+	 */
+	public KmerIndex(Collection<Sequence> sequences, int k, int numThreads) {
+		this(sequences, k, numThreads, CHUNK_SIZE);
+	}
+
+	KmerIndex(Collection<Sequence> sequences, int k, int numThreads, int chunkSize) {
+		this(names(sequences), new int[sequences.size()], lengths(sequences), reader(sequences), k, numThreads, chunkSize);
+	}
+
+	private static String[] names(Collection<Sequence> sequences) {
+		String[] rtrn = new String[sequences.size()];
+		int i = 0;
+		for(Sequence seq : sequences) {
+			rtrn[i++] = seq.getName();
+		}
+		return rtrn;
+	}
+
+	private static int[] lengths(Collection<Sequence> sequences) {
+		int[] rtrn = new int[sequences.size()];
+		int i = 0;
+		for(Sequence seq : sequences) {
+			rtrn[i++] = seq.getLength();
+		}
+		return rtrn;
+	}
+
+	private static BaseReader reader(Collection<Sequence> sequences) {
+		String[] bases = new String[sequences.size()];
+		int i = 0;
+		for(Sequence seq : sequences) {
+			bases[i++] = seq.getSequenceBases();
+		}
+		return (segment, start, end, dest) -> {
+			for(int j = start; j < end; j++) {
+				dest[j - start] = (byte) bases[segment].charAt(j);
+			}
+		};
+	}
+
+	/**
+	 * Index all sequences of a fasta file
+	 * @param reference Indexed fasta file
+	 * @param k K-mer length, at most 31
+	 * @param numThreads Number of threads building the index
+	 * @return The index
+	 */
+	public static KmerIndex forReference(IndexedFastaFile reference, int k, int numThreads) {
+		String[] names = reference.getSequenceNames().toArray(new String[0]);
+		int[] lengths = new int[names.length];
+		for(int i = 0; i < names.length; i++) {
+			lengths[i] = reference.getLength(names[i]);
+		}
+		return new KmerIndex(names, new int[names.length], lengths, (segment, start, end, dest) -> reference.read(names[segment], start, end, dest),
+				k, numThreads, CHUNK_SIZE);
+	}
+
+	/**
+	 * Index the parts of a reference covered by the blocks of a set of features. Overlapping blocks are merged
+	 * so each reference position is indexed once. K-mers spanning the gap between two blocks are not indexed.
+	 * Positions are reported in reference coordinates.
+	 * @param features Features, e.g. a FeatureCollection of genes
+	 * @param reference Indexed fasta file of the reference
+	 * @param k K-mer length, at most 31
+	 * @param numThreads Number of threads building the index
+	 * @return The index
+	 */
+	public static KmerIndex forAnnotations(AnnotationCollection<? extends Annotation> features, IndexedFastaFile reference, int k, int numThreads) {
+		Map<String, List<SingleInterval>> blocksByReference = new TreeMap<String, List<SingleInterval>>();
+		CloseableIterator<? extends Annotation> iter = features.sortedIterator();
+		while(iter.hasNext()) {
+			Iterator<SingleInterval> blocks = iter.next().getBlocks();
+			while(blocks.hasNext()) {
+				SingleInterval block = blocks.next();
+				if(!blocksByReference.containsKey(block.getReferenceName())) {
+					blocksByReference.put(block.getReferenceName(), new ArrayList<SingleInterval>());
+				}
+				blocksByReference.get(block.getReferenceName()).add(block);
+			}
+		}
+		iter.close();
+		List<String> names = new ArrayList<String>();
+		List<int[]> ranges = new ArrayList<int[]>();
+		for(Map.Entry<String, List<SingleInterval>> entry : blocksByReference.entrySet()) {
+			List<SingleInterval> blocks = entry.getValue();
+			Collections.sort(blocks, Comparator.comparingInt(SingleInterval::getReferenceStartPosition));
+			int length = reference.getLength(entry.getKey());
+			int start = -1;
+			int end = -1;
+			for(SingleInterval block : blocks) {
+				if(block.getReferenceStartPosition() > end) {
+					addRange(names, ranges, entry.getKey(), start, Math.min(end, length));
+					start = Math.max(block.getReferenceStartPosition(), 0);
+				}
+				end = Math.max(end, block.getReferenceEndPosition());
+			}
+			addRange(names, ranges, entry.getKey(), start, Math.min(end, length));
+		}
+		String[] nameArray = names.toArray(new String[names.size()]);
+		int[] offsets = new int[ranges.size()];
+		int[] lengths = new int[ranges.size()];
+		for(int i = 0; i < offsets.length; i++) {
+			offsets[i] = ranges.get(i)[0];
+			lengths[i] = ranges.get(i)[1] - ranges.get(i)[0];
+		}
+		return new KmerIndex(nameArray, offsets, lengths,
+				(segment, start, end, dest) -> reference.read(nameArray[segment], offsets[segment] + start, offsets[segment] + end, dest), k, numThreads, CHUNK_SIZE);
+	}
+
+	private static void addRange(List<String> names, List<int[]> ranges, String name, int start, int end) {
+		if(end > start) {
+			names.add(name);
+			ranges.add(new int[] {start, end});
+		}
+	}
+
+	private KmerIndex(String[] segmentNames, int[] segmentOffsets, int[] segmentLengths, BaseReader reader, int k, int numThreads, int chunkSize) {
+		if(k < 1 || k > 31) {
+			throw new IllegalArgumentException("K must be between 1 and 31");
+		}
+		ConcurrentUtils.checkNumThreads(numThreads);
+		this.k = k;
+		this.kmerMask = (1L << (2 * k)) - 1;
+		this.segmentNames = segmentNames;
+		this.segmentOffsets = segmentOffsets;
+		this.segmentLengths = segmentLengths;
+		int numShards = Integer.highestOneBit(Math.max(1, numThreads - 1)) << 1;
+		this.shardShift = 64 - Integer.numberOfTrailingZeros(numShards);
+		this.shards = new Shard[numShards];
+		// Ranges of k-mer start positions: segment, start and end
+		List<int[]> chunks = new ArrayList<int[]>();
+		for(int segment = 0; segment < segmentLengths.length; segment++) {
+			for(int start = 0; start < segmentLengths[segment]; start += chunkSize) {
+				chunks.add(new int[] {segment, start, Math.min(start + chunkSize, segmentLengths[segment])});
+			}
+		}
+		ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+		try {
+			List<Future<Bucket[]>> routed = new ArrayList<Future<Bucket[]>>();
+			for(int[] chunk : chunks) {
+				routed.add(executor.submit(() -> route(chunk[0], chunk[1], chunk[2], reader)));
+			}
+			Bucket[][] buckets = new Bucket[chunks.size()][];
+			for(int i = 0; i < buckets.length; i++) {
+				buckets[i] = ConcurrentUtils.getResult(routed.get(i), "building k-mer index");
+			}
+			List<Future<Shard>> built = new ArrayList<Future<Shard>>();
+			for(int i = 0; i < numShards; i++) {
+				int shard = i;
+				built.add(executor.submit(() -> buildShard(buckets, shard)));
+			}
+			for(int i = 0; i < numShards; i++) {
+				shards[i] = ConcurrentUtils.getResult(built.get(i), "building k-mer index");
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+		logger.debug("Indexed " + getNumDistinctKmers() + " distinct " + k + "-mers in " + segmentNames.length + " sequences");
+	}
+
+	private static long hash(long key) {
+		// Finalizer of MurmurHash3
+		key ^= key >>> 33;
+		key *= 0xff51afd7ed558ccdL;
+		key ^= key >>> 33;
+		key *= 0xc4ceb9fe1a85ec53L;
+		key ^= key >>> 33;
+		return key;
+	}
+
+	private int shardOf(long hash) {
+		return shards.length == 1 ? 0 : (int) (hash >>> shardShift);
+	}
+
+	/**
+	 * The k-mers of one shard starting in a range of a segment, in order of position
+	 */
+	private static class Bucket {
+
+		final int segment;
+		final int start;
+		long[] kmers = new long[16];
+		// Start of each k-mer relative to the start of the range
+		int[] offsets = new int[16];
+		int size;
+
+		Bucket(int segment, int start) {
+			this.segment = segment;
+			this.start = start;
+		}
+
+		void add(long kmer, int offset) {
+			if(size == kmers.length) {
+				kmers = Arrays.copyOf(kmers, 2 * size);
+				offsets = Arrays.copyOf(offsets, 2 * size);
+			}
+			kmers[size] = kmer;
+			offsets[size++] = offset;
+		}
+	}
+
+	/**
+	 * Scan the k-mers of A, C, G and T starting in a range of a segment and put each in the bucket of its shard
+	 * @return The bucket of each shard
+	 */
+	private Bucket[] route(int segment, int start, int end, BaseReader reader) {
+		Bucket[] rtrn = new Bucket[shards.length];
+		for(int i = 0; i < rtrn.length; i++) {
+			rtrn[i] = new Bucket(segment, start);
+		}
+		// The last k-mers of the range end in the next one
+		byte[] bases = new byte[Math.min(end + k - 1, segmentLengths[segment]) - start];
+		reader.read(segment, start, start + bases.length, bases);
+		long kmer = 0;
+		int validLength = 0;
+		for(int i = 0; i < bases.length; i++) {
+			int code = PackedSequence.code((char) bases[i]);
+			if(code < 0) {
+				validLength = 0;
+				continue;
+			}
+			kmer = ((kmer << 2) | code) & kmerMask;
+			if(++validLength >= k) {
+				rtrn[shardOf(hash(kmer))].add(kmer, i - k + 1);
+			}
+		}
+		return rtrn;
+	}
+
+	/**
+	 * Build a shard from its buckets, which are in order of segment and position, so the positions of each k-mer
+	 * come out sorted. Each bucket is released once its positions are placed.
+	 */
+	private Shard buildShard(Bucket[][] buckets, int shardIndex) {
+		Shard rtrn = new Shard();
+		for(Bucket[] chunk : buckets) {
+			Bucket bucket = chunk[shardIndex];
+			for(int i = 0; i < bucket.size; i++) {
+				rtrn.count(bucket.kmers[i], hash(bucket.kmers[i]));
+			}
+		}
+		rtrn.allocatePositions();
+		for(Bucket[] chunk : buckets) {
+			Bucket bucket = chunk[shardIndex];
+			chunk[shardIndex] = null;
+			for(int i = 0; i < bucket.size; i++) {
+				long kmer = bucket.kmers[i];
+				rtrn.addPosition(kmer, hash(kmer), ((long) bucket.segment << 32) | (bucket.start + bucket.offsets[i]));
+			}
+		}
+		return rtrn;
+	}
+
+	/**
+	 * Open-addressing table of the k-mers whose hash falls in one shard
+	 */
+	private static class Shard {
+
+		private long[] keys = newKeys(1 << 10);
+		private int[] counts = new int[keys.length];
+		private int size;
+		// Start in positions of the positions of the k-mer in each slot
+		private int[] starts;
+		private long[] positions;
+
+		private static long[] newKeys(int capacity) {
+			long[] rtrn = new long[capacity];
+			Arrays.fill(rtrn, EMPTY);
+			return rtrn;
+		}
+
+		private int find(long kmer, long hash) {
+			int mask = keys.length - 1;
+			int slot = (int) hash & mask;
+			while(keys[slot] != EMPTY && keys[slot] != kmer) {
+				slot = (slot + 1) & mask;
+			}
+			return slot;
+		}
+
+		void count(long kmer, long hash) {
+			int slot = find(kmer, hash);
+			if(keys[slot] == EMPTY) {
+				keys[slot] = kmer;
+				size++;
+				if(2 * size > keys.length) {
+					grow();
+					slot = find(kmer, hash);
+				}
+			}
+			counts[slot]++;
+		}
+
+		private void grow() {
+			long[] oldKeys = keys;
+			int[] oldCounts = counts;
+			keys = newKeys(2 * oldKeys.length);
+			counts = new int[keys.length];
+			for(int i = 0; i < oldKeys.length; i++) {
+				if(oldKeys[i] != EMPTY) {
+					int slot = find(oldKeys[i], hash(oldKeys[i]));
+					keys[slot] = oldKeys[i];
+					counts[slot] = oldCounts[i];
+				}
+			}
+		}
+
+		void allocatePositions() {
+			starts = new int[keys.length + 1];
+			long total = 0;
+			for(int i = 0; i < keys.length; i++) {
+				starts[i] = (int) total;
+				total += counts[i];
+				if(total > Integer.MAX_VALUE - 8) {
+					throw new IllegalArgumentException("Too many k-mers for one shard; use more threads");
+				}
+			}
+			starts[keys.length] = (int) total;
+			positions = new long[(int) total];
+			// Reuse the counts to track how many positions of each k-mer have been filled
+			Arrays.fill(counts, 0);
+		}
+
+		void addPosition(long kmer, long hash, long position) {
+			int slot = find(kmer, hash);
+			positions[starts[slot] + counts[slot]++] = position;
+		}
+
+		/**
+		 * @return The slot of the k-mer, or -1 if it does not occur
+		 */
+		int slot(long kmer, long hash) {
+			int slot = find(kmer, hash);
+			return keys[slot] == EMPTY ? -1 : slot;
+		}
+	}
+
+	/**
+	 * @return K-mer length
+	 */
+	public int getK() {
+		return k;
+	}
+
+	/**
+	 * @return Number of distinct k-mers in the index
+	 */
+	public long getNumDistinctKmers() {
+		long rtrn = 0;
+		for(Shard shard : shards) {
+			rtrn += shard.size;
+		}
+		return rtrn;
+	}
+
+	/**
+	 * @param kmer Sequence of A, C, G and T of length k
+	 * @return The k-mer packed at two bits per base, first base in the highest bits
+	 */
+	public long encode(CharSequence kmer) {
+		if(kmer.length() != k) {
+			throw new IllegalArgumentException("K-mer " + kmer + " does not have length " + k);
+		}
+		long rtrn = 0;
+		for(int i = 0; i < k; i++) {
+			int code = PackedSequence.code(kmer.charAt(i));
+			if(code < 0) {
+				throw new IllegalArgumentException("K-mer " + kmer + " contains a base other than A, C, G or T");
+			}
+			rtrn = (rtrn << 2) | code;
+		}
+		return rtrn;
+	}
+
+	private long reverseComplement(long kmer) {
+		long rtrn = 0;
+		for(int i = 0; i < k; i++) {
+			rtrn = (rtrn << 2) | (3 - (kmer & 3));
+			kmer >>>= 2;
+		}
+		return rtrn;
+	}
+
+	/**
+	 * @param kmer A k-mer
+	 * @return Number of occurrences of the k-mer on the forward strand of the indexed sequences
+	 */
+	public int count(CharSequence kmer) {
+		long code = encode(kmer);
+		long hash = hash(code);
+		Shard shard = shards[shardOf(hash)];
+		int slot = shard.slot(code, hash);
+		return slot < 0 ? 0 : shard.starts[slot + 1] - shard.starts[slot];
+	}
+
+	/**
+	 * Find the exact occurrences of a k-mer on both strands
+	 * @param kmer A k-mer
+	 * @return The occurrences, in reference coordinates, on the positive strand for the k-mer and on the
+	 * negative strand for its reverse complement
+	 */
+	public List<SingleInterval> lookup(CharSequence kmer) {
+		return lookup(kmer, 0);
+	}
+
+	/**
+	 * Find the occurrences of a k-mer on both strands, allowing mismatches
+	 * @param kmer A k-mer
+	 * @param maxMismatches 0 or 1
+	 * @return The occurrences, in reference coordinates, on the positive strand for the k-mer and on the
+	 * negative strand for its reverse complement
+	 */
+	public List<SingleInterval> lookup(CharSequence kmer, int maxMismatches) {
+		if(maxMismatches < 0 || maxMismatches > 1) {
+			throw new IllegalArgumentException("Only 0 or 1 mismatches are supported");
+		}
+		long code = encode(kmer);
+		List<SingleInterval> rtrn = new ArrayList<SingleInterval>();
+		addHits(code, Strand.POSITIVE, maxMismatches, rtrn);
+		long rc = reverseComplement(code);
+		if(rc != code) {
+			addHits(rc, Strand.NEGATIVE, maxMismatches, rtrn);
+		} else {
+			// A palindrome occurs on both strands at the same positions
+			int numForward = rtrn.size();
+			for(int i = 0; i < numForward; i++) {
+				SingleInterval hit = rtrn.get(i);
+				rtrn.add(new SingleInterval(hit.getReferenceName(), hit.getReferenceStartPosition(), hit.getReferenceEndPosition(), Strand.NEGATIVE));
+			}
+		}
+		return rtrn;
+	}
+
+	private void addHits(long code, Strand strand, int maxMismatches, List<SingleInterval> rtrn) {
+		addHits(code, strand, rtrn);
+		if(maxMismatches == 0) {
+			return;
+		}
+		for(int i = 0; i < k; i++) {
+			for(long change = 1; change <= 3; change++) {
+				addHits(code ^ (change << (2 * i)), strand, rtrn);
+			}
+		}
+	}
+
+	private void addHits(long code, Strand strand, List<SingleInterval> rtrn) {
+		long hash = hash(code);
+		Shard shard = shards[shardOf(hash)];
+		int slot = shard.slot(code, hash);
+		if(slot < 0) {
+			return;
+		}
+		for(int i = shard.starts[slot]; i < shard.starts[slot + 1]; i++) {
+			long position = shard.positions[i];
+			int segment = (int) (position >>> 32);
+			int start = segmentOffsets[segment] + (int) position;
+			rtrn.add(new SingleInterval(segmentNames[segment], start, start + k, strand));
+		}
+	}
+
+	/**
+	 * Find the places a query could match without gaps with at most a number of mismatches, using the pigeonhole
+	 * principle: with m mismatches, one of m + 1 non-overlapping k-mers of the query matches exactly. The
+	 * candidates are a superset of the true matches and should be verified, e.g. by Smith-Waterman alignment.
+	 * @param query Query sequence of at least (maxMismatches + 1) * k bases
+	 * @param maxMismatches Maximum number of mismatches
+	 * @return Intervals of the query length where the query may match, on the strand the query would match,
+	 * in order of discovery without duplicates
+	 */
+	public Collection<SingleInterval> getCandidates(CharSequence query, int maxMismatches) {
+		int length = query.length();
+		if(length < (maxMismatches + 1) * k) {
+			throw new IllegalArgumentException("Query must be at least " + ((maxMismatches + 1) * k) + " bases for " + maxMismatches + " mismatches");
+		}
+		Set<SingleInterval> rtrn = new LinkedHashSet<SingleInterval>();
+		for(int seed = 0; seed <= maxMismatches; seed++) {
+			int offset = seed * k;
+			CharSequence kmer = query.subSequence(offset, offset + k);
+			boolean valid = true;
+			for(int i = 0; i < k; i++) {
+				valid &= PackedSequence.code(kmer.charAt(i)) >= 0;
+			}
+			if(!valid) {
+				continue;
+			}
+			for(SingleInterval hit : lookup(kmer)) {
+				int start;
+				if(hit.getOrientation().equals(Strand.POSITIVE)) {
+					start = hit.getReferenceStartPosition() - offset;
+				} else {
+					// The reverse complement of the query covers the candidate; the seed is at the mirrored offset
+					start = hit.getReferenceStartPosition() - (length - offset - k);
+				}
+				if(start >= 0) {
+					rtrn.add(new SingleInterval(hit.getReferenceName(), start, start + length, hit.getOrientation()));
+				}
+			}
+		}
+		return rtrn;
+	}
+
+}
@@ -0,0 +1,371 @@
+package guttmanlab.core.sequence;
+
+import java.util.Arrays;
+
+/**
+ * A nucleotide sequence packed at two bits per base, using a quarter of the memory of a String.
+ * Bases other than A, C, G and T are stored as runs of N, and runs of lower case (soft masked) bases are
+ * stored separately, so sequences of the characters ACGTNacgtn are reproduced exactly by toString(); other
+ * IUPAC codes become N.
+ *
+ * Subsequences and reverse complements are views sharing the packed bases of the original, so they take
+ * constant time and memory. Use compact() to copy a view into a sequence of its own, e.g. to let a large
+ * original be garbage collected.
+ *
+ */
+public class PackedSequence implements CharSequence {
+
+	/**
+	 * Code of each base
+	 */
+	public static final int A = 0, C = 1, G = 2, T = 3;
+
+	private static final char[] UPPER = {'A', 'C', 'G', 'T'};
+	private static final char[] LOWER = {'a', 'c', 'g', 't'};
+	private static final long EVEN_PAIRS = 0x3333333333333333L;
+	private static final long EVEN_NIBBLES = 0x0F0F0F0F0F0F0F0FL;
+	private static final int[] NO_RUNS = new int[0];
+
+	// Base i of the underlying sequence is in bits 2 * (i % 32) of words[i / 32]
+	private final long[] words;
+	// Start and end positions of runs in the underlying sequence, as consecutive pairs
+	private final int[] nRuns;
+	private final int[] lowerCaseRuns;
+	// The view: underlying positions [start, start + length), reverse complemented if reverse is true
+	private final int start;
+	private final int length;
+	private final boolean reverse;
+
+	private PackedSequence(long[] words, int[] nRuns, int[] lowerCaseRuns, int start, int length, boolean reverse) {
+		this.words = words;
+		this.nRuns = nRuns;
+		this.lowerCaseRuns = lowerCaseRuns;
+		this.start = start;
+		this.length = length;
+		this.reverse = reverse;
+	}
+
+	/**
+	 * @param bases Nucleotide sequence
+	 */
+	public PackedSequence(CharSequence bases) {
+		this.length = bases.length();
+		this.start = 0;
+		this.reverse = false;
+		this.words = new long[(length + 31) >>> 5];
+		RunBuilder n = new RunBuilder();
+		RunBuilder lower = new RunBuilder();
+		for(int i = 0; i < length; i++) {
+			char c = bases.charAt(i);
+			int code = code(c);
+			if(code < 0) {
+				n.add(i);
+				code = A;
+			}
+			if(Character.isLowerCase(c)) {
+				lower.add(i);
+			}
+			words[i >>> 5] |= (long) code << ((i & 31) << 1);
+		}
+		this.nRuns = n.toArray();
+		this.lowerCaseRuns = lower.toArray();
+	}
+
+	/**
+	 * @param sequence Sequence to pack
+	 */
+	public PackedSequence(Sequence sequence) {
+		this(sequence.getSequenceBases());
+	}
+
+	/**
+	 * Collects positions into runs of consecutive positions
+	 */
+	private static class RunBuilder {
+		private int[] runs = NO_RUNS;
+		private int size;
+
+		void add(int position) {
+			if(size > 0 && runs[size - 1] == position) {
+				runs[size - 1]++;
+				return;
+			}
+			if(size == runs.length) {
+				runs = Arrays.copyOf(runs, Math.max(8, 2 * size));
+			}
+			runs[size++] = position;
+			runs[size++] = position + 1;
+		}
+
+		int[] toArray() {
+			return size == 0 ? NO_RUNS : Arrays.copyOf(runs, size);
+		}
+	}
+
+	/**
+	 * @param base A nucleotide, in upper or lower case
+	 * @return The code of the base, or -1 if the base is not A, C, G or T
+	 */
+	public static int code(char base) {
+		switch(base) {
+		case 'A': case 'a': return A;
+		case 'C': case 'c': return C;
+		case 'G': case 'g': return G;
+		case 'T': case 't': return T;
+		default: return -1;
+		}
+	}
+
+	@Override
+	public int length() {
+		return length;
+	}
+
+	/**
+	 * @param index Position in this sequence
+	 * @return The code of the base at the position, which is arbitrary for N
+	 */
+	public int getCode(int index) {
+		checkIndex(index);
+		if(reverse) {
+			return 3 - underlyingCode(start + length - 1 - index);
+		}
+		return underlyingCode(start + index);
+	}
+
+	/**
+	 * @param index Position in this sequence
+	 * @return Whether the base at the position is N
+	 */
+	public boolean isN(int index) {
+		checkIndex(index);
+		return inRun(nRuns, underlying(index));
+	}
+
+	@Override
+	public char charAt(int index) {
+		int code = getCode(index);
+		int u = underlying(index);
+		if(inRun(nRuns, u)) {
+			return inRun(lowerCaseRuns, u) ? 'n' : 'N';
+		}
+		return inRun(lowerCaseRuns, u) ? LOWER[code] : UPPER[code];
+	}
+
+	private void checkIndex(int index) {
+		if(index < 0 || index >= length) {
+			throw new IndexOutOfBoundsException("Index " + index + " for length " + length);
+		}
+	}
+
+	private int underlying(int index) {
+		return reverse ? start + length - 1 - index : start + index;
+	}
+
+	private int underlyingCode(int position) {
+		return (int) (words[position >>> 5] >>> ((position & 31) << 1)) & 3;
+	}
+
+	private static boolean inRun(int[] runs, int position) {
+		// Find the last run starting at or before the position
+		int low = 0;
+		int high = runs.length / 2 - 1;
+		while(low <= high) {
+			int mid = (low + high) >>> 1;
+			if(runs[2 * mid] <= position) {
+				if(position < runs[2 * mid + 1]) {
+					return true;
+				}
+				low = mid + 1;
+			} else {
+				high = mid - 1;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @param position Underlying position of the first base
+	 * @return 32 underlying bases starting at the position, with zeros past the end of the words
+	 */
+	private long underlyingWord(int position) {
+		int w = position >>> 5;
+		int shift = (position & 31) << 1;
+		long rtrn = words[w] >>> shift;
+		if(shift != 0 && w + 1 < words.length) {
+			rtrn |= words[w + 1] << (64 - shift);
+		}
+		return rtrn;
+	}
+
+	/**
+	 * Reverse the order of the 32 bases in a word and complement them
+	 */
+	private static long reverseComplementWord(long word) {
+		word = ((word >>> 2) & EVEN_PAIRS) | ((word & EVEN_PAIRS) << 2);
+		word = ((word >>> 4) & EVEN_NIBBLES) | ((word & EVEN_NIBBLES) << 4);
+		return ~Long.reverseBytes(word);
+	}
+
+	/**
+	 * Get up to 32 bases packed into a long, with base index at the lowest two bits. The code of N is arbitrary.
+	 * @param index Position in this sequence of the first base
+	 * @return The bases from index to the end of the sequence or index + 32, whichever comes first
+	 */
+	public long getWord(int index) {
+		checkIndex(index);
+		int numBases = Math.min(32, length - index);
+		long rtrn;
+		if(reverse) {
+			// Bases index to index + numBases - 1 are the reverse complement of underlying bases ending at underlying(index)
+			int last = underlying(index);
+			int first = last - 31;
+			if(first >= 0) {
+				rtrn = reverseComplementWord(underlyingWord(first));
+			} else {
+				rtrn = reverseComplementWord(underlyingWord(0) << (-2 * first));
+			}
+		} else {
+			rtrn = underlyingWord(start + index);
+		}
+		return numBases == 32 ? rtrn : rtrn & ((1L << (2 * numBases)) - 1);
+	}
+
+	/**
+	 * @return The reverse complement of this sequence, as a view sharing the packed bases
+	 */
+	public PackedSequence reverseComplement() {
+		return new PackedSequence(words, nRuns, lowerCaseRuns, start, length, !reverse);
+	}
+
+	@Override
+	public PackedSequence subSequence(int from, int to) {
+		if(from < 0 || to > length || from > to) {
+			throw new IndexOutOfBoundsException("Subsequence " + from + "-" + to + " for length " + length);
+		}
+		int newStart = reverse ? start + length - to : start + from;
+		return new PackedSequence(words, nRuns, lowerCaseRuns, newStart, to - from, reverse);
+	}
+
+	/**
+	 * @return A copy of this sequence that does not share the packed bases of the original
+	 */
+	public PackedSequence compact() {
+		int[] n = runsInView(nRuns);
+		return new PackedSequence(canonicalWords(n), n, runsInView(lowerCaseRuns), 0, length, false);
+	}
+
+	/**
+	 * The code of N is arbitrary in a view (it reads as T in a reverse complement), so set it to A as the
+	 * constructor does, for comparing and hashing
+	 * @param n The runs of N in this view
+	 * @return The bases of this view packed from position 0, with N stored as A
+	 */
+	private long[] canonicalWords(int[] n) {
+		long[] rtrn = new long[(length + 31) >>> 5];
+		for(int i = 0; i < rtrn.length; i++) {
+			rtrn[i] = getWord(i << 5);
+		}
+		for(int i = 0; i < n.length; i += 2) {
+			for(int j = n[i]; j < n[i + 1]; j++) {
+				rtrn[j >>> 5] &= ~(3L << ((j & 31) << 1));
+			}
+		}
+		return rtrn;
+	}
+
+	/**
+	 * @return The runs that overlap this view, in view coordinates and sorted
+	 */
+	private int[] runsInView(int[] runs) {
+		int end = start + length;
+		// Binary search for the first run ending after the start of the view
+		int low = 0;
+		int high = runs.length / 2;
+		while(low < high) {
+			int mid = (low + high) >>> 1;
+			if(runs[2 * mid + 1] <= start) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		int first = 2 * low;
+		int last = first;
+		while(last < runs.length && runs[last] < end) {
+			last += 2;
+		}
+		int[] rtrn = new int[last - first];
+		for(int i = first; i < last; i += 2) {
+			int runStart = Math.max(runs[i], start) - start;
+			int runEnd = Math.min(runs[i + 1], end) - start;
+			if(reverse) {
+				// Runs are reversed, so fill from the end
+				int j = rtrn.length - (i - first) - 2;
+				rtrn[j] = length - runEnd;
+				rtrn[j + 1] = length - runStart;
+			} else {
+				rtrn[i - first] = runStart;
+				rtrn[i - first + 1] = runEnd;
+			}
+		}
+		return rtrn;
+	}
+
+	/**
+	 * @return The bases as a string
+	 */
+	@Override
+	public String toString() {
+		char[] rtrn = new char[length];
+		for(int i = 0; i < length; i += 32) {
+			long word = getWord(i);
+			int numBases = Math.min(32, length - i);
+			for(int j = 0; j < numBases; j++) {
+				rtrn[i + j] = UPPER[(int) (word & 3)];
+				word >>>= 2;
+			}
+		}
+		int[] n = runsInView(nRuns);
+		for(int i = 0; i < n.length; i += 2) {
+			Arrays.fill(rtrn, n[i], n[i + 1], 'N');
+		}
+		int[] lower = runsInView(lowerCaseRuns);
+		for(int i = 0; i < lower.length; i += 2) {
+			for(int j = lower[i]; j < lower[i + 1]; j++) {
+				rtrn[j] = Character.toLowerCase(rtrn[j]);
+			}
+		}
+		return new String(rtrn);
+	}
+
+	/**
+	 * @param name Sequence name
+	 * @return A Sequence with the bases of this sequence
+	 */
+	public Sequence toSequence(String name) {
+		return new Sequence(name, toString());
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if(!(o instanceof PackedSequence)) {
+			return false;
+		}
+		PackedSequence other = (PackedSequence) o;
+		if(length != other.length) {
+			return false;
+		}
+		int[] n = runsInView(nRuns);
+		return Arrays.equals(n, other.runsInView(other.nRuns))
+				&& Arrays.equals(runsInView(lowerCaseRuns), other.runsInView(other.lowerCaseRuns))
+				&& Arrays.equals(canonicalWords(n), other.canonicalWords(n));
+	}
+
+	@Override
+	public int hashCode() {
+		int[] n = runsInView(nRuns);
+		return 31 * (31 * length + Arrays.hashCode(canonicalWords(n))) + Arrays.hashCode(n);
+	}
+
+}
@@ -2,8 +2,10 @@ package guttmanlab.core.sequence;
 
 import guttmanlab.core.annotation.Annotation;
 import guttmanlab.core.annotation.Annotation.Strand;
+import guttmanlab.core.annotation.IntervalBuilder;
 import guttmanlab.core.annotation.SingleInterval;
 
+import java.nio.charset.StandardCharsets;
 import java.util.Collection;
 import java.util.Iterator;
 
@@ -37,43 +39,48 @@ public class Sequence {
 	 * @return A new sequence that is the reverse complement of this sequence
 	 */
 	public Sequence reverseComplement() {
-		Sequence tmpSeq = new Sequence(this.sequence);
-		tmpSeq.reverse();
-		return tmpSeq;
-	}
-	
-	
-	private void reverse() {
-		String seqBases = getSequenceBases();
-		String reversedSeq = "";
-		for(int j = seqBases.length() - 1; j >= 0 ; j--) {
-			char c = seqBases.charAt(j);
-			if('c' == c) {
-				reversedSeq+='g';
-			}else if ('C' == c) {
-				reversedSeq+='G';
-			}else if ('G' == c) {
-				reversedSeq+='C';
-			}else if ('g' == c) {
-				reversedSeq+=('c');
-			}else if ('a' == c) {
-				reversedSeq+=('t');
-			}else if ('A' == c) {
-				reversedSeq+=('T');
-			}else if('t' == c) {
-				reversedSeq+=('a');
-			}else if('T' == c) {
-				reversedSeq+=('A');
-			}else if('N'==c){
-				reversedSeq+=('N');
-			}else if('n'==c){
-				reversedSeq+=('n');
-			}else {
-				reversedSeq+=(c);
-			}
+		return new Sequence(reverseComplement(this.sequence));
+	}
+	
+	/**
+	 * Reverse complement a nucleotide sequence, preserving case. Characters other than ACGT are left as they are.
+	 * @param bases The bases
+	 * @return The reverse complement
+	 */
+	public static String reverseComplement(String bases) {
+		char[] reversed = new char[bases.length()];
+		for(int i = 0, j = bases.length() - 1; j >= 0; i++, j--) {
+			char c = bases.charAt(j);
+			reversed[i] = c < COMPLEMENT.length ? COMPLEMENT[c] : c;
+		}
+		return new String(reversed);
+	}
+	
+	private static final char[] COMPLEMENT = new char[128];
+	static {
+		for(char c = 0; c < COMPLEMENT.length; c++) {
+			COMPLEMENT[c] = c;
+		}
+		String from = "ACGTacgt";
+		String to = "TGCAtgca";
+		for(int i = 0; i < from.length(); i++) {
+			COMPLEMENT[from.charAt(i)] = to.charAt(i);
 		}
-		
-		this.sequence = reversedSeq;
+	}
+	
+	/**
+	 * @param base A base as an ASCII byte
+	 * @return The complement of the base, preserving case, or the byte itself if it is not ACGT
+	 */
+	static byte complement(byte base) {
+		return base >= 0 ? (byte) COMPLEMENT[base] : base;
+	}
+	
+	/**
+	 * @return The bases packed at two bits per base
+	 */
+	public PackedSequence toPackedSequence() {
+		return new PackedSequence(this.sequence);
 	}
 	
 	/**
@@ -120,20 +127,16 @@ public class Sequence {
 		if(!annot.getOrientation().equals(Strand.POSITIVE) && !annot.getOrientation().equals(Strand.NEGATIVE)) {
 			throw new IllegalArgumentException("Strand must be known");
 		}
-		String seq = "";
+		StringBuilder seq = new StringBuilder();
 		Iterator<SingleInterval> blockIter = annot.getBlocks();
 		while(blockIter.hasNext()) {
 			SingleInterval block = blockIter.next();
-			Sequence blockSequence = getSubSequence("", block.getReferenceStartPosition(), block.getReferenceEndPosition());
-			String forwardBases = blockSequence.getSequenceBases();
-			if(annot.getOrientation().equals(Strand.POSITIVE)) {
-				seq += forwardBases;
-			} else {
-				String rc = new Sequence(forwardBases).reverseComplement().getSequenceBases();
-				seq = rc + seq;
-			}
+			seq.append(sequence, Math.max(block.getReferenceStartPosition(), 0), Math.max(Math.min(block.getReferenceEndPosition(), sequence.length()), 0));
 		}
-		return new Sequence(annot.getName(), seq);
+		if(annot.getOrientation().equals(Strand.NEGATIVE)) {
+			return new Sequence(annot.getName(), reverseComplement(seq.toString()));
+		}
+		return new Sequence(annot.getName(), seq.toString());
 	}
 	
 	/**
@@ -143,8 +146,7 @@ public class Sequence {
 	 * @return A new sequence with the regions soft masked
 	 */
 	public Sequence softMask(Collection<Annotation> regions) {
-		// TODO
-		throw new UnsupportedOperationException();
+		return mask(regions, false);
 	}
 	
 	/**
@@ -154,8 +156,24 @@ public class Sequence {
 	 * @return A new sequence with the regions hard masked
 	 */
 	public Sequence hardMask(Collection<Annotation> regions) {
-		// TODO
-		throw new UnsupportedOperationException("TODO");
+		return mask(regions, true);
+	}
+	
+	private Sequence mask(Collection<Annotation> regions, boolean hardMask) {
+		IntervalBuilder builder = new IntervalBuilder();
+		for(Annotation region : regions) {
+			if(!region.getReferenceName().equals(name)) {
+				throw new IllegalArgumentException("Region " + region.toUCSC() + " is not on sequence " + name);
+			}
+			builder.add(region);
+		}
+		int[] intervals = builder.build().get(name);
+		if(intervals == null) {
+			return new Sequence(name, sequence);
+		}
+		byte[] bases = sequence.getBytes(StandardCharsets.ISO_8859_1);
+		SequenceMasker.mask(bases, bases.length, 0, intervals, 0, hardMask);
+		return new Sequence(name, new String(bases, StandardCharsets.ISO_8859_1));
 	}
 	
 	@Override
@@ -0,0 +1,240 @@
+package guttmanlab.core.sequence;
+
+import guttmanlab.core.annotation.Annotation;
+import guttmanlab.core.annotation.IntervalBuilder;
+import guttmanlab.core.annotationcollection.AnnotationCollection;
+import guttmanlab.core.util.ConcurrentUtils;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import net.sf.samtools.util.CloseableIterator;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Masks the blocks of a set of annotations, e.g. repeats or blacklisted regions, in a whole genome and writes
+ * the masked genome as fasta. Soft masking changes bases to lower case; hard masking changes them to N.
+ *
+ * The annotations are read once, in sorted order, and kept only as merged start and end positions per reference.
+ * Each reference sequence is then streamed from the memory-mapped fasta file in windows, so neither the genome
+ * nor a whole chromosome is held in memory as a String. References are masked in parallel, each into its own
+ * temporary file, and the files are concatenated in the order of the input fasta.
+ *
+ */
+public class SequenceMasker {
+
+	private static Logger logger = Logger.getLogger(SequenceMasker.class.getName());
+
+	private static final int[] NO_INTERVALS = new int[0];
+
+	private final Map<String, int[]> intervals;
+	private boolean hardMask = false;
+	private int numThreads = Runtime.getRuntime().availableProcessors();
+	private int windowSize = 1 << 20;
+	private File tempDirectory = null;
+
+	/**
+	 * @param regions Regions to mask; the blocks of each annotation are masked
+	 */
+	public SequenceMasker(AnnotationCollection<? extends Annotation> regions) {
+		IntervalBuilder builder = new IntervalBuilder();
+		CloseableIterator<? extends Annotation> iter = regions.sortedIterator();
+		try {
+			while(iter.hasNext()) {
+				builder.add(iter.next());
+			}
+		} finally {
+			iter.close();
+		}
+		this.intervals = builder.build();
+	}
+
+	/**
+	 * @param hardMask Whether to change masked bases to N rather than lower case. Default false.
+	 */
+	public void setHardMask(boolean hardMask) {
+		this.hardMask = hardMask;
+	}
+
+	/**
+	 * @param numThreads Number of reference sequences masked at the same time. Default the number of processors.
+	 */
+	public void setNumThreads(int numThreads) {
+		this.numThreads = ConcurrentUtils.checkNumThreads(numThreads);
+	}
+
+	/**
+	 * @param windowSize Number of bases of each reference read and masked at a time. Default 1 Mb.
+	 */
+	public void setWindowSize(int windowSize) {
+		if(windowSize < 1) {
+			throw new IllegalArgumentException("Window size must be positive");
+		}
+		this.windowSize = windowSize;
+	}
+
+	/**
+	 * @param tempDirectory Directory for the masked sequence of each reference. Default the directory of the output file.
+	 */
+	public void setTempDirectory(File tempDirectory) {
+		this.tempDirectory = tempDirectory;
+	}
+
+	/**
+	 * Mask the bases of a window of a sequence
+	 * @param bases The window
+	 * @param length Number of bases in the window
+	 * @param windowStart Position in the sequence of the first base of the window
+	 * @param intervals Sorted non-overlapping intervals, as consecutive start and end positions
+	 * @param first Index of the first interval that may overlap the window
+	 * @param hardMask Whether to change bases to N rather than lower case
+	 * @return Index of the first interval that may overlap the next window
+	 */
+	static int mask(byte[] bases, int length, int windowStart, int[] intervals, int first, boolean hardMask) {
+		int windowEnd = windowStart + length;
+		int i = first;
+		while(i < intervals.length && intervals[i] < windowEnd) {
+			int start = Math.max(intervals[i], windowStart) - windowStart;
+			int end = Math.min(intervals[i + 1], windowEnd) - windowStart;
+			for(int j = start; j < end; j++) {
+				if(hardMask) {
+					bases[j] = 'N';
+				} else if(bases[j] >= 'A' && bases[j] <= 'Z') {
+					bases[j] += 'a' - 'A';
+				}
+			}
+			if(intervals[i + 1] > windowEnd) {
+				// Continues into the next window
+				break;
+			}
+			i += 2;
+		}
+		return i;
+	}
+
+	/**
+	 * Write a masked copy of a fasta file, with the line length of each sequence in the original
+	 * @param reference Indexed fasta file to mask
+	 * @param out Output fasta file
+	 * @return Summary of the masking
+	 * @throws IOException
+	 */
+	public Summary mask(IndexedFastaFile reference, File out) throws IOException {
+		List<String> names = new ArrayList<String>(reference.getSequenceNames());
+		for(String name : intervals.keySet()) {
+			if(reference.getIndex().getEntry(name) == null) {
+				logger.warn("Regions on " + name + " are not masked because it is not in the reference");
+			}
+		}
+		File dir = tempDirectory != null ? tempDirectory : out.getAbsoluteFile().getParentFile();
+		Summary rtrn = new Summary();
+		List<File> tempFiles = new ArrayList<File>();
+		ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+		try {
+			List<Future<Long>> futures = new ArrayList<Future<Long>>();
+			for(String name : names) {
+				File tempFile = File.createTempFile("masked", ".fa", dir);
+				tempFiles.add(tempFile);
+				futures.add(executor.submit(() -> maskSequence(reference, name, tempFile)));
+			}
+			try(FileOutputStream output = new FileOutputStream(out)) {
+				FileChannel outChannel = output.getChannel();
+				for(int i = 0; i < names.size(); i++) {
+					rtrn.numBasesMasked += ConcurrentUtils.getCheckedResult(futures.get(i), "masking");
+					rtrn.numSequences++;
+					try(FileInputStream input = new FileInputStream(tempFiles.get(i))) {
+						FileChannel inChannel = input.getChannel();
+						long size = inChannel.size();
+						for(long position = 0; position < size; ) {
+							position += inChannel.transferTo(position, size - position, outChannel);
+						}
+					}
+					tempFiles.get(i).delete();
+				}
+			}
+		} finally {
+			executor.shutdownNow();
+			for(File tempFile : tempFiles) {
+				tempFile.delete();
+			}
+		}
+		logger.info(rtrn);
+		return rtrn;
+	}
+
+	/**
+	 * Write one masked sequence in fasta format
+	 * @return Number of bases masked
+	 */
+	private long maskSequence(IndexedFastaFile reference, String name, File out) throws IOException {
+		int length = reference.getLength(name);
+		int lineBases = reference.getIndex().getEntry(name).getLineBases();
+		if(lineBases <= 0) {
+			lineBases = 60;
+		}
+		int[] sequenceIntervals = intervals.containsKey(name) ? intervals.get(name) : NO_INTERVALS;
+		long rtrn = 0;
+		for(int i = 0; i < sequenceIntervals.length; i += 2) {
+			rtrn += Math.max(0, Math.min(sequenceIntervals[i + 1], length) - Math.max(sequenceIntervals[i], 0));
+		}
+		// Whole lines per window so lines don't need to be joined across windows
+		int window = Math.max(1, windowSize / lineBases) * lineBases;
+		byte[] bases = new byte[Math.min(window, Math.max(length, 1))];
+		try(OutputStream output = new BufferedOutputStream(new FileOutputStream(out), 1 << 16)) {
+			output.write(('>' + name + '\n').getBytes(StandardCharsets.US_ASCII));
+			int interval = 0;
+			for(int start = 0; start < length; start += window) {
+				int end = Math.min(start + window, length);
+				reference.read(name, start, end, bases);
+				interval = mask(bases, end - start, start, sequenceIntervals, interval, hardMask);
+				for(int line = 0; line < end - start; line += lineBases) {
+					output.write(bases, line, Math.min(lineBases, end - start - line));
+					output.write('\n');
+				}
+			}
+		}
+		return rtrn;
+	}
+
+	/**
+	 * Counts of masked sequences and bases
+	 */
+	public static class Summary {
+
+		private long numSequences;
+		private long numBasesMasked;
+
+		/**
+		 * @return Number of sequences written
+		 */
+		public long getNumSequences() {
+			return numSequences;
+		}
+
+		/**
+		 * @return Number of bases in masked regions, including bases that were already masked
+		 */
+		public long getNumBasesMasked() {
+			return numBasesMasked;
+		}
+
+		@Override
+		public String toString() {
+			return "Masked " + numBasesMasked + " bases in " + numSequences + " sequences";
+		}
+	}
+
+}
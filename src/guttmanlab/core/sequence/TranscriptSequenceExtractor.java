@@ -0,0 +1,187 @@
+package guttmanlab.core.sequence;
+
+import guttmanlab.core.annotation.Annotation;
+import guttmanlab.core.annotation.Annotation.Strand;
+import guttmanlab.core.annotationcollection.AnnotationCollection;
+import guttmanlab.core.util.ConcurrentUtils;
+import guttmanlab.core.util.ConcurrentUtils.OrderedExecutor;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+
+import net.sf.samtools.util.CloseableIterator;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Extracts the spliced, strand-aware sequences of all annotations in a collection, e.g. every transcript of a
+ * BED file, from an indexed fasta file.
+ *
+ * Annotations are read in sorted order, so each reference sequence is read from the memory-mapped fasta file
+ * in one pass, and sequences are passed on in the same order. Batches of annotations are extracted in parallel
+ * while the annotation collection itself is only read from the calling thread, and only a bounded number of
+ * batches is in memory at a time.
+ *
+ */
+public class TranscriptSequenceExtractor {
+
+	private static Logger logger = Logger.getLogger(TranscriptSequenceExtractor.class.getName());
+
+	private static final int BATCH_SIZE = 1024;
+
+	private final IndexedFastaFile reference;
+	private int numThreads = Runtime.getRuntime().availableProcessors();
+	private int basesPerLine = 60;
+
+	/**
+	 * @param reference Indexed fasta file of the reference the annotations refer to
+	 */
+	public TranscriptSequenceExtractor(IndexedFastaFile reference) {
+		this.reference = reference;
+	}
+
+	/**
+	 * @param numThreads Number of threads extracting sequences. Default the number of processors.
+	 */
+	public void setNumThreads(int numThreads) {
+		this.numThreads = ConcurrentUtils.checkNumThreads(numThreads);
+	}
+
+	/**
+	 * @param basesPerLine Number of bases per line of written fasta files. Default 60.
+	 */
+	public void setBasesPerLine(int basesPerLine) {
+		if(basesPerLine < 1) {
+			throw new IllegalArgumentException("Bases per line must be positive");
+		}
+		this.basesPerLine = basesPerLine;
+	}
+
+	/**
+	 * Write the sequences of all annotations to a fasta file, in sorted order of the annotations.
+	 * Each sequence is named after its annotation.
+	 * @param annotations The annotations
+	 * @param fileName Output fasta file
+	 * @return Counts of extracted and skipped annotations
+	 * @throws IOException
+	 */
+	public Summary write(AnnotationCollection<? extends Annotation> annotations, String fileName) throws IOException {
+		try(BufferedWriter writer = new BufferedWriter(new FileWriter(fileName), 1 << 16)) {
+			return extract(annotations, seq -> {
+				try {
+					FastaFileIOImpl.write(seq, writer, basesPerLine);
+				} catch(IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			});
+		} catch(UncheckedIOException e) {
+			throw e.getCause();
+		}
+	}
+
+	/**
+	 * Extract the sequences of all annotations and pass them to a consumer, on the calling thread, in sorted
+	 * order of the annotations. Annotations on references missing from the fasta file are skipped. Annotations
+	 * without a known strand, e.g. from BED records with strand '.', are extracted in the orientation of the reference.
+	 * @param annotations The annotations
+	 * @param consumer Receives each sequence, named after its annotation
+	 * @return Counts of extracted and skipped annotations
+	 */
+	public Summary extract(AnnotationCollection<? extends Annotation> annotations, Consumer<Sequence> consumer) {
+		Summary rtrn = new Summary();
+		Set<String> missingReferences = new HashSet<String>();
+		CloseableIterator<? extends Annotation> iter = annotations.sortedIterator();
+		try(OrderedExecutor<List<Sequence>, RuntimeException> executor = new OrderedExecutor<List<Sequence>, RuntimeException>(numThreads,
+				"extracting sequences", sequences -> {
+					for(Sequence seq : sequences) {
+						consumer.accept(seq);
+						rtrn.numExtracted++;
+					}
+				})) {
+			while(iter.hasNext()) {
+				List<Annotation> batch = new ArrayList<Annotation>(BATCH_SIZE);
+				while(batch.size() < BATCH_SIZE && iter.hasNext()) {
+					Annotation annot = iter.next();
+					if(reference.getIndex().getEntry(annot.getReferenceName()) == null) {
+						if(missingReferences.add(annot.getReferenceName())) {
+							logger.warn("Skipping annotations on " + annot.getReferenceName() + " because it is not in the reference");
+						}
+						rtrn.numSkipped++;
+					} else {
+						if(!annot.getOrientation().equals(Strand.POSITIVE) && !annot.getOrientation().equals(Strand.NEGATIVE)) {
+							rtrn.numUnstranded++;
+						}
+						batch.add(annot);
+					}
+				}
+				if(batch.isEmpty()) {
+					continue;
+				}
+				executor.submit(() -> extractBatch(batch));
+			}
+			executor.finish();
+		} finally {
+			iter.close();
+		}
+		if(rtrn.numSkipped > 0) {
+			logger.warn("Skipped " + rtrn.numSkipped + " annotations on unknown references");
+		}
+		if(rtrn.numUnstranded > 0) {
+			logger.warn("Extracted " + rtrn.numUnstranded + " annotations without a strand in the orientation of the reference");
+		}
+		logger.info(rtrn);
+		return rtrn;
+	}
+
+	private List<Sequence> extractBatch(List<Annotation> batch) {
+		List<Sequence> rtrn = new ArrayList<Sequence>(batch.size());
+		for(Annotation annot : batch) {
+			rtrn.add(reference.getSubsequence(annot, annot.getOrientation().equals(Strand.NEGATIVE)));
+		}
+		return rtrn;
+	}
+
+	/**
+	 * Counts of extracted and skipped annotations
+	 */
+	public static class Summary {
+
+		private long numExtracted;
+		private long numSkipped;
+		private long numUnstranded;
+
+		/**
+		 * @return Number of sequences extracted
+		 */
+		public long getNumExtracted() {
+			return numExtracted;
+		}
+
+		/**
+		 * @return Number of annotations skipped because their reference is not in the fasta file
+		 */
+		public long getNumSkipped() {
+			return numSkipped;
+		}
+
+		/**
+		 * @return Number of extracted annotations without a known strand, extracted in the orientation of the reference
+		 */
+		public long getNumUnstranded() {
+			return numUnstranded;
+		}
+
+		@Override
+		public String toString() {
+			return "Extracted " + numExtracted + " sequences, " + numUnstranded + " without a strand; skipped " + numSkipped + " annotations";
+		}
+	}
+
+}
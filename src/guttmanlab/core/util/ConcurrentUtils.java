@@ -0,0 +1,147 @@
+package guttmanlab.core.util;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Helpers for running tasks on a thread pool: checking thread counts, getting results with the exception the
+ * task threw, and processing batches in parallel while handling their results in order
+ *
+ */
+public final class ConcurrentUtils {
+
+	private ConcurrentUtils() {}
+
+	/**
+	 * @param numThreads A number of threads
+	 * @return The number of threads
+	 * @throws IllegalArgumentException If the number of threads is not positive
+	 */
+	public static int checkNumThreads(int numThreads) {
+		if(numThreads < 1) {
+			throw new IllegalArgumentException("Number of threads must be positive");
+		}
+		return numThreads;
+	}
+
+	/**
+	 * Wait for the result of a task. Runtime exceptions and errors thrown by the task are rethrown as they are,
+	 * IOExceptions as UncheckedIOExceptions and other exceptions as IllegalStateExceptions.
+	 * @param future The task
+	 * @param action What the task does, for the message if interrupted, e.g. "aligning"
+	 * @return The result of the task
+	 */
+	public static <T> T getResult(Future<T> future, String action) {
+		try {
+			return future.get();
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while " + action, e);
+		} catch(ExecutionException e) {
+			Throwable cause = e.getCause();
+			if(cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			if(cause instanceof Error) {
+				throw (Error) cause;
+			}
+			if(cause instanceof IOException) {
+				throw new UncheckedIOException((IOException) cause);
+			}
+			throw new IllegalStateException(cause);
+		}
+	}
+
+	/**
+	 * Wait for the result of a task that does I/O. As getResult, but IOExceptions thrown by the task are rethrown
+	 * as they are.
+	 * @param future The task
+	 * @param action What the task does, for the message if interrupted, e.g. "reading"
+	 * @return The result of the task
+	 * @throws IOException If the task threw an IOException
+	 */
+	public static <T> T getCheckedResult(Future<T> future, String action) throws IOException {
+		try {
+			return getResult(future, action);
+		} catch(UncheckedIOException e) {
+			throw e.getCause();
+		}
+	}
+
+	/**
+	 * Receives the results of an OrderedExecutor
+	 * @param <T> Type of the results
+	 * @param <E> Type of exception thrown when handling a result
+	 */
+	public interface ResultHandler<T, E extends Exception> {
+		void accept(T result) throws E;
+	}
+
+	/**
+	 * Runs tasks, e.g. batches of records read from a file, on a thread pool and passes their results to a handler
+	 * on the calling thread in the order the tasks were submitted. At most twice as many tasks as threads are
+	 * pending at a time; submitting another first handles the oldest result, so the caller can't run ahead of the
+	 * handler and only a bounded number of batches is in memory.
+	 * @param <T> Type of the results
+	 * @param <E> Type of exception thrown when handling a result
+	 */
+	public static class OrderedExecutor<T, E extends Exception> implements AutoCloseable {
+
+		private final ExecutorService executor;
+		private final int maxPending;
+		private final String action;
+		private final ResultHandler<? super T, E> handler;
+		// Tasks whose results have not been handled, in order of submission
+		private final Deque<Future<T>> pending = new ArrayDeque<Future<T>>();
+
+		/**
+		 * @param numThreads Number of threads running tasks
+		 * @param action What the tasks do, for the message if interrupted, e.g. "clipping reads"
+		 * @param handler Receives each result on the thread that submits the tasks
+		 */
+		public OrderedExecutor(int numThreads, String action, ResultHandler<? super T, E> handler) {
+			this.executor = Executors.newFixedThreadPool(checkNumThreads(numThreads));
+			this.maxPending = 2 * numThreads;
+			this.action = action;
+			this.handler = handler;
+		}
+
+		/**
+		 * Submit a task, first handling the oldest result if the maximum number of tasks are pending
+		 * @param task The task
+		 * @throws E If the handler throws
+		 */
+		public void submit(Callable<T> task) throws E {
+			if(pending.size() >= maxPending) {
+				handler.accept(getResult(pending.remove(), action));
+			}
+			pending.add(executor.submit(task));
+		}
+
+		/**
+		 * Wait for all pending tasks and handle their results
+		 * @throws E If the handler throws
+		 */
+		public void finish() throws E {
+			while(!pending.isEmpty()) {
+				handler.accept(getResult(pending.remove(), action));
+			}
+		}
+
+		/**
+		 * Stop the threads, interrupting any pending tasks
+		 */
+		@Override
+		public void close() {
+			executor.shutdownNow();
+		}
+	}
+
+}
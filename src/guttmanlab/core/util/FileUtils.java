@@ -0,0 +1,220 @@
+package guttmanlab.core.util;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Static methods for reading files
+ *
+ */
+public class FileUtils {
+	
+	private static final int BUFFER_SIZE = 1 << 16;
+	
+	/**
+	 * Open a file for reading, decompressing it if it is gzipped. Gzipped files are recognized by their
+	 * first two bytes rather than their name, and may consist of several gzip members (e.g. bgzip output).
+	 * @param file The file
+	 * @return A buffered stream of the (decompressed) contents
+	 * @throws IOException
+	 */
+	public static InputStream openInputStream(File file) throws IOException {
+		return openInputStream(file, false);
+	}
+	
+	/**
+	 * Open a file for reading, decompressing it if it is gzipped
+	 * @param file The file
+	 * @param inflateInBackground If the file is gzipped, decompress it in a separate thread while the caller consumes
+	 * the output, so that parsing and decompression run on two cores
+	 * @return A buffered stream of the (decompressed) contents
+	 * @throws IOException
+	 */
+	public static InputStream openInputStream(File file, boolean inflateInBackground) throws IOException {
+		InputStream in = new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE);
+		if(isGzipped(in)) {
+			InputStream inflated = new GZIPInputStream(in, BUFFER_SIZE);
+			if(inflateInBackground) {
+				return new ReadAheadInputStream(inflated, file.getName());
+			}
+			return new BufferedInputStream(inflated, BUFFER_SIZE);
+		}
+		return in;
+	}
+	
+	/**
+	 * @param file The file
+	 * @return Whether the file starts with the gzip magic number
+	 * @throws IOException
+	 */
+	public static boolean isGzipped(File file) throws IOException {
+		InputStream in = new BufferedInputStream(new FileInputStream(file));
+		try {
+			return isGzipped(in);
+		} finally {
+			in.close();
+		}
+	}
+	
+	private static boolean isGzipped(InputStream in) throws IOException {
+		in.mark(2);
+		int b1 = in.read();
+		int b2 = in.read();
+		in.reset();
+		return b1 == (GZIPInputStream.GZIP_MAGIC & 0xFF) && b2 == (GZIPInputStream.GZIP_MAGIC >>> 8);
+	}
+
+	/**
+	 * Reads another stream in a background thread, passing chunks to the consumer through a bounded queue. Anything
+	 * thrown by the source is rethrown to the consumer once the chunks read before it have been consumed.
+	 */
+	static class ReadAheadInputStream extends InputStream {
+		
+		private static final int NUM_CHUNKS = 4;
+		private static final byte[] END = new byte[0];
+		
+		private final InputStream source;
+		private final BlockingQueue<byte[]> chunks;
+		private final Thread reader;
+		private volatile Throwable error;
+		private volatile boolean closed;
+		private byte[] chunk;
+		private int chunkLength;
+		private int position;
+		
+		ReadAheadInputStream(InputStream source, String name) {
+			this.source = source;
+			this.chunks = new ArrayBlockingQueue<byte[]>(NUM_CHUNKS);
+			this.reader = new Thread(this::readChunks, "read-ahead-" + name);
+			reader.setDaemon(true);
+			reader.start();
+		}
+		
+		private void readChunks() {
+			try {
+				while(!closed) {
+					byte[] buffer = new byte[BUFFER_SIZE * 4];
+					int length = 0;
+					int numRead = 0;
+					while(length < buffer.length && (numRead = source.read(buffer, length, buffer.length - length)) != -1) {
+						length += numRead;
+					}
+					if(length > 0) {
+						chunks.put(length == buffer.length ? buffer : Arrays.copyOf(buffer, length));
+					}
+					if(numRead == -1) {
+						break;
+					}
+				}
+			} catch(InterruptedException e) {
+				// Closed by the consumer
+			} catch(Throwable t) {
+				error = t;
+			} finally {
+				// Once closed, nobody takes from the queue and close() is waiting for this thread
+				if(!closed) {
+					try {
+						chunks.put(END);
+					} catch(InterruptedException e) {
+						// Closed by the consumer
+					}
+				}
+			}
+		}
+		
+		private boolean nextChunk() throws IOException {
+			if(chunk != END) {
+				try {
+					chunk = chunks.take();
+				} catch(InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException();
+				}
+				chunkLength = chunk.length;
+				position = 0;
+			}
+			if(chunk == END) {
+				throwError();
+				return false;
+			}
+			return true;
+		}
+		
+		private void throwError() throws IOException {
+			Throwable t = error;
+			if(t == null) {
+				return;
+			}
+			if(t instanceof IOException) {
+				throw (IOException) t;
+			}
+			if(t instanceof RuntimeException) {
+				throw (RuntimeException) t;
+			}
+			if(t instanceof Error) {
+				throw (Error) t;
+			}
+			throw new IOException(t);
+		}
+		
+		@Override
+		public int read() throws IOException {
+			if(chunk == null || position == chunkLength) {
+				if(!nextChunk()) {
+					return -1;
+				}
+			}
+			return chunk[position++] & 0xFF;
+		}
+		
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if(len == 0) {
+				return 0;
+			}
+			if(chunk == null || position == chunkLength) {
+				if(!nextChunk()) {
+					return -1;
+				}
+			}
+			int rtrn = Math.min(len, chunkLength - position);
+			System.arraycopy(chunk, position, b, off, rtrn);
+			position += rtrn;
+			return rtrn;
+		}
+		
+		/**
+		 * Stop the background thread and wait for it to finish before closing the source, so that the source is
+		 * never closed in the middle of a read
+		 */
+		@Override
+		public void close() throws IOException {
+			if(closed) {
+				return;
+			}
+			closed = true;
+			reader.interrupt();
+			boolean interrupted = false;
+			while(reader.isAlive()) {
+				try {
+					reader.join();
+				} catch(InterruptedException e) {
+					interrupted = true;
+				}
+			}
+			if(interrupted) {
+				Thread.currentThread().interrupt();
+			}
+			source.close();
+		}
+	}
+
+}
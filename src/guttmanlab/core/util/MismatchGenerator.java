@@ -18,91 +18,60 @@ public final class MismatchGenerator {
 	private MismatchGenerator(){}
 	
 	/**
-	 * Get the chars in the alphabet except this one
-	 * @param c Any char. Throws exception if not in alphabet.
-	 * @return Chars in the alphabet not equal to this one
+	 * Get all possible versions of the sequence with this many mismatches, plus maybe some with fewer mismatches
+	 * To match many sequences against a fixed set of barcodes, use guttmanlab.core.pipeline.util.BarcodeTable instead
+	 * @param seq Sequence
+	 * @param mismatches Number of mismatches
+	 * @return A set containing all versions of the sequence with the requested number of mismatches, plus maybe some with fewer mismatches
 	 */
-	private static char[] otherChars(char c) {
-		char[] rtrn = new char[alphabet.length - 1];
-		boolean found = false;
-		int curr = 0;
-		int i = 0;
-		while(i < alphabet.length) {
-			if(c == alphabet[i]) {
-				found = true;
-				i++;
-				continue;
-			} else {
-				rtrn[curr] = alphabet[i];
-				curr++;
-				i++;
-			}
+	public static Collection<String> getRepresentatives(String seq, int mismatches) {
+		Collection<String> rtrn = new HashSet<String>();
+		if(mismatches == 0) {
+			rtrn.add(seq);
+			return rtrn;
 		}
-		if(!found) {
-			throw new IllegalArgumentException("Char " + c + " not in alphabet");
+		char[] charSeq = seq.toUpperCase().toCharArray();
+		for(char c : charSeq) {
+			if(indexOf(c) < 0) {
+				throw new IllegalArgumentException("Char " + c + " not in alphabet");
+			}
 		}
+		// Enumerate each set of mismatch positions once, in increasing order, instead of repeatedly mutating whole sets
+		addMismatches(charSeq, 0, mismatches, rtrn);
 		return rtrn;
 	}
-
+	
 	/**
-	 * Systematically replace each position with each other char in alphabet
-	 * @param seq Sequence
-	 * @return Set of sequences with hamming distance one from original sequence
+	 * Add the sequence and all versions with up to the given number of further mismatches after a position
+	 * @param charSeq Sequence, which is restored before returning
+	 * @param firstPosition First position that may be changed
+	 * @param mismatches Number of further mismatches
+	 * @param rtrn Set to add to
 	 */
-	private static Collection<String> introduceOneMismatch(String seq) {
-		char[] charSeq = seq.toUpperCase().toCharArray();
-		Collection<String> rtrn = new HashSet<String>();
-		for(int i = 0; i < charSeq.length; i++) {
+	private static void addMismatches(char[] charSeq, int firstPosition, int mismatches, Collection<String> rtrn) {
+		rtrn.add(new String(charSeq));
+		if(mismatches == 0) {
+			return;
+		}
+		for(int i = firstPosition; i < charSeq.length; i++) {
 			char realChar = charSeq[i];
-			char[] otherChars = otherChars(realChar);
-			for(int j = 0; j < otherChars.length; j++) {
-				charSeq[i] = otherChars[j];
-				rtrn.add(new String(charSeq));
+			for(char c : alphabet) {
+				if(c != realChar) {
+					charSeq[i] = c;
+					addMismatches(charSeq, i + 1, mismatches - 1, rtrn);
+				}
 			}
 			charSeq[i] = realChar;
 		}
-		return rtrn;
-	}
-
-	/**
-	 * Get a set containing all possible strings with hamming distance one from a string in the input set
-	 * No strings in return set will have hamming distance > 1 from any string in the input set
-	 * Some strings in return set may have hamming distance 0 from a string in input set
-	 * @param seqs Input strings
-	 * @return Set of all strings of hamming distance 1 from a string in input set, plus maybe some with hamming distance 0
-	 */
-	private static Collection<String> introduceAllPossibleSingleMismatches(Collection<String> seqs) {
-		Collection<String> rtrn = new HashSet<String>();
-		for(String seq : seqs) {
-			rtrn.addAll(introduceOneMismatch(seq));
-		}
-		return rtrn;
 	}
 	
-	/**
-	 * Get all possible versions of the sequence with this many mismatches, plus maybe some with fewer mismatches
-	 * @param seq Sequence
-	 * @param mismatches Number of mismatches
-	 * @return A set containing all versions of the sequence with the requested number of mismatches, plus maybe some with fewer mismatches
-	 */
-	public static Collection<String> getRepresentatives(String seq, int mismatches) {
-		if(mismatches == 0) {
-			Collection<String> rtrn = new HashSet<String>();
-			rtrn.add(seq);
-			return rtrn;
-		}
-		Collection<String> prev = new HashSet<String>();
-		prev.add(seq);
-		int mismatchesDone = 0;
-		while(true) {
-			Collection<String> mutated = introduceAllPossibleSingleMismatches(prev);
-			mismatchesDone++;
-			if(mismatchesDone == mismatches) {
-				return mutated;
+	private static int indexOf(char c) {
+		for(int i = 0; i < alphabet.length; i++) {
+			if(alphabet[i] == c) {
+				return i;
 			}
-			prev.clear();
-			prev.addAll(mutated);
 		}
+		return -1;
 	}
 	
 	/**
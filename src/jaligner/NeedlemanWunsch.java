@@ -18,6 +18,7 @@
 
 package jaligner;
 
+import jaligner.matrix.CompactMatrix;
 import jaligner.matrix.Matrix;
 
 /**
@@ -59,7 +60,11 @@ public final class NeedlemanWunsch {
      */
     public static Alignment align(Sequence s1, Sequence s2, Matrix matrix,
             float gap) {
-        float[][] scores = matrix.getScores();
+        char[] c1 = s1.toArray();
+        char[] c2 = s2.toArray();
+        CompactMatrix compact = new CompactMatrix(matrix.getScores(), c1, c2);
+        byte[] a1 = compact.encode(c1);
+        byte[] a2 = compact.encode(c2);
 
         int m = s1.length() + 1;
         int n = s2.length() + 1;
@@ -77,8 +82,8 @@ public final class NeedlemanWunsch {
             pointers[0][j] = Directions.LEFT;
         }
 
-        Cell cell = construct(s1, s2, scores, gap, pointers);
-        Alignment alignment = traceback(s1, s2, matrix, pointers, cell);
+        Cell cell = construct(a1, a2, compact, gap, pointers);
+        Alignment alignment = traceback(a1, a2, compact, pointers, cell);
 
         alignment.setOriginalSequence1(s1);
         alignment.setOriginalSequence2(s2);
@@ -99,12 +104,12 @@ public final class NeedlemanWunsch {
     /**
      * Constructs directions matrix for the traceback.
      * 
-     * @param s1
-     *            sequence #1
-     * @param s2
-     *            sequence #2
+     * @param a1
+     *            coded sequence #1
+     * @param a2
+     *            coded sequence #2
      * @param matrix
-     *            scoring matrix
+     *            scoring matrix of the codes
      * @param gap
      *            gap penalty
      * @param pointers
@@ -112,16 +117,16 @@ public final class NeedlemanWunsch {
      * 
      * @return The cell where the traceback starts.
      */
-    private static Cell construct(Sequence s1, Sequence s2, float[][] matrix,
+    private static Cell construct(byte[] a1, byte[] a2, CompactMatrix matrix,
             float gap, byte[][] pointers) {
 
         Cell cell = new Cell();
 
-        char[] a1 = s1.toArray();
-        char[] a2 = s2.toArray();
+        float[] scores = matrix.getScores();
+        int size = matrix.size();
 
-        int m = s1.length() + 1; // number of rows in similarity matrix
-        int n = s2.length() + 1; // number of columns in similarity matrix
+        int m = a1.length + 1; // number of rows in similarity matrix
+        int n = a2.length + 1; // number of columns in similarity matrix
 
         // float[] v = new float[n]; // optimal alignment
         float[] v = new float[n];
@@ -138,12 +143,13 @@ public final class NeedlemanWunsch {
         // Fill the matrices
         for (int i = 1; i < m; i++) { // for all rows
             v[0] = i * -gap;
+            int row = a1[i - 1] * size;
 
             for (int j = 1; j < n; j++) { // for all columns
 
                 x = v[j] - gap;
                 y = v[j - 1] - gap;
-                z = vOld + matrix[a1[i - 1]][a2[j - 1]];
+                z = vOld + scores[row + a2[j - 1]];
 
                 vOld = v[j];
                 v[j] = maximum(x, y, z);
@@ -175,12 +181,12 @@ public final class NeedlemanWunsch {
      * Returns the alignment of two sequences based on the passed array of
      * pointers
      * 
-     * @param s1
-     *            sequence #1
-     * @param s2
-     *            sequence #2
-     * @param m
-     *            scoring matrix
+     * @param array1
+     *            coded sequence #1
+     * @param array2
+     *            coded sequence #2
+     * @param scores
+     *            scoring matrix of the codes
      * @param pointers
      *            traceback matrix
      * @param cell
@@ -190,17 +196,14 @@ public final class NeedlemanWunsch {
      * @see Cell
      * @see Alignment
      */
-    private static Alignment traceback(Sequence s1, Sequence s2, Matrix m,
-            byte[][] pointers, Cell cell) {
-        char[] array1 = s1.toArray();
-        char[] array2 = s2.toArray();
-        float[][] scores = m.getScores();
+    private static Alignment traceback(byte[] array1, byte[] array2,
+            CompactMatrix scores, byte[][] pointers, Cell cell) {
 
         Alignment alignment = new Alignment();
         alignment.setScore(cell.getScore());
 
         // maximum length after the aligned sequences
-        int maxlen = s1.length() + s2.length();
+        int maxlen = array1.length + array2.length;
 
         char[] reversed1 = new char[maxlen]; // reversed sequence #1
         char[] reversed2 = new char[maxlen]; // reversed sequence #2
@@ -214,7 +217,7 @@ public final class NeedlemanWunsch {
         int similarity = 0; // count of similar pairs
         int gaps = 0; // count of gaps
 
-        char c1, c2;
+        byte c1, c2;
 
         int i = cell.getRow(); // traceback start row
         int j = cell.getCol(); // traceback start col
@@ -224,7 +227,7 @@ public final class NeedlemanWunsch {
         while (stillGoing) {
             switch (pointers[i][j]) {
             case Directions.UP:
-                reversed1[len1++] = array1[--i];
+                reversed1[len1++] = scores.decode(array1[--i]);
                 reversed2[len2++] = Alignment.GAP;
                 reversed3[len3++] = Markups.GAP;
                 gaps++;
@@ -232,13 +235,13 @@ public final class NeedlemanWunsch {
             case Directions.DIAGONAL:
                 c1 = array1[--i];
                 c2 = array2[--j];
-                reversed1[len1++] = c1;
-                reversed2[len2++] = c2;
+                reversed1[len1++] = scores.decode(c1);
+                reversed2[len2++] = scores.decode(c2);
                 if (c1 == c2) {
                     reversed3[len3++] = Markups.IDENTITY;
                     identity++;
                     similarity++;
-                } else if (scores[c1][c2] > 0) {
+                } else if (scores.getScore(c1, c2) > 0) {
                     reversed3[len3++] = Markups.SIMILARITY;
                     similarity++;
                 } else {
@@ -247,7 +250,7 @@ public final class NeedlemanWunsch {
                 break;
             case Directions.LEFT:
                 reversed1[len1++] = Alignment.GAP;
-                reversed2[len2++] = array2[--j];
+                reversed2[len2++] = scores.decode(array2[--j]);
                 reversed3[len3++] = Markups.GAP;
                 gaps++;
                 break;
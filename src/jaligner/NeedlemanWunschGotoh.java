@@ -17,6 +17,7 @@
  */
 package jaligner;
 
+import jaligner.matrix.CompactMatrix;
 import jaligner.matrix.Matrix;
 
 import java.util.logging.Logger;
@@ -66,8 +67,6 @@ public final class NeedlemanWunschGotoh {
     public static Alignment align(Sequence s1, Sequence s2, Matrix matrix,
             float o, float e) {
 
-        float[][] scores = matrix.getScores();
-
         Sequence _s1;
         Sequence _s2;
 
@@ -99,9 +98,15 @@ public final class NeedlemanWunschGotoh {
             lengths[j] = (short) j;
         }
 
-        Cell cell = construct(_s1, _s2, scores, o, e, pointers, lengths);
+        char[] c1 = _s1.toArray();
+        char[] c2 = _s2.toArray();
+        CompactMatrix compact = new CompactMatrix(matrix.getScores(), c1, c2);
+        byte[] a1 = compact.encode(c1);
+        byte[] a2 = compact.encode(c2);
+
+        Cell cell = construct(a1, a2, compact, o, e, pointers, lengths);
 
-        Alignment alignment = traceback(_s1, _s2, matrix, pointers, cell,
+        Alignment alignment = traceback(a1, a2, compact, pointers, cell,
                 lengths);
 
         alignment.setMatrix(matrix);
@@ -118,12 +123,12 @@ public final class NeedlemanWunschGotoh {
     /**
      * Constructs directions matrix for the traceback.
      * 
-     * @param s1
-     *            sequence #1
-     * @param s2
-     *            sequence #2
+     * @param a1
+     *            coded sequence #1
+     * @param a2
+     *            coded sequence #2
      * @param matrix
-     *            scoring matrix
+     *            scoring matrix of the codes
      * @param o
      *            open gap penalty
      * @param e
@@ -133,16 +138,16 @@ public final class NeedlemanWunschGotoh {
      * 
      * @return The cell where the traceback starts.
      */
-    private static Cell construct(Sequence s1, Sequence s2, float[][] matrix,
+    private static Cell construct(byte[] a1, byte[] a2, CompactMatrix matrix,
             float o, float e, byte[] pointers, short[] lengths) {
 
        // logger.info("Started...");
 
-        char[] a1 = s1.toArray();
-        char[] a2 = s2.toArray();
+        float[] scores = matrix.getScores();
+        int size = matrix.size();
 
-        int m = s1.length() + 1; // number of rows in similarity matrix
-        int n = s2.length() + 1; // number of columns in similarity matrix
+        int m = a1.length + 1; // number of rows in similarity matrix
+        int n = a2.length + 1; // number of columns in similarity matrix
 
         float[] v = new float[n];
         float vDiagonal = 0;// Float.NEGATIVE_INFINITY; // best score in cell
@@ -169,9 +174,10 @@ public final class NeedlemanWunschGotoh {
         // Fill the matrices
         for (int i = 1, k = n; i < m; i++, k += n) { // for all rows
             v[0] = -o - (i - 1) * e;
+            int row = a1[i - 1] * size;
             for (int j = 1, l = k + 1; j < n; j++, l++) { // for all columns
 
-                similarityScore = matrix[a1[i - 1]][a2[j - 1]];
+                similarityScore = scores[row + a2[j - 1]];
 
                 f = vDiagonal + similarityScore;// from diagonal
 
@@ -234,12 +240,12 @@ public final class NeedlemanWunschGotoh {
      * Returns the alignment of two sequences based on the passed array of
      * pointers
      * 
-     * @param s1
-     *            sequence #1
-     * @param s2
-     *            sequence #2
-     * @param m
-     *            scoring matrix
+     * @param array1
+     *            coded sequence #1
+     * @param array2
+     *            coded sequence #2
+     * @param scores
+     *            scoring matrix of the codes
      * @param pointers
      *            traceback matrix
      * @param cell
@@ -249,19 +255,15 @@ public final class NeedlemanWunschGotoh {
      * @see Cell
      * @see Alignment
      */
-    private static Alignment traceback(Sequence s1, Sequence s2, Matrix m,
-            byte[] pointers, Cell cell, short[] lengths) {
+    private static Alignment traceback(byte[] array1, byte[] array2,
+            CompactMatrix scores, byte[] pointers, Cell cell, short[] lengths) {
         //logger.info("Started...");
 
-        char[] array1 = s1.toArray();
-        char[] array2 = s2.toArray();
-        float[][] scores = m.getScores();
-
         Alignment alignment = new Alignment();
         alignment.setScore(cell.getScore());
 
         // maximum length after the aligned sequences
-        int maxlen = s1.length() + s2.length();
+        int maxlen = array1.length + array2.length;
 
         char[] reversed1 = new char[maxlen]; // reversed sequence #1
         char[] reversed2 = new char[maxlen]; // reversed sequence #2
@@ -275,18 +277,18 @@ public final class NeedlemanWunschGotoh {
         int similarity = 0; // count of similar pairs
         int gaps = 0; // count of gaps
 
-        char c1, c2;
+        byte c1, c2;
 
         int i = cell.getRow(); // traceback start row
         int j = cell.getCol(); // traceback start col
-        int n = s2.length() + 1;
+        int n = array2.length + 1;
         int row = i * n;
 
-        int a = s1.length() - 1;
-        int b = s2.length() - 1;
+        int a = array1.length - 1;
+        int b = array2.length - 1;
         if (a - i > b - j) {
             for (; a - i > b - j; a--) {
-                reversed1[len1++] = array1[a];
+                reversed1[len1++] = scores.decode(array1[a]);
                 reversed2[len2++] = Alignment.GAP;
                 reversed3[len3++] = Markups.GAP;
                 gaps++;
@@ -295,14 +297,14 @@ public final class NeedlemanWunschGotoh {
                 c1 = array1[a];
                 c2 = array2[b];
 
-                reversed1[len1++] = c1;
-                reversed2[len2++] = c2;
+                reversed1[len1++] = scores.decode(c1);
+                reversed2[len2++] = scores.decode(c2);
 
                 if (c1 == c2) {
                     reversed3[len3++] = Markups.IDENTITY;
                     identity++;
                     similarity++;
-                } else if (scores[c1][c2] > 0) {
+                } else if (scores.getScore(c1, c2) > 0) {
                     reversed3[len3++] = Markups.SIMILARITY;
                     similarity++;
                 } else {
@@ -312,7 +314,7 @@ public final class NeedlemanWunschGotoh {
         } else {
             for (; b - j > a - i; b--) {
                 reversed1[len1++] = Alignment.GAP;
-                reversed2[len2++] = array2[b];
+                reversed2[len2++] = scores.decode(array2[b]);
                 reversed3[len3++] = Markups.GAP;
                 gaps++;
             }
@@ -320,14 +322,14 @@ public final class NeedlemanWunschGotoh {
                 c1 = array1[a];
                 c2 = array2[b];
 
-                reversed1[len1++] = c1;
-                reversed2[len2++] = c2;
+                reversed1[len1++] = scores.decode(c1);
+                reversed2[len2++] = scores.decode(c2);
 
                 if (c1 == c2) {
                     reversed3[len3++] = Markups.IDENTITY;
                     identity++;
                     similarity++;
-                } else if (scores[c1][c2] > 0) {
+                } else if (scores.getScore(c1, c2) > 0) {
                     reversed3[len3++] = Markups.SIMILARITY;
                     similarity++;
                 } else {
@@ -343,7 +345,7 @@ public final class NeedlemanWunschGotoh {
             switch (pointers[l]) {
             case Directions.UP:
                 for (int k = 0, len = lengths[l]; k < len; k++) {
-                    reversed1[len1++] = array1[--i];
+                    reversed1[len1++] = scores.decode(array1[--i]);
                     reversed2[len2++] = Alignment.GAP;
                     reversed3[len3++] = Markups.GAP;
                     row -= n;
@@ -353,14 +355,14 @@ public final class NeedlemanWunschGotoh {
             case Directions.DIAGONAL:
                 c1 = array1[--i];
                 c2 = array2[--j];
-                reversed1[len1++] = c1;
-                reversed2[len2++] = c2;
+                reversed1[len1++] = scores.decode(c1);
+                reversed2[len2++] = scores.decode(c2);
                 row -= n;
                 if (c1 == c2) {
                     reversed3[len3++] = Markups.IDENTITY;
                     identity++;
                     similarity++;
-                } else if (scores[c1][c2] > 0) {
+                } else if (scores.getScore(c1, c2) > 0) {
                     reversed3[len3++] = Markups.SIMILARITY;
                     similarity++;
                 } else {
@@ -370,7 +372,7 @@ public final class NeedlemanWunschGotoh {
             case Directions.LEFT:
                 for (int k = 0, len = lengths[l]; k < len; k++) {
                     reversed1[len1++] = Alignment.GAP;
-                    reversed2[len2++] = array2[--j];
+                    reversed2[len2++] = scores.decode(array2[--j]);
                     reversed3[len3++] = Markups.GAP;
                     gaps++;
                 }
@@ -0,0 +1,298 @@
+/*
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+
+package jaligner;
+
+import java.util.Arrays;
+
+import jaligner.matrix.CompactMatrix;
+import jaligner.matrix.Matrix;
+
+/**
+ * Score-only Smith-Waterman alignment of one query against many targets in
+ * integer arithmetic. The scores of the query against each character are
+ * precomputed in a query profile, so the inner loop over the query reads one
+ * int array sequentially instead of looking up the two-dimensional float
+ * scoring matrix for every cell, and only one column of the dynamic
+ * programming matrix is kept.
+ *
+ * Integer scoring needs a scoring matrix and gap penalties of whole numbers.
+ * With other scoring schemes, or when the best possible score of an
+ * alignment could overflow an int, the alignment is scored with
+ * {@link SmithWatermanGotoh#score(Sequence, Sequence, Matrix, float, float)}.
+ * The score is always the same as that of
+ * {@link SmithWatermanGotoh#align(Sequence, Sequence, Matrix, float, float)};
+ * where several cells have the best score, the end reported may differ.
+ *
+ * Instances are safe for concurrent use by multiple threads. Each thread
+ * keeps its own columns of the dynamic programming matrix and reuses them for
+ * every target. The start and identity of an alignment, and the alignment
+ * itself, are computed separately and only over the characters between its
+ * start and end.
+ */
+
+public final class QueryProfileSmithWaterman {
+	/**
+	 * Largest gap penalty used in integer arithmetic. Larger penalties are
+	 * never worth paying either, so they are treated as this value.
+	 */
+	private static final int MAX_PENALTY = 1 << 28;
+
+	private final Sequence query;
+	private final char[] a1;
+	private final Matrix matrix;
+	private final float o;
+	private final float e;
+	private final boolean integral;
+	private final int open;
+	private final int extend;
+	private final int maxScore;
+	/**
+	 * Profile of the query for each character, built when first needed
+	 */
+	private final int[][] profiles = new int[Matrix.SIZE][];
+	/**
+	 * Columns of the dynamic programming matrix of each thread, reused for
+	 * every target
+	 */
+	private final ThreadLocal<int[][]> columns;
+
+	/**
+	 * @param query
+	 *            sequence #1 of each alignment
+	 * @param matrix
+	 *            scoring matrix
+	 * @param o
+	 *            open gap penalty
+	 * @param e
+	 *            extend gap penalty
+	 */
+	public QueryProfileSmithWaterman(Sequence query, Matrix matrix, float o,
+			float e) {
+		this.query = query;
+		this.a1 = query.toArray();
+		this.matrix = matrix;
+		this.o = o;
+		this.e = e;
+		float[][] scores = matrix.getScores();
+		boolean integers = o >= e && e >= 0 && isIntegral(o) && isIntegral(e);
+		int max = 0;
+		for (int i = 0; i < a1.length && integers; i++) {
+			for (int c = 0; c < Matrix.SIZE; c++) {
+				float score = scores[a1[i]][c];
+				integers &= isIntegral(score) && Math.abs(score) <= MAX_PENALTY;
+				max = Math.max(max, (int) score);
+			}
+		}
+		this.integral = integers;
+		this.open = integers ? (int) Math.min(o, MAX_PENALTY) : 0;
+		this.extend = integers ? (int) Math.min(e, MAX_PENALTY) : 0;
+		this.maxScore = max;
+		int m = a1.length;
+		this.columns = ThreadLocal.withInitial(() -> new int[2][m]);
+	}
+
+	private static boolean isIntegral(float x) {
+		return x == Math.rint(x) && !Float.isInfinite(x);
+	}
+
+	/**
+	 * @return Scores of each query position against a character
+	 */
+	private int[] profile(char c) {
+		int[] rtrn = profiles[c];
+		if (rtrn == null) {
+			float[][] scores = matrix.getScores();
+			rtrn = new int[a1.length];
+			for (int i = 0; i < a1.length; i++) {
+				rtrn[i] = (int) scores[a1[i]][c];
+			}
+			// Profiles are identical whichever thread builds them, so a race only wastes work
+			profiles[c] = rtrn;
+		}
+		return rtrn;
+	}
+
+	/**
+	 * Computes the score and end of the best local alignment of the query and
+	 * a target
+	 *
+	 * @param target
+	 *            sequence #2
+	 * @return The cell where the best alignment ends: the row and column are
+	 *         the numbers of characters of the query and the target up to and
+	 *         including the last aligned pair
+	 */
+	public Cell score(Sequence target) {
+		return score(target.toArray());
+	}
+
+	/**
+	 * Computes the score and end of the best local alignment of the query and
+	 * a target
+	 *
+	 * @param a2
+	 *            characters of sequence #2
+	 * @return The cell where the best alignment ends
+	 * @see #score(Sequence)
+	 */
+	public Cell score(char[] a2) {
+		if (!integral || a1.length == 0 || a2.length == 0
+				|| (long) maxScore * Math.min(a1.length, a2.length) > Integer.MAX_VALUE - MAX_PENALTY) {
+			CompactMatrix compact = compact(a2);
+			return SmithWatermanGotoh.score(compact.encode(a1),
+					compact.encode(a2), compact, o, e, 0,
+					Math.max(a1.length, a2.length));
+		}
+		// Scores and horizontal gap scores of the previous column
+		int[][] workspace = columns.get();
+		int[] h = workspace[0];
+		int[] gaps = workspace[1];
+		Arrays.fill(h, 0);
+		Arrays.fill(gaps, 0);
+		int best = 0;
+		int bestRow = 1;
+		int bestCol = 1;
+		for (int j = 0; j < a2.length; j++) {
+			int[] profile = profile(a2[j]);
+			int columnBest = column(profile, h, gaps, open, extend);
+			if (columnBest > best) {
+				best = columnBest;
+				bestCol = j + 1;
+				bestRow = 1;
+				while (h[bestRow - 1] != best) {
+					bestRow++;
+				}
+			}
+		}
+		Cell cell = new Cell();
+		cell.set(bestRow, bestCol, best);
+		return cell;
+	}
+
+	/**
+	 * Computes one column of the dynamic programming matrix in place
+	 *
+	 * @param profile
+	 *            scores of the query against the target character
+	 * @param h
+	 *            scores of the previous column, replaced by this column
+	 * @param gaps
+	 *            scores of the previous column of alignments ending with a
+	 *            gap in the query, replaced by this column
+	 * @return The best score of the column
+	 */
+	private static int column(int[] profile, int[] h, int[] gaps, int open,
+			int extend) {
+		int diagonal = 0;
+		int f = 0;
+		int columnBest = 0;
+		for (int i = 0; i < h.length; i++) {
+			int up = h[i];
+			int g = gaps[i];
+			int v = diagonal + profile[i];
+			v = v > g ? v : g;
+			v = v > f ? v : f;
+			v = v > 0 ? v : 0;
+			h[i] = v;
+			columnBest = columnBest > v ? columnBest : v;
+			int vOpen = v - open;
+			g -= extend;
+			gaps[i] = g > vOpen ? g : vOpen;
+			f -= extend;
+			f = f > vOpen ? f : vOpen;
+			diagonal = up;
+		}
+		return columnBest;
+	}
+
+	/**
+	 * Finds the start of the best local alignment of the query and a target
+	 * that ends at a cell
+	 *
+	 * @param a2
+	 *            characters of sequence #2
+	 * @param end
+	 *            the cell where the alignment ends, as returned by
+	 *            {@link #score(char[])}
+	 * @return The cell where the alignment starts: the row and column are the
+	 *         positions of the first aligned characters
+	 */
+	public Cell start(char[] a2, Cell end) {
+		if (end.getScore() <= 0) {
+			return end;
+		}
+		CompactMatrix compact = compact(a2);
+		return SmithWatermanGotoh.findStart(compact.encode(a1),
+				compact.encode(a2), compact, o, e, end);
+	}
+
+	/**
+	 * Counts the identical aligned pairs of the local alignment between two
+	 * cells, without building the alignment
+	 *
+	 * @param a2
+	 *            characters of sequence #2
+	 * @param start
+	 *            the cell where the alignment starts
+	 * @param end
+	 *            the cell where the alignment ends
+	 * @return The identity of the alignment
+	 *         {@link #align(Sequence, Cell, Cell)} returns
+	 */
+	public int identity(char[] a2, Cell start, Cell end) {
+		CompactMatrix compact = compact(a2);
+		return SmithWatermanGotoh.countIdentities(compact.encode(a1),
+				compact.encode(a2), compact, o, e, start, end);
+	}
+
+	/**
+	 * Builds the local alignment of the query and a target between two cells
+	 *
+	 * @param target
+	 *            sequence #2
+	 * @param start
+	 *            the cell where the alignment starts
+	 * @param end
+	 *            the cell where the alignment ends
+	 * @return alignment object contains the two aligned sequences, the
+	 *         alignment score and alignment statistics
+	 */
+	public Alignment align(Sequence target, Cell start, Cell end) {
+		char[] a2 = target.toArray();
+		CompactMatrix compact = compact(a2);
+		Alignment alignment = SmithWatermanGotoh.alignBetween(
+				compact.encode(a1), compact.encode(a2), compact, o, e, start,
+				end);
+		alignment.setScore(end.getScore());
+		SmithWatermanGotoh.setInputs(alignment, query, target, matrix, o, e);
+		return alignment;
+	}
+
+	/**
+	 * @return The scoring matrix of the characters of the query and a target
+	 */
+	private CompactMatrix compact(char[] a2) {
+		return new CompactMatrix(matrix.getScores(), a1, a2);
+	}
+
+	/**
+	 * @return The query
+	 */
+	public Sequence getQuery() {
+		return query;
+	}
+}
@@ -18,8 +18,10 @@
 
 package jaligner;
 
+import jaligner.matrix.CompactMatrix;
 import jaligner.matrix.Matrix;
 
+import java.util.Arrays;
 import java.util.logging.Logger;
 
 /**
@@ -85,7 +87,11 @@ public final class SmithWatermanGotoh {
 			float o, float e) {
 		//logger.info("Started...");
 		long start = System.currentTimeMillis();
-		float[][] scores = matrix.getScores();
+		char[] c1 = s1.toArray();
+		char[] c2 = s2.toArray();
+		CompactMatrix compact = new CompactMatrix(matrix.getScores(), c1, c2);
+		byte[] a1 = compact.encode(c1);
+		byte[] a2 = compact.encode(c2);
 
 		int m = s1.length() + 1;
 		int n = s2.length() + 1;
@@ -102,16 +108,24 @@ public final class SmithWatermanGotoh {
 
 		short[] sizesOfVerticalGaps = new short[m * n];
 		short[] sizesOfHorizontalGaps = new short[m * n];
-		for (int i = 0, k = 0; i < m; i++, k += n) {
-			for (int j = 0; j < n; j++) {
-				sizesOfVerticalGaps[k + j] = sizesOfHorizontalGaps[k + j] = 1;
-			}
-		}
+		Arrays.fill(sizesOfVerticalGaps, (short) 1);
+		Arrays.fill(sizesOfHorizontalGaps, (short) 1);
 
-		Cell cell = SmithWatermanGotoh.construct(s1, s2, scores, o, e,
+		Cell cell = SmithWatermanGotoh.construct(a1, a2, compact, o, e,
 				pointers, sizesOfVerticalGaps, sizesOfHorizontalGaps);
-		Alignment alignment = SmithWatermanGotoh.traceback(s1, s2, matrix,
+		Alignment alignment = SmithWatermanGotoh.traceback(a1, a2, compact,
 				pointers, cell, sizesOfVerticalGaps, sizesOfHorizontalGaps);
+		setInputs(alignment, s1, s2, matrix, o, e);
+		//logger.info("Finished in " + (System.currentTimeMillis() - start)
+		//		+ " milliseconds");
+		return alignment;
+	}
+
+	/**
+	 * Sets the sequences, scoring scheme and names of an alignment
+	 */
+	static void setInputs(Alignment alignment, Sequence s1,
+			Sequence s2, Matrix matrix, float o, float e) {
 		alignment.setOriginalSequence1(s1);
 		alignment.setOriginalSequence2(s2);
 		alignment.setMatrix(matrix);
@@ -123,13 +137,274 @@ public final class SmithWatermanGotoh {
 		if (s2.getId() != null) {
 			alignment.setName2(s2.getId());
 		}
-		//logger.info("Finished in " + (System.currentTimeMillis() - start)
-		//		+ " milliseconds");
+	}
+
+	/**
+	 * Computes the score and end of the best local alignment of two sequences
+	 * without a traceback, using memory linear in the length of sequence #2.
+	 * The end is the same cell the traceback of
+	 * {@link #align(Sequence, Sequence, Matrix, float, float)} starts from.
+	 * 
+	 * @param s1
+	 *            sequence #1
+	 * @param s2
+	 *            sequence #2
+	 * @param matrix
+	 *            scoring matrix
+	 * @param o
+	 *            open gap penalty
+	 * @param e
+	 *            extend gap penalty
+	 * @return The cell where the best alignment ends: the row and column are
+	 *         the numbers of characters of sequence #1 and sequence #2 up to
+	 *         and including the last aligned pair
+	 */
+	public static Cell score(Sequence s1, Sequence s2, Matrix matrix, float o,
+			float e) {
+		return score(s1, s2, matrix, o, e, 0, Math.max(s1.length(),
+				s2.length()));
+	}
+
+	/**
+	 * Computes the score and end of the best local alignment of two sequences
+	 * within a band of diagonals, using memory linear in the length of
+	 * sequence #2 and time proportional to the length of sequence #1 times
+	 * the width of the band. Only pairs (i, j) of positions with
+	 * <code>|j - i - diagonal| &lt;= bandWidth</code> can be aligned.
+	 * 
+	 * @param s1
+	 *            sequence #1
+	 * @param s2
+	 *            sequence #2
+	 * @param matrix
+	 *            scoring matrix
+	 * @param o
+	 *            open gap penalty
+	 * @param e
+	 *            extend gap penalty
+	 * @param diagonal
+	 *            offset of the center of the band, in positions of sequence
+	 *            #2 minus positions of sequence #1
+	 * @param bandWidth
+	 *            maximum distance from the center diagonal
+	 * @return The cell where the best alignment ends
+	 */
+	public static Cell score(Sequence s1, Sequence s2, Matrix matrix, float o,
+			float e, int diagonal, int bandWidth) {
+		if (bandWidth < 0) {
+			throw new IllegalArgumentException("Band width must be non-negative");
+		}
+		char[] c1 = s1.toArray();
+		char[] c2 = s2.toArray();
+		CompactMatrix compact = new CompactMatrix(matrix.getScores(), c1, c2);
+		return score(compact.encode(c1), compact.encode(c2), compact, o, e,
+				diagonal, bandWidth);
+	}
+
+	/**
+	 * Score-only local alignment over rows of the dynamic programming matrix,
+	 * with the same recurrence and tie breaking as
+	 * {@link #construct(byte[], byte[], CompactMatrix, float, float, byte[], short[], short[])}
+	 */
+	static Cell score(byte[] a1, byte[] a2, CompactMatrix matrix, float o,
+			float e, int diagonal, int bandWidth) {
+		float[] scores = matrix.getScores();
+		int size = matrix.size();
+		int m = a1.length + 1;
+		int n = a2.length + 1;
+
+		float[] g = new float[n];
+		float[] v = new float[n];
+		Arrays.fill(g, Float.NEGATIVE_INFINITY);
+
+		Cell cell = new Cell();
+		float best = Float.NEGATIVE_INFINITY;
+		int bestRow = 0, bestCol = 0;
+
+		for (int i = 1; i < m; i++) {
+			int lo = (int) Math.max(1, (long) i + diagonal - bandWidth);
+			int hi = (int) Math.min(n - 1, (long) i + diagonal + bandWidth);
+			if (lo > hi) {
+				continue;
+			}
+			float h = Float.NEGATIVE_INFINITY;
+			// v[lo - 1] is in the band of the previous row, or the boundary
+			float vDiagonal = v[lo - 1];
+			float vLeft = lo == 1 ? v[0] : Float.NEGATIVE_INFINITY;
+			int row = a1[i - 1] * size;
+			for (int j = lo; j <= hi; j++) {
+				float f = vDiagonal + scores[row + a2[j - 1]];
+				float g1 = g[j] - e;
+				float g2 = v[j] - o;
+				g[j] = g1 > g2 ? g1 : g2;
+				float h1 = h - e;
+				float h2 = vLeft - o;
+				h = h1 > h2 ? h1 : h2;
+				vDiagonal = v[j];
+				float score = maximum(f, g[j], h, 0);
+				v[j] = score;
+				vLeft = score;
+				if (score > best) {
+					best = score;
+					bestRow = i;
+					bestCol = j;
+				}
+			}
+		}
+		cell.set(bestRow, bestCol, best);
+		return cell;
+	}
+
+	/**
+	 * Finds the start of the best local alignment ending at a cell, by
+	 * aligning the reversed prefixes of the sequences that end there with the
+	 * alignment anchored at the end
+	 * 
+	 * @return The cell where the alignment starts: the row and column are the
+	 *         positions of the first aligned characters
+	 */
+	static Cell findStart(byte[] a1, byte[] a2, CompactMatrix matrix,
+			float o, float e, Cell end) {
+		float[] scores = matrix.getScores();
+		int size = matrix.size();
+		int m = end.getRow();
+		int n = end.getCol();
+		float[] g = new float[n + 1];
+		float[] v = new float[n + 1];
+		g[0] = Float.NEGATIVE_INFINITY;
+		for (int j = 1; j <= n; j++) {
+			v[j] = -o - (j - 1) * e;
+			g[j] = Float.NEGATIVE_INFINITY;
+		}
+		float best = 0;
+		int bestRow = 0, bestCol = 0;
+		for (int i = 1; i <= m; i++) {
+			int row = a1[m - i] * size;
+			float vDiagonal = v[0];
+			v[0] = -o - (i - 1) * e;
+			float h = Float.NEGATIVE_INFINITY;
+			for (int j = 1; j <= n; j++) {
+				float f = vDiagonal + scores[row + a2[n - j]];
+				float g1 = g[j] - e;
+				float g2 = v[j] - o;
+				g[j] = g1 > g2 ? g1 : g2;
+				float h1 = h - e;
+				float h2 = v[j - 1] - o;
+				h = h1 > h2 ? h1 : h2;
+				vDiagonal = v[j];
+				float score = f > g[j] ? f : g[j];
+				v[j] = score > h ? score : h;
+				if (v[j] > best) {
+					best = v[j];
+					bestRow = i;
+					bestCol = j;
+				}
+			}
+		}
+		Cell rtrn = new Cell();
+		rtrn.set(m - bestRow, n - bestCol, best);
+		return rtrn;
+	}
+
+	/**
+	 * Aligns two sequences by Smith-Waterman (local) using memory linear in
+	 * the lengths of the sequences. The end of the best alignment is found
+	 * with {@link #score(Sequence, Sequence, Matrix, float, float)}, its start
+	 * with a second score-only pass over the reversed prefixes, and the
+	 * alignment between them with the divide and conquer algorithm of
+	 * Hirschberg as extended to affine gap penalties by Myers and Miller.
+	 * The score and end are the same as those of
+	 * {@link #align(Sequence, Sequence, Matrix, float, float)}; where several
+	 * alignments have the best score, the one returned may differ.
+	 * 
+	 * @param s1
+	 *            sequence #1
+	 * @param s2
+	 *            sequence #2
+	 * @param matrix
+	 *            scoring matrix
+	 * @param o
+	 *            open gap penalty
+	 * @param e
+	 *            extend gap penalty
+	 * @return alignment object contains the two aligned sequences, the
+	 *         alignment score and alignment statistics
+	 */
+	public static Alignment alignLinearSpace(Sequence s1, Sequence s2,
+			Matrix matrix, float o, float e) {
+		char[] c1 = s1.toArray();
+		char[] c2 = s2.toArray();
+		CompactMatrix scores = new CompactMatrix(matrix.getScores(), c1, c2);
+		byte[] a1 = scores.encode(c1);
+		byte[] a2 = scores.encode(c2);
+		Cell end = score(a1, a2, scores, o, e, 0, Math.max(a1.length, a2.length));
+		Alignment alignment;
+		if (end.getScore() > 0) {
+			Cell start = findStart(a1, a2, scores, o, e, end);
+			alignment = alignBetween(a1, a2, scores, o, e, start, end);
+		} else {
+			// Nothing scores above zero: an empty alignment at the end cell
+			alignment = alignBetween(a1, a2, scores, o, e, end, end);
+		}
+		alignment.setScore(end.getScore());
+		setInputs(alignment, s1, s2, matrix, o, e);
 		return alignment;
 	}
 
 	/**
-	 * Constructs directions matrix for the traceback
+	 * Aligns the characters between the start and end of a local alignment in
+	 * linear space. The score and inputs of the alignment are not set.
+	 * 
+	 * @param start
+	 *            the cell where the alignment starts, as returned by
+	 *            {@link #findStart(byte[], byte[], CompactMatrix, float, float, Cell)}
+	 * @param end
+	 *            the cell where the alignment ends
+	 */
+	static Alignment alignBetween(byte[] a1, byte[] a2, CompactMatrix scores,
+			float o, float e, Cell start, Cell end) {
+		MyersMiller mm = new MyersMiller(a1, a2, scores, o, e, start, end);
+		return buildAlignment(a1, a2, scores, start.getRow(), start.getCol(),
+				mm.ops, mm.numOps, false);
+	}
+
+	/**
+	 * Counts the identical aligned pairs of the alignment
+	 * {@link #alignBetween(byte[], byte[], CompactMatrix, float, float, Cell, Cell)}
+	 * returns, without building it
+	 * 
+	 * @return The number of identical aligned pairs
+	 */
+	static int countIdentities(byte[] a1, byte[] a2, CompactMatrix scores,
+			float o, float e, Cell start, Cell end) {
+		MyersMiller mm = new MyersMiller(a1, a2, scores, o, e, start, end);
+		int identity = 0;
+		int i = start.getRow();
+		int j = start.getCol();
+		for (int k = 0; k < mm.numOps; k++) {
+			switch (mm.ops[k]) {
+			case Directions.DIAGONAL:
+				if (a1[i++] == a2[j++]) {
+					identity++;
+				}
+				break;
+			case Directions.UP:
+				i++;
+				break;
+			default:
+				j++;
+			}
+		}
+		return identity;
+	}
+
+	/**
+	 * Aligns two sequences by Smith-Waterman (local) within a band of
+	 * diagonals, with memory and time proportional to the length of sequence
+	 * #1 times the width of the band. Only pairs (i, j) of positions with
+	 * <code>|j - i - diagonal| &lt;= bandWidth</code> can be aligned, so the
+	 * result is the best alignment in the band, which is the best alignment
+	 * overall when that lies near the center diagonal.
 	 * 
 	 * @param s1
 	 *            sequence #1
@@ -141,19 +416,418 @@ public final class SmithWatermanGotoh {
 	 *            open gap penalty
 	 * @param e
 	 *            extend gap penalty
+	 * @param diagonal
+	 *            offset of the center of the band, in positions of sequence
+	 *            #2 minus positions of sequence #1
+	 * @param bandWidth
+	 *            maximum distance from the center diagonal
+	 * @return alignment object contains the two aligned sequences, the
+	 *         alignment score and alignment statistics
+	 */
+	public static Alignment alignBanded(Sequence s1, Sequence s2,
+			Matrix matrix, float o, float e, int diagonal, int bandWidth) {
+		if (bandWidth < 0) {
+			throw new IllegalArgumentException("Band width must be non-negative");
+		}
+		char[] c1 = s1.toArray();
+		char[] c2 = s2.toArray();
+		CompactMatrix compact = new CompactMatrix(matrix.getScores(), c1, c2);
+		byte[] a1 = compact.encode(c1);
+		byte[] a2 = compact.encode(c2);
+		float[] scores = compact.getScores();
+		int size = compact.size();
+
+		int m = a1.length + 1;
+		int n = a2.length + 1;
+		// A band wider than the sequences is the same as the whole matrix
+		int width = Math.min(bandWidth, m + n);
+		// Cell (i, j) is at i * w + j - i + offset, where j - i + offset is its place in the band of row i
+		int w = 2 * width + 1;
+		long offset = (long) width - diagonal;
+		if ((long) w * m > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Band is too large");
+		}
+		byte[] pointers = new byte[w * m];
+		short[] sizesOfVerticalGaps = new short[w * m];
+		short[] sizesOfHorizontalGaps = new short[w * m];
+		Arrays.fill(sizesOfVerticalGaps, (short) 1);
+		Arrays.fill(sizesOfHorizontalGaps, (short) 1);
+
+		float[] g = new float[n];
+		float[] v = new float[n];
+		Arrays.fill(g, Float.NEGATIVE_INFINITY);
+		Cell cell = new Cell();
+
+		for (int i = 1; i < m; i++) {
+			int lo = (int) Math.max(1, i - offset);
+			int hi = (int) Math.min(n - 1, i - offset + w - 1);
+			if (lo > hi) {
+				continue;
+			}
+			float h = Float.NEGATIVE_INFINITY;
+			float vDiagonal = v[lo - 1];
+			float vLeft = lo == 1 ? v[0] : Float.NEGATIVE_INFINITY;
+			int row = a1[i - 1] * size;
+			int k = (int) (i * w - i + offset);
+			for (int j = lo; j <= hi; j++) {
+				int l = k + j;
+				float f = vDiagonal + scores[row + a2[j - 1]];
+				float g1 = g[j] - e;
+				float g2 = v[j] - o;
+				if (g1 > g2) {
+					g[j] = g1;
+					// Cell (i - 1, j) is one further along the band of the previous row
+					sizesOfVerticalGaps[l] = (short) (sizesOfVerticalGaps[l - w + 1] + 1);
+				} else {
+					g[j] = g2;
+				}
+				float h1 = h - e;
+				float h2 = vLeft - o;
+				if (h1 > h2) {
+					h = h1;
+					sizesOfHorizontalGaps[l] = (short) (sizesOfHorizontalGaps[l - 1] + 1);
+				} else {
+					h = h2;
+				}
+				vDiagonal = v[j];
+				v[j] = maximum(f, g[j], h, 0);
+				vLeft = v[j];
+				if (v[j] == 0) {
+					pointers[l] = Directions.STOP;
+				} else if (v[j] == f) {
+					pointers[l] = Directions.DIAGONAL;
+				} else if (v[j] == g[j]) {
+					pointers[l] = Directions.UP;
+				} else {
+					pointers[l] = Directions.LEFT;
+				}
+				if (v[j] > cell.getScore()) {
+					cell.set(i, j, v[j]);
+				}
+			}
+		}
+
+		// Traceback into a list of operations, last first
+		byte[] ops = new byte[m + n];
+		int numOps = 0;
+		int i = cell.getRow();
+		int j = cell.getCol();
+		boolean stillGoing = true;
+		while (stillGoing) {
+			int l = (int) (i * w - i + offset + j);
+			byte pointer = i == 0 || j == 0 ? Directions.STOP : pointers[l];
+			switch (pointer) {
+			case Directions.UP:
+				for (int len = sizesOfVerticalGaps[l]; len > 0; len--) {
+					ops[numOps++] = Directions.UP;
+					i--;
+				}
+				break;
+			case Directions.DIAGONAL:
+				ops[numOps++] = Directions.DIAGONAL;
+				i--;
+				j--;
+				break;
+			case Directions.LEFT:
+				for (int len = sizesOfHorizontalGaps[l]; len > 0; len--) {
+					ops[numOps++] = Directions.LEFT;
+					j--;
+				}
+				break;
+			default:
+				stillGoing = false;
+			}
+		}
+		Alignment alignment = buildAlignment(a1, a2, compact, i, j, ops, numOps, true);
+		alignment.setScore(cell.getScore());
+		setInputs(alignment, s1, s2, matrix, o, e);
+		return alignment;
+	}
+
+	/**
+	 * Builds an alignment from a list of operations
+	 * 
+	 * @param start1
+	 *            position of sequence #1 where the alignment starts
+	 * @param start2
+	 *            position of sequence #2 where the alignment starts
+	 * @param ops
+	 *            {@link Directions#DIAGONAL} for aligned characters,
+	 *            {@link Directions#UP} for a character of sequence #1 aligned
+	 *            to a gap and {@link Directions#LEFT} for a character of
+	 *            sequence #2 aligned to a gap
+	 * @param reversed
+	 *            whether the operations are in reverse order
+	 * @return alignment without the score and inputs
+	 */
+	private static Alignment buildAlignment(byte[] a1, byte[] a2,
+			CompactMatrix scores, int start1, int start2, byte[] ops, int numOps,
+			boolean reversed) {
+		char[] aligned1 = new char[numOps];
+		char[] aligned2 = new char[numOps];
+		char[] markup = new char[numOps];
+		int identity = 0;
+		int similarity = 0;
+		int gaps = 0;
+		int i = start1;
+		int j = start2;
+		for (int k = 0; k < numOps; k++) {
+			switch (ops[reversed ? numOps - 1 - k : k]) {
+			case Directions.DIAGONAL:
+				byte c1 = a1[i++];
+				byte c2 = a2[j++];
+				aligned1[k] = scores.decode(c1);
+				aligned2[k] = scores.decode(c2);
+				if (c1 == c2) {
+					markup[k] = Markups.IDENTITY;
+					identity++;
+					similarity++;
+				} else if (scores.getScore(c1, c2) > 0) {
+					markup[k] = Markups.SIMILARITY;
+					similarity++;
+				} else {
+					markup[k] = Markups.MISMATCH;
+				}
+				break;
+			case Directions.UP:
+				aligned1[k] = scores.decode(a1[i++]);
+				aligned2[k] = Alignment.GAP;
+				markup[k] = Markups.GAP;
+				gaps++;
+				break;
+			default:
+				aligned1[k] = Alignment.GAP;
+				aligned2[k] = scores.decode(a2[j++]);
+				markup[k] = Markups.GAP;
+				gaps++;
+			}
+		}
+		Alignment alignment = new Alignment();
+		alignment.setSequence1(aligned1);
+		alignment.setStart1(start1);
+		alignment.setSequence2(aligned2);
+		alignment.setStart2(start2);
+		alignment.setMarkupLine(markup);
+		alignment.setIdentity(identity);
+		alignment.setGaps(gaps);
+		alignment.setSimilarity(similarity);
+		return alignment;
+	}
+
+	/**
+	 * Global alignment with affine gap penalties in linear space, by the
+	 * algorithm of Myers and Miller (Optimal alignments in linear space,
+	 * CABIOS 4:11-17, 1988). Works with costs, the negatives of scores, and
+	 * gap costs of the form g + h * length.
+	 */
+	private static final class MyersMiller {
+		private final byte[] a1;
+		private final byte[] a2;
+		private final float[] scores;
+		private final int size;
+		private final float g;
+		private final float h;
+		private final float[] cc;
+		private final float[] dd;
+		private final float[] rr;
+		private final float[] ss;
+		final byte[] ops;
+		int numOps;
+
+		/**
+		 * Aligns the characters of the sequences between two cells
+		 */
+		MyersMiller(byte[] a1, byte[] a2, CompactMatrix matrix, float o, float e,
+				Cell start, Cell end) {
+			int m = end.getRow() - start.getRow();
+			int n = end.getCol() - start.getCol();
+			this.a1 = a1;
+			this.a2 = a2;
+			this.scores = matrix.getScores();
+			this.size = matrix.size();
+			this.g = o - e;
+			this.h = e;
+			this.cc = new float[n + 1];
+			this.dd = new float[n + 1];
+			this.rr = new float[n + 1];
+			this.ss = new float[n + 1];
+			this.ops = new byte[m + n];
+			align(start.getRow(), end.getRow(), start.getCol(), end.getCol());
+		}
+
+		private float gap(int length) {
+			return length <= 0 ? 0 : g + h * length;
+		}
+
+		private float cost(int i, int j) {
+			return -scores[a1[i] * size + a2[j]];
+		}
+
+		private void add(byte op, int count) {
+			for (int k = 0; k < count; k++) {
+				ops[numOps++] = op;
+			}
+		}
+
+		/**
+		 * Aligns a1[i1..i2) to a2[j1..j2) globally
+		 */
+		void align(int i1, int i2, int j1, int j2) {
+			align(i1, i2, j1, j2, g, g);
+		}
+
+		/**
+		 * @param tb
+		 *            cost of opening a gap in sequence #2 at the start, 0 if
+		 *            it continues a gap before the start
+		 * @param te
+		 *            cost of opening a gap in sequence #2 at the end, 0 if it
+		 *            continues a gap after the end
+		 */
+		private void align(int i1, int i2, int j1, int j2, float tb, float te) {
+			int m = i2 - i1;
+			int n = j2 - j1;
+			if (n <= 0) {
+				add(Directions.UP, m);
+				return;
+			}
+			if (m == 0) {
+				add(Directions.LEFT, n);
+				return;
+			}
+			if (m == 1) {
+				// Either the character of sequence #1 is aligned to a gap, or to one of sequence #2
+				float best = Math.min(tb, te) + h + gap(n);
+				int bestJ = -1;
+				for (int j = 0; j < n; j++) {
+					float c = gap(j) + cost(i1, j1 + j) + gap(n - j - 1);
+					if (c < best) {
+						best = c;
+						bestJ = j;
+					}
+				}
+				if (bestJ < 0) {
+					add(Directions.LEFT, n);
+					add(Directions.UP, 1);
+				} else {
+					add(Directions.LEFT, bestJ);
+					add(Directions.DIAGONAL, 1);
+					add(Directions.LEFT, n - bestJ - 1);
+				}
+				return;
+			}
+			int mid = i1 + m / 2;
+
+			// Costs of aligning a1[i1..mid) to a2[j1..j1+j), ending anyhow (cc) or with a gap in sequence #2 (dd)
+			cc[0] = 0;
+			float t = g;
+			for (int j = 1; j <= n; j++) {
+				t += h;
+				cc[j] = t;
+				dd[j] = t + g;
+			}
+			t = tb;
+			for (int i = i1; i < mid; i++) {
+				float s = cc[0];
+				t += h;
+				float c = t;
+				cc[0] = c;
+				float ins = t + g;
+				for (int j = 1; j <= n; j++) {
+					ins = Math.min(ins, c + g) + h;
+					float del = Math.min(dd[j], cc[j] + g) + h;
+					c = Math.min(Math.min(del, ins), s + cost(i, j1 + j - 1));
+					s = cc[j];
+					cc[j] = c;
+					dd[j] = del;
+				}
+			}
+			dd[0] = cc[0];
+
+			// Costs of aligning a1[mid..i2) to a2[j1+j..j2)
+			rr[n] = 0;
+			t = g;
+			for (int j = n - 1; j >= 0; j--) {
+				t += h;
+				rr[j] = t;
+				ss[j] = t + g;
+			}
+			t = te;
+			for (int i = i2 - 1; i >= mid; i--) {
+				float s = rr[n];
+				t += h;
+				float c = t;
+				rr[n] = c;
+				float ins = t + g;
+				for (int j = n - 1; j >= 0; j--) {
+					ins = Math.min(ins, c + g) + h;
+					float del = Math.min(ss[j], rr[j] + g) + h;
+					c = Math.min(Math.min(del, ins), s + cost(i, j1 + j));
+					s = rr[j];
+					rr[j] = c;
+					ss[j] = del;
+				}
+			}
+			ss[n] = rr[n];
+
+			// Where the optimal path crosses the middle row, and whether it does so in a gap
+			float best = cc[0] + rr[0];
+			int bestJ = 0;
+			boolean inGap = false;
+			for (int j = 0; j <= n; j++) {
+				float c = cc[j] + rr[j];
+				if (c < best) {
+					best = c;
+					bestJ = j;
+					inGap = false;
+				}
+			}
+			for (int j = n; j >= 0; j--) {
+				float c = dd[j] + ss[j] - g;
+				if (c < best) {
+					best = c;
+					bestJ = j;
+					inGap = true;
+				}
+			}
+
+			if (inGap) {
+				align(i1, mid - 1, j1, j1 + bestJ, tb, 0);
+				add(Directions.UP, 2);
+				align(mid + 1, i2, j1 + bestJ, j2, 0, te);
+			} else {
+				align(i1, mid, j1, j1 + bestJ, tb, g);
+				align(mid, i2, j1 + bestJ, j2, g, te);
+			}
+		}
+	}
+
+	/**
+	 * Constructs directions matrix for the traceback
+	 * 
+	 * @param a1
+	 *            coded sequence #1
+	 * @param a2
+	 *            coded sequence #2
+	 * @param matrix
+	 *            scoring matrix of the codes
+	 * @param o
+	 *            open gap penalty
+	 * @param e
+	 *            extend gap penalty
 	 * @return The cell where the traceback starts.
 	 */
-	private static Cell construct(Sequence s1, Sequence s2, float[][] matrix,
+	private static Cell construct(byte[] a1, byte[] a2, CompactMatrix matrix,
 			float o, float e, byte[] pointers, short[] sizesOfVerticalGaps,
 			short[] sizesOfHorizontalGaps) {
 		//logger.info("Started...");
 		long start = System.currentTimeMillis();
 
-		char[] a1 = s1.toArray();
-		char[] a2 = s2.toArray();
+		float[] scores = matrix.getScores();
+		int size = matrix.size();
 
-		int m = s1.length() + 1;
-		int n = s2.length() + 1;
+		int m = a1.length + 1;
+		int n = a2.length + 1;
 
 		float f; // score of alignment x1...xi to y1...yi if xi aligns to yi
 		float[] g = new float[n]; // score if xi aligns to a gap after yi
@@ -178,8 +852,9 @@ public final class SmithWatermanGotoh {
 		for (int i = 1, k = n; i < m; i++, k += n) {
 			h = Float.NEGATIVE_INFINITY;
 			vDiagonal = v[0];
+			int row = a1[i - 1] * size;
 			for (int j = 1, l = k + 1; j < n; j++, l++) {
-				similarityScore = matrix[a1[i - 1]][a2[j - 1]];
+				similarityScore = scores[row + a2[j - 1]];
 
 				// Fill the matrices
 				f = vDiagonal + similarityScore;
@@ -231,12 +906,12 @@ public final class SmithWatermanGotoh {
 	 * Returns the alignment of two sequences based on the passed array of
 	 * pointers
 	 * 
-	 * @param s1
-	 *            sequence #1
-	 * @param s2
-	 *            sequence #2
-	 * @param m
-	 *            scoring matrix
+	 * @param a1
+	 *            coded sequence #1
+	 * @param a2
+	 *            coded sequence #2
+	 * @param scores
+	 *            scoring matrix of the codes
 	 * @param cell
 	 *            The cell where the traceback starts.
 	 * @return {@link Alignment}with the two aligned sequences and alignment
@@ -244,23 +919,18 @@ public final class SmithWatermanGotoh {
 	 * @see Cell
 	 * @see Alignment
 	 */
-	private static Alignment traceback(Sequence s1, Sequence s2, Matrix m,
-			byte[] pointers, Cell cell, short[] sizesOfVerticalGaps,
-			short[] sizesOfHorizontalGaps) {
+	private static Alignment traceback(byte[] a1, byte[] a2,
+			CompactMatrix scores, byte[] pointers, Cell cell,
+			short[] sizesOfVerticalGaps, short[] sizesOfHorizontalGaps) {
 		//logger.info("Started...");
 		long start = System.currentTimeMillis();
 
-		char[] a1 = s1.toArray();
-		char[] a2 = s2.toArray();
-
-		float[][] scores = m.getScores();
-
-		int n = s2.length() + 1;
+		int n = a2.length + 1;
 
 		Alignment alignment = new Alignment();
 		alignment.setScore(cell.getScore());
 
-		int maxlen = s1.length() + s2.length(); // maximum length after the
+		int maxlen = a1.length + a2.length; // maximum length after the
 		// aligned sequences
 
 		char[] reversed1 = new char[maxlen]; // reversed sequence #1
@@ -275,7 +945,7 @@ public final class SmithWatermanGotoh {
 		int similarity = 0; // count of similar pairs
 		int gaps = 0; // count of gaps
 
-		char c1, c2;
+		byte c1, c2;
 
 		int i = cell.getRow(); // traceback start row
 		int j = cell.getCol(); // traceback start col
@@ -288,7 +958,7 @@ public final class SmithWatermanGotoh {
 			switch (pointers[k + j]) {
 			case Directions.UP:
 				for (int l = 0, len = sizesOfVerticalGaps[k + j]; l < len; l++) {
-					reversed1[len1++] = a1[--i];
+					reversed1[len1++] = scores.decode(a1[--i]);
 					reversed2[len2++] = Alignment.GAP;
 					reversed3[len3++] = Markups.GAP;
 					k -= n;
@@ -299,13 +969,13 @@ public final class SmithWatermanGotoh {
 				c1 = a1[--i];
 				c2 = a2[--j];
 				k -= n;
-				reversed1[len1++] = c1;
-				reversed2[len2++] = c2;
+				reversed1[len1++] = scores.decode(c1);
+				reversed2[len2++] = scores.decode(c2);
 				if (c1 == c2) {
 					reversed3[len3++] = Markups.IDENTITY;
 					identity++;
 					similarity++;
-				} else if (scores[c1][c2] > 0) {
+				} else if (scores.getScore(c1, c2) > 0) {
 					reversed3[len3++] = Markups.SIMILARITY;
 					similarity++;
 				} else {
@@ -315,7 +985,7 @@ public final class SmithWatermanGotoh {
 			case Directions.LEFT:
 				for (int l = 0, len = sizesOfHorizontalGaps[k + j]; l < len; l++) {
 					reversed1[len1++] = Alignment.GAP;
-					reversed2[len2++] = a2[--j];
+					reversed2[len2++] = scores.decode(a2[--j]);
 					reversed3[len3++] = Markups.GAP;
 					gaps++;
 				}
@@ -0,0 +1,137 @@
+/*
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+
+package jaligner.matrix;
+
+import java.util.Arrays;
+
+/**
+ * A scoring matrix restricted to the characters of a set of sequences. Each
+ * character is coded as a byte, from 0 to the number of distinct characters
+ * minus one, and the scores are kept in one flat array indexed by
+ * <code>code1 * size() + code2</code>. Dynamic programming over the coded
+ * sequences reads bytes instead of chars, and a table of a few dozen scores
+ * for nucleotides instead of rows of the {@link Matrix#SIZE} x
+ * {@link Matrix#SIZE} matrix.
+ */
+
+public final class CompactMatrix {
+	/**
+	 * Code of each character, -1 for characters not in the sequences
+	 */
+	private final byte[] codes = new byte[Matrix.SIZE];
+
+	/**
+	 * Character of each code
+	 */
+	private final char[] characters;
+
+	/**
+	 * Number of characters
+	 */
+	private final int size;
+
+	/**
+	 * Scores of each pair of codes
+	 */
+	private final float[] scores;
+
+	/**
+	 * @param matrix
+	 *            scores of the scoring matrix
+	 * @param sequences
+	 *            sequences whose characters are coded
+	 */
+	public CompactMatrix(float[][] matrix, char[]... sequences) {
+		Arrays.fill(codes, (byte) -1);
+		char[] chars = new char[Matrix.SIZE];
+		int n = 0;
+		for (char[] sequence : sequences) {
+			for (char c : sequence) {
+				if (c >= Matrix.SIZE) {
+					throw new IllegalArgumentException("Character " + c
+							+ " is not in the scoring matrix");
+				}
+				if (codes[c] < 0) {
+					codes[c] = (byte) n;
+					chars[n++] = c;
+				}
+			}
+		}
+		this.size = n;
+		this.characters = Arrays.copyOf(chars, n);
+		this.scores = new float[n * n];
+		for (int a = 0; a < n; a++) {
+			for (int b = 0; b < n; b++) {
+				scores[a * n + b] = matrix[characters[a]][characters[b]];
+			}
+		}
+	}
+
+	/**
+	 * @param sequence
+	 *            characters of one of the sequences the matrix was built for
+	 * @return The code of each character
+	 */
+	public byte[] encode(char[] sequence) {
+		byte[] rtrn = new byte[sequence.length];
+		for (int i = 0; i < sequence.length; i++) {
+			char c = sequence[i];
+			if (c >= Matrix.SIZE || codes[c] < 0) {
+				throw new IllegalArgumentException("Character " + c
+						+ " is not coded");
+			}
+			rtrn[i] = codes[c];
+		}
+		return rtrn;
+	}
+
+	/**
+	 * @param code
+	 *            code of a character
+	 * @return The character
+	 */
+	public char decode(byte code) {
+		return characters[code];
+	}
+
+	/**
+	 * @return The number of coded characters, the stride of the rows of
+	 *         {@link #getScores()}
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return The scores of each pair of codes, with the score of code1 and
+	 *         code2 at <code>code1 * size() + code2</code>
+	 */
+	public float[] getScores() {
+		return scores;
+	}
+
+	/**
+	 * @param a
+	 *            code #1
+	 * @param b
+	 *            code #2
+	 * @return score
+	 */
+	public float getScore(byte a, byte b) {
+		return scores[a * size + b];
+	}
+}
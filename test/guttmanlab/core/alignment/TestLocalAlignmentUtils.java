@@ -1,12 +1,38 @@
 package guttmanlab.core.alignment;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
 import org.junit.Test;
 
 public class TestLocalAlignmentUtils {
 	
 	@Test
-	public void dummyTest() {
-		System.err.println("No tests in " + TestLocalAlignmentUtils.class.getSimpleName());
+	public void testHammingDist() {
+		assertEquals(0, LocalAlignmentUtils.hammingDist("ACGT", "ACGT", false));
+		assertEquals(2, LocalAlignmentUtils.hammingDist("ACGT", "acGT", false));
+		assertEquals(0, LocalAlignmentUtils.hammingDist("ACGT", "acGT", true));
+		assertEquals(1, LocalAlignmentUtils.hammingDist("ACGT", "acGA", true));
+	}
+	
+	@Test
+	public void testFullLengthUngappedMatchAtPosition() {
+		assertTrue(LocalAlignmentUtils.containsFullLengthUngappedMatchAtPosition("TTACGTAA", "ACGT", 2, 0, false));
+		assertFalse(LocalAlignmentUtils.containsFullLengthUngappedMatchAtPosition("TTACGTAA", "ACGT", 1, 0, false));
+		assertTrue(LocalAlignmentUtils.containsFullLengthUngappedMatchAtPosition("TTACGAAA", "ACGT", 2, 1, false));
+		assertTrue(LocalAlignmentUtils.containsFullLengthUngappedMatchAtPosition("TTacgtAA", "ACGT", 2, 0, true));
+		assertTrue(LocalAlignmentUtils.containsFullLengthUngappedMatchAtPosition("TTTTACGT", "ACGT", 4, 0, false));
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testMatchPastEnd() {
+		LocalAlignmentUtils.containsFullLengthUngappedMatchAtPosition("TTTTACG", "ACGT", 4, 4, false);
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testDifferentLengths() {
+		LocalAlignmentUtils.hammingDist("ACGT", "ACG", true);
 	}
 
 }
@@ -0,0 +1,143 @@
+package guttmanlab.core.alignment;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import guttmanlab.core.pipeline.util.AdapterClipper;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class TestPatternMatcher {
+	
+	private static String randomSequence(Random random, int length, String alphabet) {
+		StringBuilder rtrn = new StringBuilder();
+		for(int i = 0; i < length; i++) {
+			rtrn.append(alphabet.charAt(random.nextInt(alphabet.length())));
+		}
+		return rtrn.toString();
+	}
+	
+	/**
+	 * Smallest edit distance between a pattern and any substring of the text by dynamic programming
+	 */
+	private static int editDistance(String pattern, String text) {
+		int m = pattern.length();
+		int[] prev = new int[m + 1];
+		int[] cur = new int[m + 1];
+		for(int i = 0; i <= m; i++) {
+			prev[i] = i;
+		}
+		int rtrn = m;
+		for(int j = 0; j < text.length(); j++) {
+			cur[0] = 0;
+			for(int i = 1; i <= m; i++) {
+				char c = Character.toUpperCase(text.charAt(j));
+				int substitution = prev[i - 1] + (pattern.charAt(i - 1) == c ? 0 : 1);
+				cur[i] = Math.min(substitution, Math.min(prev[i], cur[i - 1]) + 1);
+			}
+			rtrn = Math.min(rtrn, cur[m]);
+			int[] tmp = prev;
+			prev = cur;
+			cur = tmp;
+		}
+		return rtrn;
+	}
+	
+	@Test
+	public void testFind() {
+		PatternMatcher matcher = new PatternMatcher("AGATCGGAAG");
+		byte[] read = "CCCCTTTTagatcggaagCCCC".getBytes(StandardCharsets.US_ASCII);
+		assertEquals(8, matcher.find(read, 0, read.length, 3, 0));
+		read = "CCCCTTTTCCAGAT".getBytes(StandardCharsets.US_ASCII);
+		assertEquals(10, matcher.find(read, 0, read.length, 3, 0));
+		assertEquals(14, matcher.find(read, 0, 14, 5, 0));
+		// An N is a mismatch
+		read = "CCCCAGATCNGAAGCCCC".getBytes(StandardCharsets.US_ASCII);
+		assertEquals(4, matcher.find(read, 0, read.length, 3, 0.1));
+		assertEquals(18, matcher.find(read, 0, read.length, 3, 0));
+	}
+	
+	@Test
+	public void testFindSameAsAdapterClipper() {
+		Random random = new Random(1);
+		for(int n = 0; n < 5000; n++) {
+			String pattern = randomSequence(random, 1 + random.nextInt(PatternMatcher.MAX_LENGTH), "ACGT");
+			String read = randomSequence(random, random.nextInt(150), "ACGTNacgt");
+			if(random.nextBoolean()) {
+				int position = random.nextInt(read.length() + 1);
+				read = read.substring(0, position) + pattern.substring(0, 1 + random.nextInt(pattern.length())) + read.substring(position);
+			}
+			byte[] bases = ("xx" + read).getBytes(StandardCharsets.US_ASCII);
+			int minOverlap = 1 + random.nextInt(5);
+			double maxMismatchRate = random.nextInt(3) / 10.0;
+			int expected = AdapterClipper.findAdapter(bases, 2, read.length(), pattern.getBytes(StandardCharsets.US_ASCII), minOverlap, maxMismatchRate);
+			assertEquals(pattern + " " + read, expected, new PatternMatcher(pattern).find(bases, 2, read.length(), minOverlap, maxMismatchRate));
+		}
+	}
+	
+	@Test
+	public void testFindBestOffset() {
+		Random random = new Random(2);
+		for(int n = 0; n < 2000; n++) {
+			String pattern = randomSequence(random, 1 + random.nextInt(PatternMatcher.MAX_LENGTH), "ACGT");
+			String text = randomSequence(random, random.nextInt(150), "ACGTN");
+			PatternMatcher matcher = new PatternMatcher(pattern);
+			int expected = -1;
+			int best = Integer.MAX_VALUE;
+			for(int offset = 0; offset + pattern.length() <= text.length(); offset++) {
+				int mismatches = LocalAlignmentUtils.hammingDist(pattern, text.substring(offset, offset + pattern.length()), false);
+				assertEquals(mismatches, matcher.mismatches(text, offset));
+				if(mismatches < best) {
+					best = mismatches;
+					expected = offset;
+				}
+			}
+			assertEquals(expected, matcher.findBestOffset(text));
+		}
+	}
+	
+	@Test
+	public void testEditDistance() {
+		PatternMatcher matcher = new PatternMatcher("ACGTACGT");
+		assertEquals(0, matcher.editDistance("TTACGTACGTTT"));
+		// Deletion, insertion and substitution
+		assertEquals(1, matcher.editDistance("TTACGACGTTT"));
+		assertEquals(1, matcher.editDistance("TTACGTTACGTTT"));
+		assertEquals(1, matcher.editDistance("TTACGAACGTTT"));
+		assertEquals(8, matcher.editDistance(""));
+		assertEquals(9, matcher.findEnd("TTACGACGTTT", 1));
+		assertEquals(-1, matcher.findEnd("TTACGACGTTT", 0));
+		Random random = new Random(3);
+		for(int n = 0; n < 2000; n++) {
+			String pattern = randomSequence(random, 1 + random.nextInt(PatternMatcher.MAX_LENGTH), "ACGT");
+			String text = randomSequence(random, random.nextInt(100), "ACGTNacgt");
+			matcher = new PatternMatcher(pattern);
+			assertEquals(editDistance(pattern, text), matcher.editDistance(text));
+			int maxEdits = random.nextInt(5);
+			int expected = -1;
+			for(int end = 0; end <= text.length() && expected < 0; end++) {
+				if(editDistance(pattern, text.substring(0, end)) <= maxEdits) {
+					expected = end;
+				}
+			}
+			assertEquals(expected, matcher.findEnd(text, maxEdits));
+		}
+	}
+	
+	@Test
+	public void testValidPattern() {
+		assertTrue(PatternMatcher.isValidPattern("acgtACGT"));
+		assertFalse(PatternMatcher.isValidPattern("ACGNT"));
+		assertFalse(PatternMatcher.isValidPattern(""));
+		assertFalse(PatternMatcher.isValidPattern(randomSequence(new Random(4), 65, "ACGT")));
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidPattern() {
+		new PatternMatcher("ACGNT");
+	}
+
+}
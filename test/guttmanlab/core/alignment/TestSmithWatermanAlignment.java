@@ -1,12 +1,318 @@
 package guttmanlab.core.alignment;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import jaligner.Alignment;
+import jaligner.Cell;
+import jaligner.NeedlemanWunsch;
+import jaligner.NeedlemanWunschGotoh;
+import jaligner.Sequence;
+import jaligner.SmithWatermanGotoh;
+import jaligner.QueryProfileSmithWaterman;
+import jaligner.matrix.Matrix;
+import jaligner.matrix.MatrixGenerator;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+
 import org.junit.Test;
 
 public class TestSmithWatermanAlignment {
 	
+	private static final Matrix MATRIX = MatrixGenerator.generate(5, -4);
+	
+	private static String randomSequence(Random random, int length) {
+		StringBuilder rtrn = new StringBuilder();
+		for(int i = 0; i < length; i++) {
+			rtrn.append("ACGT".charAt(random.nextInt(4)));
+		}
+		return rtrn.toString();
+	}
+	
+	/**
+	 * Copy a sequence with random substitutions, insertions and deletions
+	 */
+	private static String mutate(Random random, String seq, double rate) {
+		StringBuilder rtrn = new StringBuilder();
+		for(int i = 0; i < seq.length(); i++) {
+			double r = random.nextDouble();
+			if(r < rate / 3) {
+				rtrn.append("ACGT".charAt(random.nextInt(4)));
+			} else if(r < 2 * rate / 3) {
+				rtrn.append(seq.charAt(i)).append("ACGT".charAt(random.nextInt(4)));
+			} else if(r >= rate) {
+				rtrn.append(seq.charAt(i));
+			}
+		}
+		return rtrn.toString();
+	}
+	
+	private static void assertSameScore(Alignment expected, Alignment actual) {
+		assertEquals(expected.getScore(), actual.getScore(), 0);
+		assertEquals(actual.getScore(), actual.calculateScore(), 0.001);
+		int end1 = actual.getStart1() + actual.getSequence1().length - count(actual.getSequence1(), Alignment.GAP);
+		int end2 = actual.getStart2() + actual.getSequence2().length - count(actual.getSequence2(), Alignment.GAP);
+		int expectedEnd1 = expected.getStart1() + expected.getSequence1().length - count(expected.getSequence1(), Alignment.GAP);
+		int expectedEnd2 = expected.getStart2() + expected.getSequence2().length - count(expected.getSequence2(), Alignment.GAP);
+		assertEquals(expectedEnd1, end1);
+		assertEquals(expectedEnd2, end2);
+	}
+	
+	private static int count(char[] chars, char c) {
+		int rtrn = 0;
+		for(char x : chars) {
+			if(x == c) {
+				rtrn++;
+			}
+		}
+		return rtrn;
+	}
+	
+	@Test
+	public void testScoreOnly() {
+		Random random = new Random(1);
+		for(int trial = 0; trial < 200; trial++) {
+			Sequence s1 = new Sequence(randomSequence(random, random.nextInt(60)));
+			Sequence s2 = new Sequence(mutate(random, randomSequence(random, 10) + s1.getSequence() + randomSequence(random, 10), 0.2));
+			float o = 1 + random.nextInt(10);
+			float e = 1 + random.nextInt((int) o);
+			Alignment full = SmithWatermanGotoh.align(s1, s2, MATRIX, o, e);
+			Cell end = SmithWatermanGotoh.score(s1, s2, MATRIX, o, e);
+			assertEquals(full.getScore(), end.getScore(), 0);
+			if(full.getScore() > 0) {
+				assertEquals(full.getStart1() + full.getSequence1().length - count(full.getSequence1(), Alignment.GAP), end.getRow());
+				assertEquals(full.getStart2() + full.getSequence2().length - count(full.getSequence2(), Alignment.GAP), end.getCol());
+			}
+		}
+	}
+	
+	@Test
+	public void testLinearSpace() {
+		Random random = new Random(2);
+		for(int trial = 0; trial < 300; trial++) {
+			Sequence s1 = new Sequence(randomSequence(random, random.nextInt(80)));
+			Sequence s2 = new Sequence(mutate(random, randomSequence(random, random.nextInt(20)) + s1.getSequence() + randomSequence(random, 10), 0.3));
+			float o = 1 + random.nextInt(10);
+			float e = 1 + random.nextInt((int) o);
+			Alignment full = SmithWatermanGotoh.align(s1, s2, MATRIX, o, e);
+			Alignment linear = SmithWatermanGotoh.alignLinearSpace(s1, s2, MATRIX, o, e);
+			if(full.getScore() > 0) {
+				assertSameScore(full, linear);
+			} else {
+				assertEquals(0, linear.getSequence1().length);
+			}
+		}
+	}
+	
+	@Test
+	public void testBanded() {
+		Random random = new Random(3);
+		for(int trial = 0; trial < 200; trial++) {
+			String s1 = randomSequence(random, 20 + random.nextInt(100));
+			String prefix = randomSequence(random, random.nextInt(30));
+			Sequence seq1 = new Sequence(s1);
+			Sequence seq2 = new Sequence(prefix + mutate(random, s1, 0.1) + randomSequence(random, 5));
+			Alignment full = SmithWatermanGotoh.align(seq1, seq2, MATRIX, 8, 2);
+			// The whole matrix
+			assertSameScore(full, SmithWatermanGotoh.alignBanded(seq1, seq2, MATRIX, 8, 2, 0, 1000));
+			assertEquals(full.getScore(), SmithWatermanGotoh.score(seq1, seq2, MATRIX, 8, 2, 0, 1000).getScore(), 0);
+			// A band around the true offset wider than the number of indels
+			int numIndels = Math.abs(seq2.length() - prefix.length() - 5 - s1.length()) + 20;
+			Alignment banded = SmithWatermanGotoh.alignBanded(seq1, seq2, MATRIX, 8, 2, prefix.length(), numIndels);
+			assertEquals(banded.getScore(), banded.calculateScore(), 0.001);
+			assertEquals(banded.getScore(), SmithWatermanGotoh.score(seq1, seq2, MATRIX, 8, 2, prefix.length(), numIndels).getScore(), 0);
+			assertEquals(full.getScore(), banded.getScore(), 0);
+		}
+	}
+	
+	@Test
+	public void testNarrowBand() {
+		Sequence s1 = new Sequence("ACGTACGTAC");
+		Sequence s2 = new Sequence("TTTTTACGTACGTAC");
+		// The match is on diagonal 5 and can't be reached from a band around diagonal 0
+		assertEquals(50, SmithWatermanGotoh.score(s1, s2, MATRIX, 8, 2, 5, 0).getScore(), 0);
+		assertEquals(50, SmithWatermanGotoh.alignBanded(s1, s2, MATRIX, 8, 2, 5, 0).getScore(), 0);
+		assertEquals(5, SmithWatermanGotoh.alignBanded(s1, s2, MATRIX, 8, 2, 5, 0).getStart2());
+		float offDiagonal = SmithWatermanGotoh.score(s1, s2, MATRIX, 8, 2, 0, 2).getScore();
+		assertTrue(offDiagonal < 50);
+		assertEquals(offDiagonal, SmithWatermanGotoh.alignBanded(s1, s2, MATRIX, 8, 2, 0, 2).getScore(), 0);
+	}
+	
+	@Test
+	public void testLargeAlignmentUsesLinearSpace() {
+		Random random = new Random(4);
+		String transcript = randomSequence(random, 20000);
+		String read = mutate(random, transcript.substring(12000, 13000), 0.05);
+		SmithWatermanAlignment aligner = new SmithWatermanAlignment(read);
+		Alignment alignment = aligner.align(transcript);
+		assertEquals(alignment.getScore(), alignment.calculateScore(), 0.001);
+		assertEquals(aligner.score(transcript), alignment.getScore(), 0);
+		assertTrue(Math.abs(alignment.getStart2() - 12000) < 50);
+		assertEquals(alignment.getScore(), aligner.alignBanded(transcript, 12000, 100).getScore(), 0);
+	}
+	
+	@Test
+	public void testMaxFullMatrixCells() {
+		Random random = new Random(6);
+		String transcript = randomSequence(random, 2000);
+		String read = mutate(random, transcript.substring(500, 700), 0.05);
+		SmithWatermanAlignment full = new SmithWatermanAlignment(read);
+		SmithWatermanAlignment linear = new SmithWatermanAlignment(read);
+		linear.setMaxFullMatrixCells(1000);
+		Alignment expected = full.align(transcript);
+		Alignment alignment = linear.align(transcript);
+		assertEquals(expected.getScore(), alignment.getScore(), 0);
+		assertEquals(alignment.getScore(), alignment.calculateScore(), 0.001);
+		// The setting of one aligner does not change another
+		assertEquals(expected.getScore(), new SmithWatermanAlignment(read).align(transcript).getScore(), 0);
+	}
+	
+	@Test
+	public void testQueryProfile() {
+		Random random = new Random(5);
+		for(int trial = 0; trial < 300; trial++) {
+			Sequence query = new Sequence(randomSequence(random, 1 + random.nextInt(70)));
+			float o = 1 + random.nextInt(10);
+			float e = 1 + random.nextInt((int) o);
+			QueryProfileSmithWaterman profile = new QueryProfileSmithWaterman(query, MATRIX, o, e);
+			for(int target = 0; target < 3; target++) {
+				Sequence s2 = new Sequence(mutate(random, randomSequence(random, random.nextInt(30)) + query.getSequence() + randomSequence(random, random.nextInt(30)), 0.3));
+				Cell expected = SmithWatermanGotoh.score(query, s2, MATRIX, o, e);
+				Cell actual = profile.score(s2);
+				assertEquals(expected.getScore(), actual.getScore(), 0);
+				if(actual.getScore() > 0) {
+					// The end may differ on ties, but an alignment must end there with the same score
+					assertEquals(expected.getScore(), SmithWatermanGotoh.score(new Sequence(query.getSequence().substring(0, actual.getRow())),
+							new Sequence(s2.getSequence().substring(0, actual.getCol())), MATRIX, o, e).getScore(), 0);
+				}
+			}
+		}
+	}
+	
+	@Test
+	public void testQueryProfileFallback() {
+		Random random = new Random(6);
+		Sequence query = new Sequence(randomSequence(random, 50));
+		Sequence target = new Sequence(mutate(random, query.getSequence(), 0.2));
+		float expected = SmithWatermanGotoh.score(query, target, MATRIX, 8.5f, 2).getScore();
+		// Non-integer penalties are scored in floating point
+		assertEquals(expected, new QueryProfileSmithWaterman(query, MATRIX, 8.5f, 2).score(target).getScore(), 0);
+		// Ungapped alignment with very large penalties
+		expected = SmithWatermanGotoh.score(query, target, MATRIX, Float.MAX_VALUE, Float.MAX_VALUE).getScore();
+		assertEquals(expected, new QueryProfileSmithWaterman(query, MATRIX, Float.MAX_VALUE, Float.MAX_VALUE).score(target).getScore(), 0);
+		// Long alignments
+		String longQuery = randomSequence(random, 8000);
+		Matrix matrix = MatrixGenerator.generate(10, -4);
+		QueryProfileSmithWaterman profile = new QueryProfileSmithWaterman(new Sequence(longQuery), matrix, 8, 2);
+		assertEquals(80000, profile.score(new Sequence(longQuery)).getScore(), 0);
+		assertEquals(8000, profile.score(new Sequence(longQuery)).getRow());
+	}
+	
+	@Test
+	public void testAlignAll() {
+		Random random = new Random(7);
+		String query = randomSequence(random, 40);
+		List<String> targets = new ArrayList<String>();
+		for(int i = 0; i < 200; i++) {
+			String target = randomSequence(random, random.nextInt(60)) + mutate(random, query, 0.1) + randomSequence(random, random.nextInt(60));
+			targets.add(i % 10 == 0 ? randomSequence(random, 80) : target);
+		}
+		targets.add("");
+		SmithWatermanAlignment aligner = new SmithWatermanAlignment(query);
+		aligner.setNumThreads(4);
+		List<SmithWatermanAlignment.Result> results = aligner.alignAll(targets);
+		assertEquals(targets.size(), results.size());
+		for(int i = 0; i < targets.size(); i++) {
+			SmithWatermanAlignment.Result result = results.get(i);
+			assertSame(targets.get(i), result.getSequence());
+			Alignment expected = aligner.align(targets.get(i));
+			assertEquals(expected.getScore(), result.getScore(), 0);
+			Alignment alignment = result.getAlignment();
+			assertEquals(result.getScore(), alignment.getScore(), 0);
+			assertEquals(result.getIdentity(), alignment.getIdentity());
+			assertEquals(result.getStart1(), alignment.getStart1());
+			assertEquals(result.getStart2(), alignment.getStart2());
+			if(result.getScore() > 0) {
+				char[] a1 = alignment.getSequence1();
+				char[] a2 = alignment.getSequence2();
+				assertEquals(result.getEnd1() - result.getStart1(), a1.length - count(a1, Alignment.GAP));
+				assertEquals(result.getEnd2() - result.getStart2(), a2.length - count(a2, Alignment.GAP));
+				// The aligned region scores the same as the whole sequences
+				String region1 = query.substring(result.getStart1(), result.getEnd1());
+				String region2 = targets.get(i).substring(result.getStart2(), result.getEnd2());
+				assertEquals(result.getScore(), new SmithWatermanAlignment(region1).score(region2), 0);
+			}
+		}
+		List<SmithWatermanAlignment.Result> streamed = aligner.alignAll(targets.parallelStream()).collect(Collectors.toList());
+		for(int i = 0; i < targets.size(); i++) {
+			assertEquals(results.get(i).toString(), streamed.get(i).toString());
+		}
+	}
+	
+	@Test
+	public void testCodedCharacters() {
+		// Sequences are aligned as byte codes of their characters and decoded into the alignment
+		Sequence s1 = new Sequence("ACGTNacgtRYACGT");
+		Sequence s2 = new Sequence("ACGTAacgtACGT");
+		Alignment local = SmithWatermanGotoh.align(s1, s2, MATRIX, 8, 2);
+		Alignment global = NeedlemanWunschGotoh.align(s1, s2, MATRIX, 8, 2);
+		Alignment linear = NeedlemanWunsch.align(s1, s2, MATRIX, 4);
+		for(Alignment alignment : new Alignment[] {local, global, linear}) {
+			char[] a1 = alignment.getSequence1();
+			char[] a2 = alignment.getSequence2();
+			int identity = 0;
+			for(int i = 0; i < a1.length; i++) {
+				if(a1[i] == a2[i]) {
+					identity++;
+				}
+			}
+			assertEquals(identity, alignment.getIdentity());
+			assertEquals(alignment.getStart1(), s1.getSequence().indexOf(new String(a1).replace("-", "")));
+			assertEquals(alignment.getStart2(), s2.getSequence().indexOf(new String(a2).replace("-", "")));
+		}
+		// N matches anything in the default matrix
+		assertEquals(13 * 5 - 8 - 2, local.getScore(), 0);
+		assertEquals(s1.getSequence(), new String(linear.getSequence1()).replace("-", ""));
+		assertEquals(s2.getSequence(), new String(linear.getSequence2()).replace("-", ""));
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testCharacterNotInMatrix() {
+		SmithWatermanGotoh.align(new Sequence("ACGT\u00e9"), new Sequence("ACGT"), MATRIX, 8, 2);
+	}
+	
+	@Test
+	public void testUngapped() {
+		Random random = new Random(8);
+		for(int n = 0; n < 300; n++) {
+			String seq2 = randomSequence(random, 1 + random.nextInt(40));
+			String seq1 = randomSequence(random, random.nextInt(40)) + mutate(random, seq2, 0.2) + randomSequence(random, random.nextInt(40));
+			if(random.nextInt(5) == 0) {
+				seq1 = seq1.replace('A', 'N');
+			}
+			if(seq1.length() < seq2.length()) {
+				continue;
+			}
+			// Smith-Waterman with infinite gap penalties
+			Alignment expected = SmithWatermanAlignment.align(seq1, seq2, 5, -4, Float.MAX_VALUE, Float.MAX_VALUE);
+			int start = expected.getIdentity() / (float) seq2.length() < 0.5f ? -1 : expected.getStart1();
+			assertEquals(start, SmithWatermanAlignment.ungappedMatchStartOnFirstSequence(seq1, seq2, 5, -4, 0.5f));
+			for(int maxMismatches = 0; maxMismatches < 4; maxMismatches++) {
+				assertEquals(seq2.length() - expected.getIdentity() <= maxMismatches, SmithWatermanAlignment.containsFullLengthUngappedMatch(seq1, seq2, maxMismatches));
+			}
+		}
+	}
+	
 	@Test
-	public void dummyTest() {
-		System.err.println("No tests in " + TestSmithWatermanAlignment.class.getSimpleName());
+	public void testEmpty() {
+		Sequence empty = new Sequence("");
+		Sequence s = new Sequence("ACGT");
+		assertEquals(SmithWatermanGotoh.align(empty, s, MATRIX, 8, 2).getScore(), SmithWatermanGotoh.score(empty, s, MATRIX, 8, 2).getScore(), 0);
+		assertEquals(0, SmithWatermanGotoh.alignLinearSpace(s, empty, MATRIX, 8, 2).getSequence1().length);
+		assertEquals(0, SmithWatermanGotoh.alignBanded(s, empty, MATRIX, 8, 2, 0, 3).getSequence1().length);
 	}
 
 }
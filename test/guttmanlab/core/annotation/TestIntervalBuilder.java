@@ -0,0 +1,40 @@
+package guttmanlab.core.annotation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class TestIntervalBuilder {
+	
+	@Test
+	public void testMergedIntervals() {
+		IntervalBuilder builder = new IntervalBuilder();
+		builder.add("chr1", 50, 60);
+		builder.add("chr1", 10, 20);
+		builder.add("chr1", 15, 30);
+		builder.add("chr1", 30, 35);
+		builder.add("chr1", 40, 40);
+		int[] intervals = builder.build().get("chr1");
+		assertEquals("[10, 35, 50, 60]", Arrays.toString(intervals));
+	}
+	
+	@Test
+	public void testAnnotationBlocks() {
+		IntervalBuilder builder = new IntervalBuilder();
+		BlockedAnnotation annotation = new BlockedAnnotation();
+		annotation.addBlocks(new SingleInterval("chr1", 100, 200));
+		annotation.addBlocks(new SingleInterval("chr1", 300, 400));
+		builder.add(annotation);
+		builder.add(new SingleInterval("chr2", 0, 10));
+		builder.add(new SingleInterval("chr1", 150, 250));
+		Map<String, int[]> intervals = builder.build();
+		assertEquals("[100, 250, 300, 400]", Arrays.toString(intervals.get("chr1")));
+		assertEquals("[0, 10]", Arrays.toString(intervals.get("chr2")));
+		assertNull(intervals.get("chr3"));
+	}
+	
+}
@@ -1,12 +1,88 @@
 package guttmanlab.core.annotation;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import guttmanlab.core.annotation.Annotation.Strand;
+
+import java.util.Iterator;
+
+import net.sf.samtools.SAMFileHeader;
+import net.sf.samtools.SAMRecord;
+import net.sf.samtools.SAMSequenceRecord;
+
 import org.junit.Test;
 
 public class TestSAMFragment {
 	
+	private static SAMFragment fragment(int alignmentStart, String cigar) {
+		SAMFileHeader header = new SAMFileHeader();
+		header.addSequence(new SAMSequenceRecord("chr1", 1000000));
+		SAMRecord record = new SAMRecord(header);
+		record.setReadName("read");
+		record.setReferenceName("chr1");
+		record.setAlignmentStart(alignmentStart);
+		record.setCigarString(cigar);
+		return new SAMFragment(record);
+	}
+	
+	private static void assertSameBlocks(Annotation expected, Annotation actual) {
+		assertEquals(expected.getNumberOfBlocks(), actual.getNumberOfBlocks());
+		assertEquals(expected.size(), actual.size());
+		Iterator<SingleInterval> expectedBlocks = expected.getBlocks();
+		Iterator<SingleInterval> actualBlocks = actual.getBlocks();
+		while(expectedBlocks.hasNext()) {
+			assertEquals(expectedBlocks.next(), actualBlocks.next());
+		}
+		assertFalse(actualBlocks.hasNext());
+	}
+	
+	@Test
+	public void testUngappedBlocks() {
+		SAMFragment read = fragment(101, "50M");
+		assertEquals(1, read.getNumberOfBlocks());
+		assertEquals(50, read.size());
+		assertEquals(100, read.getReferenceStartPosition());
+		assertEquals(150, read.getReferenceEndPosition());
+		assertSameBlocks(SAMFragment.parseCigar("50M", "chr1", 100, Strand.POSITIVE, "read"), read);
+	}
+	
+	@Test
+	public void testGappedBlocksMatchParseCigar() {
+		String[] cigars = {"20M500N30M", "5S10M2I10M3H", "10M5D10M", "10M10M", "10M0N10M"};
+		for(String cigar : cigars) {
+			assertSameBlocks(SAMFragment.parseCigar(cigar, "chr1", 100, Strand.POSITIVE, "read"), fragment(101, cigar));
+		}
+	}
+	
+	@Test
+	public void testOverlapsUsesBlocks() {
+		SAMFragment read = fragment(101, "20M500N30M");
+		assertTrue(read.overlaps(new SingleInterval("chr1", 110, 115, Strand.BOTH)));
+		assertFalse(read.overlaps(new SingleInterval("chr1", 200, 300, Strand.BOTH)));
+		assertTrue(read.overlaps(new SingleInterval("chr1", 600, 630, Strand.BOTH)));
+		assertFalse(read.overlaps(new SingleInterval("chr2", 110, 115, Strand.BOTH)));
+		assertFalse(read.overlaps(new SingleInterval("chr1", 110, 115, Strand.NEGATIVE)));
+	}
+	
+	@Test
+	public void testUngappedBlockIsCached() {
+		SAMFragment read = fragment(101, "50M");
+		assertSame(read.getBlocks().next(), read.getBlocks().next());
+	}
+	
 	@Test
-	public void dummyTest() {
-		System.err.println("No tests in " + TestSAMFragment.class.getSimpleName());
+	public void testContainsMatchesParseCigar() {
+		Annotation[] others = {new SingleInterval("chr1", 110, 115, Strand.POSITIVE), new SingleInterval("chr1", 90, 115, Strand.POSITIVE),
+				new SingleInterval("chr1", 130, 140, Strand.POSITIVE), new SingleInterval("chr2", 110, 115, Strand.POSITIVE)};
+		for(String cigar : new String[] {"50M", "20M500N30M"}) {
+			Annotation expected = SAMFragment.parseCigar(cigar, "chr1", 100, Strand.POSITIVE, "read");
+			SAMFragment read = fragment(101, cigar);
+			for(Annotation other : others) {
+				assertEquals(cigar + " " + other, expected.contains(other), read.contains(other));
+			}
+		}
 	}
 
 }
@@ -1,12 +1,45 @@
 package guttmanlab.core.annotation.io;
 
+import static org.junit.Assert.assertEquals;
+import guttmanlab.core.annotation.Annotation.Strand;
+import guttmanlab.core.annotation.BEDFileRecord;
+import guttmanlab.core.annotation.SingleInterval;
+import guttmanlab.core.annotationcollection.FeatureCollection;
+import guttmanlab.core.coordinatespace.CoordinateSpace;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
 import org.junit.Test;
 
 public class TestBEDFileIO {
 	
 	@Test
-	public void dummyTest() {
-		System.err.println("No tests in " + TestBEDFileIO.class.getSimpleName());
+	public void testWriteToFile() throws IOException {
+		Map<String, Integer> sizes = new LinkedHashMap<String, Integer>();
+		sizes.put("chr1", 10000);
+		sizes.put("chr2", 10000);
+		CoordinateSpace space = new CoordinateSpace(sizes);
+		FeatureCollection<BEDFileRecord> records = new FeatureCollection<BEDFileRecord>(space);
+		records.add(new BEDFileRecord.BEDBuilder(new SingleInterval("chr2", 100, 200, Strand.POSITIVE, "b")).score(7.5).build());
+		records.add(new BEDFileRecord.BEDBuilder(new SingleInterval("chr1", 300, 400, Strand.NEGATIVE, "a")).score(2).build());
+		File out = File.createTempFile("test", ".bed");
+		out.deleteOnExit();
+		BEDFileIO.writeToFile(records, out);
+		List<String> lines = Files.readAllLines(out.toPath());
+		assertEquals(2, lines.size());
+		BEDFileRecord first = BEDFileRecord.fromFormattedString(lines.get(0));
+		BEDFileRecord second = BEDFileRecord.fromFormattedString(lines.get(1));
+		assertEquals("chr1", first.getReferenceName());
+		assertEquals(300, first.getReferenceStartPosition());
+		assertEquals(2, first.score(), 0);
+		assertEquals("b", second.getName());
+		assertEquals(7.5, second.score(), 0);
+		assertEquals(2, new BEDFileIO(space).loadFromFile(out).getNumAnnotations());
 	}
 
 }
@@ -0,0 +1,39 @@
+package guttmanlab.core.annotation.predicate;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import guttmanlab.core.annotation.SAMFragment;
+import net.sf.samtools.SAMFileHeader;
+import net.sf.samtools.SAMRecord;
+
+import org.junit.Test;
+
+public class TestMappingQualityFilter {
+	
+	private static SAMRecord record(int mappingQuality) {
+		SAMRecord record = new SAMRecord(new SAMFileHeader());
+		record.setReadName("read");
+		record.setAlignmentStart(101);
+		record.setCigarString("50M");
+		record.setMappingQuality(mappingQuality);
+		return record;
+	}
+	
+	@Test
+	public void testFragment() {
+		MappingQualityFilter<SAMFragment> filter = new MappingQualityFilter<SAMFragment>(10);
+		assertTrue(filter.evaluate(new SAMFragment(record(10))));
+		assertTrue(filter.evaluate(new SAMFragment(record(60))));
+		assertFalse(filter.evaluate(new SAMFragment(record(9))));
+	}
+	
+	@Test
+	public void testRecordAgreesWithFragment() {
+		MappingQualityFilter<SAMFragment> filter = new MappingQualityFilter<SAMFragment>(10);
+		for(int quality = 0; quality < 20; quality++) {
+			SAMRecord record = record(quality);
+			assertTrue(filter.evaluateRecord(record) == filter.evaluate(new SAMFragment(record)));
+		}
+	}
+
+}
@@ -0,0 +1,61 @@
+package guttmanlab.core.annotationcollection;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.assertFalse;
+
+import org.apache.commons.collections15.Predicate;
+import org.junit.Test;
+
+public class TestFilterChain {
+	
+	private static final Predicate<Integer> EVEN = i -> i % 2 == 0;
+	private static final Predicate<Integer> MULTIPLE_OF_TEN = i -> i % 10 == 0;
+	private static final Predicate<Integer> NON_NEGATIVE = i -> i >= 0;
+
+	@Test
+	public void testEmptyChainPassesEverything() {
+		FilterChain<Integer> chain = new FilterChain<Integer>();
+		assertTrue(chain.isEmpty());
+		assertTrue(chain.evaluate(-1));
+	}
+	
+	@Test
+	public void testConjunction() {
+		FilterChain<Integer> chain = new FilterChain<Integer>(false);
+		chain.add(EVEN, "even");
+		chain.add(NON_NEGATIVE, "nonNegative");
+		assertTrue(chain.evaluate(4));
+		assertFalse(chain.evaluate(3));
+		assertFalse(chain.evaluate(-4));
+	}
+	
+	@Test
+	public void testShortCircuitCounts() {
+		FilterChain<Integer> chain = new FilterChain<Integer>(false);
+		chain.add(MULTIPLE_OF_TEN, "tens");
+		chain.add(EVEN, "even");
+		for(int i = 0; i < 100; i++) {
+			chain.evaluate(i);
+		}
+		assertEquals(100, chain.getNumEvaluated());
+		assertEquals(100, chain.getStatistics().get(0).getNumEvaluated());
+		assertEquals(10, chain.getStatistics().get(0).getNumPassed());
+		assertEquals(10, chain.getStatistics().get(1).getNumEvaluated());
+		assertEquals(1.0, chain.getStatistics().get(1).getPassRate(), 0);
+	}
+	
+	@Test
+	public void testAdaptiveReordering() {
+		FilterChain<Integer> chain = new FilterChain<Integer>();
+		chain.add(NON_NEGATIVE, "nonNegative");
+		chain.add(MULTIPLE_OF_TEN, "tens");
+		for(int i = 0; i < 10000; i++) {
+			assertEquals(i % 10 == 0, chain.evaluate(i));
+		}
+		// The filter that never rejects should have been moved to the end
+		assertEquals("tens", chain.getStatistics().get(0).getName());
+		assertEquals("nonNegative", chain.getStatistics().get(1).getName());
+	}
+
+}
@@ -0,0 +1,151 @@
+package guttmanlab.core.annotationcollection;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import guttmanlab.core.annotation.Annotation.Strand;
+import guttmanlab.core.annotation.BEDFileRecord;
+import guttmanlab.core.annotation.SingleInterval;
+import guttmanlab.core.coordinatespace.CoordinateSpace;
+import guttmanlab.core.math.MaximalSegments;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import net.sf.samtools.SAMFileHeader;
+import net.sf.samtools.SAMRecord;
+import net.sf.samtools.SAMSequenceRecord;
+import net.sf.samtools.util.CloseableIterator;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestMaximalSegmentFinder {
+
+	private static final int CHR_SIZE = 20000;
+
+	private CoordinateSpace space;
+	private OffHeapReadCollection reads;
+
+	@Before
+	public void setUp() {
+		SAMFileHeader header = new SAMFileHeader();
+		Map<String, Integer> sizes = new LinkedHashMap<String, Integer>();
+		for(String chr : new String[] {"chr1", "chr2", "chr3"}) {
+			header.addSequence(new SAMSequenceRecord(chr, CHR_SIZE));
+			sizes.put(chr, CHR_SIZE);
+		}
+		space = new CoordinateSpace(sizes);
+		reads = new OffHeapReadCollection(space);
+		Random random = new Random(11);
+		for(String chr : sizes.keySet()) {
+			List<Integer> starts = new ArrayList<Integer>();
+			// Sparse background with a few dense clusters
+			for(int i = 0; i < 100; i++) {
+				starts.add(Integer.valueOf(random.nextInt(CHR_SIZE - 50) + 1));
+			}
+			for(int cluster = 0; cluster < 3; cluster++) {
+				int center = random.nextInt(CHR_SIZE - 1000) + 500;
+				for(int i = 0; i < 150; i++) {
+					starts.add(Integer.valueOf(center + random.nextInt(400) - 200));
+				}
+			}
+			Collections.sort(starts);
+			for(Integer start : starts) {
+				SAMRecord record = new SAMRecord(header);
+				record.setReadName("read" + start);
+				record.setReferenceName(chr);
+				record.setAlignmentStart(start.intValue());
+				record.setCigarString("50M");
+				reads.add(record);
+			}
+		}
+	}
+
+	private static double score(MultiSampleCoverage.WindowCounts counts) {
+		return counts.getTotal() - 3;
+	}
+
+	@Test
+	public void testSameAsArrayScan() {
+		MultiSampleCoverage coverage = new MultiSampleCoverage(Collections.singletonList(reads), 100, 50);
+		MaximalSegmentFinder<MultiSampleCoverage.WindowCounts> finder = MaximalSegmentFinder.forCoverage(coverage, TestMaximalSegmentFinder::score);
+		SingleInterval region = new SingleInterval("chr2", 0, CHR_SIZE, Strand.BOTH);
+		List<BEDFileRecord> regions = finder.find(region);
+		// Two passes: all window scores in an array, then the segments of the array
+		List<Double> scores = new ArrayList<Double>();
+		List<SingleInterval> windows = new ArrayList<SingleInterval>();
+		CloseableIterator<MultiSampleCoverage.WindowCounts> iter = coverage.iterator(region, true);
+		while(iter.hasNext()) {
+			MultiSampleCoverage.WindowCounts counts = iter.next();
+			scores.add(Double.valueOf(score(counts)));
+			windows.add(counts.getWindow());
+		}
+		iter.close();
+		double[] array = scores.stream().mapToDouble(Double::doubleValue).toArray();
+		List<MaximalSegments.Segment> segments = MaximalSegments.find(array);
+		assertEquals(segments.size(), regions.size());
+		for(int i = 0; i < segments.size(); i++) {
+			assertEquals("chr2", regions.get(i).getReferenceName());
+			assertEquals(windows.get((int) segments.get(i).getStart()).getReferenceStartPosition(), regions.get(i).getReferenceStartPosition());
+			assertEquals(windows.get((int) segments.get(i).getEnd() - 1).getReferenceEndPosition(), regions.get(i).getReferenceEndPosition());
+			assertEquals(segments.get(i).getScore(), regions.get(i).score(), 1e-9);
+		}
+	}
+
+	@Test
+	public void testClustersFound() {
+		MultiSampleCoverage coverage = new MultiSampleCoverage(Collections.singletonList(reads), 100, 50);
+		MaximalSegmentFinder<MultiSampleCoverage.WindowCounts> finder = MaximalSegmentFinder.forCoverage(coverage, TestMaximalSegmentFinder::score);
+		finder.setMinScore(100);
+		List<BEDFileRecord> regions = new ArrayList<BEDFileRecord>();
+		finder.find(space, regions::add);
+		for(BEDFileRecord region : regions) {
+			assertTrue(region.score() >= 100);
+		}
+		// Clusters may overlap, but each reference has at least one and at most three
+		for(String chr : space.getRefSeqLengths().keySet()) {
+			long n = regions.stream().filter(r -> r.getReferenceName().equals(chr)).count();
+			assertTrue(n >= 1 && n <= 3);
+		}
+	}
+
+	@Test
+	public void testParallelSameAsSerial() {
+		MultiSampleCoverage coverage = new MultiSampleCoverage(Collections.singletonList(reads), 50, 10);
+		MaximalSegmentFinder<MultiSampleCoverage.WindowCounts> finder = MaximalSegmentFinder.forCoverage(coverage, TestMaximalSegmentFinder::score);
+		List<BEDFileRecord> parallel = new ArrayList<BEDFileRecord>();
+		finder.setNumThreads(3);
+		finder.find(space, parallel::add);
+		List<BEDFileRecord> serial = new ArrayList<BEDFileRecord>();
+		for(String chr : space.getRefSeqLengths().keySet()) {
+			serial.addAll(finder.find(new SingleInterval(chr, 0, CHR_SIZE, Strand.BOTH)));
+		}
+		assertEquals(serial.size(), parallel.size());
+		for(int i = 0; i < serial.size(); i++) {
+			assertEquals(serial.get(i).toFormattedString(), parallel.get(i).toFormattedString());
+		}
+	}
+
+	@Test
+	public void testReferencesInOrder() {
+		MultiSampleCoverage coverage = new MultiSampleCoverage(Collections.singletonList(reads), 100, 50);
+		MaximalSegmentFinder<MultiSampleCoverage.WindowCounts> finder = MaximalSegmentFinder.forCoverage(coverage, TestMaximalSegmentFinder::score);
+		Map<String, Integer> reversed = new LinkedHashMap<String, Integer>();
+		for(String chr : new String[] {"chr3", "chr2", "chr1"}) {
+			reversed.put(chr, CHR_SIZE);
+		}
+		List<BEDFileRecord> expected = new ArrayList<BEDFileRecord>();
+		finder.find(space, expected::add);
+		List<BEDFileRecord> regions = new ArrayList<BEDFileRecord>();
+		finder.find(new CoordinateSpace(reversed), regions::add);
+		assertEquals(expected.size(), regions.size());
+		for(int i = 0; i < regions.size(); i++) {
+			assertEquals(expected.get(i).toFormattedString(), regions.get(i).toFormattedString());
+		}
+	}
+
+}
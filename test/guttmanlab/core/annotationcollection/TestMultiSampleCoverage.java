@@ -0,0 +1,184 @@
+package guttmanlab.core.annotationcollection;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import guttmanlab.core.annotation.Annotation.Strand;
+import guttmanlab.core.annotation.SingleInterval;
+import guttmanlab.core.coordinatespace.CoordinateSpace;
+import guttmanlab.core.math.Statistics;
+import guttmanlab.core.math.StreamingStatistics;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import net.sf.samtools.SAMFileHeader;
+import net.sf.samtools.SAMRecord;
+import net.sf.samtools.SAMSequenceRecord;
+import net.sf.samtools.util.CloseableIterator;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestMultiSampleCoverage {
+
+	private static final int CHR_SIZE = 20000;
+
+	private SAMFileHeader header;
+	private CoordinateSpace space;
+	private List<OffHeapReadCollection> samples;
+	// Start and end of each block of each read, per sample
+	private List<List<int[]>> blocks;
+
+	@Before
+	public void setUp() {
+		header = new SAMFileHeader();
+		header.addSequence(new SAMSequenceRecord("chr1", CHR_SIZE));
+		Map<String, Integer> sizes = new HashMap<String, Integer>();
+		sizes.put("chr1", CHR_SIZE);
+		space = new CoordinateSpace(sizes);
+		samples = new ArrayList<OffHeapReadCollection>();
+		blocks = new ArrayList<List<int[]>>();
+		Random random = new Random(7);
+		for(int s = 0; s < 3; s++) {
+			OffHeapReadCollection sample = new OffHeapReadCollection(space);
+			List<int[]> sampleBlocks = new ArrayList<int[]>();
+			int start = 1;
+			for(int i = 0; i < 500 * (s + 1); i++) {
+				start += random.nextInt(20);
+				int intron = random.nextInt(4) == 0 ? random.nextInt(300) + 1 : 0;
+				String cigar = intron > 0 ? "20M" + intron + "N30M" : "50M";
+				sample.add(record(start, cigar));
+				if(intron > 0) {
+					sampleBlocks.add(new int[] {start - 1, start + 19, start + 19 + intron, start + 49 + intron});
+				} else {
+					sampleBlocks.add(new int[] {start - 1, start + 49});
+				}
+			}
+			samples.add(sample);
+			blocks.add(sampleBlocks);
+		}
+	}
+
+	private SAMRecord record(int alignmentStart, String cigar) {
+		SAMRecord record = new SAMRecord(header);
+		record.setReadName("read" + alignmentStart);
+		record.setReferenceName("chr1");
+		record.setAlignmentStart(alignmentStart);
+		record.setCigarString(cigar);
+		return record;
+	}
+
+	private int bruteForceCount(int sample, int start, int end) {
+		int rtrn = 0;
+		for(int[] read : blocks.get(sample)) {
+			for(int i = 0; i < read.length; i += 2) {
+				if(read[i] < end && read[i + 1] > start) {
+					rtrn++;
+					break;
+				}
+			}
+		}
+		return rtrn;
+	}
+
+	private void checkAgainstBruteForce(MultiSampleCoverage coverage, int regionStart, int regionEnd, int windowLength, int stepSize) {
+		CloseableIterator<MultiSampleCoverage.WindowCounts> iter = coverage.iterator(new SingleInterval("chr1", regionStart, regionEnd, Strand.BOTH), true);
+		for(int start = regionStart; start + windowLength <= regionEnd; start += stepSize) {
+			MultiSampleCoverage.WindowCounts counts = iter.next();
+			assertEquals(start, counts.getWindow().getReferenceStartPosition());
+			assertEquals(start + windowLength, counts.getWindow().getReferenceEndPosition());
+			for(int s = 0; s < samples.size(); s++) {
+				assertEquals(bruteForceCount(s, start, start + windowLength), counts.getCount(s));
+			}
+		}
+		assertFalse(iter.hasNext());
+		iter.close();
+	}
+
+	@Test
+	public void testCountsMatchBruteForce() {
+		MultiSampleCoverage coverage = new MultiSampleCoverage(samples, 100, 25);
+		checkAgainstBruteForce(coverage, 0, CHR_SIZE, 100, 25);
+		checkAgainstBruteForce(coverage, 1234, 5678, 100, 25);
+	}
+
+	@Test
+	public void testParallelMatchesSerial() {
+		MultiSampleCoverage coverage = new MultiSampleCoverage(samples, 50, 1);
+		coverage.setParallel(true);
+		checkAgainstBruteForce(coverage, 3000, 9000, 50, 1);
+	}
+
+	@Test
+	public void testEmptyWindowsSkipped() {
+		MultiSampleCoverage coverage = new MultiSampleCoverage(samples, 100, 100);
+		CloseableIterator<MultiSampleCoverage.WindowCounts> iter = coverage.iterator(false);
+		int numWindows = 0;
+		while(iter.hasNext()) {
+			MultiSampleCoverage.WindowCounts counts = iter.next();
+			assertEquals(Arrays.stream(counts.getCounts()).sum(), counts.getTotal());
+			assertFalse(counts.getTotal() == 0);
+			numWindows++;
+		}
+		iter.close();
+		int expected = 0;
+		for(int start = 0; start + 100 <= CHR_SIZE; start += 100) {
+			if(bruteForceCount(0, start, start + 100) + bruteForceCount(1, start, start + 100) + bruteForceCount(2, start, start + 100) > 0) {
+				expected++;
+			}
+		}
+		assertEquals(expected, numWindows);
+	}
+
+	@Test
+	public void testCountStatistics() {
+		MultiSampleCoverage coverage = new MultiSampleCoverage(samples, 100, 50);
+		StreamingStatistics[] stats = coverage.getCountStatistics(true);
+		assertEquals(samples.size(), stats.length);
+		for(int s = 0; s < samples.size(); s++) {
+			List<Integer> counts = new ArrayList<Integer>();
+			for(int start = 0; start + 100 <= CHR_SIZE; start += 50) {
+				counts.add(Integer.valueOf(bruteForceCount(s, start, start + 100)));
+			}
+			Collections.sort(counts);
+			assertEquals(counts.size(), stats[s].getCount());
+			assertEquals(Statistics.mean(counts), stats[s].getMean(), 1e-9);
+			assertEquals(Statistics.quantile(counts, 0.5), stats[s].quantile(0.5), 1e-9);
+			assertEquals(Statistics.quantile(counts, 0.95), stats[s].quantile(0.95), 1e-9);
+		}
+	}
+
+	@Test
+	public void testRegionShorterThanWindow() {
+		MultiSampleCoverage coverage = new MultiSampleCoverage(samples, 100, 10);
+		CloseableIterator<MultiSampleCoverage.WindowCounts> iter = coverage.iterator(new SingleInterval("chr1", 0, 99, Strand.BOTH), true);
+		assertFalse(iter.hasNext());
+		iter.close();
+	}
+
+	@Test
+	public void testReferencesInOrder() {
+		Map<String, Integer> sizes = new HashMap<String, Integer>();
+		for(int i = 20; i > 0; i--) {
+			sizes.put("chr" + i, 100);
+		}
+		List<OffHeapReadCollection> empty = new ArrayList<OffHeapReadCollection>();
+		empty.add(new OffHeapReadCollection(new CoordinateSpace(sizes)));
+		MultiSampleCoverage coverage = new MultiSampleCoverage(empty, 100, 100);
+		CloseableIterator<MultiSampleCoverage.WindowCounts> iter = coverage.iterator(true);
+		List<String> names = new ArrayList<String>();
+		while(iter.hasNext()) {
+			names.add(iter.next().getWindow().getReferenceName());
+		}
+		iter.close();
+		List<String> expected = new ArrayList<String>(sizes.keySet());
+		Collections.sort(expected);
+		assertEquals(expected, names);
+	}
+
+}
@@ -0,0 +1,186 @@
+package guttmanlab.core.annotationcollection;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import guttmanlab.core.annotation.Annotation.Strand;
+import guttmanlab.core.annotation.SingleInterval;
+import guttmanlab.core.annotation.predicate.SAMFlag;
+import guttmanlab.core.coordinatespace.CoordinateSpace;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Map;
+
+import net.sf.samtools.SAMFileHeader;
+import net.sf.samtools.SAMRecord;
+import net.sf.samtools.SAMSequenceRecord;
+import net.sf.samtools.util.CloseableIterator;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestOffHeapReadCollection {
+
+	private SAMFileHeader header;
+	private CoordinateSpace space;
+	private OffHeapReadCollection reads;
+
+	@Before
+	public void setUp() {
+		header = new SAMFileHeader();
+		header.addSequence(new SAMSequenceRecord("chr1", 1000000));
+		header.addSequence(new SAMSequenceRecord("chr2", 1000000));
+		Map<String, Integer> sizes = new HashMap<String, Integer>();
+		sizes.put("chr1", 1000000);
+		sizes.put("chr2", 1000000);
+		space = new CoordinateSpace(sizes);
+		// A small segment size so that the reads span several segments
+		reads = new OffHeapReadCollection(space, 64);
+	}
+
+	private SAMRecord record(String chr, int alignmentStart, String cigar, boolean negative) {
+		SAMRecord record = new SAMRecord(header);
+		record.setReadName("read" + alignmentStart);
+		record.setReferenceName(chr);
+		record.setAlignmentStart(alignmentStart);
+		record.setCigarString(cigar);
+		record.setReadNegativeStrandFlag(negative);
+		record.setMappingQuality(alignmentStart % 60);
+		return record;
+	}
+
+	private static int count(CloseableIterator<?> iter) {
+		int rtrn = 0;
+		while(iter.hasNext()) {
+			iter.next();
+			rtrn++;
+		}
+		iter.close();
+		return rtrn;
+	}
+
+	@Test
+	public void testStoredFields() {
+		reads.add(record("chr1", 101, "20M100N30M", true));
+		CloseableIterator<OffHeapReadCollection.StoredRead> iter = reads.sortedIterator();
+		OffHeapReadCollection.StoredRead read = iter.next();
+		assertFalse(iter.hasNext());
+		assertEquals("chr1", read.getReferenceName());
+		assertEquals(100, read.getReferenceStartPosition());
+		assertEquals(250, read.getReferenceEndPosition());
+		assertEquals(2, read.getNumberOfBlocks());
+		assertEquals(50, read.size());
+		assertEquals(Strand.NEGATIVE, read.getOrientation());
+		assertEquals(41, read.getMappingQuality());
+		assertEquals("read101".hashCode(), read.getNameHash());
+		assertTrue(read.overlaps(new SingleInterval("chr1", 230, 240, Strand.BOTH)));
+		assertFalse(read.overlaps(new SingleInterval("chr1", 150, 200, Strand.BOTH)));
+	}
+
+	@Test
+	public void testNumHits() {
+		SAMRecord record = record("chr1", 101, "50M", false);
+		record.setAttribute("NH", Integer.valueOf(3));
+		reads.add(record);
+		reads.add(record("chr1", 201, "50M", false));
+		CloseableIterator<OffHeapReadCollection.StoredRead> iter = reads.sortedIterator();
+		assertEquals(3, iter.next().getNumHits());
+		OffHeapReadCollection.StoredRead noTag = iter.next();
+		iter.close();
+		try {
+			noTag.getNumHits();
+			fail("Expected an exception for a read without an NH tag");
+		} catch(IllegalStateException e) {
+			// Expected
+		}
+	}
+
+	@Test
+	public void testRegionQueries() {
+		for(int i = 0; i < 1000; i++) {
+			reads.add(record("chr1", 1 + 100 * i, "50M", i % 2 == 0));
+		}
+		reads.add(record("chr2", 1, "50M", false));
+		assertEquals(1001, reads.getNumAnnotations());
+		assertEquals(1001, count(reads.sortedIterator()));
+		assertEquals(3, reads.numOverlappers(new SingleInterval("chr1", 1000, 1220, Strand.BOTH), false));
+		assertEquals(2, reads.numOverlappers(new SingleInterval("chr1", 1000, 1220, Strand.BOTH), true));
+		assertEquals(2, reads.numOverlappers(new SingleInterval("chr1", 1000, 1220, Strand.NEGATIVE), false));
+		assertEquals(1, reads.numOverlappers(new SingleInterval("chr2", 0, 10, Strand.BOTH), false));
+		assertEquals(0, reads.numOverlappers(new SingleInterval("chr3", 0, 10, Strand.BOTH), false));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testUnsortedInput() {
+		reads.add(record("chr1", 201, "50M", false));
+		reads.add(record("chr1", 101, "50M", false));
+	}
+
+	@Test
+	public void testUnsortedInputIsNotStored() {
+		reads.add(record("chr1", 201, "50M", false));
+		try {
+			reads.add(record("chr1", 101, "50M", false));
+		} catch(IllegalArgumentException e) {
+			// expected
+		}
+		reads.add(record("chr1", 301, "50M", false));
+		assertEquals(2, count(reads.sortedIterator()));
+	}
+
+	@Test
+	public void testReadFlags() {
+		SAMRecord record = record("chr1", 101, "50M", true);
+		record.setReadPairedFlag(true);
+		record.setFirstOfPairFlag(true);
+		record.setDuplicateReadFlag(true);
+		reads.add(record);
+		CloseableIterator<OffHeapReadCollection.StoredRead> iter = reads.sortedIterator();
+		OffHeapReadCollection.StoredRead read = iter.next();
+		iter.close();
+		assertEquals(record.getFlags(), read.getFlags());
+		assertEquals(EnumSet.of(SAMFlag.PAIRED, SAMFlag.REVERSE_STRAND, SAMFlag.FIRST_OF_PAIR, SAMFlag.DUPLICATE), read.getReadFlags());
+	}
+
+	@Test
+	public void testMappedFile() throws IOException {
+		File backingFile = File.createTempFile("reads", ".bin");
+		OffHeapReadCollection mapped = new OffHeapReadCollection(space, 64, backingFile);
+		for(int i = 0; i < 100; i++) {
+			mapped.add(record("chr1", 1 + 100 * i, "20M100N30M", i % 2 == 0));
+			reads.add(record("chr1", 1 + 100 * i, "20M100N30M", i % 2 == 0));
+		}
+		mapped.close();
+		// Reads stay readable after the file is closed
+		assertTrue(backingFile.length() >= mapped.getNumBytesUsed());
+		assertEquals(100, mapped.getNumAnnotations());
+		CloseableIterator<OffHeapReadCollection.StoredRead> expected = reads.sortedIterator();
+		CloseableIterator<OffHeapReadCollection.StoredRead> iter = mapped.sortedIterator();
+		while(expected.hasNext()) {
+			OffHeapReadCollection.StoredRead read = iter.next();
+			OffHeapReadCollection.StoredRead other = expected.next();
+			assertEquals(other.toBED(), read.toBED());
+			assertEquals(other.getMappingQuality(), read.getMappingQuality());
+			assertEquals(other.getNameHash(), read.getNameHash());
+		}
+		assertFalse(iter.hasNext());
+		iter.close();
+		expected.close();
+		SingleInterval region = new SingleInterval("chr1", 1000, 1220, Strand.BOTH);
+		assertEquals(reads.numOverlappers(region, false), mapped.numOverlappers(region, false));
+		backingFile.delete();
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testAddAfterClose() throws IOException {
+		File backingFile = File.createTempFile("reads", ".bin");
+		OffHeapReadCollection mapped = new OffHeapReadCollection(space, 64, backingFile);
+		mapped.close();
+		mapped.add(record("chr1", 101, "50M", false));
+	}
+
+}
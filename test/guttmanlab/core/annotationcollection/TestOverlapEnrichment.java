@@ -0,0 +1,153 @@
+package guttmanlab.core.annotationcollection;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import guttmanlab.core.annotation.SingleInterval;
+import guttmanlab.core.coordinatespace.CoordinateSpace;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.SplittableRandom;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestOverlapEnrichment {
+
+	private CoordinateSpace space;
+	private FeatureCollection<SingleInterval> features;
+	private FeatureCollection<SingleInterval> random;
+	private FeatureCollection<SingleInterval> excluded;
+
+	@Before
+	public void setUp() {
+		Map<String, Integer> sizes = new LinkedHashMap<String, Integer>();
+		sizes.put("chr1", 100000);
+		sizes.put("chr2", 60000);
+		sizes.put("chr3", 5000);
+		space = new CoordinateSpace(sizes);
+		features = new FeatureCollection<SingleInterval>(space);
+		random = new FeatureCollection<SingleInterval>(space);
+		excluded = new FeatureCollection<SingleInterval>(space);
+		Random rand = new Random(3);
+		for(String chr : sizes.keySet()) {
+			int size = sizes.get(chr).intValue();
+			for(int i = 0; i < size / 2000; i++) {
+				int start = rand.nextInt(size - 500);
+				features.add(new SingleInterval(chr, start, start + rand.nextInt(400) + 100));
+				start = rand.nextInt(size - 300);
+				random.add(new SingleInterval(chr, start, start + rand.nextInt(200) + 100));
+			}
+		}
+		excluded.add(new SingleInterval("chr1", 0, 50000));
+		excluded.add(new SingleInterval("chr2", 10000, 20000));
+	}
+
+	@Test
+	public void testObservedSameAsNumOverlappers() {
+		OverlapEnrichment enrichment = new OverlapEnrichment(random, features, space);
+		int expected = 0;
+		for(SingleInterval interval : random) {
+			boolean overlaps = false;
+			for(SingleInterval feature : features) {
+				overlaps |= feature.overlaps(interval);
+			}
+			if(overlaps) {
+				expected++;
+			}
+		}
+		assertEquals(expected, enrichment.getObserved());
+		assertEquals(random.getNumAnnotations(), enrichment.getNumIntervals());
+	}
+
+	@Test
+	public void testReproducibleAcrossThreads() {
+		OverlapEnrichment enrichment = new OverlapEnrichment(random, features, space);
+		enrichment.setSeed(42);
+		enrichment.setNumThreads(1);
+		OverlapEnrichment.Result serial = enrichment.permute(50);
+		enrichment.setNumThreads(3);
+		OverlapEnrichment.Result parallel = enrichment.permute(50);
+		assertArrayEquals(serial.getPermuted(), parallel.getPermuted());
+		enrichment.setSeed(43);
+		assertFalse(Arrays.equals(serial.getPermuted(), enrichment.permute(50).getPermuted()));
+	}
+
+	@Test
+	public void testShuffleRespectsBoundsAndExclusions() {
+		for(boolean withinReference : new boolean[] {true, false}) {
+			OverlapEnrichment enrichment = new OverlapEnrichment(random, features, space);
+			enrichment.setExcludedRegions(excluded);
+			enrichment.setWithinReference(withinReference);
+			long[][] shuffled = enrichment.shuffle(new SplittableRandom(1));
+			String[] names = enrichment.getReferenceNames();
+			int total = 0;
+			for(int i = 0; i < names.length; i++) {
+				int size = space.getRefSeqLengths().get(names[i]).intValue();
+				for(long packed : shuffled[i]) {
+					int start = OverlapEnrichment.start(packed);
+					int end = start + OverlapEnrichment.length(packed);
+					assertTrue(start >= 0 && end <= size);
+					assertFalse(names[i].equals("chr1") && start < 50000);
+					assertFalse(names[i].equals("chr2") && start < 20000 && end > 10000);
+				}
+				if(withinReference) {
+					String name = names[i];
+					assertEquals(random.stream().filter(interval -> interval.getReferenceName().equals(name)).count(), shuffled[i].length);
+				}
+				total += shuffled[i].length;
+			}
+			assertEquals(random.getNumAnnotations(), total);
+		}
+	}
+
+	@Test
+	public void testEnrichment() {
+		OverlapEnrichment enriched = new OverlapEnrichment(features, features, space);
+		OverlapEnrichment.Result result = enriched.permute(99);
+		assertEquals(features.getNumAnnotations(), result.getObserved());
+		assertEquals(0.01, result.getPValue(), 1e-9);
+		assertTrue(result.getFoldEnrichment() > 2);
+		OverlapEnrichment.Result background = new OverlapEnrichment(random, features, space).permute(99);
+		assertTrue(background.getPValue() > 0.01);
+		assertTrue(background.getDepletionPValue() > 0.01);
+	}
+
+	@Test
+	public void testBootstrap() {
+		OverlapEnrichment enrichment = new OverlapEnrichment(random, features, space);
+		int[] replicates = enrichment.bootstrap(200);
+		assertEquals(200, replicates.length);
+		for(int i = 1; i < replicates.length; i++) {
+			assertTrue(replicates[i - 1] <= replicates[i]);
+		}
+		double mean = Arrays.stream(replicates).average().getAsDouble();
+		assertEquals(enrichment.getObserved(), mean, 0.2 * enrichment.getObserved() + 2);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testBootstrapNoIntervals() {
+		new OverlapEnrichment(new FeatureCollection<SingleInterval>(space), features, space).bootstrap(10);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testPermuteNoIntervals() {
+		new OverlapEnrichment(new FeatureCollection<SingleInterval>(space), features, space).permute(10);
+	}
+
+	@Test
+	public void testOverlaps() {
+		int[] intervals = {10, 20, 30, 40};
+		assertFalse(OverlapEnrichment.overlaps(intervals, 0, 10));
+		assertTrue(OverlapEnrichment.overlaps(intervals, 0, 11));
+		assertTrue(OverlapEnrichment.overlaps(intervals, 19, 30));
+		assertFalse(OverlapEnrichment.overlaps(intervals, 20, 30));
+		assertFalse(OverlapEnrichment.overlaps(intervals, 40, 50));
+		assertFalse(OverlapEnrichment.overlaps(new int[0], 0, 10));
+	}
+
+}
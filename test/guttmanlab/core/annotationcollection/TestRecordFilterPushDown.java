@@ -0,0 +1,159 @@
+package guttmanlab.core.annotationcollection;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import guttmanlab.core.annotation.Annotation.Strand;
+import guttmanlab.core.annotation.PairedMappedFragment;
+import guttmanlab.core.annotation.SAMFragment;
+import guttmanlab.core.annotation.SingleInterval;
+import guttmanlab.core.annotation.predicate.InsertSizeFilter;
+import guttmanlab.core.annotation.predicate.MappingQualityFilter;
+import guttmanlab.core.annotation.predicate.SAMFlag;
+import guttmanlab.core.annotation.predicate.SecondReadFilter;
+import guttmanlab.core.annotation.predicate.StrandFilter;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import net.sf.samtools.SAMFileHeader;
+import net.sf.samtools.SAMFileWriter;
+import net.sf.samtools.SAMFileWriterFactory;
+import net.sf.samtools.SAMRecord;
+import net.sf.samtools.SAMSequenceRecord;
+import net.sf.samtools.util.CloseableIterator;
+
+import org.apache.commons.collections15.Predicate;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Filters pushed down to the SAM records of a BAM file must pass the same reads as the filters applied to
+ * the fragments
+ */
+public class TestRecordFilterPushDown {
+
+	private static final int CHR_SIZE = 100000;
+	private static final String BASES = "ACGTACGTACGTACGTACGTACGTACGTACGTACGTACGTACGTACGTAC";
+	private static final String QUALITIES = "IIIIIIIIIIIIIIIIIIIIIIIIIIIIIIIIIIIIIIIIIIIIIIIIII";
+
+	private static File bam;
+	private static SingleInterval region = new SingleInterval("chr1", 20000, 60000, Strand.BOTH);
+
+	@BeforeClass
+	public static void setUp() throws IOException {
+		SAMFileHeader header = new SAMFileHeader();
+		header.addSequence(new SAMSequenceRecord("chr1", CHR_SIZE));
+		header.setSortOrder(SAMFileHeader.SortOrder.coordinate);
+		bam = File.createTempFile("pushdown", ".bam");
+		bam.deleteOnExit();
+		new File(bam.getPath().replaceAll("\\.bam$", ".bai")).deleteOnExit();
+		Random random = new Random(8);
+		List<SAMRecord> records = new ArrayList<SAMRecord>();
+		for(int i = 0; i < 500; i++) {
+			int start = 1 + random.nextInt(CHR_SIZE - 2000);
+			int mateStart = start + random.nextInt(1000);
+			boolean negative = random.nextBoolean();
+			int[] mappingQualities = {random.nextInt(60), random.nextInt(60)};
+			records.add(read(header, "pair" + i, start, mateStart, negative, true, mappingQualities[0]));
+			records.add(read(header, "pair" + i, mateStart, start, !negative, false, mappingQualities[1]));
+		}
+		records.sort((r1, r2) -> Integer.compare(r1.getAlignmentStart(), r2.getAlignmentStart()));
+		SAMFileWriter writer = new SAMFileWriterFactory().setCreateIndex(true).makeBAMWriter(header, true, bam);
+		for(SAMRecord record : records) {
+			writer.addAlignment(record);
+		}
+		writer.close();
+	}
+
+	private static SAMRecord read(SAMFileHeader header, String name, int start, int mateStart, boolean negative, boolean first, int mappingQuality) {
+		SAMRecord record = new SAMRecord(header);
+		record.setReadName(name);
+		record.setReferenceName("chr1");
+		record.setAlignmentStart(start);
+		record.setCigarString("20M50N30M");
+		record.setReadPairedFlag(true);
+		record.setProperPairFlag(true);
+		record.setFirstOfPairFlag(first);
+		record.setSecondOfPairFlag(!first);
+		record.setReadNegativeStrandFlag(negative);
+		record.setMateReferenceName("chr1");
+		record.setMateAlignmentStart(mateStart);
+		record.setMateNegativeStrandFlag(!negative);
+		record.setMappingQuality(mappingQuality);
+		record.setInferredInsertSize(first == start <= mateStart ? Math.abs(mateStart - start) + 100 : -Math.abs(mateStart - start) - 100);
+		record.setReadString(BASES);
+		record.setBaseQualityString(QUALITIES);
+		return record;
+	}
+
+	private static <T> List<String> names(CloseableIterator<T> iter, Predicate<? super T> postFilter) {
+		List<String> rtrn = new ArrayList<String>();
+		while(iter.hasNext()) {
+			T next = iter.next();
+			if(postFilter == null || postFilter.evaluate(next)) {
+				rtrn.add(next.toString());
+			}
+		}
+		iter.close();
+		return rtrn;
+	}
+
+	private static void assertSameAsPostFilter(Predicate<SAMFragment> filter) {
+		BAMSingleReadCollection reads = new BAMSingleReadCollection(bam);
+		BAMSingleReadCollection filtered = new BAMSingleReadCollection(bam);
+		filtered.addFilter(filter);
+		List<String> expected = names(reads.sortedIterator(), filter);
+		assertTrue(expected.size() > 0 && expected.size() < 1000);
+		assertEquals(expected, names(filtered.sortedIterator(), null));
+		expected = names(reads.sortedIterator(region, false), filter);
+		assertTrue(expected.size() > 0);
+		assertEquals(expected, names(filtered.sortedIterator(region, false), null));
+	}
+
+	@Test
+	public void testSingleReads() {
+		assertSameAsPostFilter(new MappingQualityFilter<SAMFragment>(30));
+		assertSameAsPostFilter(new StrandFilter<SAMFragment>(Strand.NEGATIVE));
+		assertSameAsPostFilter(new SecondReadFilter<SAMFragment>());
+	}
+
+	@Test
+	public void testPairedInsertSize() throws IOException {
+		InsertSizeFilter<PairedMappedFragment<SAMFragment>> filter = new InsertSizeFilter<PairedMappedFragment<SAMFragment>>(500);
+		BAMPairedFragmentCollection fragments = new BAMPairedFragmentCollection(bam);
+		List<String> all = names(fragments.sortedIterator(region, false), null);
+		List<String> expected = names(fragments.sortedIterator(region, false), filter);
+		assertTrue(expected.size() > 0 && expected.size() < all.size());
+		BAMPairedFragmentCollection filtered = new BAMPairedFragmentCollection(bam);
+		filtered.addFilter(filter);
+		assertEquals(expected, names(filtered.sortedIterator(region, false), null));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testPairedMappingQualityRejected() throws IOException {
+		// A fragment has no single mapping quality, so the filter is not decided by the quality of one read
+		BAMPairedFragmentCollection filtered = new BAMPairedFragmentCollection(bam);
+		filtered.addFilter(new MappingQualityFilter<PairedMappedFragment<SAMFragment>>(30));
+	}
+
+	@Test
+	public void testReadFlags() {
+		BAMSingleReadCollection reads = new BAMSingleReadCollection(bam);
+		CloseableIterator<SAMFragment> iter = reads.sortedIterator(region, false);
+		int numSecond = 0;
+		while(iter.hasNext()) {
+			SAMFragment read = iter.next();
+			assertTrue(read.getReadFlags().contains(SAMFlag.PAIRED));
+			assertEquals(read.getSamRecord().getSecondOfPairFlag(), read.getReadFlags().contains(SAMFlag.SECOND_OF_PAIR));
+			if(read.getReadFlags().contains(SAMFlag.SECOND_OF_PAIR)) {
+				numSecond++;
+			}
+		}
+		iter.close();
+		assertTrue(numSecond > 0);
+	}
+
+}
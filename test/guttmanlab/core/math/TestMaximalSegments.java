@@ -0,0 +1,118 @@
+package guttmanlab.core.math;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class TestMaximalSegments {
+
+	/**
+	 * Maximal segments by their recursive definition: the best segment, then the maximal segments on either side
+	 */
+	private static void bruteForce(double[] scores, int from, int to, List<long[]> segments) {
+		double best = 0;
+		int bestStart = -1;
+		int bestEnd = -1;
+		for(int i = from; i < to; i++) {
+			double sum = 0;
+			for(int j = i; j < to; j++) {
+				sum += scores[j];
+				if(sum > best) {
+					best = sum;
+					bestStart = i;
+					bestEnd = j + 1;
+				}
+			}
+		}
+		if(bestStart < 0) {
+			return;
+		}
+		bruteForce(scores, from, bestStart, segments);
+		segments.add(new long[] {bestStart, bestEnd});
+		bruteForce(scores, bestEnd, to, segments);
+	}
+
+	private static void check(double[] scores) {
+		List<long[]> expected = new ArrayList<long[]>();
+		bruteForce(scores, 0, scores.length, expected);
+		List<MaximalSegments.Segment> segments = MaximalSegments.find(scores);
+		assertEquals(expected.size(), segments.size());
+		for(int i = 0; i < expected.size(); i++) {
+			MaximalSegments.Segment segment = segments.get(i);
+			assertEquals(expected.get(i)[0], segment.getStart());
+			assertEquals(expected.get(i)[1], segment.getEnd());
+			double sum = 0;
+			for(long j = segment.getStart(); j < segment.getEnd(); j++) {
+				sum += scores[(int) j];
+			}
+			assertEquals(sum, segment.getScore(), 1e-9);
+		}
+	}
+
+	@Test
+	public void testRuzzoTompaExample() {
+		// Example of Ruzzo and Tompa: maximal segments 4, 5 -1 3 and 3
+		List<MaximalSegments.Segment> segments = MaximalSegments.find(new double[] {4, -5, 3, -3, 1, 2, -2, 2, -2, 1, 5});
+		assertEquals(3, segments.size());
+		assertEquals(0, segments.get(0).getStart());
+		assertEquals(1, segments.get(0).getEnd());
+		assertEquals(2, segments.get(1).getStart());
+		assertEquals(3, segments.get(1).getEnd());
+		assertEquals(4, segments.get(2).getStart());
+		assertEquals(11, segments.get(2).getEnd());
+		assertEquals(7, segments.get(2).getScore(), 1e-9);
+	}
+
+	@Test
+	public void testMatchesBruteForce() {
+		Random random = new Random(5);
+		for(int trial = 0; trial < 200; trial++) {
+			double[] scores = new double[random.nextInt(200)];
+			double bias = random.nextDouble() - 0.7;
+			for(int i = 0; i < scores.length; i++) {
+				scores[i] = random.nextGaussian() + bias;
+			}
+			check(scores);
+		}
+	}
+
+	@Test
+	public void testBestSegmentSameAsMaxSubSum() {
+		double[] scores = {-.05, -.05, -.05, 1, 1, 1, 1, 1, 1, 1, 1, -1, -1, -1, -1, -1, 1};
+		double[] max = MaximumContiguousSubsequence.maxSubSum3(scores);
+		MaximalSegments.Segment best = null;
+		for(MaximalSegments.Segment segment : MaximalSegments.find(scores)) {
+			if(best == null || segment.getScore() > best.getScore()) {
+				best = segment;
+			}
+		}
+		assertEquals(max[0], best.getScore(), 1e-9);
+		assertEquals((long) max[1], best.getStart());
+		assertEquals((long) max[2] + 1, best.getEnd());
+	}
+
+	@Test
+	public void testPositionsAndFinish() {
+		List<MaximalSegments.Segment> found = new ArrayList<MaximalSegments.Segment>();
+		MaximalSegments segments = new MaximalSegments(found::add);
+		segments.add(-1, 0, 100);
+		segments.add(2, 50, 150);
+		segments.add(1, 100, 200);
+		segments.add(-5, 150, 250);
+		// Emitted as soon as the cumulative score falls below the start of the segment
+		assertEquals(1, found.size());
+		assertEquals(50, found.get(0).getStart());
+		assertEquals(200, found.get(0).getEnd());
+		segments.add(3, 200, 300);
+		assertEquals(1, found.size());
+		segments.finish();
+		assertEquals(2, found.size());
+		assertEquals(200, found.get(1).getStart());
+		assertEquals(3, found.get(1).getScore(), 0);
+	}
+
+}
@@ -1,12 +1,69 @@
 package guttmanlab.core.math;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
 import org.junit.Test;
 
 public class TestScanStat {
-	
+
+	private static final double TOLERANCE = 1e-9;
+
+	private static double[][] randomCounts(int numWindows, int maxCount, long seed) {
+		Random random = new Random(seed);
+		double[][] rtrn = new double[2][numWindows];
+		for(int i = 0; i < numWindows; i++) {
+			rtrn[0][i] = random.nextInt(maxCount);
+			rtrn[1][i] = random.nextInt(maxCount);
+		}
+		return rtrn;
+	}
+
+	@Test
+	public void testPValues() {
+		double[][] counts = randomCounts(2000, 60, 1);
+		double[] pvals = ScanStat.getPValues(counts[0], counts[1], 150000, 100000, 500, 1000000);
+		for(int i = 0; i < pvals.length; i++) {
+			assertEquals(ScanStat.getPValue(counts[0][i], counts[1][i], 150000, 100000, 500, 1000000), pvals[i], TOLERANCE);
+		}
+	}
+
 	@Test
-	public void dummyTest() {
-		System.err.println("No tests in " + TestScanStat.class.getSimpleName());
+	public void testPValuesLargeCounts() {
+		// exp(-lambda) underflows for these means
+		double[] control = {400, 900, 1200, 3};
+		double[] sample = {600, 1000, 1500, 1};
+		double[] pvals = ScanStat.getPValues(control, sample, 1000000, 1000000, 1000, 50000000);
+		for(int i = 0; i < pvals.length; i++) {
+			assertEquals(ScanStat.getPValue(control[i], sample[i], 1000000, 1000000, 1000, 50000000), pvals[i], TOLERANCE);
+		}
+	}
+
+	@Test
+	public void testBinomialPValues() {
+		double[][] counts = randomCounts(2000, 60, 2);
+		double[] pvals = ScanStat.getBinomialPValues(counts[0], counts[1], 150000, 100000, 500);
+		for(int i = 0; i < pvals.length; i++) {
+			// The cumulative probability of jsc is accurate to about 1e-9
+			assertEquals(ScanStat.getBinomialPValue(counts[0][i], counts[1][i], 150000, 100000, 500).doubleValue(), pvals[i], 1e-8);
+		}
+	}
+
+	@Test
+	public void testBinomialPValuesSmall() {
+		double[] pvals = ScanStat.getBinomialPValues(new double[] {0, 1, 0}, new double[] {100, 0, 0}, 1000, 1000, 500);
+		// 0.5^100, which is lost when computed as one minus the cumulative probability
+		assertEquals(Math.pow(0.5, 100), pvals[0], 1e-40);
+		assertTrue(pvals[0] > 0);
+		assertEquals(1, pvals[1], 0);
+		assertEquals(1, pvals[2], 0);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testDifferentLengths() {
+		ScanStat.getPValues(new double[2], new double[3], 100, 100, 10, 1000);
 	}
 
 }
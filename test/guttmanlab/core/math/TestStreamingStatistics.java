@@ -0,0 +1,107 @@
+package guttmanlab.core.math;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.stream.DoubleStream;
+
+import org.junit.Test;
+
+public class TestStreamingStatistics {
+
+	private static double variance(double[] values) {
+		double mean = Arrays.stream(values).average().getAsDouble();
+		double rtrn = 0;
+		for(double value : values) {
+			rtrn += (value - mean) * (value - mean);
+		}
+		return rtrn / (values.length - 1);
+	}
+
+	@Test
+	public void testCounts() {
+		Random random = new Random(1);
+		double[] values = new double[10001];
+		for(int i = 0; i < values.length; i++) {
+			values[i] = random.nextInt(random.nextBoolean() ? 20 : 500);
+		}
+		StreamingStatistics stats = new StreamingStatistics();
+		stats.acceptAll(values);
+		double[] sorted = values.clone();
+		Arrays.sort(sorted);
+		assertEquals(values.length, stats.getCount());
+		assertEquals(Arrays.stream(values).sum(), stats.getSum(), 1e-6);
+		assertEquals(Arrays.stream(values).average().getAsDouble(), stats.getMean(), 1e-9);
+		assertEquals(variance(values), stats.getVariance(), 1e-6);
+		assertEquals(sorted[0], stats.getMin(), 0);
+		assertEquals(sorted[sorted.length - 1], stats.getMax(), 0);
+		// Exact for whole numbers
+		for(double pct : new double[] {0, 0.1, 0.25, 0.5, 0.77, 0.9, 0.999}) {
+			assertEquals(Statistics.quantile(sorted, pct), stats.quantile(pct), 1e-9);
+		}
+		assertEquals(sorted[sorted.length - 1], stats.quantile(1), 0);
+		assertEquals(Arrays.stream(values).filter(v -> v == 7).count(), stats.getCount(7));
+	}
+
+	@Test
+	public void testRelativeAccuracy() {
+		Random random = new Random(2);
+		double[] values = new double[5000];
+		for(int i = 0; i < values.length; i++) {
+			values[i] = Math.exp(random.nextGaussian() * 3) * (random.nextInt(10) == 0 ? -1 : 1);
+		}
+		StreamingStatistics stats = new StreamingStatistics(0.01, 100);
+		stats.acceptAll(values);
+		double[] sorted = values.clone();
+		Arrays.sort(sorted);
+		for(int i = 0; i <= 100; i++) {
+			// Order statistics, where the weighted average method doesn't interpolate
+			int rank = i * (sorted.length - 1) / 100;
+			double pct = (double) rank / (sorted.length - 1);
+			double expected = sorted[rank];
+			assertEquals(expected, stats.quantile(pct), Math.abs(expected) * 0.01 + 1e-12);
+		}
+	}
+
+	@Test
+	public void testCombine() {
+		Random random = new Random(3);
+		double[] values = new double[20000];
+		for(int i = 0; i < values.length; i++) {
+			values[i] = random.nextInt(4) == 0 ? random.nextDouble() * 1e6 : random.nextInt(100);
+		}
+		StreamingStatistics all = new StreamingStatistics();
+		all.acceptAll(values);
+		StreamingStatistics combined = DoubleStream.of(values).parallel()
+				.collect(StreamingStatistics::new, StreamingStatistics::accept, StreamingStatistics::combine);
+		assertEquals(all.getCount(), combined.getCount());
+		assertEquals(all.getMean(), combined.getMean(), 1e-6);
+		assertEquals(all.getVariance(), combined.getVariance(), all.getVariance() * 1e-9);
+		assertEquals(all.getMin(), combined.getMin(), 0);
+		assertEquals(all.getMax(), combined.getMax(), 0);
+		assertArrayEquals(all.getHistogram(), combined.getHistogram());
+		for(double pct = 0; pct <= 1; pct += 0.05) {
+			assertEquals(all.quantile(pct), combined.quantile(pct), 0);
+		}
+	}
+
+	@Test
+	public void testEmptyAndNaN() {
+		StreamingStatistics stats = new StreamingStatistics();
+		assertEquals(Double.NaN, stats.getMean(), 0);
+		assertEquals(Double.NaN, stats.quantile(0.5), 0);
+		stats.accept(Double.NaN);
+		stats.accept(3);
+		assertEquals(1, stats.getCount());
+		assertEquals(3, stats.quantile(0.5), 0);
+		assertArrayEquals(new long[] {0, 0, 0, 1}, stats.getHistogram());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testCombineDifferentAccuracy() {
+		new StreamingStatistics().combine(new StreamingStatistics(0.05, StreamingStatistics.DEFAULT_MAX_EXACT_VALUE));
+	}
+
+}
@@ -0,0 +1,122 @@
+package guttmanlab.core.pipeline.util;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class TestAdapterClipper {
+	
+	private static final String ADAPTER = "AGATCGGAAG";
+	
+	private static int findAdapter(String read, int minOverlap, double maxMismatchRate) {
+		return AdapterClipper.findAdapter(read.getBytes(StandardCharsets.US_ASCII), 0, read.length(), ADAPTER.getBytes(StandardCharsets.US_ASCII), minOverlap, maxMismatchRate);
+	}
+	
+	@Test
+	public void testFindAdapter() {
+		assertEquals(8, findAdapter("CCCCTTTTAGATCGGAAGCCCC", 3, 0));
+		assertEquals(8, findAdapter("CCCCTTTTagatcggaag", 3, 0));
+		// Partial adapter at the 3' end
+		assertEquals(10, findAdapter("CCCCTTTTCCAGAT", 3, 0));
+		assertEquals(14, findAdapter("CCCCTTTTCCCCAG", 3, 0));
+		assertEquals(12, findAdapter("CCCCTTTTCCCCAG", 2, 0));
+		// One mismatch in ten bases
+		assertEquals(4, findAdapter("CCCCAGATCCGAAGCCCC", 3, 0.1));
+		assertEquals(18, findAdapter("CCCCAGATCCGAAGCCCC", 3, 0));
+		assertEquals(18, findAdapter("CCCCAGTTCCGAAGCCCC", 3, 0.1));
+	}
+	
+	@Test
+	public void testQualityTrim() {
+		FastqRecord record = new FastqRecord("r", "ACGTACGTAC", "+", "IIIIII+#+#");
+		// Phred 40 for I, 10 for +, 2 for #
+		assertEquals(10, AdapterClipper.findQualityTrimPosition(record, 2, 33));
+		assertEquals(6, AdapterClipper.findQualityTrimPosition(record, 20, 33));
+		// A high quality base stops trimming
+		assertEquals(9, AdapterClipper.findQualityTrimPosition(new FastqRecord("r", "ACGTACGTAC", "+", "IIIIII+#I#"), 20, 33));
+	}
+	
+	private static File writeFastq(List<String> names, List<String> sequences) throws IOException {
+		File file = File.createTempFile("test", ".fq");
+		file.deleteOnExit();
+		FileWriter writer = new FileWriter(file);
+		for(int i = 0; i < names.size(); i++) {
+			String seq = sequences.get(i);
+			writer.write("@" + names.get(i) + "\n" + seq + "\n+\n" + seq.replaceAll(".", "I") + "\n");
+		}
+		writer.close();
+		return file;
+	}
+	
+	private static List<FastqSequence> readFastq(File file) throws IOException {
+		List<FastqSequence> rtrn = new ArrayList<FastqSequence>();
+		FastqReader reader = new FastqReader(file);
+		FastqRecord record;
+		while((record = reader.next()) != null) {
+			rtrn.add(record.toFastqSequence());
+		}
+		reader.close();
+		return rtrn;
+	}
+	
+	@Test
+	public void testPaired() throws IOException {
+		List<String> names1 = new ArrayList<String>();
+		List<String> names2 = new ArrayList<String>();
+		List<String> seqs1 = new ArrayList<String>();
+		List<String> seqs2 = new ArrayList<String>();
+		for(int i = 0; i < 10000; i++) {
+			names1.add("read" + i + "/1");
+			names2.add("read" + i + "/2");
+			// Every third read 1 has an insert too short to keep; every fifth read 2 has an adapter
+			seqs1.add(i % 3 == 0 ? "CCAGATCGGAAGTTTTTTTT" : "CCCCCCCCCCCCCCCCCCCC");
+			seqs2.add(i % 5 == 0 ? "GGGGGGGGAGATCGGAAGTT" : "GGGGGGGGGGGGGGGGGGGG");
+		}
+		File out1 = File.createTempFile("test", ".fq");
+		File out2 = File.createTempFile("test", ".fq");
+		out1.deleteOnExit();
+		out2.deleteOnExit();
+		AdapterClipper clipper = new AdapterClipper(ADAPTER, ADAPTER);
+		clipper.setReadNumberDelimiter("/");
+		clipper.setNumThreads(3);
+		AdapterClipper.Summary summary = clipper.clip(writeFastq(names1, seqs1), writeFastq(names2, seqs2), out1, out2);
+		assertEquals(20000, summary.getNumReads());
+		List<FastqSequence> clipped1 = readFastq(out1);
+		List<FastqSequence> clipped2 = readFastq(out2);
+		assertEquals(clipped1.size(), clipped2.size());
+		assertEquals(2 * clipped1.size(), summary.getNumWritten());
+		assertEquals(6666, clipped1.size());
+		for(int i = 0; i < clipped1.size(); i++) {
+			String id = clipped1.get(i).getName().split("/")[0];
+			assertEquals(id, clipped2.get(i).getName().split("/")[0]);
+			int readNum = Integer.parseInt(id.substring(4));
+			assertEquals(20, clipped1.get(i).getLength());
+			assertEquals(readNum % 5 == 0 ? 8 : 20, clipped2.get(i).getLength());
+		}
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testOutOfSync() throws IOException {
+		List<String> names1 = new ArrayList<String>();
+		List<String> names2 = new ArrayList<String>();
+		List<String> seqs = new ArrayList<String>();
+		for(int i = 0; i < 10; i++) {
+			names1.add("read" + i);
+			names2.add("read" + (i == 5 ? 6 : i));
+			seqs.add("ACGTACGTAC");
+		}
+		File out1 = File.createTempFile("test", ".fq");
+		File out2 = File.createTempFile("test", ".fq");
+		out1.deleteOnExit();
+		out2.deleteOnExit();
+		new AdapterClipper(ADAPTER, ADAPTER).clip(writeFastq(names1, seqs), writeFastq(names2, seqs), out1, out2);
+	}
+
+}
@@ -0,0 +1,128 @@
+package guttmanlab.core.pipeline.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class TestBarcodeDemultiplexer {
+	
+	private static final String[] BARCODES = {"ACGTAC", "TTGCAA", "GACCTG"};
+	
+	private static File writeReads(int numReads) throws IOException {
+		File file = File.createTempFile("test", ".fq");
+		file.deleteOnExit();
+		FileWriter writer = new FileWriter(file);
+		for(int i = 0; i < numReads; i++) {
+			// Barcode after two bases; every fourth read has no barcode
+			String barcode = i % 4 == 3 ? "CCCCCC" : BARCODES[i % 4];
+			if(i % 8 == 1) {
+				barcode = barcode.substring(0, 5) + "N";
+			}
+			String seq = "GG" + barcode + "AAAAAAAA";
+			writer.write("@read" + i + " 1\n" + seq + "\n+\n" + seq.replaceAll(".", "I") + "\n");
+		}
+		writer.close();
+		return file;
+	}
+	
+	private static int countReads(File file) throws IOException {
+		file.deleteOnExit();
+		return (int) FastqReader.countRecords(file);
+	}
+	
+	@Test
+	public void testSplit() throws IOException {
+		File in = writeReads(10000);
+		BarcodeDemultiplexer demultiplexer = new BarcodeDemultiplexer(new BarcodeTable(Arrays.asList(BARCODES), 1), 2);
+		demultiplexer.setNumThreads(3);
+		String prefix = in.getPath();
+		BarcodeDemultiplexer.Summary summary = demultiplexer.split(in, prefix);
+		assertEquals(2500, summary.getCount(0));
+		assertEquals(2500, summary.getCount(1));
+		assertEquals(2500, summary.getCount(2));
+		assertEquals(2500, summary.getNumUnmatched());
+		assertEquals(0, summary.getNumAmbiguous());
+		for(String barcode : BARCODES) {
+			assertEquals(2500, countReads(new File(prefix + "." + barcode + ".fq")));
+		}
+		assertEquals(2500, countReads(new File(prefix + ".unmatched.fq")));
+		FastqReader reader = new FastqReader(new File(prefix + "." + BARCODES[1] + ".fq"));
+		assertEquals("read1 1", reader.next().getName());
+		assertEquals("read5 1", reader.next().getName());
+		reader.close();
+	}
+	
+	@Test
+	public void testSplitWithMoreBarcodesThanOpenFiles() throws IOException {
+		// 64 barcodes differing in their first three bases
+		List<String> barcodes = new ArrayList<String>();
+		for(int i = 0; i < 64; i++) {
+			barcodes.add("" + "ACGT".charAt(i / 16) + "ACGT".charAt(i / 4 % 4) + "ACGT".charAt(i % 4) + "GATC");
+		}
+		File in = File.createTempFile("test", ".fq");
+		in.deleteOnExit();
+		FileWriter writer = new FileWriter(in);
+		for(int i = 0; i < 6400; i++) {
+			String seq = "GG" + barcodes.get(i * 7 % 64) + "AAAA";
+			writer.write("@read" + i + "\n" + seq + "\n+\n" + seq.replaceAll(".", "I") + "\n");
+		}
+		writer.close();
+		BarcodeDemultiplexer demultiplexer = new BarcodeDemultiplexer(new BarcodeTable(barcodes, 0), 2);
+		demultiplexer.setMaxOpenFiles(5);
+		demultiplexer.setNumThreads(2);
+		String prefix = in.getPath();
+		BarcodeDemultiplexer.Summary summary = demultiplexer.split(in, prefix);
+		assertEquals(0, summary.getNumUnmatched());
+		for(int i = 0; i < 64; i++) {
+			assertEquals(100, summary.getCount(i));
+			File file = new File(prefix + "." + barcodes.get(i) + ".fq");
+			assertEquals(100, countReads(file));
+			// Reopened files are appended to, keeping the reads in order
+			FastqReader reader = new FastqReader(file);
+			int previous = -1;
+			FastqRecord record;
+			while((record = reader.next()) != null) {
+				int number = Integer.parseInt(record.getName().substring(4));
+				assertTrue(number > previous);
+				previous = number;
+			}
+			reader.close();
+		}
+		assertFalse(new File(prefix + ".unmatched.fq").exists());
+	}
+	
+	@Test
+	public void testTag() throws IOException {
+		File in = writeReads(1000);
+		File out = File.createTempFile("test", ".fq");
+		out.deleteOnExit();
+		BarcodeDemultiplexer demultiplexer = new BarcodeDemultiplexer(new BarcodeTable(Arrays.asList(BARCODES), 1), 2);
+		demultiplexer.tag(in, out);
+		FastqReader reader = new FastqReader(out);
+		FastqRecord record = reader.next();
+		assertEquals("read0 BC:Z:ACGTAC", record.getName());
+		assertEquals("read0", record.getReadId());
+		record = reader.next();
+		assertEquals("read1 BC:Z:TTGCAA", record.getName());
+		assertEquals("GGTTGCANAAAAAAAA", record.getSequence());
+		int numReads = 2;
+		while((record = reader.next()) != null) {
+			assertTrue(record.getName().startsWith(record.getReadId() + " BC:Z:"));
+			assertEquals(2, record.getName().split(" ").length);
+			assertFalse(record.getSequence().contains("CCCCCC"));
+			numReads++;
+		}
+		reader.close();
+		assertEquals(750, numReads);
+	}
+
+}
@@ -0,0 +1,107 @@
+package guttmanlab.core.pipeline.util;
+
+import static org.junit.Assert.assertEquals;
+
+import guttmanlab.core.alignment.LocalAlignmentUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class TestBarcodeTable {
+	
+	@Test
+	public void testExactAndMismatches() {
+		BarcodeTable table = new BarcodeTable(Arrays.asList("AAAAAA", "CCCCCC", "GGGGTT"), 1);
+		assertEquals(0, table.match("AAAAAA"));
+		assertEquals(0, table.match("AAAcAA"));
+		assertEquals(2, table.match("GGGGTA"));
+		assertEquals(BarcodeTable.NO_MATCH, table.match("AAAACC"));
+		assertEquals(BarcodeTable.NO_MATCH, table.match("ACGTAC"));
+		assertEquals(0, table.getNumCollisions());
+	}
+	
+	@Test
+	public void testN() {
+		BarcodeTable table = new BarcodeTable(Arrays.asList("AAAAAA", "CCCCCC"), 2);
+		assertEquals(0, table.match("AANAAA"));
+		assertEquals(0, table.match("AANAAC"));
+		assertEquals(BarcodeTable.NO_MATCH, table.match("AANACC"));
+		assertEquals(BarcodeTable.NO_MATCH, table.match("NNNAAA"));
+	}
+	
+	@Test
+	public void testCollisions() {
+		// Distance 2 apart, so the sequences between them are ambiguous with 1 mismatch
+		BarcodeTable table = new BarcodeTable(Arrays.asList("AAAAAA", "AAAACC"), 1);
+		assertEquals(2, table.getNumCollisions());
+		assertEquals(BarcodeTable.AMBIGUOUS, table.match("AAAAAC"));
+		assertEquals(BarcodeTable.AMBIGUOUS, table.match("AAAACA"));
+		assertEquals(0, table.match("AAAANA"));
+		// Distance 1 apart: each barcode is closer to itself
+		table = new BarcodeTable(Arrays.asList("AAAAAA", "AAAAAC"), 1);
+		assertEquals(0, table.match("AAAAAA"));
+		assertEquals(1, table.match("AAAAAC"));
+		assertEquals(BarcodeTable.AMBIGUOUS, table.match("AAAAAG"));
+		assertEquals(BarcodeTable.AMBIGUOUS, table.match("AAAAAN"));
+	}
+	
+	@Test
+	public void testLongBarcodes() {
+		String allT = "TTTTTTTTTTTTTTTTTTTTTTTTTTTTTTTT";
+		BarcodeTable table = new BarcodeTable(Arrays.asList(allT, "ACGTACGTACGTACGTACGTACGTACGTACGT"), 1);
+		assertEquals(0, table.match(allT));
+		assertEquals(0, table.match("TTTTTTTTTTTTTTTTTTTTTTTTTTTTTTTA"));
+		assertEquals(1, table.match("ACGTACGTACGTACGTACGTACGTACGTACGA"));
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidBarcode() {
+		new BarcodeTable(Arrays.asList("AAAAAA", "AANAAA"), 1);
+	}
+	
+	@Test
+	public void testRandomAgainstHammingDistance() {
+		Random random = new Random(3);
+		List<String> barcodes = new ArrayList<String>();
+		for(int i = 0; i < 200; i++) {
+			barcodes.add(randomSequence(random, 8));
+		}
+		BarcodeTable table = new BarcodeTable(barcodes, 2);
+		for(int i = 0; i < 2000; i++) {
+			String seq = i % 2 == 0 ? barcodes.get(random.nextInt(barcodes.size())) : randomSequence(random, 8);
+			char[] chars = seq.toCharArray();
+			for(int j = 0; j < random.nextInt(4); j++) {
+				chars[random.nextInt(chars.length)] = "ACGTN".charAt(random.nextInt(5));
+			}
+			seq = new String(chars);
+			int best = Integer.MAX_VALUE;
+			int expected = BarcodeTable.NO_MATCH;
+			for(int id = 0; id < barcodes.size(); id++) {
+				int distance = LocalAlignmentUtils.hammingDist(seq, barcodes.get(id), false);
+				if(distance > 2) {
+					continue;
+				}
+				if(distance < best) {
+					best = distance;
+					expected = id;
+				} else if(distance == best) {
+					expected = BarcodeTable.AMBIGUOUS;
+				}
+			}
+			assertEquals(seq, expected, table.match(seq));
+		}
+	}
+	
+	private static String randomSequence(Random random, int length) {
+		StringBuilder sb = new StringBuilder();
+		for(int i = 0; i < length; i++) {
+			sb.append("ACGT".charAt(random.nextInt(4)));
+		}
+		return sb.toString();
+	}
+
+}
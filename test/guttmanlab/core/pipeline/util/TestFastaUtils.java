@@ -1,12 +1,27 @@
 package guttmanlab.core.pipeline.util;
 
+import static org.junit.Assert.assertEquals;
+import guttmanlab.core.sequence.FastaIndex;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+
 import org.junit.Test;
 
 public class TestFastaUtils {
 	
 	@Test
-	public void dummyTest() {
-		System.err.println("No tests in " + TestFastaUtils.class.getSimpleName());
+	public void testIndexFastaFile() throws IOException {
+		File fasta = File.createTempFile("test", ".fa");
+		File index = new File(fasta.getPath() + FastaIndex.EXTENSION);
+		fasta.deleteOnExit();
+		index.deleteOnExit();
+		FileWriter writer = new FileWriter(fasta);
+		writer.write(">chr1\nACGT\nAC\n");
+		writer.close();
+		FastaUtils.indexFastaFile(fasta.getPath());
+		assertEquals("chr1\t6\t6\t4\t5", FastaIndex.read(index).getEntry("chr1").toString());
 	}
 
 }
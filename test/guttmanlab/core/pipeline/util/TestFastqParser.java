@@ -1,12 +1,62 @@
 package guttmanlab.core.pipeline.util;
 
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+
 import org.junit.Test;
 
 public class TestFastqParser {
 	
 	@Test
-	public void dummyTest() {
-		System.err.println("No tests in " + TestFastqParser.class.getSimpleName());
+	public void testWriteChunks() throws IOException {
+		File fastq = File.createTempFile("test", ".fq");
+		fastq.deleteOnExit();
+		FileWriter writer = new FileWriter(fastq);
+		for(int i = 0; i < 5; i++) {
+			writer.write("@r" + i + "\nACGT\n+\n@III\n");
+		}
+		writer.close();
+		FastqParser parser = new FastqParser();
+		parser.start(fastq);
+		assertEquals(5, parser.getNumberOfSequences());
+		File[] chunks = parser.writeChunks(fastq.getPath(), 2);
+		assertEquals(3, chunks.length);
+		int numRecords = 0;
+		for(File chunk : chunks) {
+			chunk.deleteOnExit();
+			FastqParser chunkParser = new FastqParser();
+			chunkParser.start(chunk);
+			while(chunkParser.hasNext()) {
+				FastqSequence seq = chunkParser.next();
+				assertEquals("r" + numRecords, seq.getName());
+				assertEquals("ACGT", seq.getSequence());
+				numRecords++;
+			}
+		}
+		assertEquals(5, numRecords);
+	}
+
+	@Test
+	public void testConvertToFasta() throws IOException {
+		File fastq = File.createTempFile("test", ".fq");
+		fastq.deleteOnExit();
+		File fasta = File.createTempFile("test", ".fa");
+		fasta.deleteOnExit();
+		FileWriter writer = new FileWriter(fastq);
+		// Quality lines starting with @ look like headers to a line based parser
+		for(int i = 0; i < 3; i++) {
+			writer.write("@r" + i + " comment\nACGT\n+\n@III\n");
+		}
+		writer.close();
+		FastqParser parser = new FastqParser();
+		parser.start(fastq);
+		parser.convertToFasta(fasta.getPath());
+		parser.close();
+		assertEquals(">r0 comment\nACGT\n>r1 comment\nACGT\n>r2 comment\nACGT\n", new String(Files.readAllBytes(fasta.toPath())));
 	}
 
 }
@@ -0,0 +1,172 @@
+package guttmanlab.core.pipeline.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.Test;
+
+public class TestFastqReader {
+	
+	private static FastqReader reader(String contents) {
+		return new FastqReader(new ByteArrayInputStream(contents.getBytes(StandardCharsets.US_ASCII)));
+	}
+	
+	/**
+	 * Records whose quality lines start with @ and +, to exercise record boundary detection
+	 */
+	private static String records(int numRecords) {
+		StringBuilder sb = new StringBuilder();
+		for(int i = 0; i < numRecords; i++) {
+			int length = 20 + i % 13;
+			sb.append("@read" + i + " 1:N:0\n");
+			for(int j = 0; j < length; j++) {
+				sb.append("ACGT".charAt((i + j) % 4));
+			}
+			sb.append("\n+\n");
+			sb.append(i % 3 == 0 ? '@' : i % 3 == 1 ? '+' : 'I');
+			for(int j = 1; j < length; j++) {
+				sb.append((char) ('!' + (i + j) % 40));
+			}
+			sb.append("\n");
+		}
+		return sb.toString();
+	}
+	
+	private static File write(String contents, boolean gzip) throws IOException {
+		File file = File.createTempFile("test", ".fq");
+		file.deleteOnExit();
+		OutputStream out = new FileOutputStream(file);
+		if(gzip) {
+			out = new GZIPOutputStream(out);
+		}
+		out.write(contents.getBytes(StandardCharsets.US_ASCII));
+		out.close();
+		return file;
+	}
+	
+	@Test
+	public void testParse() throws IOException {
+		FastqReader reader = reader("@r1 desc\nACGTN\n+r1\nIIII#\n\n@r2\nGG\n+\n!!\n");
+		FastqRecord record = reader.next();
+		assertEquals("r1 desc", record.getName());
+		assertEquals("r1", record.getReadId());
+		assertEquals("ACGTN", record.getSequence());
+		assertEquals("+r1", record.getDescription());
+		assertEquals("IIII#", record.getQuality());
+		assertEquals(0, record.getOffset());
+		record = reader.next();
+		assertEquals("r2", record.getName());
+		assertEquals("GG", record.getSequence());
+		assertEquals(26, record.getOffset());
+		assertNull(reader.next());
+		assertEquals(2, reader.getNumRecordsRead());
+		reader.close();
+	}
+	
+	@Test
+	public void testCarriageReturnsAndMissingFinalNewline() throws IOException {
+		FastqReader reader = reader("@r1\r\nAC\r\n+\r\nII\r\n@r2\nTT\n+\n##");
+		assertEquals("AC", reader.next().getSequence());
+		FastqRecord record = reader.next();
+		assertEquals("TT", record.getSequence());
+		assertEquals("##", record.getQuality());
+		assertNull(reader.next());
+		reader.close();
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testTruncated() throws IOException {
+		FastqReader reader = reader("@r1\nAC\n+\nII\n@r2\nTT\n");
+		reader.next();
+		reader.next();
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testMissingAt() throws IOException {
+		reader("r1\nAC\n+\nII\n").next();
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testQualityLength() throws IOException {
+		reader("@r1\nAC\n+\nI\n").next();
+	}
+	
+	@Test
+	public void testRecordsLargerThanBuffer() throws IOException {
+		String contents = records(100000);
+		FastqReader reader = reader(contents);
+		StringBuilder sb = new StringBuilder();
+		FastqRecord record;
+		while((record = reader.next()) != null) {
+			sb.append(record.toString() + "\n");
+		}
+		reader.close();
+		assertEquals(contents, sb.toString());
+	}
+	
+	@Test
+	public void testGzipped() throws IOException {
+		String contents = records(50000);
+		FastqReader reader = new FastqReader(write(contents, true));
+		StringBuilder sb = new StringBuilder();
+		FastqRecord record;
+		while((record = reader.next()) != null) {
+			sb.append(record.toString() + "\n");
+		}
+		reader.close();
+		assertEquals(contents, sb.toString());
+	}
+	
+	@Test
+	public void testSplit() throws IOException {
+		String contents = records(1000);
+		File file = write(contents, false);
+		for(int numParts : new int[] {1, 2, 7, 300}) {
+			List<FastqReader> parts = FastqReader.split(file, numParts);
+			assertEquals(numParts, parts.size());
+			StringBuilder sb = new StringBuilder();
+			for(FastqReader part : parts) {
+				FastqRecord record;
+				while((record = part.next()) != null) {
+					sb.append(record.toString() + "\n");
+				}
+				part.close();
+			}
+			assertEquals(contents, sb.toString());
+		}
+	}
+	
+	@Test
+	public void testForEach() throws IOException {
+		File file = write(records(10000), false);
+		List<String> names = Collections.synchronizedList(new ArrayList<String>());
+		AtomicLong bases = new AtomicLong();
+		assertEquals(10000, FastqReader.forEach(file, 4, record -> {
+			names.add(record.getReadId());
+			bases.addAndGet(record.getLength());
+		}));
+		assertEquals(10000, names.size());
+		assertTrue(names.contains("read9999"));
+		long expectedBases = 0;
+		for(int i = 0; i < 10000; i++) {
+			expectedBases += 20 + i % 13;
+		}
+		assertEquals(expectedBases, bases.get());
+		assertEquals(10000, FastqReader.countRecords(file));
+		assertEquals(10000, FastqReader.countRecords(write(records(10000), true)));
+	}
+
+}
@@ -0,0 +1,54 @@
+package guttmanlab.core.pipeline.util;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+public class TestFastqRecord {
+	
+	@Test
+	public void testConstructor() {
+		FastqRecord record = new FastqRecord("r1 extra", "ACGT", "", "IIJK");
+		assertEquals("r1 extra", record.getName());
+		assertEquals("r1", record.getReadId());
+		assertEquals("ACGT", record.getSequence());
+		assertEquals("+", record.getDescription());
+		assertEquals("IIJK", record.getQuality());
+		assertEquals(4, record.getLength());
+		assertEquals('G', record.getBase(2));
+		assertEquals('K', record.getQuality(3));
+		assertEquals(-1, record.getOffset());
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testLengthMismatch() {
+		new FastqRecord("r1", "ACGT", "+", "III");
+	}
+	
+	@Test
+	public void testWrite() throws IOException {
+		FastqRecord record = new FastqRecord("r1", "ACGTAC", "+r1", "ABCDEF");
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		record.write(out);
+		record.write(out, 1, 4);
+		record.writeFasta(out);
+		assertEquals("@r1\nACGTAC\n+r1\nABCDEF\n@r1\nCGT\n+r1\nBCD\n>r1\nACGTAC\n", out.toString("US-ASCII"));
+	}
+	
+	@Test
+	public void testCopy() throws IOException {
+		FastqReader reader = new FastqReader(new ByteArrayInputStream("@r1\nAC\n+\nII\n@r2\nGT\n+\n##\n".getBytes(StandardCharsets.US_ASCII)));
+		FastqRecord copy = reader.next().copy();
+		reader.next();
+		assertEquals("@r1\nAC\n+\nII", copy.toString());
+		FastqSequence seq = copy.toFastqSequence();
+		assertEquals("AC", seq.getSequence());
+		reader.close();
+	}
+
+}
@@ -1,12 +1,35 @@
 package guttmanlab.core.pipeline.util;
 
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+
 import org.junit.Test;
 
 public class TestFastqUtils {
 	
 	@Test
-	public void dummyTest() {
-		System.err.println("No tests in " + TestFastqUtils.class.getSimpleName());
+	public void testClipAdapters() throws IOException {
+		File fastq = File.createTempFile("test", ".fq");
+		fastq.deleteOnExit();
+		FileWriter writer = new FileWriter(fastq);
+		writer.write("@r1\nCCCCCCCCTGGAATTCTC\n+\nIIIIIIIIIIIIIIIIII\n");
+		writer.write("@r2\nCCTGGAATTCTCCCCCCC\n+\nIIIIIIIIIIIIIIIIII\n");
+		writer.close();
+		ArrayList<String> clipped = FastqUtils.clipAdapters("sample", fastq.getPath(), null, "TGGAATTCTC", null, null, 2);
+		assertEquals(1, clipped.size());
+		File clippedFile = new File(clipped.get(0));
+		clippedFile.deleteOnExit();
+		FastqReader reader = new FastqReader(clippedFile);
+		FastqRecord record = reader.next();
+		assertEquals("r1", record.getName());
+		assertEquals("CCCCCCCC", record.getSequence());
+		// r2 is too short after clipping
+		assertEquals(null, reader.next());
+		reader.close();
 	}
 
 }
@@ -0,0 +1,143 @@
+package guttmanlab.core.pipeline.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class TestPairedFastqSynchronizer {
+	
+	private static File writeFastq(List<Integer> readNums, int mate) throws IOException {
+		File file = File.createTempFile("test", ".fq");
+		file.deleteOnExit();
+		FileWriter writer = new FileWriter(file);
+		for(int readNum : readNums) {
+			writer.write("@read" + readNum + "/" + mate + "\nACGT\n+\nIIII\n");
+		}
+		writer.close();
+		return file;
+	}
+	
+	private static List<String> readIds(File file) throws IOException {
+		List<String> rtrn = new ArrayList<String>();
+		FastqReader reader = new FastqReader(file);
+		FastqRecord record;
+		while((record = reader.next()) != null) {
+			rtrn.add(record.getName().split("/")[0]);
+		}
+		reader.close();
+		return rtrn;
+	}
+	
+	private static File tempFile() throws IOException {
+		File rtrn = File.createTempFile("test", ".fq");
+		rtrn.deleteOnExit();
+		return rtrn;
+	}
+	
+	/**
+	 * Check that the outputs contain exactly the reads in both inputs, in the same order
+	 */
+	private static void check(File out1, File out2, List<Integer> reads1, List<Integer> reads2) throws IOException {
+		List<String> ids1 = readIds(out1);
+		List<String> ids2 = readIds(out2);
+		assertEquals(ids1, ids2);
+		List<String> expected = new ArrayList<String>();
+		for(int readNum : reads1) {
+			if(reads2.contains(readNum)) {
+				expected.add("read" + readNum);
+			}
+		}
+		Collections.sort(expected);
+		Collections.sort(ids1);
+		assertEquals(expected, ids1);
+	}
+	
+	@Test
+	public void testSameOrder() throws IOException {
+		List<Integer> reads1 = new ArrayList<Integer>();
+		List<Integer> reads2 = new ArrayList<Integer>();
+		for(int i = 0; i < 5000; i++) {
+			if(i % 7 != 0) reads1.add(i);
+			if(i % 11 != 0) reads2.add(i);
+		}
+		File out1 = tempFile();
+		File out2 = tempFile();
+		PairedFastqSynchronizer synchronizer = new PairedFastqSynchronizer("/");
+		synchronizer.setWindowSize(10);
+		PairedFastqSynchronizer.Summary summary = synchronizer.synchronize(writeFastq(reads1, 1), writeFastq(reads2, 2), out1, out2);
+		assertFalse(summary.usedExternalJoin());
+		assertEquals(reads1.size(), summary.getNumReads1());
+		assertEquals(reads2.size(), summary.getNumReads2());
+		check(out1, out2, reads1, reads2);
+		// Merge join keeps the order of the input
+		List<String> ids = readIds(out1);
+		assertEquals("read1", ids.get(0));
+		assertEquals("read2", ids.get(1));
+	}
+	
+	@Test
+	public void testDifferentOrder() throws IOException {
+		List<Integer> reads1 = new ArrayList<Integer>();
+		List<Integer> reads2 = new ArrayList<Integer>();
+		for(int i = 0; i < 5000; i++) {
+			if(i % 7 != 0) reads1.add(i);
+			if(i % 11 != 0) reads2.add(i);
+		}
+		Collections.shuffle(reads2, new Random(1));
+		File out1 = tempFile();
+		File out2 = tempFile();
+		PairedFastqSynchronizer synchronizer = new PairedFastqSynchronizer("/");
+		synchronizer.setMaxRecordsInMemory(1000);
+		PairedFastqSynchronizer.Summary summary = synchronizer.synchronize(writeFastq(reads1, 1), writeFastq(reads2, 2), out1, out2);
+		assertTrue(summary.usedExternalJoin());
+		check(out1, out2, reads1, reads2);
+		assertEquals(summary.getNumPairs(), readIds(out1).size());
+	}
+	
+	@Test
+	public void testMateFarAway() throws IOException {
+		// In order except one read that is far out of place in file 2
+		List<Integer> reads1 = new ArrayList<Integer>();
+		List<Integer> reads2 = new ArrayList<Integer>();
+		for(int i = 0; i < 1000; i++) {
+			reads1.add(i);
+			if(i != 3) reads2.add(i);
+		}
+		reads2.add(3);
+		File out1 = tempFile();
+		File out2 = tempFile();
+		PairedFastqSynchronizer synchronizer = new PairedFastqSynchronizer("/");
+		synchronizer.setWindowSize(100000);
+		PairedFastqSynchronizer.Summary summary = synchronizer.synchronize(writeFastq(reads1, 1), writeFastq(reads2, 2), out1, out2);
+		assertTrue(summary.usedExternalJoin());
+		assertEquals(1000, summary.getNumPairs());
+		check(out1, out2, reads1, reads2);
+	}
+	
+	@Test
+	public void testDuplicates() throws IOException {
+		List<Integer> reads1 = new ArrayList<Integer>();
+		List<Integer> reads2 = new ArrayList<Integer>();
+		for(int i = 0; i < 100; i++) {
+			reads1.add(i);
+			reads2.add(i);
+		}
+		reads1.add(50, 60);
+		File out1 = tempFile();
+		File out2 = tempFile();
+		PairedFastqSynchronizer.Summary summary = new PairedFastqSynchronizer("/").synchronize(writeFastq(reads1, 1), writeFastq(reads2, 2), out1, out2);
+		assertEquals(99, summary.getNumPairs());
+		assertFalse(readIds(out1).contains("read60"));
+	}
+
+}
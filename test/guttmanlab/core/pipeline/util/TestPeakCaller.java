@@ -0,0 +1,233 @@
+package guttmanlab.core.pipeline.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import guttmanlab.core.annotation.Annotation.Strand;
+import guttmanlab.core.annotation.BEDFileRecord;
+import guttmanlab.core.annotation.SingleInterval;
+import guttmanlab.core.annotation.io.BEDFileIO;
+import guttmanlab.core.annotationcollection.MultiSampleCoverage;
+import guttmanlab.core.annotationcollection.OffHeapReadCollection;
+import guttmanlab.core.coordinatespace.CoordinateSpace;
+import guttmanlab.core.math.ScanStat;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import net.sf.samtools.SAMFileHeader;
+import net.sf.samtools.SAMRecord;
+import net.sf.samtools.SAMSequenceRecord;
+import net.sf.samtools.util.CloseableIterator;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestPeakCaller {
+
+	private static final int CHR_SIZE = 50000;
+	private static final int WINDOW = 200;
+	private static final int STEP = 50;
+
+	private CoordinateSpace space;
+	private OffHeapReadCollection sample;
+	private OffHeapReadCollection control;
+	// Centers of the enriched regions of each reference
+	private Map<String, List<Integer>> clusters;
+
+	@Before
+	public void setUp() {
+		SAMFileHeader header = new SAMFileHeader();
+		Map<String, Integer> sizes = new LinkedHashMap<String, Integer>();
+		for(String chr : new String[] {"chr1", "chr2"}) {
+			header.addSequence(new SAMSequenceRecord(chr, CHR_SIZE));
+			sizes.put(chr, CHR_SIZE);
+		}
+		space = new CoordinateSpace(sizes);
+		sample = new OffHeapReadCollection(space);
+		control = new OffHeapReadCollection(space);
+		clusters = new LinkedHashMap<String, List<Integer>>();
+		Random random = new Random(17);
+		for(String chr : sizes.keySet()) {
+			List<Integer> sampleStarts = new ArrayList<Integer>();
+			List<Integer> controlStarts = new ArrayList<Integer>();
+			for(int i = 0; i < 1500; i++) {
+				sampleStarts.add(Integer.valueOf(random.nextInt(CHR_SIZE - 50) + 1));
+				controlStarts.add(Integer.valueOf(random.nextInt(CHR_SIZE - 50) + 1));
+			}
+			List<Integer> centers = new ArrayList<Integer>();
+			for(int cluster = 0; cluster < 2; cluster++) {
+				int center = (cluster + 1) * CHR_SIZE / 3 + random.nextInt(1000);
+				centers.add(Integer.valueOf(center));
+				for(int i = 0; i < 300; i++) {
+					sampleStarts.add(Integer.valueOf(center + random.nextInt(200) - 100));
+				}
+			}
+			clusters.put(chr, centers);
+			add(sample, header, chr, sampleStarts);
+			add(control, header, chr, controlStarts);
+		}
+	}
+
+	private static void add(OffHeapReadCollection reads, SAMFileHeader header, String chr, List<Integer> starts) {
+		Collections.sort(starts);
+		for(Integer start : starts) {
+			SAMRecord record = new SAMRecord(header);
+			record.setReadName("read" + start);
+			record.setReferenceName(chr);
+			record.setAlignmentStart(start.intValue());
+			record.setCigarString("50M");
+			reads.add(record);
+		}
+	}
+
+	/**
+	 * Peaks from the p-values of every window held in memory, corrected with Benjamini-Hochberg over all of them
+	 */
+	private List<String> bruteForce(double alpha) {
+		List<String> chrs = new ArrayList<String>();
+		List<Integer> starts = new ArrayList<Integer>();
+		List<Double> pvals = new ArrayList<Double>();
+		MultiSampleCoverage coverage = new MultiSampleCoverage(Arrays.asList(sample, control), WINDOW, STEP);
+		for(String chr : space.getRefSeqLengths().keySet()) {
+			CloseableIterator<MultiSampleCoverage.WindowCounts> iter = coverage.iterator(new SingleInterval(chr, 0, CHR_SIZE, Strand.BOTH), true);
+			while(iter.hasNext()) {
+				MultiSampleCoverage.WindowCounts counts = iter.next();
+				chrs.add(chr);
+				starts.add(Integer.valueOf(counts.getWindow().getReferenceStartPosition()));
+				pvals.add(Double.valueOf(ScanStat.getPValue(counts.getCount(1), counts.getCount(0), control.getNumAnnotations(), sample.getNumAnnotations(), WINDOW, CHR_SIZE)));
+			}
+			iter.close();
+		}
+		int m = pvals.size();
+		Integer[] order = new Integer[m];
+		for(int i = 0; i < m; i++) {
+			order[i] = Integer.valueOf(i);
+		}
+		Arrays.sort(order, (a, b) -> Double.compare(pvals.get(a.intValue()), pvals.get(b.intValue())));
+		double[] adjusted = new double[m];
+		double min = 1;
+		for(int k = m; k > 0; k--) {
+			int i = order[k - 1].intValue();
+			min = Math.min(min, pvals.get(i) * m / k);
+			adjusted[i] = min;
+		}
+		List<String> rtrn = new ArrayList<String>();
+		int peakStart = -1;
+		int peakEnd = -1;
+		for(int i = 0; i <= m; i++) {
+			boolean significant = i < m && adjusted[i] <= alpha;
+			int start = i < m ? starts.get(i).intValue() : -1;
+			if(peakStart >= 0 && (i == m || !chrs.get(i).equals(chrs.get(i - 1)) || (significant && start > peakEnd))) {
+				rtrn.add(chrs.get(i - 1) + ":" + peakStart + "-" + peakEnd);
+				peakStart = -1;
+			}
+			if(significant) {
+				if(peakStart < 0) {
+					peakStart = start;
+				}
+				peakEnd = start + WINDOW;
+			}
+		}
+		return rtrn;
+	}
+
+	private static List<String> locations(List<BEDFileRecord> peaks) {
+		List<String> rtrn = new ArrayList<String>();
+		for(BEDFileRecord peak : peaks) {
+			rtrn.add(peak.getReferenceName() + ":" + peak.getReferenceStartPosition() + "-" + peak.getReferenceEndPosition());
+		}
+		return rtrn;
+	}
+
+	@Test
+	public void testSameAsBruteForce() {
+		PeakCaller caller = new PeakCaller(sample, control, WINDOW, STEP);
+		caller.setMaxWindowsInMemory(100);
+		List<BEDFileRecord> peaks = new ArrayList<BEDFileRecord>();
+		PeakCaller.Summary summary = caller.call(space, peaks::add);
+		assertEquals(bruteForce(0.05), locations(peaks));
+		assertEquals(2 * ((CHR_SIZE - WINDOW) / STEP + 1), summary.getNumWindows());
+		assertEquals(peaks.size(), summary.getNumPeaks());
+		assertTrue(summary.getNumSignificant() <= summary.getNumCandidates());
+		assertTrue(summary.getNumCandidates() <= summary.getNumScored());
+	}
+
+	@Test
+	public void testClustersFound() {
+		PeakCaller caller = new PeakCaller(sample, control, WINDOW, STEP);
+		caller.setCorrection(PeakCaller.Correction.BONFERRONI);
+		List<BEDFileRecord> peaks = new ArrayList<BEDFileRecord>();
+		caller.call(space, peaks::add);
+		for(String chr : clusters.keySet()) {
+			for(Integer center : clusters.get(chr)) {
+				boolean found = false;
+				for(BEDFileRecord peak : peaks) {
+					found |= peak.getReferenceName().equals(chr) && peak.getReferenceStartPosition() <= center.intValue() && peak.getReferenceEndPosition() > center.intValue();
+				}
+				assertTrue("No peak at " + chr + ":" + center, found);
+			}
+		}
+		for(BEDFileRecord peak : peaks) {
+			assertTrue(peak.score() > -Math.log10(0.05));
+		}
+	}
+
+	@Test
+	public void testParallelAndChunksSameAsSerial() {
+		PeakCaller serial = new PeakCaller(sample, control, WINDOW, STEP);
+		serial.setNumThreads(1);
+		List<BEDFileRecord> expected = new ArrayList<BEDFileRecord>();
+		serial.call(space, expected::add);
+		PeakCaller parallel = new PeakCaller(sample, control, WINDOW, STEP);
+		parallel.setNumThreads(2);
+		parallel.setMaxWindowsInMemory(37);
+		List<BEDFileRecord> peaks = new ArrayList<BEDFileRecord>();
+		parallel.call(space, peaks::add);
+		assertEquals(expected.size(), peaks.size());
+		for(int i = 0; i < peaks.size(); i++) {
+			assertEquals(expected.get(i).toFormattedString(), peaks.get(i).toFormattedString());
+		}
+	}
+
+	@Test
+	public void testWriteBed() throws IOException {
+		PeakCaller caller = new PeakCaller(sample, control, WINDOW, STEP);
+		List<BEDFileRecord> expected = new ArrayList<BEDFileRecord>();
+		caller.call(space, expected::add);
+		File out = File.createTempFile("peaks", ".bed");
+		out.deleteOnExit();
+		caller.call(space, out);
+		Iterator<BEDFileRecord> iter = BEDFileIO.loadFromFile(out, space).sortedIterator();
+		List<BEDFileRecord> read = new ArrayList<BEDFileRecord>();
+		while(iter.hasNext()) {
+			read.add(iter.next());
+		}
+		assertEquals(locations(expected), locations(read));
+		for(int i = 0; i < read.size(); i++) {
+			assertEquals(expected.get(i).score(), read.get(i).score(), 1e-9);
+		}
+		out.delete();
+	}
+
+	@Test
+	public void testReferencesInOrder() {
+		PeakCaller caller = new PeakCaller(sample, control, WINDOW, STEP);
+		List<BEDFileRecord> expected = new ArrayList<BEDFileRecord>();
+		caller.call(space, expected::add);
+		Map<String, Integer> reversed = new LinkedHashMap<String, Integer>();
+		reversed.put("chr2", CHR_SIZE);
+		reversed.put("chr1", CHR_SIZE);
+		List<BEDFileRecord> peaks = new ArrayList<BEDFileRecord>();
+		caller.call(new CoordinateSpace(reversed), peaks::add);
+		assertEquals(locations(expected), locations(peaks));
+	}
+
+}
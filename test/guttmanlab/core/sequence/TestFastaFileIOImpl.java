@@ -1,12 +1,57 @@
 package guttmanlab.core.sequence;
 
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
 import org.junit.Test;
 
 public class TestFastaFileIOImpl {
 	
+	private static String writeFasta(int numRecords) throws IOException {
+		StringBuilder contents = new StringBuilder();
+		for(int i = 0; i < numRecords; i++) {
+			contents.append(">seq" + i + "\n");
+			for(int j = 0; j < i % 7; j++) {
+				contents.append("ACGTACGTAC\n");
+			}
+		}
+		return TestFastaIndex.writeFasta(contents.toString()).getPath();
+	}
+	
+	@Test
+	public void testReadFromFile() throws IOException {
+		List<Sequence> seqs = new ArrayList<Sequence>(new FastaFileIOImpl().readFromFile(writeFasta(10)));
+		assertEquals(10, seqs.size());
+		assertEquals("seq3", seqs.get(3).getName());
+		assertEquals(30, seqs.get(3).getLength());
+	}
+	
 	@Test
-	public void dummyTest() {
-		System.err.println("No tests in " + TestFastaFileIOImpl.class.getSimpleName());
+	public void testStreams() throws IOException {
+		String fileName = writeFasta(5000);
+		FastaFileIOImpl io = new FastaFileIOImpl();
+		List<String> expected = new ArrayList<String>();
+		for(Sequence seq : io.readFromFile(fileName)) {
+			expected.add(seq.getName());
+		}
+		Stream<Sequence> stream = io.stream(fileName);
+		assertEquals(expected, stream.map(Sequence::getName).collect(Collectors.toList()));
+		stream.close();
+		stream = io.parallelStream(fileName, 100, 1000);
+		assertEquals(expected, stream.map(Sequence::getName).collect(Collectors.toList()));
+		stream.close();
+		stream = io.parallelStream(fileName);
+		int totalLength = 0;
+		for(int i = 0; i < 5000; i++) {
+			totalLength += 10 * (i % 7);
+		}
+		assertEquals(totalLength, stream.mapToInt(Sequence::getLength).sum());
+		stream.close();
 	}
 
 }
@@ -0,0 +1,66 @@
+package guttmanlab.core.sequence;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class TestFastaIndex {
+	
+	static File writeFasta(String contents) throws IOException {
+		File file = File.createTempFile("test", ".fa");
+		file.deleteOnExit();
+		new File(file.getPath() + FastaIndex.EXTENSION).deleteOnExit();
+		FileWriter writer = new FileWriter(file);
+		writer.write(contents);
+		writer.close();
+		return file;
+	}
+	
+	@Test
+	public void testBuildMatchesSamtools() throws IOException {
+		File fasta = writeFasta(">chr1 first\nACGTA\nCGTAC\nGT\n>chr2\nAAAA\nCC\n\n>empty\n>chr3\nGGG");
+		FastaIndex index = FastaIndex.build(fasta);
+		assertEquals(Arrays.asList("chr1", "chr2", "empty", "chr3"), new ArrayList<String>(index.getSequenceNames()));
+		assertEquals("chr1\t12\t12\t5\t6", index.getEntry("chr1").toString());
+		assertEquals("chr2\t6\t33\t4\t5", index.getEntry("chr2").toString());
+		assertEquals("empty\t0\t49\t0\t0", index.getEntry("empty").toString());
+		assertEquals("chr3\t3\t55\t3\t4", index.getEntry("chr3").toString());
+		assertEquals(12 + 6 + 2, index.getEntry("chr1").getByteOffset(7));
+	}
+	
+	@Test
+	public void testWindowsLineEndings() throws IOException {
+		FastaIndex index = FastaIndex.build(writeFasta(">chr1\r\nACG\r\nTA\r\n"));
+		assertEquals("chr1\t5\t7\t3\t5", index.getEntry("chr1").toString());
+	}
+	
+	@Test
+	public void testWriteAndRead() throws IOException {
+		File fasta = writeFasta(">chr1\nACGTA\nCG\n>chr2\nAAAA\n");
+		FastaIndex index = FastaIndex.forFasta(fasta);
+		FastaIndex read = FastaIndex.read(new File(fasta.getPath() + FastaIndex.EXTENSION));
+		for(FastaIndex.Entry entry : index.getEntries()) {
+			assertEquals(entry.toString(), read.getEntry(entry.getName()).toString());
+		}
+		assertEquals(2, read.getEntries().size());
+	}
+	
+	@Test
+	public void testSequenceName() {
+		assertEquals("chr1", FastaIndex.getSequenceName(">chr1 first sequence"));
+		assertEquals("chr1", FastaIndex.getSequenceName("chr1\tfirst"));
+		assertEquals("chr2", FastaIndex.getSequenceName(">chr2"));
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testInconsistentLineLengths() throws IOException {
+		FastaIndex.build(writeFasta(">chr1\nACG\nTA\nCGT\n"));
+	}
+
+}
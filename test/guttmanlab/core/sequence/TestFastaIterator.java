@@ -0,0 +1,70 @@
+package guttmanlab.core.sequence;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.Test;
+
+public class TestFastaIterator {
+	
+	private static final String FASTA = ">seq1 description\nACGT\nAC\n>seq2\n\n>seq3\nGGGG\nTT\nA\n";
+	
+	private static List<Sequence> readAll(FastaIterator iter) {
+		List<Sequence> rtrn = new ArrayList<Sequence>();
+		while(iter.hasNext()) {
+			rtrn.add(iter.next());
+		}
+		return rtrn;
+	}
+	
+	private static void checkRecords(List<Sequence> records) {
+		assertEquals(3, records.size());
+		assertEquals(new Sequence("seq1", "ACGTAC"), records.get(0));
+		assertEquals(new Sequence("seq2", ""), records.get(1));
+		assertEquals(new Sequence("seq3", "GGGGTTA"), records.get(2));
+	}
+	
+	@Test
+	public void testIterator() throws IOException {
+		FastaIterator iter = new FastaIterator(TestFastaIndex.writeFasta(FASTA).getPath());
+		checkRecords(readAll(iter));
+		assertFalse(iter.hasNext());
+	}
+	
+	@Test
+	public void testGzipped() throws IOException {
+		File file = File.createTempFile("test", ".fa.gz");
+		file.deleteOnExit();
+		Writer writer = new OutputStreamWriter(new GZIPOutputStream(new FileOutputStream(file)));
+		writer.write(FASTA);
+		writer.close();
+		checkRecords(readAll(new FastaIterator(file.getPath())));
+	}
+	
+	@Test
+	public void testSpliteratorBatches() throws IOException {
+		FastaIterator iter = new FastaIterator(TestFastaIndex.writeFasta(FASTA).getPath());
+		Spliterator<Sequence> spliterator = iter.spliterator(2, Long.MAX_VALUE);
+		List<Sequence> records = new ArrayList<Sequence>();
+		Spliterator<Sequence> batch = spliterator.trySplit();
+		assertEquals(2, batch.estimateSize());
+		batch.forEachRemaining(records::add);
+		batch = spliterator.trySplit();
+		assertEquals(1, batch.estimateSize());
+		batch.forEachRemaining(records::add);
+		assertNull(spliterator.trySplit());
+		checkRecords(records);
+	}
+
+}
@@ -0,0 +1,66 @@
+package guttmanlab.core.sequence;
+
+import static org.junit.Assert.assertEquals;
+import guttmanlab.core.annotation.Annotation.Strand;
+import guttmanlab.core.annotation.BlockedAnnotation;
+import guttmanlab.core.annotation.SingleInterval;
+
+import java.io.IOException;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestIndexedFastaFile {
+	
+	private Sequence chr1;
+	private String path;
+	
+	@Before
+	public void setUp() throws IOException {
+		Random random = new Random(5);
+		StringBuilder bases = new StringBuilder();
+		for(int i = 0; i < 1000; i++) {
+			bases.append("ACGTNacgtn".charAt(random.nextInt(10)));
+		}
+		chr1 = new Sequence("chr1", bases.toString());
+		StringBuilder contents = new StringBuilder(">chr1 description\n");
+		for(int i = 0; i < bases.length(); i += 60) {
+			contents.append(bases.substring(i, Math.min(i + 60, bases.length())) + "\n");
+		}
+		contents.append(">chr2\nACGT\n");
+		path = TestFastaIndex.writeFasta(contents.toString()).getPath();
+	}
+	
+	@Test
+	public void testSubSequence() throws IOException {
+		try(IndexedFastaFile fasta = new IndexedFastaFile(path)) {
+			assertEquals(chr1, fasta.getSequence("chr1"));
+			assertEquals(chr1.getSubSequence("x", 55, 185), fasta.getSubSequence("x", "chr1", 55, 185));
+			assertEquals(chr1.getSubSequence("x", 990, 1010), fasta.getSubSequence("x", "chr1", 990, 1010));
+			assertEquals("ACGT", fasta.getSequence("chr2").getSequenceBases());
+			assertEquals(1000, fasta.getLength("chr1"));
+		}
+	}
+	
+	@Test
+	public void testBlockedAnnotation() throws IOException {
+		try(IndexedFastaFile fasta = new IndexedFastaFile(path)) {
+			for(Strand strand : new Strand[] {Strand.POSITIVE, Strand.NEGATIVE}) {
+				BlockedAnnotation annot = new BlockedAnnotation("gene");
+				annot.addBlocks(new SingleInterval("chr1", 50, 130, strand));
+				annot.addBlocks(new SingleInterval("chr1", 300, 301, strand));
+				annot.addBlocks(new SingleInterval("chr1", 598, 777, strand));
+				assertEquals(chr1.getSubsequence(annot), fasta.getSubsequence(annot));
+			}
+		}
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testUnknownSequence() throws IOException {
+		try(IndexedFastaFile fasta = new IndexedFastaFile(path)) {
+			fasta.getSubSequence("x", "chr3", 0, 10);
+		}
+	}
+	
+}
@@ -0,0 +1,215 @@
+package guttmanlab.core.sequence;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import guttmanlab.core.annotation.Annotation.Strand;
+import guttmanlab.core.annotation.BlockedAnnotation;
+import guttmanlab.core.annotation.SingleInterval;
+import guttmanlab.core.annotationcollection.FeatureCollection;
+import guttmanlab.core.coordinatespace.CoordinateSpace;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestKmerIndex {
+
+	private List<Sequence> sequences;
+
+	@Before
+	public void setUp() {
+		Random random = new Random(11);
+		sequences = new ArrayList<Sequence>();
+		for(int s = 0; s < 3; s++) {
+			StringBuilder bases = new StringBuilder();
+			for(int i = 0; i < 2000; i++) {
+				bases.append("ACGTACGTACGTN".charAt(random.nextInt(13)));
+			}
+			sequences.add(new Sequence("chr" + (s + 1), bases.toString()));
+		}
+	}
+
+	/**
+	 * Occurrences of a k-mer found by scanning every position
+	 */
+	private Set<SingleInterval> bruteForce(String kmer, int maxMismatches) {
+		Set<SingleInterval> rtrn = new HashSet<SingleInterval>();
+		String rc = Sequence.reverseComplement(kmer);
+		for(Sequence seq : sequences) {
+			String bases = seq.getSequenceBases();
+			for(int i = 0; i + kmer.length() <= bases.length(); i++) {
+				String window = bases.substring(i, i + kmer.length());
+				if(window.indexOf('N') >= 0) {
+					continue;
+				}
+				if(mismatches(window, kmer) <= maxMismatches) {
+					rtrn.add(new SingleInterval(seq.getName(), i, i + kmer.length(), Strand.POSITIVE));
+				}
+				if(mismatches(window, rc) <= maxMismatches) {
+					rtrn.add(new SingleInterval(seq.getName(), i, i + kmer.length(), Strand.NEGATIVE));
+				}
+			}
+		}
+		return rtrn;
+	}
+
+	private static int mismatches(String s1, String s2) {
+		int rtrn = 0;
+		for(int i = 0; i < s1.length(); i++) {
+			if(s1.charAt(i) != s2.charAt(i)) {
+				rtrn++;
+			}
+		}
+		return rtrn;
+	}
+
+	@Test
+	public void testLookup() {
+		for(int numThreads : new int[] {1, 3}) {
+			KmerIndex index = new KmerIndex(sequences, 6, numThreads);
+			Random random = new Random(2);
+			for(int trial = 0; trial < 50; trial++) {
+				StringBuilder kmer = new StringBuilder();
+				for(int i = 0; i < 6; i++) {
+					kmer.append("ACGT".charAt(random.nextInt(4)));
+				}
+				for(int mismatches = 0; mismatches <= 1; mismatches++) {
+					List<SingleInterval> hits = index.lookup(kmer, mismatches);
+					assertEquals(hits.size(), new HashSet<SingleInterval>(hits).size());
+					assertEquals(bruteForce(kmer.toString(), mismatches), new HashSet<SingleInterval>(hits));
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testCount() {
+		KmerIndex index = new KmerIndex(sequences, 4, 2);
+		String bases = sequences.get(0).getSequenceBases();
+		String kmer = bases.substring(100, 104);
+		int expected = 0;
+		for(Sequence seq : sequences) {
+			for(int i = seq.getSequenceBases().indexOf(kmer); i >= 0; i = seq.getSequenceBases().indexOf(kmer, i + 1)) {
+				expected++;
+			}
+		}
+		assertTrue(expected > 0);
+		assertEquals(expected, index.count(kmer));
+		assertEquals(expected, index.count(kmer.toLowerCase()));
+	}
+
+	@Test
+	public void testPalindrome() {
+		List<Sequence> seqs = new ArrayList<Sequence>();
+		seqs.add(new Sequence("chr1", "TTTACGTTTT"));
+		KmerIndex index = new KmerIndex(seqs, 4, 1);
+		List<SingleInterval> hits = index.lookup("ACGT");
+		assertEquals(2, hits.size());
+		assertTrue(hits.contains(new SingleInterval("chr1", 3, 7, Strand.POSITIVE)));
+		assertTrue(hits.contains(new SingleInterval("chr1", 3, 7, Strand.NEGATIVE)));
+	}
+
+	@Test
+	public void testCandidates() {
+		KmerIndex index = new KmerIndex(sequences, 8, 2);
+		String bases = sequences.get(1).getSequenceBases();
+		int start = bases.indexOf('N', 500) + 1;
+		while(bases.substring(start, start + 24).indexOf('N') >= 0) {
+			start++;
+		}
+		StringBuilder query = new StringBuilder(bases.substring(start, start + 24));
+		query.setCharAt(3, query.charAt(3) == 'A' ? 'C' : 'A');
+		query.setCharAt(12, query.charAt(12) == 'A' ? 'C' : 'A');
+		Collection<SingleInterval> candidates = index.getCandidates(query, 2);
+		assertTrue(candidates.contains(new SingleInterval("chr2", start, start + 24, Strand.POSITIVE)));
+		String rc = Sequence.reverseComplement(query.toString());
+		candidates = index.getCandidates(rc, 2);
+		assertTrue(candidates.contains(new SingleInterval("chr2", start, start + 24, Strand.NEGATIVE)));
+	}
+
+	@Test
+	public void testAnnotations() throws IOException {
+		StringBuilder contents = new StringBuilder();
+		for(Sequence seq : sequences) {
+			contents.append(">" + seq.getName() + "\n" + seq.getSequenceBases() + "\n");
+		}
+		IndexedFastaFile fasta = new IndexedFastaFile(TestFastaIndex.writeFasta(contents.toString()).getPath());
+		Map<String, Integer> sizes = new HashMap<String, Integer>();
+		for(Sequence seq : sequences) {
+			sizes.put(seq.getName(), seq.getLength());
+		}
+		FeatureCollection<BlockedAnnotation> genes = new FeatureCollection<BlockedAnnotation>(new CoordinateSpace(sizes));
+		BlockedAnnotation gene1 = new BlockedAnnotation("gene1");
+		gene1.addBlocks(new SingleInterval("chr1", 100, 200, Strand.POSITIVE));
+		gene1.addBlocks(new SingleInterval("chr1", 400, 450, Strand.POSITIVE));
+		genes.add(gene1);
+		BlockedAnnotation gene2 = new BlockedAnnotation("gene2");
+		gene2.addBlocks(new SingleInterval("chr1", 150, 300, Strand.NEGATIVE));
+		genes.add(gene2);
+		KmerIndex index = KmerIndex.forAnnotations(genes, fasta, 5, 2);
+		String chr1 = sequences.get(0).getSequenceBases();
+		String kmer = null;
+		int position = 0;
+		for(int i = 420; i < 445 && kmer == null; i++) {
+			if(chr1.substring(i, i + 5).indexOf('N') < 0) {
+				kmer = chr1.substring(i, i + 5);
+				position = i;
+			}
+		}
+		assertTrue(index.lookup(kmer).contains(new SingleInterval("chr1", position, position + 5, Strand.POSITIVE)));
+		for(SingleInterval hit : index.lookup(kmer)) {
+			assertEquals("chr1", hit.getReferenceName());
+			int start = hit.getReferenceStartPosition();
+			assertTrue((start >= 100 && start + 5 <= 300) || (start >= 400 && start + 5 <= 450));
+		}
+	}
+
+	@Test
+	public void testChunksAndReference() throws IOException {
+		StringBuilder contents = new StringBuilder();
+		for(Sequence seq : sequences) {
+			// Lines of 60 bases, so ranges are read across line breaks
+			contents.append(">" + seq.getName() + "\n");
+			for(int i = 0; i < seq.getLength(); i += 60) {
+				contents.append(seq.getSequenceBases().substring(i, Math.min(i + 60, seq.getLength())) + "\n");
+			}
+		}
+		KmerIndex expected = new KmerIndex(sequences, 6, 1);
+		// Ranges shorter than a k-mer and not aligned to anything
+		KmerIndex chunked = new KmerIndex(sequences, 6, 3, 5);
+		try(IndexedFastaFile fasta = new IndexedFastaFile(TestFastaIndex.writeFasta(contents.toString()).getPath())) {
+			KmerIndex reference = KmerIndex.forReference(fasta, 6, 4);
+			assertEquals(expected.getNumDistinctKmers(), chunked.getNumDistinctKmers());
+			assertEquals(expected.getNumDistinctKmers(), reference.getNumDistinctKmers());
+			String chr2 = sequences.get(1).getSequenceBases();
+			for(int i = 0; i + 6 <= chr2.length(); i += 7) {
+				String kmer = chr2.substring(i, i + 6);
+				if(kmer.indexOf('N') >= 0) {
+					continue;
+				}
+				assertEquals(expected.lookup(kmer, 1), chunked.lookup(kmer, 1));
+				assertEquals(expected.lookup(kmer, 1), reference.lookup(kmer, 1));
+			}
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidK() {
+		new KmerIndex(sequences, 32, 1);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testTwoMismatches() {
+		new KmerIndex(sequences, 6, 1).lookup("ACGTAC", 2);
+	}
+
+}
@@ -0,0 +1,98 @@
+package guttmanlab.core.sequence;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class TestPackedSequence {
+	
+	private static String randomBases(Random random, int length) {
+		StringBuilder rtrn = new StringBuilder();
+		for(int i = 0; i < length; i++) {
+			// Mostly upper case ACGT with some runs of N and lower case
+			rtrn.append(random.nextInt(10) == 0 ? "NNnacgt".charAt(random.nextInt(7)) : "ACGT".charAt(random.nextInt(4)));
+		}
+		return rtrn.toString();
+	}
+	
+	@Test
+	public void testRoundTrip() {
+		Random random = new Random(1);
+		for(int length : new int[] {0, 1, 31, 32, 33, 100, 1000}) {
+			String bases = randomBases(random, length);
+			PackedSequence packed = new PackedSequence(bases);
+			assertEquals(length, packed.length());
+			assertEquals(bases, packed.toString());
+			for(int i = 0; i < length; i++) {
+				assertEquals(bases.charAt(i), packed.charAt(i));
+			}
+		}
+	}
+	
+	@Test
+	public void testReverseComplement() {
+		Random random = new Random(2);
+		for(int length : new int[] {1, 31, 32, 33, 100, 1000}) {
+			String bases = randomBases(random, length);
+			PackedSequence rc = new PackedSequence(bases).reverseComplement();
+			assertEquals(Sequence.reverseComplement(bases), rc.toString());
+			assertEquals(bases, rc.reverseComplement().toString());
+			for(int i = 0; i < length; i++) {
+				assertEquals(Sequence.reverseComplement(bases).charAt(i), rc.charAt(i));
+			}
+		}
+	}
+	
+	@Test
+	public void testSubsequenceViews() {
+		Random random = new Random(3);
+		String bases = randomBases(random, 500);
+		String rc = Sequence.reverseComplement(bases);
+		PackedSequence packed = new PackedSequence(bases);
+		for(int i = 0; i < 200; i++) {
+			int start = random.nextInt(500);
+			int end = start + random.nextInt(501 - start);
+			assertEquals(bases.substring(start, end), packed.subSequence(start, end).toString());
+			assertEquals(rc.substring(start, end), packed.reverseComplement().subSequence(start, end).toString());
+			assertEquals(Sequence.reverseComplement(bases.substring(start, end)), packed.subSequence(start, end).reverseComplement().toString());
+			PackedSequence compact = packed.reverseComplement().subSequence(start, end).compact();
+			assertEquals(rc.substring(start, end), compact.toString());
+			assertEquals(packed.reverseComplement().subSequence(start, end), compact);
+		}
+	}
+	
+	@Test
+	public void testEqualsWithN() {
+		Random random = new Random(4);
+		for(String bases : new String[] {"ACNNGT", "NNNN", "acnNgt", randomBases(random, 100), randomBases(random, 1000)}) {
+			PackedSequence rc = new PackedSequence(bases).reverseComplement();
+			PackedSequence expected = new PackedSequence(rc.toString());
+			assertEquals(expected, rc);
+			assertEquals(rc, expected);
+			assertEquals(expected.hashCode(), rc.hashCode());
+			assertEquals(expected, rc.compact());
+			assertEquals(expected.hashCode(), rc.compact().hashCode());
+			PackedSequence sub = rc.subSequence(1, bases.length() - 1);
+			assertEquals(new PackedSequence(sub.toString()), sub);
+			assertEquals(new PackedSequence(sub.toString()).hashCode(), sub.hashCode());
+		}
+		assertFalse(new PackedSequence("ACNNGT").equals(new PackedSequence("ACAAGT")));
+		assertFalse(new PackedSequence("ACNNGT").equals(new PackedSequence("ACnNGT")));
+	}
+	
+	@Test
+	public void testWords() {
+		PackedSequence packed = new PackedSequence("ACGTTGCA");
+		assertEquals(0b0001101111100100L, packed.getWord(0));
+		assertEquals(0b00011011L, packed.getWord(4));
+		assertEquals(PackedSequence.G, packed.getCode(2));
+		assertEquals(PackedSequence.C, packed.reverseComplement().getCode(2));
+		assertTrue(new PackedSequence("ANA").isN(1));
+		assertFalse(new PackedSequence("ANA").isN(0));
+	}
+
+}
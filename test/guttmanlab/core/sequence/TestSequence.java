@@ -1,12 +1,54 @@
 package guttmanlab.core.sequence;
 
+import static org.junit.Assert.assertEquals;
+import guttmanlab.core.annotation.Annotation.Strand;
+import guttmanlab.core.annotation.BlockedAnnotation;
+import guttmanlab.core.annotation.Annotation;
+import guttmanlab.core.annotation.SingleInterval;
+
+import java.util.ArrayList;
+import java.util.List;
+
 import org.junit.Test;
 
 public class TestSequence {
 	
 	@Test
-	public void dummyTest() {
-		System.err.println("No tests in " + TestSequence.class.getSimpleName());
+	public void testReverseComplement() {
+		assertEquals("NnacgtACGTX", new Sequence("XACGTacgtnN").reverseComplement().getSequenceBases());
+	}
+	
+	@Test
+	public void testGetSubsequence() {
+		Sequence chr = new Sequence("chr1", "AAACCCGGGTTT");
+		BlockedAnnotation annot = new BlockedAnnotation("gene");
+		annot.addBlocks(new SingleInterval("chr1", 1, 4, Strand.POSITIVE));
+		annot.addBlocks(new SingleInterval("chr1", 8, 10, Strand.POSITIVE));
+		assertEquals(new Sequence("gene", "AACGT"), chr.getSubsequence(annot));
+		annot.setOrientation(Strand.NEGATIVE);
+		assertEquals(new Sequence("gene", "ACGTT"), chr.getSubsequence(annot));
+	}
+	
+	@Test
+	public void testMask() {
+		Sequence chr = new Sequence("chr1", "AAACCCGGGTTTN");
+		BlockedAnnotation annot = new BlockedAnnotation("repeat");
+		annot.addBlocks(new SingleInterval("chr1", 1, 4, Strand.POSITIVE));
+		annot.addBlocks(new SingleInterval("chr1", 8, 10, Strand.POSITIVE));
+		List<Annotation> regions = new ArrayList<Annotation>();
+		regions.add(annot);
+		regions.add(new SingleInterval("chr1", 2, 6, Strand.NEGATIVE));
+		regions.add(new SingleInterval("chr1", 11, 20, Strand.POSITIVE));
+		assertEquals(new Sequence("chr1", "AaacccGGgtTtn"), chr.softMask(regions));
+		assertEquals(new Sequence("chr1", "ANNNNNGGNNTNN"), chr.hardMask(regions));
+		assertEquals(chr, chr.softMask(new ArrayList<Annotation>()));
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testMaskOtherSequence() {
+		List<Annotation> regions = new ArrayList<Annotation>();
+		regions.add(new SingleInterval("chr2", 1, 4, Strand.POSITIVE));
+		new Sequence("chr1", "AAACCCGGGTTT").softMask(regions);
 	}
 
 }
@@ -0,0 +1,88 @@
+package guttmanlab.core.sequence;
+
+import static org.junit.Assert.assertEquals;
+import guttmanlab.core.annotation.Annotation;
+import guttmanlab.core.annotation.Annotation.Strand;
+import guttmanlab.core.annotation.SingleInterval;
+import guttmanlab.core.annotationcollection.FeatureCollection;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestSequenceMasker {
+	
+	private List<Sequence> sequences;
+	private IndexedFastaFile fasta;
+	private FeatureCollection<SingleInterval> repeats;
+	
+	@Before
+	public void setUp() throws IOException {
+		Random random = new Random(3);
+		sequences = new ArrayList<Sequence>();
+		StringBuilder contents = new StringBuilder();
+		for(int s = 0; s < 4; s++) {
+			StringBuilder bases = new StringBuilder();
+			for(int i = 0; i < 500 + 300 * s; i++) {
+				bases.append("ACGTNacgt".charAt(random.nextInt(9)));
+			}
+			Sequence seq = new Sequence("chr" + (s + 1), bases.toString());
+			sequences.add(seq);
+			contents.append(">" + seq.getName() + "\n");
+			for(int i = 0; i < bases.length(); i += 50) {
+				contents.append(bases.substring(i, Math.min(i + 50, bases.length())) + "\n");
+			}
+		}
+		fasta = new IndexedFastaFile(TestFastaIndex.writeFasta(contents.toString()).getPath());
+		repeats = new FeatureCollection<SingleInterval>(fasta.getReferenceCoordinateSpace());
+		for(int i = 0; i < 60; i++) {
+			Sequence seq = sequences.get(random.nextInt(sequences.size() - 1));
+			int start = random.nextInt(seq.getLength());
+			int end = Math.min(seq.getLength(), start + 1 + random.nextInt(150));
+			repeats.add(new SingleInterval(seq.getName(), start, end, Strand.POSITIVE));
+		}
+	}
+	
+	private String expected(boolean hardMask) {
+		StringBuilder rtrn = new StringBuilder();
+		for(Sequence seq : sequences) {
+			List<Annotation> regions = new ArrayList<Annotation>();
+			for(SingleInterval repeat : repeats) {
+				if(repeat.getReferenceName().equals(seq.getName())) {
+					regions.add(repeat);
+				}
+			}
+			String bases = (hardMask ? seq.hardMask(regions) : seq.softMask(regions)).getSequenceBases();
+			rtrn.append(">" + seq.getName() + "\n");
+			for(int i = 0; i < bases.length(); i += 50) {
+				rtrn.append(bases.substring(i, Math.min(i + 50, bases.length())) + "\n");
+			}
+		}
+		return rtrn.toString();
+	}
+	
+	@Test
+	public void testMask() throws IOException {
+		for(boolean hardMask : new boolean[] {false, true}) {
+			for(int numThreads : new int[] {1, 3}) {
+				SequenceMasker masker = new SequenceMasker(repeats);
+				masker.setHardMask(hardMask);
+				masker.setNumThreads(numThreads);
+				masker.setWindowSize(120);
+				File out = File.createTempFile("masked", ".fa");
+				out.deleteOnExit();
+				SequenceMasker.Summary summary = masker.mask(fasta, out);
+				assertEquals(sequences.size(), summary.getNumSequences());
+				assertEquals(expected(hardMask), new String(Files.readAllBytes(out.toPath()), StandardCharsets.US_ASCII));
+			}
+		}
+	}
+	
+}
@@ -0,0 +1,104 @@
+package guttmanlab.core.sequence;
+
+import static org.junit.Assert.assertEquals;
+import guttmanlab.core.annotation.Annotation.Strand;
+import guttmanlab.core.annotation.BlockedAnnotation;
+import guttmanlab.core.annotation.SingleInterval;
+import guttmanlab.core.annotationcollection.FeatureCollection;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestTranscriptSequenceExtractor {
+	
+	private List<Sequence> chromosomes;
+	private IndexedFastaFile fasta;
+	private FeatureCollection<BlockedAnnotation> genes;
+	
+	@Before
+	public void setUp() throws IOException {
+		Random random = new Random(7);
+		chromosomes = new ArrayList<Sequence>();
+		StringBuilder contents = new StringBuilder();
+		for(int c = 0; c < 3; c++) {
+			StringBuilder bases = new StringBuilder();
+			for(int i = 0; i < 3000; i++) {
+				bases.append("ACGTacgtN".charAt(random.nextInt(9)));
+			}
+			Sequence chr = new Sequence("chr" + (c + 1), bases.toString());
+			chromosomes.add(chr);
+			contents.append(">" + chr.getName() + "\n" + chr.getSequenceBases() + "\n");
+		}
+		fasta = new IndexedFastaFile(TestFastaIndex.writeFasta(contents.toString()).getPath());
+		genes = new FeatureCollection<BlockedAnnotation>(fasta.getReferenceCoordinateSpace());
+		for(int g = 0; g < 3000; g++) {
+			String chr = "chr" + (1 + random.nextInt(3));
+			Strand strand = random.nextBoolean() ? Strand.POSITIVE : Strand.NEGATIVE;
+			BlockedAnnotation gene = new BlockedAnnotation("gene" + g);
+			int start = random.nextInt(2500);
+			for(int b = 0; b < 1 + random.nextInt(4); b++) {
+				int end = start + 1 + random.nextInt(50);
+				gene.addBlocks(new SingleInterval(chr, start, end, strand));
+				start = end + 1 + random.nextInt(50);
+			}
+			genes.add(gene);
+		}
+	}
+	
+	@Test
+	public void testExtract() {
+		List<Sequence> expected = new ArrayList<Sequence>();
+		for(BlockedAnnotation gene : genes) {
+			expected.add(chromosomes.get(Integer.parseInt(gene.getReferenceName().substring(3)) - 1).getSubsequence(gene));
+		}
+		for(int numThreads : new int[] {1, 4}) {
+			TranscriptSequenceExtractor extractor = new TranscriptSequenceExtractor(fasta);
+			extractor.setNumThreads(numThreads);
+			List<Sequence> sequences = new ArrayList<Sequence>();
+			TranscriptSequenceExtractor.Summary summary = extractor.extract(genes, sequences::add);
+			assertEquals(expected, sequences);
+			assertEquals(genes.getNumAnnotations(), summary.getNumExtracted());
+		}
+	}
+	
+	@Test
+	public void testWrite() throws IOException {
+		genes.add(new BlockedAnnotation(new SingleInterval("chrUn", 10, 20, Strand.POSITIVE), "unplaced"));
+		File out = File.createTempFile("transcripts", ".fa");
+		out.deleteOnExit();
+		TranscriptSequenceExtractor extractor = new TranscriptSequenceExtractor(fasta);
+		extractor.setBasesPerLine(70);
+		TranscriptSequenceExtractor.Summary summary = extractor.write(genes, out.getPath());
+		assertEquals(1, summary.getNumSkipped());
+		List<Sequence> expected = new ArrayList<Sequence>();
+		extractor.extract(genes, expected::add);
+		assertEquals(expected, new ArrayList<Sequence>(new FastaFileIOImpl().readFromFile(out.getPath())));
+	}
+	
+	@Test
+	public void testUnstranded() {
+		BlockedAnnotation unstranded = new BlockedAnnotation("unstranded");
+		unstranded.addBlocks(new SingleInterval("chr1", 100, 150, Strand.BOTH));
+		unstranded.addBlocks(new SingleInterval("chr1", 200, 260, Strand.BOTH));
+		BlockedAnnotation positive = new BlockedAnnotation("positive");
+		positive.addBlocks(new SingleInterval("chr1", 100, 150, Strand.POSITIVE));
+		positive.addBlocks(new SingleInterval("chr1", 200, 260, Strand.POSITIVE));
+		FeatureCollection<BlockedAnnotation> annotations = new FeatureCollection<BlockedAnnotation>(fasta.getReferenceCoordinateSpace());
+		annotations.add(unstranded);
+		TranscriptSequenceExtractor extractor = new TranscriptSequenceExtractor(fasta);
+		List<Sequence> sequences = new ArrayList<Sequence>();
+		TranscriptSequenceExtractor.Summary summary = extractor.extract(annotations, sequences::add);
+		assertEquals(1, summary.getNumExtracted());
+		assertEquals(1, summary.getNumUnstranded());
+		assertEquals(0, summary.getNumSkipped());
+		assertEquals("unstranded", sequences.get(0).getName());
+		assertEquals(fasta.getSubsequence(positive).getSequenceBases(), sequences.get(0).getSequenceBases());
+	}
+	
+}
@@ -0,0 +1,78 @@
+package guttmanlab.core.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import guttmanlab.core.util.ConcurrentUtils.OrderedExecutor;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class TestConcurrentUtils {
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testCheckNumThreads() {
+		assertEquals(3, ConcurrentUtils.checkNumThreads(3));
+		ConcurrentUtils.checkNumThreads(0);
+	}
+	
+	@Test
+	public void testOrderAndBound() {
+		int numThreads = 3;
+		List<Integer> results = new ArrayList<Integer>();
+		AtomicInteger started = new AtomicInteger();
+		try(OrderedExecutor<Integer, RuntimeException> executor = new OrderedExecutor<Integer, RuntimeException>(numThreads, "testing", results::add)) {
+			for(int i = 0; i < 100; i++) {
+				int task = i;
+				executor.submit(() -> {
+					started.incrementAndGet();
+					Thread.sleep((task * 7) % 5);
+					return Integer.valueOf(task);
+				});
+				// Tasks not yet handled are the only ones that can have started
+				assertTrue(started.get() - results.size() <= 2 * numThreads);
+			}
+			executor.finish();
+		}
+		assertEquals(100, results.size());
+		for(int i = 0; i < 100; i++) {
+			assertEquals(i, results.get(i).intValue());
+		}
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testRuntimeExceptionRethrown() {
+		try(OrderedExecutor<Integer, RuntimeException> executor = new OrderedExecutor<Integer, RuntimeException>(1, "testing", result -> {})) {
+			executor.submit(() -> {
+				throw new IllegalArgumentException("bad task");
+			});
+			executor.finish();
+		}
+	}
+	
+	@Test
+	public void testIOExceptionRethrown() {
+		CompletableFuture<Integer> future = new CompletableFuture<Integer>();
+		future.completeExceptionally(new FileNotFoundException("missing"));
+		try {
+			ConcurrentUtils.getCheckedResult(future, "testing");
+			fail();
+		} catch(IOException e) {
+			assertTrue(e instanceof FileNotFoundException);
+		}
+		try {
+			ConcurrentUtils.getResult(future, "testing");
+			fail();
+		} catch(UncheckedIOException e) {
+			assertTrue(e.getCause() instanceof FileNotFoundException);
+		}
+	}
+
+}
@@ -0,0 +1,130 @@
+package guttmanlab.core.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.Test;
+
+public class TestFileUtils {
+	
+	private static String firstLine(File file) throws IOException {
+		BufferedReader reader = new BufferedReader(new InputStreamReader(FileUtils.openInputStream(file)));
+		String rtrn = reader.readLine();
+		reader.close();
+		return rtrn;
+	}
+	
+	@Test
+	public void testPlainAndGzipped() throws IOException {
+		File plain = File.createTempFile("test", ".txt");
+		plain.deleteOnExit();
+		OutputStream out = new FileOutputStream(plain);
+		out.write("plain\n".getBytes());
+		out.close();
+		File gzipped = File.createTempFile("test", ".txt");
+		gzipped.deleteOnExit();
+		// Two gzip members, as written by bgzip or by concatenating files
+		out = new FileOutputStream(gzipped);
+		GZIPOutputStream member = new GZIPOutputStream(out);
+		member.write("gzip".getBytes());
+		member.finish();
+		member = new GZIPOutputStream(out);
+		member.write("ped\n".getBytes());
+		member.close();
+		assertFalse(FileUtils.isGzipped(plain));
+		assertTrue(FileUtils.isGzipped(gzipped));
+		assertEquals("plain", firstLine(plain));
+		assertEquals("gzipped", firstLine(gzipped));
+	}
+	
+	/**
+	 * Returns some bytes and then fails with the given exception
+	 */
+	private static class FailingInputStream extends InputStream {
+		
+		private final RuntimeException failure;
+		private int remaining = 10;
+		
+		FailingInputStream(RuntimeException failure) {
+			this.failure = failure;
+		}
+		
+		@Override
+		public int read() {
+			if(remaining == 0) {
+				throw failure;
+			}
+			remaining--;
+			return 'A';
+		}
+	}
+	
+	@Test
+	public void testReadAheadRethrowsFailure() throws IOException {
+		IllegalStateException failure = new IllegalStateException("corrupt");
+		InputStream in = new FileUtils.ReadAheadInputStream(new FailingInputStream(failure), "test");
+		byte[] buffer = new byte[100];
+		try {
+			in.read(buffer);
+			fail("Expected the failure of the source");
+		} catch(IllegalStateException e) {
+			assertSame(failure, e);
+		} finally {
+			in.close();
+		}
+	}
+	
+	/**
+	 * An endless stream that records whether it was closed during a read
+	 */
+	private static class EndlessInputStream extends InputStream {
+		
+		private volatile boolean reading;
+		private volatile boolean closedWhileReading;
+		private volatile boolean closed;
+		
+		@Override
+		public int read() {
+			return 'A';
+		}
+		
+		@Override
+		public int read(byte[] b, int off, int len) {
+			reading = true;
+			Arrays.fill(b, off, off + len, (byte) 'A');
+			Thread.yield();
+			reading = false;
+			return len;
+		}
+		
+		@Override
+		public void close() {
+			closedWhileReading = reading;
+			closed = true;
+		}
+	}
+	
+	@Test(timeout = 10000)
+	public void testReadAheadClose() throws IOException {
+		EndlessInputStream source = new EndlessInputStream();
+		InputStream in = new FileUtils.ReadAheadInputStream(source, "test");
+		assertEquals('A', in.read());
+		in.close();
+		assertTrue(source.closed);
+		assertFalse(source.closedWhileReading);
+	}
+
+}
@@ -1,12 +1,40 @@
 package guttmanlab.core.util;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import guttmanlab.core.alignment.LocalAlignmentUtils;
+
+import java.util.Collection;
+
 import org.junit.Test;
 
 public class TestMismatchGenerator {
 	
 	@Test
-	public void dummyTest() {
-		System.err.println("No tests in " + TestMismatchGenerator.class.getSimpleName());
+	public void testGetRepresentatives() {
+		assertEquals(1, MismatchGenerator.getRepresentatives("acgt", 0).size());
+		Collection<String> one = MismatchGenerator.getRepresentatives("acgt", 1);
+		assertTrue(one.contains("ACGA"));
+		assertTrue(one.contains("TCGT"));
+		for(String seq : one) {
+			assertTrue(LocalAlignmentUtils.hammingDist(seq, "ACGT", false) <= 1);
+		}
+		assertEquals(12, one.size() - (one.contains("ACGT") ? 1 : 0));
+		Collection<String> two = MismatchGenerator.getRepresentatives("ACGTAC", 2);
+		int exactlyTwo = 0;
+		for(String seq : two) {
+			int distance = LocalAlignmentUtils.hammingDist(seq, "ACGTAC", false);
+			assertTrue(distance <= 2);
+			if(distance == 2) exactlyTwo++;
+		}
+		// 6 choose 2 pairs of positions, 3 other bases at each
+		assertEquals(15 * 9, exactlyTwo);
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidChar() {
+		MismatchGenerator.getRepresentatives("ACNT", 1);
 	}
 
 }
@@ -1,6 +1,7 @@
 package suite;
 
 import guttmanlab.core.alignment.TestLocalAlignmentUtils;
+import guttmanlab.core.alignment.TestPatternMatcher;
 import guttmanlab.core.alignment.TestSmithWatermanAlignment;
 import guttmanlab.core.annotation.TestAbstractAnnotation;
 import guttmanlab.core.annotation.TestAnnotation;
@@ -11,6 +12,7 @@ import guttmanlab.core.annotation.TestBlockedAnnotation;
 import guttmanlab.core.annotation.TestContiguousWindow;
 import guttmanlab.core.annotation.TestDerivedAnnotation;
 import guttmanlab.core.annotation.TestGene;
+import guttmanlab.core.annotation.TestIntervalBuilder;
 import guttmanlab.core.annotation.TestMappedFragment;
 import guttmanlab.core.annotation.TestPairedMappedFragment;
 import guttmanlab.core.annotation.TestPopulatedWindow;
@@ -23,6 +25,7 @@ import guttmanlab.core.annotation.predicate.TestContainedByFilter;
 import guttmanlab.core.annotation.predicate.TestIndelFilter;
 import guttmanlab.core.annotation.predicate.TestInsertSizeFilter;
 import guttmanlab.core.annotation.predicate.TestMappedReadFilter;
+import guttmanlab.core.annotation.predicate.TestMappingQualityFilter;
 import guttmanlab.core.annotation.predicate.TestMaximumLengthFilter;
 import guttmanlab.core.annotation.predicate.TestMinimumLengthFilter;
 import guttmanlab.core.annotation.predicate.TestOverlapsFilter;
@@ -38,16 +41,24 @@ import guttmanlab.core.annotationcollection.TestBAMPairedFragmentCollection;
 import guttmanlab.core.annotationcollection.TestBAMSingleReadCollection;
 import guttmanlab.core.annotationcollection.TestConvertedSpace;
 import guttmanlab.core.annotationcollection.TestFeatureCollection;
+import guttmanlab.core.annotationcollection.TestFilterChain;
 import guttmanlab.core.annotationcollection.TestFilteredIterator;
+import guttmanlab.core.annotationcollection.TestMaximalSegmentFinder;
+import guttmanlab.core.annotationcollection.TestMultiSampleCoverage;
 import guttmanlab.core.annotationcollection.TestNameIgnoringIterator;
+import guttmanlab.core.annotationcollection.TestOffHeapReadCollection;
+import guttmanlab.core.annotationcollection.TestOverlapEnrichment;
+import guttmanlab.core.annotationcollection.TestRecordFilterPushDown;
 import guttmanlab.core.coordinatespace.TestCoordinateSpace;
 import guttmanlab.core.coordinatespace.TestGenomeSize;
 import guttmanlab.core.datastructures.TestInterval;
 import guttmanlab.core.datastructures.TestIntervalTree;
 import guttmanlab.core.datastructures.TestPair;
+import guttmanlab.core.math.TestMaximalSegments;
 import guttmanlab.core.math.TestMaximumContiguousSubsequence;
 import guttmanlab.core.math.TestScanStat;
 import guttmanlab.core.math.TestStatistics;
+import guttmanlab.core.math.TestStreamingStatistics;
 import guttmanlab.core.pipeline.TestConfigFile;
 import guttmanlab.core.pipeline.TestConfigFileOption;
 import guttmanlab.core.pipeline.TestConfigFileOptionValue;
@@ -58,14 +69,28 @@ import guttmanlab.core.pipeline.TestLSFJob;
 import guttmanlab.core.pipeline.TestOGSJob;
 import guttmanlab.core.pipeline.TestOGSUtils;
 import guttmanlab.core.pipeline.TestScheduler;
+import guttmanlab.core.pipeline.util.TestAdapterClipper;
 import guttmanlab.core.pipeline.util.TestBamUtils;
+import guttmanlab.core.pipeline.util.TestBarcodeDemultiplexer;
+import guttmanlab.core.pipeline.util.TestBarcodeTable;
 import guttmanlab.core.pipeline.util.TestFastaUtils;
 import guttmanlab.core.pipeline.util.TestFastqParser;
+import guttmanlab.core.pipeline.util.TestFastqReader;
+import guttmanlab.core.pipeline.util.TestFastqRecord;
 import guttmanlab.core.pipeline.util.TestFastqSequence;
 import guttmanlab.core.pipeline.util.TestFastqUtils;
+import guttmanlab.core.pipeline.util.TestPairedFastqSynchronizer;
+import guttmanlab.core.pipeline.util.TestPeakCaller;
 import guttmanlab.core.sequence.TestFastaFileIO;
 import guttmanlab.core.sequence.TestSequence;
+import guttmanlab.core.sequence.TestSequenceMasker;
+import guttmanlab.core.sequence.TestTranscriptSequenceExtractor;
 import guttmanlab.core.sequence.TestFastaFileIOImpl;
+import guttmanlab.core.sequence.TestFastaIndex;
+import guttmanlab.core.sequence.TestFastaIterator;
+import guttmanlab.core.sequence.TestIndexedFastaFile;
+import guttmanlab.core.sequence.TestKmerIndex;
+import guttmanlab.core.sequence.TestPackedSequence;
 import guttmanlab.core.serialize.TestAbstractAvroIndex;
 import guttmanlab.core.serialize.TestAvroIndex;
 import guttmanlab.core.serialize.TestAvroStringIndex;
@@ -74,7 +99,9 @@ import guttmanlab.core.serialize.sam.TestAvroSamRecord;
 import guttmanlab.core.serialize.sam.TestAvroSamStringIndex;
 import guttmanlab.core.serialize.sam.TestSerializeBam;
 import guttmanlab.core.util.TestCommandLineParser;
+import guttmanlab.core.util.TestConcurrentUtils;
 import guttmanlab.core.util.TestCountLogger;
+import guttmanlab.core.util.TestFileUtils;
 import guttmanlab.core.util.TestMismatchGenerator;
 import guttmanlab.core.util.TestSAMFlagDecoder;
 import guttmanlab.core.util.TestStringParser;
@@ -86,6 +113,7 @@ import org.junit.runners.Suite;
 @Suite.SuiteClasses({
 	// alignment
 	TestLocalAlignmentUtils.class,
+	TestPatternMatcher.class,
 	TestSmithWatermanAlignment.class,
 	// annotation
 	TestAbstractAnnotation.class,
@@ -97,6 +125,7 @@ import org.junit.runners.Suite;
 	TestContiguousWindow.class,
 	TestDerivedAnnotation.class,
 	TestGene.class,
+	TestIntervalBuilder.class,
 	TestMappedFragment.class,
 	TestPairedMappedFragment.class,
 	TestPopulatedWindow.class,
@@ -111,6 +140,7 @@ import org.junit.runners.Suite;
 	TestIndelFilter.class,
 	TestInsertSizeFilter.class,
 	TestMappedReadFilter.class,
+	TestMappingQualityFilter.class,
 	TestMaximumLengthFilter.class,
 	TestMinimumLengthFilter.class,
 	TestOverlapsFilter.class,
@@ -127,8 +157,14 @@ import org.junit.runners.Suite;
 	TestBAMSingleReadCollection.class,
 	TestConvertedSpace.class,
 	TestFeatureCollection.class,
+	TestFilterChain.class,
 	TestFilteredIterator.class,
+	TestMaximalSegmentFinder.class,
+	TestMultiSampleCoverage.class,
 	TestNameIgnoringIterator.class,
+	TestOffHeapReadCollection.class,
+	TestOverlapEnrichment.class,
+	TestRecordFilterPushDown.class,
 	// coordinatespace
 	TestCoordinateSpace.class,
 	TestGenomeSize.class,
@@ -137,9 +173,11 @@ import org.junit.runners.Suite;
 	TestIntervalTree.class,
 	TestPair.class,
 	// math
+	TestMaximalSegments.class,
 	TestMaximumContiguousSubsequence.class,
 	TestScanStat.class,
 	TestStatistics.class,
+	TestStreamingStatistics.class,
 	// pipeline
 	TestConfigFile.class,
 	TestConfigFileOption.class,
@@ -152,15 +190,29 @@ import org.junit.runners.Suite;
 	TestOGSUtils.class,
 	TestScheduler.class,
 	// pipeline.util
+	TestAdapterClipper.class,
 	TestBamUtils.class,
+	TestBarcodeDemultiplexer.class,
+	TestBarcodeTable.class,
 	TestFastaUtils.class,
 	TestFastqParser.class,
+	TestFastqReader.class,
+	TestFastqRecord.class,
 	TestFastqSequence.class,
 	TestFastqUtils.class,
+	TestPairedFastqSynchronizer.class,
+	TestPeakCaller.class,
 	// sequence
 	TestFastaFileIO.class,
 	TestFastaFileIOImpl.class,
+	TestFastaIndex.class,
+	TestFastaIterator.class,
+	TestIndexedFastaFile.class,
+	TestKmerIndex.class,
+	TestPackedSequence.class,
 	TestSequence.class,
+	TestSequenceMasker.class,
+	TestTranscriptSequenceExtractor.class,
 	// serialize
 	TestAbstractAvroIndex.class,
 	TestAvroIndex.class,
@@ -172,7 +224,9 @@ import org.junit.runners.Suite;
 	TestSerializeBam.class,
 	// util
 	TestCommandLineParser.class,
+	TestConcurrentUtils.class,
 	TestCountLogger.class,
+	TestFileUtils.class,
 	TestMismatchGenerator.class,
 	TestSAMFlagDecoder.class,
 	TestStringParser.class